@@ -37,6 +37,12 @@ public class ArduinoMsgGenerator {
 
   static final List<String> deviceList = new ArrayList<String>();
 
+  /**
+   * callbacks which are called directly instead of invoked - the Arduino
+   * publishes what they produce itself (e.g. only the pins which changed)
+   */
+  static final HashSet<String> directCallbacks = new HashSet<String>();
+
   /**
    * supresses building of MrlComm::{Name} method if method already exists in
    * Arduino
@@ -49,6 +55,8 @@ public class ArduinoMsgGenerator {
     keywords.add("digitalWrite");
     keywords.add("analogWrite");
 
+    directCallbacks.add("publishPinArray");
+
     // ------ device type mapping constants
 
     // add your mrl devices
@@ -655,8 +663,9 @@ public class ArduinoMsgGenerator {
       methodSnr.put("cppHandleCase", "");
       methodSnr.put("cppGeneratedCallBacks", "");
 
-      methodSnr.put("javaHandleCase", javaCaseHeader.toString() + javaCaseArduinoMethod + javaCaseParams + javaCaseArduinoMethodComment + javaCaseParams + "\n      }\n"
-          + javaCaseRecord + "      }\n" + javaCaseFooter);
+      String javaCaseCall = (directCallbacks.contains(name)) ? "      arduino." + name + "(" + javaCaseParams + ");\n"
+          : javaCaseArduinoMethod.toString() + javaCaseParams + javaCaseArduinoMethodComment + javaCaseParams + "\n      }\n";
+      methodSnr.put("javaHandleCase", javaCaseHeader.toString() + javaCaseCall + javaCaseRecord + "      }\n" + javaCaseFooter);
       methodSnr.put("javaGeneratedCallBack", javaGeneratedCallback + javaMethodParameters.toString() + "){}\n");
       methodSnr.put("javaMethod", "");
 
@@ -457,11 +457,7 @@ public class Msg {
     case PUBLISH_PIN_ARRAY: {
       int[] data = subArray(ioCmd, startPos+2, ioCmd[startPos+1]);
       startPos += 1 + ioCmd[startPos+1];
-      if(invoke){
-        arduino.invoke("publishPinArray",  data);
-      } else { 
-         arduino.publishPinArray( data);
-      }
+      arduino.publishPinArray( data);
       if(record != null){
         rxBuffer.append("< publishPinArray");
         rxBuffer.append("/");
@@ -0,0 +1,166 @@
+package org.myrobotlab.arduino;
+
+import java.util.Arrays;
+
+import org.myrobotlab.service.data.PinArray;
+
+/**
+ * Turns the pin array of every MrlComm poll cycle into a change only
+ * PinArray. A pin counts as changed when it is seen for the first time, when
+ * its value moved more than its deadband from the last published value, or
+ * when it crossed its threshold.
+ *
+ * Per pin state is kept in primitive arrays indexed by pin address. Not thread
+ * safe - it is driven by the serial receiving thread.
+ */
+public class PinArrayTracker {
+
+  final static int NO_THRESHOLD = Integer.MIN_VALUE;
+
+  int[] lastPublished = new int[0];
+  boolean[] seen = new boolean[0];
+  int[] deadband = new int[0];
+  int[] threshold = new int[0];
+
+  // scratch for the current cycle
+  int[] addresses = new int[16];
+  int[] values = new int[16];
+  String[] names = new String[16];
+  int count = 0;
+
+  long cycles = 0;
+  long published = 0;
+
+  void ensureAddress(int address) {
+    if (address >= seen.length) {
+      int size = Math.max(address + 1, seen.length * 2);
+      int oldSize = seen.length;
+      lastPublished = Arrays.copyOf(lastPublished, size);
+      seen = Arrays.copyOf(seen, size);
+      deadband = Arrays.copyOf(deadband, size);
+      threshold = Arrays.copyOf(threshold, size);
+      Arrays.fill(threshold, oldSize, size, NO_THRESHOLD);
+    }
+  }
+
+  /**
+   * value must move more than deadband from the last published value to be
+   * reported - 0 reports every change
+   */
+  synchronized public void setDeadband(int address, int value) {
+    ensureAddress(address);
+    deadband[address] = Math.max(0, value);
+  }
+
+  /**
+   * value is reported whenever it crosses the threshold regardless of the
+   * deadband
+   */
+  synchronized public void setThreshold(int address, int value) {
+    ensureAddress(address);
+    threshold[address] = value;
+  }
+
+  synchronized public void clearThreshold(int address) {
+    ensureAddress(address);
+    threshold[address] = NO_THRESHOLD;
+  }
+
+  /**
+   * start a new poll cycle
+   */
+  public void begin() {
+    count = 0;
+  }
+
+  public void add(int address, String name, int value) {
+    if (count == addresses.length) {
+      addresses = Arrays.copyOf(addresses, count * 2);
+      values = Arrays.copyOf(values, count * 2);
+      names = Arrays.copyOf(names, count * 2);
+    }
+    addresses[count] = address;
+    values[count] = value;
+    names[count] = name;
+    ++count;
+  }
+
+  /**
+   * finish the poll cycle
+   *
+   * @return a snapshot with the change mask set, or null if nothing changed
+   */
+  synchronized public PinArray end() {
+    ++cycles;
+    PinArray pins = null;
+    for (int i = 0; i < count; ++i) {
+      int address = addresses[i];
+      ensureAddress(address);
+      int value = values[i];
+      if (isChanged(address, value)) {
+        if (pins == null) {
+          pins = snapshot();
+        }
+        pins.setChanged(i);
+        lastPublished[address] = value;
+        seen[address] = true;
+      }
+    }
+    if (pins != null) {
+      ++published;
+    }
+    return pins;
+  }
+
+  boolean isChanged(int address, int value) {
+    if (!seen[address]) {
+      return true;
+    }
+    int last = lastPublished[address];
+    int t = threshold[address];
+    if (t != NO_THRESHOLD && ((value >= t) != (last >= t))) {
+      return true;
+    }
+    return Math.abs(value - last) > deadband[address];
+  }
+
+  PinArray snapshot() {
+    PinArray pins = new PinArray(count);
+    System.arraycopy(addresses, 0, pins.address, 0, count);
+    System.arraycopy(values, 0, pins.value, 0, count);
+    System.arraycopy(names, 0, pins.pin, 0, count);
+    return pins;
+  }
+
+  /**
+   * runs the cycle another tracker was just given through this one - trackers
+   * with different deadbands and thresholds share the parsing of a cycle
+   *
+   * @param cycle
+   *          tracker which has been given the current cycle
+   * @return a snapshot with the change mask set, or null if nothing changed
+   */
+  public PinArray update(PinArrayTracker cycle) {
+    begin();
+    for (int i = 0; i < cycle.count; ++i) {
+      add(cycle.addresses[i], cycle.names[i], cycle.values[i]);
+    }
+    return end();
+  }
+
+  /**
+   * forget published values - the next cycle reports every pin
+   */
+  synchronized public void reset() {
+    Arrays.fill(seen, false);
+  }
+
+  public long getCycleCount() {
+    return cycles;
+  }
+
+  public long getPublishedCount() {
+    return published;
+  }
+
+}
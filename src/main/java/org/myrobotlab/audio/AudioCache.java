@@ -0,0 +1,377 @@
+package org.myrobotlab.audio;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Bounded index of generated audio files under a cache directory. Presence is
+ * answered from memory rather than the filesystem, the total size, number of
+ * entries and age of entries are bounded - least recently or least frequently
+ * used entries are deleted when a limit is exceeded.
+ *
+ * The directory is scanned once by index() - until then lookups fall back to
+ * File.exists().
+ *
+ * Victims are found without scanning - the LRU victim is the eldest entry of
+ * the access ordered index, the LFU victim the first of a set ordered by hits
+ * and last access, and expired entries are at the head of a set ordered by
+ * creation time.
+ */
+public class AudioCache {
+
+  public final static Logger log = LoggerFactory.getLogger(AudioCache.class);
+
+  public enum Policy {
+    LRU, LFU
+  }
+
+  static class Entry {
+    final File file;
+    final long size;
+    final long created;
+    /**
+     * tie breaker for the ordered sets
+     */
+    final long seq;
+    long lastAccess;
+    int hits;
+
+    Entry(File file, long size, long created, long seq) {
+      this.file = file;
+      this.size = size;
+      this.created = created;
+      this.seq = seq;
+      this.lastAccess = created;
+    }
+  }
+
+  final static Comparator<Entry> BY_USE = Comparator.<Entry> comparingInt(e -> e.hits).thenComparingLong(e -> e.lastAccess).thenComparingLong(e -> e.seq);
+
+  final static Comparator<Entry> BY_AGE = Comparator.<Entry> comparingLong(e -> e.created).thenComparingLong(e -> e.seq);
+
+  final File root;
+  final String rootPath;
+
+  /**
+   * access ordered - the eldest entry is the least recently used
+   */
+  final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(1024, 0.75f, true);
+
+  /**
+   * least frequently used first - an entry is re-inserted when its hits change
+   */
+  final TreeSet<Entry> byUse = new TreeSet<Entry>(BY_USE);
+
+  /**
+   * oldest first
+   */
+  final TreeSet<Entry> byAge = new TreeSet<Entry>(BY_AGE);
+
+  long seq = 0;
+
+  volatile boolean indexed = false;
+
+  Policy policy = Policy.LRU;
+  long maxBytes = 512L * 1024 * 1024;
+  int maxEntries = 100000;
+  long maxAgeMs = 0;
+
+  long bytes = 0;
+  long hits = 0;
+  long misses = 0;
+  long evictions = 0;
+
+  public AudioCache(String root) {
+    this.root = new File(root).getAbsoluteFile();
+    this.rootPath = this.root.getPath() + File.separator;
+  }
+
+  /**
+   * scans the cache directory and builds the index - existing entries are
+   * ordered by modification time so the oldest are evicted first
+   */
+  public void index() {
+    long start = System.currentTimeMillis();
+    List<File> files = new ArrayList<File>();
+    scan(root, files);
+    Collections.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+    synchronized (this) {
+      // entries looked up before indexing are the most recently used
+      Map<String, Entry> used = new LinkedHashMap<String, Entry>(index);
+      index.clear();
+      byUse.clear();
+      byAge.clear();
+      bytes = 0;
+      for (File file : files) {
+        String key = file.getPath();
+        if (!used.containsKey(key)) {
+          link(new Entry(file, file.length(), file.lastModified(), ++seq));
+        }
+      }
+      for (Entry entry : used.values()) {
+        link(entry);
+      }
+      indexed = true;
+      expire();
+      evict();
+    }
+    log.info("indexed {} audio files {} bytes in {} ms", index.size(), bytes, System.currentTimeMillis() - start);
+  }
+
+  void scan(File dir, List<File> files) {
+    File[] list = dir.listFiles();
+    if (list == null) {
+      return;
+    }
+    for (File file : list) {
+      if (file.isDirectory()) {
+        scan(file, files);
+      } else if (file.length() > 0) {
+        files.add(file);
+      }
+    }
+  }
+
+  /**
+   * @param filename
+   *          file name
+   * @return true if the file is inside the cache directory
+   */
+  public boolean isManaged(String filename) {
+    return filename != null && new File(filename).getAbsolutePath().startsWith(rootPath);
+  }
+
+  /**
+   * checks if a file is cached and counts the hit or miss
+   *
+   * @param filename
+   *          file name of the cached audio
+   * @return true if the file is available
+   */
+  public synchronized boolean lookup(String filename) {
+    String key = new File(filename).getAbsolutePath();
+    Entry entry = index.get(key);
+    if (entry == null && !indexed) {
+      File file = new File(key);
+      if (file.exists() && file.length() > 0) {
+        entry = new Entry(file, file.length(), file.lastModified(), ++seq);
+        link(entry);
+      }
+    }
+    if (entry != null && maxAgeMs > 0 && System.currentTimeMillis() - entry.created > maxAgeMs) {
+      unlink(key);
+      delete(entry);
+      entry = null;
+    }
+    if (entry != null && !entry.file.exists()) {
+      // deleted behind our back
+      unlink(key);
+      entry = null;
+    }
+    if (entry == null) {
+      ++misses;
+      return false;
+    }
+    ++hits;
+    byUse.remove(entry);
+    ++entry.hits;
+    entry.lastAccess = System.currentTimeMillis();
+    byUse.add(entry);
+    return true;
+  }
+
+  /**
+   * adds a newly generated file to the index and evicts if a limit is exceeded
+   *
+   * @param filename
+   *          file name of the generated audio
+   */
+  public synchronized void add(String filename) {
+    File file = new File(filename).getAbsoluteFile();
+    long size = file.length();
+    if (size == 0) {
+      return;
+    }
+    unlink(file.getPath());
+    Entry entry = new Entry(file, size, System.currentTimeMillis(), ++seq);
+    link(entry);
+    expire();
+    evict(entry);
+  }
+
+  public synchronized boolean remove(String filename) {
+    Entry entry = unlink(new File(filename).getAbsolutePath());
+    if (entry == null) {
+      return false;
+    }
+    entry.file.delete();
+    return true;
+  }
+
+  void link(Entry entry) {
+    index.put(entry.file.getPath(), entry);
+    byUse.add(entry);
+    byAge.add(entry);
+    bytes += entry.size;
+  }
+
+  Entry unlink(String key) {
+    Entry entry = index.remove(key);
+    if (entry != null) {
+      byUse.remove(entry);
+      byAge.remove(entry);
+      bytes -= entry.size;
+    }
+    return entry;
+  }
+
+  /**
+   * deletes every cached file
+   */
+  public synchronized void clear() {
+    for (Entry entry : index.values()) {
+      entry.file.delete();
+    }
+    index.clear();
+    byUse.clear();
+    byAge.clear();
+    bytes = 0;
+    List<File> files = new ArrayList<File>();
+    scan(root, files);
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  synchronized void evict() {
+    evict(null);
+  }
+
+  /**
+   * @param keep
+   *          a new entry which must not be the LFU victim - it has not had a
+   *          chance to be used yet
+   */
+  synchronized void evict(Entry keep) {
+    while (!index.isEmpty() && (bytes > maxBytes || index.size() > maxEntries)) {
+      Entry victim = null;
+      if (policy == Policy.LFU) {
+        Iterator<Entry> it = byUse.iterator();
+        victim = it.next();
+        if (victim == keep) {
+          victim = it.hasNext() ? it.next() : null;
+        }
+        if (victim == null) {
+          break;
+        }
+      } else {
+        victim = index.values().iterator().next();
+      }
+      unlink(victim.file.getPath());
+      delete(victim);
+    }
+  }
+
+  /**
+   * evicts entries older than maxAgeMs - only the expired head of the age
+   * ordered set is visited
+   */
+  synchronized void expire() {
+    if (maxAgeMs <= 0) {
+      return;
+    }
+    long oldest = System.currentTimeMillis() - maxAgeMs;
+    while (!byAge.isEmpty() && byAge.first().created < oldest) {
+      Entry entry = byAge.first();
+      unlink(entry.file.getPath());
+      delete(entry);
+    }
+  }
+
+  void delete(Entry entry) {
+    ++evictions;
+    if (!entry.file.delete()) {
+      log.warn("could not delete {}", entry.file);
+    }
+  }
+
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  public synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+    evict();
+  }
+
+  /**
+   * @param maxAgeMs
+   *          entries older than this are evicted - 0 disables age eviction
+   */
+  public synchronized void setMaxAge(long maxAgeMs) {
+    this.maxAgeMs = maxAgeMs;
+    expire();
+  }
+
+  public synchronized void setPolicy(Policy policy) {
+    this.policy = policy;
+  }
+
+  public boolean isIndexed() {
+    return indexed;
+  }
+
+  public synchronized int size() {
+    return index.size();
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized double getHitRatio() {
+    long total = hits + misses;
+    return (total == 0) ? 0 : (double) hits / total;
+  }
+
+  public synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<String, Object>();
+    stats.put("entries", index.size());
+    stats.put("bytes", bytes);
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("hitRatio", getHitRatio());
+    stats.put("evictions", evictions);
+    stats.put("policy", policy.toString());
+    return stats;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s %s", rootPath, getStats());
+  }
+
+}
@@ -0,0 +1,282 @@
+package org.myrobotlab.audio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Software mixer - any number of tracks are mixed with their own gain, balance
+ * and ducking into a single 16 bit stereo stream written to one AudioSink.
+ * Volume is applied in software so it works on lines without gain controls.
+ *
+ * The mixer thread writes a period at a time, a LineSink paces it at the sound
+ * card rate. mix() can be called directly (e.g. with a NullSink) to mix as
+ * fast as possible.
+ */
+public class AudioMixer implements Runnable {
+
+  public final static Logger log = LoggerFactory.getLogger(AudioMixer.class);
+
+  final AudioFormat format;
+  final int period;
+
+  AudioSink sink;
+  boolean sinkOpen = false;
+
+  final List<MixerTrack> tracks = new CopyOnWriteArrayList<MixerTrack>();
+
+  final float[] mix;
+  final byte[] out;
+
+  volatile float masterGain = 1.0f;
+
+  /**
+   * gain applied to the other tracks while a ducking track plays
+   */
+  volatile float duckGain = 0.3f;
+
+  /**
+   * ducking gain change per period - ramps avoid clicks
+   */
+  float duckRamp = 0.05f;
+  float duckLevel = 1.0f;
+
+  transient Thread thread;
+  volatile boolean running = false;
+
+  long periods = 0;
+  long clipped = 0;
+  long mixNanos = 0;
+
+  public AudioMixer() {
+    this(new AudioFormat(44100, 16, 2, true, false), 1024, new LineSink());
+  }
+
+  public AudioMixer(AudioFormat format, int period, AudioSink sink) {
+    if (format.getChannels() != 2 || format.getSampleSizeInBits() != 16) {
+      throw new IllegalArgumentException("mixer output must be 16 bit stereo");
+    }
+    this.format = format;
+    this.period = period;
+    this.sink = sink;
+    this.mix = new float[period * 2];
+    this.out = new byte[period * 4];
+  }
+
+  /**
+   * adds a sound to the mix
+   *
+   * @param name
+   *          track name
+   * @param in
+   *          16 bit signed pcm at any rate, mono or stereo
+   * @return the track - for gain, balance and waiting on it
+   */
+  public MixerTrack play(String name, AudioInputStream in) {
+    MixerTrack track = new MixerTrack(name, in, format.getSampleRate(), period);
+    tracks.add(track);
+    synchronized (this) {
+      notifyAll();
+    }
+    return track;
+  }
+
+  /**
+   * mixes and writes one period
+   *
+   * @return number of tracks which contributed
+   * @throws Exception
+   *           on sink error
+   */
+  public int mix() throws Exception {
+    if (!sinkOpen) {
+      sink.open(format);
+      sinkOpen = true;
+    }
+    long start = System.nanoTime();
+    Arrays.fill(mix, 0);
+
+    boolean duck = false;
+    for (MixerTrack track : tracks) {
+      if (track.ducking && !track.finished && !track.paused) {
+        duck = true;
+        break;
+      }
+    }
+    float duckStart = duckLevel;
+    if (duck) {
+      duckLevel = Math.max(duckGain, duckLevel - duckRamp);
+    } else {
+      duckLevel = Math.min(1.0f, duckLevel + duckRamp);
+    }
+
+    int active = 0;
+    List<MixerTrack> done = null;
+    for (MixerTrack track : tracks) {
+      try {
+        int n = (track.ducking) ? track.mix(mix, period, 1.0f, 1.0f) : track.mix(mix, period, duckStart, duckLevel);
+        if (n > 0) {
+          ++active;
+        }
+      } catch (IOException e) {
+        log.error("track {} threw", track.getName(), e);
+        track.close();
+      }
+      if (track.finished) {
+        if (done == null) {
+          done = new ArrayList<MixerTrack>();
+        }
+        done.add(track);
+      }
+    }
+    if (done != null) {
+      tracks.removeAll(done);
+      for (MixerTrack track : done) {
+        track.close();
+      }
+    }
+
+    float gain = masterGain;
+    int o = 0;
+    for (int i = 0; i < mix.length; ++i) {
+      float v = mix[i] * gain;
+      if (v > 1.0f) {
+        v = 1.0f;
+        ++clipped;
+      } else if (v < -1.0f) {
+        v = -1.0f;
+        ++clipped;
+      }
+      int s = (int) (v * 32767);
+      out[o++] = (byte) s;
+      out[o++] = (byte) (s >> 8);
+    }
+    mixNanos += System.nanoTime() - start;
+    ++periods;
+    sink.write(out, 0, out.length);
+    return active;
+  }
+
+  @Override
+  public void run() {
+    log.info("mixer started {}", format);
+    try {
+      while (running) {
+        if (tracks.isEmpty()) {
+          synchronized (this) {
+            if (tracks.isEmpty()) {
+              wait(100);
+            }
+          }
+          continue;
+        }
+        mix();
+      }
+    } catch (InterruptedException e) {
+      log.info("mixer interrupted");
+    } catch (Exception e) {
+      log.error("mixer threw", e);
+    } finally {
+      running = false;
+      for (MixerTrack track : tracks) {
+        track.close();
+      }
+      tracks.clear();
+      if (sinkOpen) {
+        sink.close();
+        sinkOpen = false;
+      }
+      log.info("mixer stopped");
+    }
+  }
+
+  public synchronized void start() {
+    if (thread == null || !thread.isAlive()) {
+      running = true;
+      thread = new Thread(this, "mixer");
+      thread.start();
+    }
+  }
+
+  public void stop() {
+    running = false;
+    Thread t = thread;
+    if (t != null) {
+      t.interrupt();
+      try {
+        t.join(1000);
+      } catch (InterruptedException e) {
+      }
+    }
+    thread = null;
+  }
+
+  /**
+   * swaps the output - a running mixer is restarted, tracks playing are
+   * stopped
+   */
+  public synchronized void setSink(AudioSink sink) {
+    boolean restart = running;
+    if (restart) {
+      stop();
+    } else if (sinkOpen) {
+      this.sink.close();
+      sinkOpen = false;
+    }
+    this.sink = sink;
+    if (restart) {
+      start();
+    }
+  }
+
+  public AudioSink getSink() {
+    return sink;
+  }
+
+  public void setMasterGain(double gain) {
+    masterGain = (float) gain;
+  }
+
+  public void setDuckGain(double gain) {
+    duckGain = (float) gain;
+  }
+
+  public List<MixerTrack> getTracks() {
+    return tracks;
+  }
+
+  public AudioFormat getFormat() {
+    return format;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return number of samples which were clipped
+   */
+  public long getClipped() {
+    return clipped;
+  }
+
+  public long getPeriods() {
+    return periods;
+  }
+
+  /**
+   * @return total time spent mixing - including the tracks
+   */
+  public long getMixNanos() {
+    return mixNanos;
+  }
+
+}
@@ -116,6 +116,11 @@ public class AudioProcessor extends Thread {
       AudioFormat decodedFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, baseFormat.getSampleRate(), 16, baseFormat.getChannels(), baseFormat.getChannels() * 2,
           baseFormat.getSampleRate(), false);
       din = AudioSystem.getAudioInputStream(decodedFormat, in);
+
+      if (audioFile.isMixing()) {
+        return playMixed(data, din);
+      }
+
       DataLine.Info info = new DataLine.Info(SourceDataLine.class, decodedFormat);
       SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info);
 
@@ -127,6 +132,7 @@ public class AudioProcessor extends Thread {
         line.start();
 
         int nBytesRead = 0;
+        Double appliedVolume = null;
 
         isPlaying = true;
 
@@ -153,7 +159,9 @@ public class AudioProcessor extends Thread {
             data.volume = volume;
           }
 
-          if (data.volume != null) {
+          // only touch the gain control when the volume changes
+          if (data.volume != null && !data.volume.equals(appliedVolume)) {
+            appliedVolume = data.volume;
 
             if (line.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
 
@@ -246,6 +254,38 @@ public class AudioProcessor extends Thread {
     return data;
   }
 
+  /**
+   * plays through the software mixer - the track shares one output line with
+   * all other tracks and its volume is applied in software
+   */
+  AudioData playMixed(AudioData data, AudioInputStream din) throws InterruptedException {
+    MixerTrack mixerTrack = audioFile.getMixer().play(track, din);
+    mixerTrack.setBalance(targetBalance);
+    mixerTrack.setDucking(audioFile.isDucking(track));
+    isPlaying = true;
+
+    audioFile.invoke("publishAudioStart", data);
+
+    do {
+      if (!isPlaying) {
+        mixerTrack.stop();
+        break;
+      }
+      if (data.volume == null) {
+        data.volume = volume;
+      }
+      mixerTrack.setGain((audioFile.isMute()) ? 0 : data.volume);
+      mixerTrack.setPaused(data.waitForLock != null);
+    } while (!mixerTrack.waitFor(50));
+
+    audioFile.invoke("publishAudioEnd", data);
+
+    synchronized (data) {
+      data.notifyAll();
+    }
+    return data;
+  }
+
   @Override
   public void run() {
     isRunning = true;
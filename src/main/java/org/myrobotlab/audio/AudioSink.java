@@ -0,0 +1,21 @@
+package org.myrobotlab.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Destination of the mixed PCM stream - a sound card line, a wav file or
+ * nothing at all (headless / tests / benchmarks)
+ */
+public interface AudioSink {
+
+  void open(AudioFormat format) throws Exception;
+
+  /**
+   * writes interleaved PCM - may block to pace the mixer (e.g. a sound card
+   * line)
+   */
+  void write(byte[] buffer, int offset, int length) throws Exception;
+
+  void close();
+
+}
@@ -0,0 +1,86 @@
+package org.myrobotlab.audio;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * writes the mixed audio to a 16 bit pcm wav file
+ */
+public class FileSink implements AudioSink {
+
+  public final static Logger log = LoggerFactory.getLogger(FileSink.class);
+
+  final static int HEADER_SIZE = 44;
+
+  String filename;
+  RandomAccessFile file;
+  AudioFormat format;
+  long bytes;
+
+  public FileSink(String filename) {
+    this.filename = filename;
+  }
+
+  @Override
+  public void open(AudioFormat format) throws IOException {
+    this.format = format;
+    file = new RandomAccessFile(filename, "rw");
+    file.setLength(0);
+    file.write(header(0));
+    bytes = 0;
+  }
+
+  byte[] header(long dataSize) {
+    ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    int channels = format.getChannels();
+    int rate = (int) format.getSampleRate();
+    int bits = format.getSampleSizeInBits();
+    bb.put("RIFF".getBytes());
+    bb.putInt((int) (36 + dataSize));
+    bb.put("WAVE".getBytes());
+    bb.put("fmt ".getBytes());
+    bb.putInt(16);
+    bb.putShort((short) 1); // pcm
+    bb.putShort((short) channels);
+    bb.putInt(rate);
+    bb.putInt(rate * channels * bits / 8);
+    bb.putShort((short) (channels * bits / 8));
+    bb.putShort((short) bits);
+    bb.put("data".getBytes());
+    bb.putInt((int) dataSize);
+    return bb.array();
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) throws IOException {
+    file.write(buffer, offset, length);
+    bytes += length;
+  }
+
+  @Override
+  public void close() {
+    if (file == null) {
+      return;
+    }
+    try {
+      file.seek(0);
+      file.write(header(bytes));
+      file.close();
+    } catch (IOException e) {
+      log.error("closing {} threw", filename, e);
+    }
+    file = null;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+}
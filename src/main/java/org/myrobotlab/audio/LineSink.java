@@ -0,0 +1,48 @@
+package org.myrobotlab.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * the default sound card output line
+ */
+public class LineSink implements AudioSink {
+
+  SourceDataLine line;
+
+  /**
+   * line buffer - a few mixer periods, more adds latency, less risks underruns
+   */
+  int bufferBytes = 16384;
+
+  public LineSink() {
+  }
+
+  public LineSink(int bufferBytes) {
+    this.bufferBytes = bufferBytes;
+  }
+
+  @Override
+  public void open(AudioFormat format) throws Exception {
+    line = AudioSystem.getSourceDataLine(format);
+    line.open(format, bufferBytes);
+    line.start();
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) {
+    line.write(buffer, offset, length);
+  }
+
+  @Override
+  public void close() {
+    if (line != null) {
+      line.drain();
+      line.stop();
+      line.close();
+      line = null;
+    }
+  }
+
+}
@@ -0,0 +1,264 @@
+package org.myrobotlab.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A single sound being mixed - decodes 16 bit pcm from its stream into a float
+ * buffer, maps it to stereo and resamples it to the mixer rate.
+ */
+public class MixerTrack {
+
+  public final static Logger log = LoggerFactory.getLogger(MixerTrack.class);
+
+  final String name;
+  final InputStream in;
+  final int channels;
+  final boolean bigEndian;
+  final int frameSize;
+
+  /**
+   * source frames per output frame
+   */
+  final double ratio;
+
+  /**
+   * stereo interleaved source frames
+   */
+  final float[] buffer;
+  int bufferFrames = 0;
+  double position = 0;
+
+  final byte[] raw;
+  int rawFill = 0;
+  boolean eof = false;
+
+  volatile float gain = 1.0f;
+  volatile float balance = 0.0f;
+  volatile boolean ducking = false;
+  volatile boolean paused = false;
+  volatile boolean finished = false;
+  boolean closed = false;
+
+  long frames = 0;
+  long cpuNanos = 0;
+
+  /**
+   * @param name
+   *          track name
+   * @param in
+   *          a 16 bit signed pcm stream
+   * @param outputRate
+   *          sample rate of the mixer
+   * @param period
+   *          number of frames the mixer requests at a time
+   */
+  public MixerTrack(String name, AudioInputStream in, float outputRate, int period) {
+    AudioFormat format = in.getFormat();
+    if (format.getSampleSizeInBits() != 16 || !AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())) {
+      throw new IllegalArgumentException(String.format("%s needs 16 bit signed pcm not %s", name, format));
+    }
+    this.name = name;
+    this.in = in;
+    this.channels = format.getChannels();
+    this.bigEndian = format.isBigEndian();
+    this.frameSize = format.getFrameSize();
+    this.ratio = format.getSampleRate() / outputRate;
+    int capacity = (int) Math.ceil(period * ratio) + 2;
+    this.buffer = new float[capacity * 2];
+    this.raw = new byte[capacity * frameSize];
+  }
+
+  /**
+   * shifts the unread frames to the front of the buffer and decodes more
+   */
+  void refill() throws IOException {
+    int start = (int) position;
+    int keep = bufferFrames - start;
+    System.arraycopy(buffer, start * 2, buffer, 0, keep * 2);
+    position -= start;
+    bufferFrames = keep;
+
+    int want = (buffer.length / 2 - keep) * frameSize;
+    while (rawFill < want) {
+      int n = in.read(raw, rawFill, want - rawFill);
+      if (n < 0) {
+        eof = true;
+        break;
+      }
+      rawFill += n;
+    }
+
+    int count = rawFill / frameSize;
+    int b = 0;
+    int o = keep * 2;
+    for (int i = 0; i < count; ++i) {
+      float left = sample(b);
+      float right = (channels > 1) ? sample(b + 2) : left;
+      buffer[o++] = left;
+      buffer[o++] = right;
+      b += frameSize;
+    }
+    bufferFrames += count;
+
+    // a partial frame waits for the next read
+    rawFill -= b;
+    System.arraycopy(raw, b, raw, 0, rawFill);
+  }
+
+  final float sample(int i) {
+    int s = (bigEndian) ? (raw[i] << 8) | (raw[i + 1] & 0xFF) : (raw[i + 1] << 8) | (raw[i] & 0xFF);
+    return s / 32768.0f;
+  }
+
+  /**
+   * adds this track to the stereo interleaved mix
+   *
+   * @param mix
+   *          the mix
+   * @param count
+   *          number of frames
+   * @param duckStart
+   *          ducking gain at the start of the period
+   * @param duckEnd
+   *          ducking gain at the end of the period
+   * @return number of frames produced - less than count when the track ended
+   */
+  int mix(float[] mix, int count, float duckStart, float duckEnd) throws IOException {
+    if (finished || paused) {
+      return 0;
+    }
+    long start = System.nanoTime();
+    float left = gain * ((balance > 0) ? 1 - balance : 1);
+    float right = gain * ((balance < 0) ? 1 + balance : 1);
+    float duck = duckStart;
+    float duckStep = (duckEnd - duckStart) / count;
+
+    int i = 0;
+    int o = 0;
+    for (; i < count; ++i) {
+      if ((int) position + 1 >= bufferFrames && !eof) {
+        refill();
+      }
+      int index = (int) position;
+      if (index >= bufferFrames) {
+        finished = true;
+        break;
+      }
+      int next = (index + 1 < bufferFrames) ? index + 1 : index;
+      float frac = (float) (position - index);
+      int a = index * 2;
+      int b = next * 2;
+      mix[o++] += (buffer[a] + (buffer[b] - buffer[a]) * frac) * left * duck;
+      mix[o++] += (buffer[a + 1] + (buffer[b + 1] - buffer[a + 1]) * frac) * right * duck;
+      duck += duckStep;
+      position += ratio;
+    }
+    frames += i;
+    cpuNanos += System.nanoTime() - start;
+    if (finished) {
+      close();
+    }
+    return i;
+  }
+
+  /**
+   * finishes the track and closes its stream - can be called more than once
+   */
+  void close() {
+    finished = true;
+    synchronized (this) {
+      if (!closed) {
+        closed = true;
+        try {
+          in.close();
+        } catch (IOException e) {
+          log.warn("closing track {} threw", name, e);
+        }
+      }
+      notifyAll();
+    }
+  }
+
+  /**
+   * stops the track and closes its stream - it is removed from the mixer at
+   * the next period
+   */
+  public void stop() {
+    close();
+  }
+
+  /**
+   * waits for the track to finish
+   *
+   * @param timeoutMs
+   *          maximum time to wait - 0 waits forever
+   * @return true if the track finished
+   * @throws InterruptedException
+   *           if interrupted
+   */
+  public boolean waitFor(long timeoutMs) throws InterruptedException {
+    synchronized (this) {
+      if (!finished) {
+        wait(timeoutMs);
+      }
+    }
+    return finished;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setGain(double gain) {
+    this.gain = (float) gain;
+  }
+
+  public double getGain() {
+    return gain;
+  }
+
+  /**
+   * @param balance
+   *          -1.0 left only, 0 center, 1.0 right only
+   */
+  public void setBalance(double balance) {
+    this.balance = (float) Math.max(-1.0, Math.min(1.0, balance));
+  }
+
+  /**
+   * a ducking track (e.g. speech) lowers all the other tracks while it plays
+   */
+  public void setDucking(boolean ducking) {
+    this.ducking = ducking;
+  }
+
+  public void setPaused(boolean paused) {
+    this.paused = paused;
+  }
+
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * @return number of frames mixed
+   */
+  public long getFrames() {
+    return frames;
+  }
+
+  /**
+   * @return time spent decoding, resampling and mixing this track
+   */
+  public long getCpuNanos() {
+    return cpuNanos;
+  }
+
+}
@@ -0,0 +1,51 @@
+package org.myrobotlab.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * discards the mixed audio - optionally paced in real time so a headless mixer
+ * behaves like one playing on a sound card
+ */
+public class NullSink implements AudioSink {
+
+  boolean realTime;
+  double bytesPerNano;
+  long startNs;
+  long bytes;
+
+  public NullSink() {
+    this(false);
+  }
+
+  public NullSink(boolean realTime) {
+    this.realTime = realTime;
+  }
+
+  @Override
+  public void open(AudioFormat format) {
+    bytesPerNano = format.getFrameRate() * format.getFrameSize() / 1e9;
+    startNs = System.nanoTime();
+    bytes = 0;
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) throws InterruptedException {
+    bytes += length;
+    if (realTime) {
+      long dueNs = startNs + (long) (bytes / bytesPerNano);
+      long waitNs = dueNs - System.nanoTime();
+      if (waitNs > 0) {
+        Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+}
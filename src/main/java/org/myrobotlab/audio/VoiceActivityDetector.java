@@ -0,0 +1,248 @@
+package org.myrobotlab.audio;
+
+/**
+ * Energy and zero crossing voice activity detection over fixed size frames of
+ * 16 bit signed little endian pcm.
+ *
+ * A frame is speech if its energy is above the adaptive noise floor by
+ * marginDb, or by half of that when its zero crossing rate is in the range of
+ * unvoiced consonants (s, f, sh ...). An utterance starts after startFrames
+ * speech frames and ends after hangoverFrames non speech frames. The preRoll
+ * frames before the start was detected are included so soft onsets are not
+ * cut off.
+ *
+ * Utterances are collected into a fixed size buffer - nothing is allocated
+ * per frame.
+ */
+public class VoiceActivityDetector {
+
+  final int frameBytes;
+
+  /**
+   * dB above the noise floor for a frame to be speech
+   */
+  double marginDb = 10.0;
+
+  /**
+   * frames quieter than this are never speech
+   */
+  double minEnergyDb = -55.0;
+
+  double zcrMin = 0.25;
+  double zcrMax = 0.7;
+
+  int startFrames = 3;
+  int hangoverFrames = 25;
+  int minSpeechFrames = 5;
+
+  /**
+   * noise floor adaption rate for non speech frames
+   */
+  double adaption = 0.05;
+
+  double noiseFloor = Double.NaN;
+
+  // pre roll ring
+  final byte[] preRoll;
+  final int preRollFrames;
+  int preRollCount = 0;
+  int preRollNext = 0;
+
+  final byte[] utterance;
+  int utteranceLength = 0;
+  int utteranceFrames = 0;
+
+  boolean speaking = false;
+  int speechRun = 0;
+  int silenceRun = 0;
+  int voicedFrames = 0;
+
+  double energy;
+  double zcr;
+  boolean voiced;
+
+  long frames = 0;
+  long utteranceStart = 0;
+  long utterances = 0;
+
+  /**
+   * @param frameBytes
+   *          size of a frame
+   * @param preRollFrames
+   *          frames kept before the start of an utterance
+   * @param maxUtteranceFrames
+   *          an utterance is ended when it reaches this size
+   */
+  public VoiceActivityDetector(int frameBytes, int preRollFrames, int maxUtteranceFrames) {
+    this.frameBytes = frameBytes;
+    this.preRollFrames = preRollFrames;
+    this.preRoll = new byte[preRollFrames * frameBytes];
+    this.utterance = new byte[maxUtteranceFrames * frameBytes];
+  }
+
+  /**
+   * classifies a frame
+   *
+   * @param pcm
+   *          pcm data
+   * @param offset
+   *          start of the frame
+   * @return true if an utterance ended with this frame - it can be copied with
+   *         getUtterance() until the next call
+   */
+  public boolean process(byte[] pcm, int offset) {
+    measure(pcm, offset);
+    ++frames;
+
+    double above = energy - noiseFloor;
+    voiced = energy > minEnergyDb && (above > marginDb || (above > marginDb / 2 && zcr >= zcrMin && zcr <= zcrMax));
+
+    if (!voiced || Double.isNaN(noiseFloor)) {
+      // noise floor only follows the background
+      noiseFloor = (Double.isNaN(noiseFloor)) ? energy : noiseFloor + (energy - noiseFloor) * adaption;
+    }
+
+    boolean ended = false;
+    if (!speaking) {
+      speechRun = (voiced) ? speechRun + 1 : 0;
+      if (speechRun >= startFrames) {
+        // start - pre roll first
+        speaking = true;
+        silenceRun = 0;
+        voicedFrames = 0;
+        utteranceLength = 0;
+        utteranceFrames = 0;
+        utteranceStart = frames - 1 - preRollCount;
+        for (int i = 0; i < preRollCount; ++i) {
+          int index = (preRollNext - preRollCount + i + preRollFrames) % preRollFrames;
+          append(preRoll, index * frameBytes, false);
+        }
+        preRollCount = 0;
+      } else {
+        if (preRollFrames > 0) {
+          System.arraycopy(pcm, offset, preRoll, preRollNext * frameBytes, frameBytes);
+          preRollNext = (preRollNext + 1) % preRollFrames;
+          preRollCount = Math.min(preRollCount + 1, preRollFrames);
+        }
+        return false;
+      }
+    }
+
+    append(pcm, offset, voiced);
+    silenceRun = (voiced) ? 0 : silenceRun + 1;
+    if (silenceRun >= hangoverFrames || utteranceLength + frameBytes > utterance.length) {
+      speaking = false;
+      speechRun = 0;
+      // a click or a cough is not an utterance
+      ended = voicedFrames >= minSpeechFrames;
+      if (ended) {
+        ++utterances;
+      } else {
+        utteranceLength = 0;
+      }
+    }
+    return ended;
+  }
+
+  void append(byte[] pcm, int offset, boolean voiced) {
+    System.arraycopy(pcm, offset, utterance, utteranceLength, frameBytes);
+    utteranceLength += frameBytes;
+    ++utteranceFrames;
+    if (voiced) {
+      ++voicedFrames;
+    }
+  }
+
+  void measure(byte[] pcm, int offset) {
+    double sum = 0;
+    int crossings = 0;
+    int samples = frameBytes / 2;
+    int previous = 0;
+    for (int i = 0; i < samples; ++i) {
+      int b = offset + i * 2;
+      int s = (pcm[b + 1] << 8) | (pcm[b] & 0xFF);
+      sum += (double) s * s;
+      if (i > 0 && ((s >= 0) != (previous >= 0))) {
+        ++crossings;
+      }
+      previous = s;
+    }
+    double rms = Math.sqrt(sum / samples) / 32768.0;
+    energy = 20 * Math.log10(Math.max(rms, 1e-9));
+    zcr = (double) crossings / samples;
+  }
+
+  /**
+   * @return a copy of the last completed utterance
+   */
+  public byte[] getUtterance() {
+    byte[] ret = new byte[utteranceLength];
+    System.arraycopy(utterance, 0, ret, 0, utteranceLength);
+    return ret;
+  }
+
+  public int getUtteranceLength() {
+    return utteranceLength;
+  }
+
+  /**
+   * @return frame number (from 0) of the first frame of the last utterance
+   */
+  public long getUtteranceStart() {
+    return utteranceStart;
+  }
+
+  public boolean isSpeaking() {
+    return speaking;
+  }
+
+  public boolean isVoiced() {
+    return voiced;
+  }
+
+  public double getEnergy() {
+    return energy;
+  }
+
+  public double getZcr() {
+    return zcr;
+  }
+
+  public double getNoiseFloor() {
+    return noiseFloor;
+  }
+
+  public long getUtterances() {
+    return utterances;
+  }
+
+  public void setMarginDb(double marginDb) {
+    this.marginDb = marginDb;
+  }
+
+  public void setMinEnergyDb(double minEnergyDb) {
+    this.minEnergyDb = minEnergyDb;
+  }
+
+  public void setStartFrames(int startFrames) {
+    this.startFrames = startFrames;
+  }
+
+  public void setHangoverFrames(int hangoverFrames) {
+    this.hangoverFrames = hangoverFrames;
+  }
+
+  public void setMinSpeechFrames(int minSpeechFrames) {
+    this.minSpeechFrames = minSpeechFrames;
+  }
+
+  public void reset() {
+    noiseFloor = Double.NaN;
+    speaking = false;
+    speechRun = 0;
+    silenceRun = 0;
+    preRollCount = 0;
+    utteranceLength = 0;
+  }
+
+}
@@ -26,6 +26,13 @@ public abstract class CvData implements Serializable {
 
   public abstract PointCloud getPointCloud();
 
+  /**
+   * drops the reference a subscriber was handed with the data - data without
+   * native resources has nothing to release
+   */
+  public void release() {
+  }
+
   public static void main(String[] args) {
     // TODO Auto-generated method stub
 
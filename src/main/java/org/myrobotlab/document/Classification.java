@@ -100,4 +100,16 @@ public class Classification extends Document {
     setField("bounding_box", rect);
   }
 
+  /**
+   * @param frameIndex - index of the video frame this was classified from -
+   *          results of asynchronous classifiers arrive frames later
+   */
+  public void setFrameIndex(int frameIndex) {
+    setField("frame_index", frameIndex);
+  }
+
+  public Integer getFrameIndex() {
+    return (Integer) getValue("frame_index");
+  }
+
 }
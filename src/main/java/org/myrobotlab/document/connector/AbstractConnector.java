@@ -1,5 +1,7 @@
 package org.myrobotlab.document.connector;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -19,7 +21,7 @@ import org.myrobotlab.service.interfaces.DocumentPublisher;
 public abstract class AbstractConnector extends Service implements DocumentPublisher, DocumentConnector {
 
   private static final long serialVersionUID = 1L;
-  protected ConnectorState state = ConnectorState.STOPPED;
+  protected volatile ConnectorState state = ConnectorState.STOPPED;
   private int batchSize = 1;
   private List<Document> batch = Collections.synchronizedList(new ArrayList<Document>());
   private String docIdPrefix = "";
@@ -30,6 +32,13 @@ public abstract class AbstractConnector extends Service implements DocumentPubli
   // private long maxFeedCount = 10000;
   private long maxFeedCount = -1;
 
+  // where the crawl position is saved so an interrupted crawl can resume -
+  // null for no checkpoint
+  private String checkpointFile = null;
+  private long checkpointIntervalMs = 10000;
+  private transient long lastCheckpoint = 0;
+  protected transient Checkpoint checkpoint;
+
   public AbstractConnector(String name, String id) {
     super(name, id);
     // no overruns!
@@ -38,7 +47,8 @@ public abstract class AbstractConnector extends Service implements DocumentPubli
 
   public abstract void setConfig(ConnectorConfig config);
 
-  public void feed(Document doc) {
+  // synchronized - connectors may crawl on several threads
+  public synchronized void feed(Document doc) {
     // log.info("Feeding document " + doc.getId());
     // TODO: add batching and change this to publishDocuments (as a list)
     // Batching for this sort of stuff is a very good thing.
@@ -88,10 +98,7 @@ public abstract class AbstractConnector extends Service implements DocumentPubli
     // TODO: make this thread safe!
     // invoke("publishFlush");
     // reset/clear the batch.
-    synchronized (batch) {
-      invoke("publishDocuments", batch);
-      batch = Collections.synchronizedList(new ArrayList<Document>());
-    }
+    publishBatch();
     // TODO: I worry there's a race condition here.. but maybe not... more
     // testing will show.
     while (getOutbox().size() > 0 && !state.equals(ConnectorState.RUNNING)) {
@@ -108,6 +115,81 @@ public abstract class AbstractConnector extends Service implements DocumentPubli
     }
   }
 
+  private synchronized void publishBatch() {
+    synchronized (batch) {
+      invoke("publishDocuments", batch);
+      batch = Collections.synchronizedList(new ArrayList<Document>());
+    }
+  }
+
+  /**
+   * opens the checkpoint of an earlier crawl of source - the checkpoint of a
+   * different source is discarded
+   *
+   * @param source
+   *          what is crawled - a directory or file name
+   * @return the checkpoint or null if checkpointing is off
+   */
+  protected Checkpoint openCheckpoint(String source) {
+    if (checkpointFile == null) {
+      checkpoint = null;
+      return null;
+    }
+    checkpoint = new Checkpoint(new File(checkpointFile));
+    if (!source.equals(checkpoint.get("source"))) {
+      checkpoint.clear();
+      checkpoint.put("source", source);
+    }
+    lastCheckpoint = System.currentTimeMillis();
+    return checkpoint;
+  }
+
+  /**
+   * saves the checkpoint - at most every checkpointIntervalMs unless forced.
+   * The partial batch is published first so everything fed before the
+   * checkpoint has left the connector.
+   */
+  protected synchronized void saveCheckpoint(boolean force) {
+    if (checkpoint == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (!force && now - lastCheckpoint < checkpointIntervalMs) {
+      return;
+    }
+    if (!batch.isEmpty()) {
+      publishBatch();
+    }
+    try {
+      checkpoint.save();
+    } catch (IOException e) {
+      log.warn("could not save checkpoint {}", checkpointFile, e);
+    }
+    lastCheckpoint = now;
+  }
+
+  /**
+   * the crawl finished - nothing to resume
+   */
+  protected void clearCheckpoint() {
+    if (checkpoint != null) {
+      checkpoint.delete();
+      checkpoint = null;
+    }
+  }
+
+  public String getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  public void setCheckpointFile(String checkpointFile) {
+    this.checkpointFile = checkpointFile;
+  }
+
+  public void setCheckpointIntervalMs(long checkpointIntervalMs) {
+    this.checkpointIntervalMs = checkpointIntervalMs;
+  }
+
   public ConnectorState getState() {
     return state;
   }
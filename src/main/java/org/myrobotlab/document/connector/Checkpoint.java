@@ -0,0 +1,117 @@
+package org.myrobotlab.document.connector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Crawl position of a connector persisted to a properties file - a connector
+ * keeps what it needs to resume (last offset, finished directories ..) and
+ * saves it now and then. The file is replaced atomically so a crash while
+ * saving leaves the previous checkpoint.
+ */
+public class Checkpoint {
+
+  public final static Logger log = LoggerFactory.getLogger(Checkpoint.class);
+
+  private final File file;
+  private final Properties props = new Properties();
+
+  public Checkpoint(File file) {
+    this.file = file;
+    if (file.exists()) {
+      try (InputStream in = new FileInputStream(file)) {
+        props.load(in);
+        log.info("loaded checkpoint {} with {} entries", file, props.size());
+      } catch (IOException e) {
+        log.warn("could not load checkpoint {} - starting over", file, e);
+        props.clear();
+      }
+    }
+  }
+
+  public synchronized String get(String key) {
+    return props.getProperty(key);
+  }
+
+  public synchronized long getLong(String key, long defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  public synchronized void put(String key, Object value) {
+    props.setProperty(key, value.toString());
+  }
+
+  public synchronized void remove(String key) {
+    props.remove(key);
+  }
+
+  /**
+   * @param prefix
+   *          key prefix
+   * @return the keys starting with prefix - without the prefix
+   */
+  public synchronized List<String> keys(String prefix) {
+    List<String> ret = new ArrayList<String>();
+    for (String key : props.stringPropertyNames()) {
+      if (key.startsWith(prefix)) {
+        ret.add(key.substring(prefix.length()));
+      }
+    }
+    return ret;
+  }
+
+  public synchronized int size() {
+    return props.size();
+  }
+
+  public synchronized void clear() {
+    props.clear();
+  }
+
+  public synchronized void save() throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    File tmp = new File(file.getAbsolutePath() + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      props.store(out, "connector checkpoint");
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * removes the file - the crawl finished and there is nothing to resume
+   */
+  public synchronized void delete() {
+    props.clear();
+    if (file.exists() && !file.delete()) {
+      log.warn("could not delete checkpoint {}", file);
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+}
@@ -0,0 +1,226 @@
+package org.myrobotlab.document.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a csv file into chunks of whole records so they can be parsed on
+ * separate threads. The file is scanned once through memory mapped windows -
+ * only separators, quotes, escapes and newlines are looked at, so a newline
+ * inside a quoted field never splits a record. Each chunk knows the number of its first
+ * record, so row numbers match a sequential read.
+ *
+ * Chunks are read back through a memory mapped stream. Boundaries are at '\n'
+ * bytes, which is safe for utf-8 and the other ascii compatible charsets.
+ */
+public class CsvChunks {
+
+  static final int WINDOW = 64 * 1024 * 1024;
+
+  public static class Chunk {
+    public final int index;
+    /**
+     * byte offsets - end exclusive
+     */
+    public final long start;
+    public final long end;
+    /**
+     * number of records before this chunk
+     */
+    public final long firstRecord;
+    public final long records;
+
+    Chunk(int index, long start, long end, long firstRecord, long records) {
+      this.index = index;
+      this.start = start;
+      this.end = end;
+      this.firstRecord = firstRecord;
+      this.records = records;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("chunk %d [%d, %d) records %d from %d", index, start, end, records, firstRecord);
+    }
+  }
+
+  /**
+   * @param file
+   *          the csv file
+   * @param offset
+   *          where to start - the start of a record
+   * @param firstRecord
+   *          number of records before offset
+   * @param chunkSize
+   *          approximate bytes per chunk
+   * @param separator
+   *          field separator
+   * @param quote
+   *          quote character
+   * @param escape
+   *          escape character
+   * @return the chunks from offset to the end of the file
+   * @throws IOException
+   *           if the file can't be read
+   */
+  public static List<Chunk> split(File file, long offset, long firstRecord, long chunkSize, char separator, char quote, char escape) throws IOException {
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      long start = offset;
+      long recordEnd = offset;
+      long records = 0;
+      RecordScanner scanner = new RecordScanner(separator, quote, escape);
+      for (long pos = offset; pos < size;) {
+        int length = (int) Math.min(WINDOW, size - pos);
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+        for (int i = 0; i < length; ++i) {
+          if (scanner.isRecordEnd(buf.get(i))) {
+            ++records;
+            recordEnd = pos + i + 1;
+            if (recordEnd - start >= chunkSize) {
+              chunks.add(new Chunk(chunks.size(), start, recordEnd, firstRecord, records));
+              firstRecord += records;
+              records = 0;
+              start = recordEnd;
+            }
+          }
+        }
+        pos += length;
+      }
+      // last record without a newline
+      if (size > recordEnd) {
+        ++records;
+      }
+      if (size > start) {
+        chunks.add(new Chunk(chunks.size(), start, size, firstRecord, records));
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * newlines outside quotes - the ends of records. Like opencsv's CSVParser an
+   * escape counts inside quotes and inside an unquoted field once it has
+   * started, and only before a quote or another escape
+   */
+  static class RecordScanner {
+    final char separator;
+    final char quote;
+    final char escape;
+    boolean inQuotes = false;
+    boolean inField = false;
+    boolean escaped = false;
+
+    RecordScanner(char separator, char quote, char escape) {
+      this.separator = separator;
+      this.quote = quote;
+      this.escape = escape;
+    }
+
+    /**
+     * @return true if the byte ends a record
+     */
+    final boolean isRecordEnd(byte b) {
+      if (escaped) {
+        escaped = false;
+        if (b == quote || b == escape) {
+          return false;
+        }
+      }
+      if (b == escape) {
+        escaped = inQuotes || inField;
+      } else if (b == quote) {
+        inQuotes = !inQuotes;
+        inField = !inField;
+      } else if (b == '\n' && !inQuotes) {
+        inField = false;
+        return true;
+      } else if (b == separator && !inQuotes) {
+        inField = false;
+      } else {
+        inField = true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * only reads as far as the end of the record
+   *
+   * @return the offset just past the first record at offset - where the data
+   *         starts after a header row
+   */
+  public static long recordEnd(File file, long offset, char separator, char quote, char escape) throws IOException {
+    RecordScanner scanner = new RecordScanner(separator, quote, escape);
+    ByteBuffer buf = ByteBuffer.allocate(8192);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long pos = offset;
+      int n;
+      while ((n = channel.read(buf, pos)) > 0) {
+        for (int i = 0; i < n; ++i) {
+          if (scanner.isRecordEnd(buf.get(i))) {
+            return pos + i + 1;
+          }
+        }
+        pos += n;
+        buf.clear();
+      }
+      // a single record without a newline
+      return Math.max(offset, pos);
+    }
+  }
+
+  /**
+   * @return a stream over the chunk's bytes - memory mapped
+   */
+  public static InputStream open(File file, Chunk chunk) throws IOException {
+    return open(file, chunk.start, chunk.end);
+  }
+
+  public static InputStream open(File file, long start, long end) throws IOException {
+    if (end - start > Integer.MAX_VALUE) {
+      throw new IOException(String.format("chunk of %d bytes is too large to map", end - start));
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      // the mapping stays valid after the channel is closed
+      return new BufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+    }
+  }
+
+  static class BufferInputStream extends InputStream {
+    final ByteBuffer buf;
+
+    BufferInputStream(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+      return (buf.hasRemaining()) ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buf.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buf.remaining());
+      buf.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public int available() {
+      return buf.remaining();
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+package org.myrobotlab.document.connector;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Walks a directory tree on a work stealing pool - every directory is a task,
+ * its sub directories are forked so idle threads steal whole sub trees. Links
+ * are not followed, as with Files.walkFileTree.
+ *
+ * A directory is complete when its files and all its sub directories are - the
+ * visitor is told so it can checkpoint, and complete directories passed to
+ * walk are skipped.
+ */
+public class ParallelFileWalker {
+
+  public final static Logger log = LoggerFactory.getLogger(ParallelFileWalker.class);
+
+  public interface Visitor {
+
+    /**
+     * @return false to stop the walk
+     */
+    boolean isRunning();
+
+    void visitFile(Path file, BasicFileAttributes attrs) throws IOException;
+
+    /**
+     * called when a directory and everything below it has been visited
+     *
+     * @param dir
+     *          the directory
+     * @param subdirs
+     *          its sub directories - covered by dir from now on
+     */
+    void directoryComplete(Path dir, List<Path> subdirs);
+  }
+
+  private final int numThreads;
+
+  public ParallelFileWalker(int numThreads) {
+    this.numThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * @param root
+   *          directory to walk
+   * @param complete
+   *          directories finished by an earlier walk - skipped
+   * @param visitor
+   *          gets the files
+   * @return true if the whole tree was walked, false if the visitor stopped it
+   */
+  public boolean walk(Path root, Set<Path> complete, Visitor visitor) {
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      Walk walk = new Walk(root, complete, visitor);
+      pool.invoke(walk);
+      return walk.complete;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  static class Walk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final Path dir;
+    final Set<Path> skip;
+    final Visitor visitor;
+    boolean complete = false;
+
+    Walk(Path dir, Set<Path> skip, Visitor visitor) {
+      this.dir = dir;
+      this.skip = skip;
+      this.visitor = visitor;
+    }
+
+    @Override
+    protected void compute() {
+      if (skip.contains(dir)) {
+        complete = true;
+        return;
+      }
+      List<Walk> subdirs = new ArrayList<Walk>();
+      boolean ok = true;
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path path : stream) {
+          if (!visitor.isRunning()) {
+            ok = false;
+            break;
+          }
+          BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          if (attrs.isDirectory()) {
+            // forked right away so other threads start on it while we do the
+            // files
+            Walk walk = new Walk(path, skip, visitor);
+            walk.fork();
+            subdirs.add(walk);
+          } else {
+            visitor.visitFile(path, attrs);
+          }
+        }
+      } catch (IOException e) {
+        log.warn("could not walk {}", dir, e);
+      }
+
+      List<Path> paths = new ArrayList<Path>();
+      for (Walk walk : subdirs) {
+        walk.join();
+        ok &= walk.complete;
+        paths.add(walk.dir);
+      }
+      if (ok && visitor.isRunning()) {
+        complete = true;
+        visitor.directoryComplete(dir, paths);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,353 @@
+package org.myrobotlab.document.solr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Asynchronous Solr indexing client. Documents are queued and returned from
+ * immediately - a batching thread sends them when a batch is full or its
+ * oldest document has waited maxBatchDelayMs. At most maxInFlight update
+ * requests are outstanding, failed requests are retried with exponential
+ * backoff.
+ *
+ * Documents are sent with commitWithin so Solr makes them searchable on its
+ * own schedule instead of a hard commit per flush.
+ */
+public class AsyncIndexer implements Runnable {
+
+  public final static Logger log = LoggerFactory.getLogger(AsyncIndexer.class);
+
+  final SolrClient client;
+  final LinkedBlockingQueue<SolrInputDocument> queue;
+
+  int batchSize = 100;
+  long maxBatchDelayMs = 1000;
+  int maxInFlight = 2;
+  int commitWithinMs = 5000;
+  int maxRetries = 5;
+  long retryBackoffMs = 250;
+  long maxBackoffMs = 10000;
+
+  final Semaphore inFlight;
+  final ExecutorService senders;
+  transient Thread batcher;
+  volatile boolean running = false;
+  volatile boolean flushRequested = false;
+
+  /**
+   * documents accepted and not yet sent or failed
+   */
+  long pending = 0;
+  final Object pendingLock = new Object();
+
+  long added = 0;
+  long sent = 0;
+  long batches = 0;
+  long retries = 0;
+  long failed = 0;
+  long dropped = 0;
+  long sendNanos = 0;
+
+  /**
+   * @param client
+   *          the solr client - http or embedded
+   * @param queueSize
+   *          maximum documents waiting - further documents are dropped
+   * @param maxInFlight
+   *          maximum concurrent update requests
+   */
+  public AsyncIndexer(SolrClient client, int queueSize, int maxInFlight) {
+    this.client = client;
+    this.queue = new LinkedBlockingQueue<SolrInputDocument>(queueSize);
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.senders = Executors.newFixedThreadPool(maxInFlight, r -> {
+      Thread t = new Thread(r, "solr-sender");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  public AsyncIndexer(SolrClient client) {
+    this(client, 10000, 2);
+  }
+
+  public synchronized void start() {
+    if (batcher == null) {
+      running = true;
+      batcher = new Thread(this, "solr-batcher");
+      batcher.setDaemon(true);
+      batcher.start();
+    }
+  }
+
+  /**
+   * queues a document
+   *
+   * @param doc
+   *          the document
+   * @return false if the queue is full and the document was dropped
+   */
+  public boolean add(SolrInputDocument doc) {
+    start();
+    synchronized (pendingLock) {
+      if (!queue.offer(doc)) {
+        ++dropped;
+        return false;
+      }
+      ++added;
+      ++pending;
+    }
+    return true;
+  }
+
+  /**
+   * queues a document - waits while the queue is full, so a producer faster
+   * than solr is slowed down instead of losing documents
+   *
+   * @param doc
+   *          the document
+   * @throws InterruptedException
+   *           if interrupted while waiting - the document is not queued
+   */
+  public void put(SolrInputDocument doc) throws InterruptedException {
+    start();
+    synchronized (pendingLock) {
+      // counted first - a flush waits for it while it's waiting for space
+      ++pending;
+    }
+    try {
+      queue.put(doc);
+    } catch (InterruptedException e) {
+      synchronized (pendingLock) {
+        --pending;
+        pendingLock.notifyAll();
+      }
+      throw e;
+    }
+    synchronized (pendingLock) {
+      ++added;
+    }
+  }
+
+  /**
+   * queues documents
+   *
+   * @return number of documents dropped because the queue was full
+   */
+  public int add(Collection<SolrInputDocument> docs) {
+    int rejected = 0;
+    for (SolrInputDocument doc : docs) {
+      if (!add(doc)) {
+        ++rejected;
+      }
+    }
+    return rejected;
+  }
+
+  @Override
+  public void run() {
+    List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+    long first = 0;
+    try {
+      while (running) {
+        long wait = (batch.isEmpty()) ? maxBatchDelayMs : Math.max(1, first + maxBatchDelayMs - System.currentTimeMillis());
+        SolrInputDocument doc = queue.poll(Math.min(wait, 100), TimeUnit.MILLISECONDS);
+        if (doc != null) {
+          if (batch.isEmpty()) {
+            first = System.currentTimeMillis();
+          }
+          batch.add(doc);
+          queue.drainTo(batch, batchSize - batch.size());
+        }
+        boolean due = !batch.isEmpty() && (batch.size() >= batchSize || System.currentTimeMillis() - first >= maxBatchDelayMs || (flushRequested && queue.isEmpty()));
+        if (due) {
+          // blocks when maxInFlight requests are outstanding - the queue
+          // absorbs the backlog
+          inFlight.acquire();
+          final List<SolrInputDocument> toSend = batch;
+          senders.execute(() -> send(toSend));
+          batch = new ArrayList<SolrInputDocument>(batchSize);
+        }
+      }
+    } catch (InterruptedException e) {
+      log.info("solr batcher interrupted");
+    }
+    // what's left is sent from here - each send needs a permit like any other
+    queue.drainTo(batch);
+    for (int i = 0; i < batch.size(); i += batchSize) {
+      inFlight.acquireUninterruptibly();
+      send(batch.subList(i, Math.min(batch.size(), i + batchSize)));
+    }
+  }
+
+  void send(List<SolrInputDocument> batch) {
+    long start = System.nanoTime();
+    try {
+      long backoff = retryBackoffMs;
+      for (int attempt = 0;; ++attempt) {
+        try {
+          client.add(batch, commitWithinMs);
+          synchronized (this) {
+            sent += batch.size();
+            ++batches;
+            sendNanos += System.nanoTime() - start;
+          }
+          return;
+        } catch (Exception e) {
+          if (attempt >= maxRetries) {
+            log.error("sending {} documents failed after {} retries", batch.size(), attempt, e);
+            synchronized (this) {
+              failed += batch.size();
+            }
+            return;
+          }
+          log.warn("sending {} documents failed - retry in {} ms", batch.size(), backoff, e);
+          synchronized (this) {
+            ++retries;
+          }
+          try {
+            Thread.sleep(backoff);
+          } catch (InterruptedException ie) {
+            synchronized (this) {
+              failed += batch.size();
+            }
+            return;
+          }
+          backoff = Math.min(backoff * 2, maxBackoffMs);
+        }
+      }
+    } finally {
+      inFlight.release();
+      synchronized (pendingLock) {
+        pending -= batch.size();
+        pendingLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * sends every queued document now and waits for the requests to finish
+   *
+   * @param timeoutMs
+   *          maximum time to wait
+   * @return true if everything queued was sent (or failed) in time
+   * @throws InterruptedException
+   *           if interrupted
+   */
+  public boolean flush(long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    flushRequested = true;
+    try {
+      synchronized (pendingLock) {
+        while (pending > 0) {
+          long wait = deadline - System.currentTimeMillis();
+          if (wait <= 0) {
+            return false;
+          }
+          pendingLock.wait(Math.min(wait, 100));
+        }
+      }
+      return true;
+    } finally {
+      flushRequested = false;
+    }
+  }
+
+  /**
+   * flushes and hard commits - documents are searchable when it returns
+   *
+   * @throws TimeoutException
+   *           if the queued documents were not sent within a minute - nothing
+   *           is committed
+   */
+  public void commit() throws Exception {
+    if (!flush(60000)) {
+      throw new TimeoutException(String.format("%d documents still pending after 60 s - not committed", getPending()));
+    }
+    client.commit();
+  }
+
+  /**
+   * @return documents accepted and not yet sent or failed
+   */
+  public long getPending() {
+    synchronized (pendingLock) {
+      return pending;
+    }
+  }
+
+  /**
+   * flushes and stops the batcher and senders - the client is not closed
+   */
+  public void close() {
+    try {
+      flush(10000);
+    } catch (InterruptedException e) {
+    }
+    running = false;
+    Thread t = batcher;
+    if (t != null) {
+      t.interrupt();
+      try {
+        t.join(1000);
+      } catch (InterruptedException e) {
+      }
+    }
+    batcher = null;
+    senders.shutdown();
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public void setMaxBatchDelayMs(long maxBatchDelayMs) {
+    this.maxBatchDelayMs = maxBatchDelayMs;
+  }
+
+  public void setCommitWithinMs(int commitWithinMs) {
+    this.commitWithinMs = commitWithinMs;
+  }
+
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  public void setRetryBackoffMs(long retryBackoffMs) {
+    this.retryBackoffMs = retryBackoffMs;
+  }
+
+  public SolrClient getClient() {
+    return client;
+  }
+
+  public synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<String, Object>();
+    stats.put("added", added);
+    stats.put("queued", queue.size());
+    stats.put("inFlight", maxInFlight - inFlight.availablePermits());
+    stats.put("sent", sent);
+    stats.put("batches", batches);
+    stats.put("avgBatchMs", (batches == 0) ? 0 : sendNanos / 1000000.0 / batches);
+    stats.put("retries", retries);
+    stats.put("failed", failed);
+    stats.put("dropped", dropped);
+    return stats;
+  }
+
+}
@@ -1,22 +1,20 @@
 package org.myrobotlab.document.transformer;
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.apache.solr.client.solrj.SolrClient;
-import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.apache.solr.common.SolrInputDocument;
 import org.myrobotlab.document.Document;
+import org.myrobotlab.document.solr.AsyncIndexer;
 import org.myrobotlab.logging.LoggerFactory;
 import org.slf4j.Logger;
 
 /**
  * This stage will convert an MRL document to a solr document. It then batches
- * those documents and sends the batches to solr. Upon a flush call any partial
- * batches will be flushed.
+ * those documents and sends the batches to solr in the background, with a
+ * bounded number of concurrent requests. Upon a flush call any partial batches
+ * will be flushed.
  * 
  * @author kwatters
  *
@@ -32,10 +30,10 @@ public class SendToSolr extends AbstractStage {
   private boolean issueCommit = true;
 
   private int batchSize = 100;
-  // private LinkedBlockingQueue<SolrInputDocument> batch = new
-  // LinkedBlockingQueue<SolrInputDocument>();
-  // Synchronized list. needed for thread safety.
-  private List<SolrInputDocument> batch = Collections.synchronizedList(new ArrayList<SolrInputDocument>());
+  private int batchDelayMs = 1000;
+  private int maxInFlight = 2;
+  private int commitWithin = 5000;
+  private AsyncIndexer indexer = null;
 
   // private String basicAuthUser = null;
   // private String basicAuthPass = null;
@@ -47,6 +45,9 @@ public class SendToSolr extends AbstractStage {
     solrUrl = config.getProperty("solrUrl", solrUrl);
     issueCommit = config.getBoolParam("issueCommit", new Boolean(issueCommit));
     batchSize = Integer.valueOf(config.getIntegerParam("batchSize", batchSize));
+    batchDelayMs = Integer.valueOf(config.getIntegerParam("batchDelayMs", batchDelayMs));
+    maxInFlight = Integer.valueOf(config.getIntegerParam("maxInFlight", maxInFlight));
+    commitWithin = Integer.valueOf(config.getIntegerParam("commitWithin", commitWithin));
 
     // basicAuthUser = config.getStringParam("basicAuthUser", basicAuthUser);
     // basicAuthPass = config.getStringParam("basicAuthPass", basicAuthPass);
@@ -68,6 +69,13 @@ public class SendToSolr extends AbstractStage {
     } else {
       log.info("Solr instance already created.");
     }
+    if (indexer == null) {
+      indexer = new AsyncIndexer(solrClient, 10000, maxInFlight);
+      indexer.setBatchSize(batchSize);
+      indexer.setMaxBatchDelayMs(batchDelayMs);
+      indexer.setCommitWithinMs(commitWithin);
+      indexer.start();
+    }
   }
 
   @Override
@@ -93,27 +101,12 @@ public class SendToSolr extends AbstractStage {
     // ArrayList<SolrInputDocument> solrDocs = new
     // ArrayList<SolrInputDocument>();
     // solrDocs.add(solrDoc);
+    // queued - the workflow thread only waits for solr when the queue is full
     try {
-      synchronized (batch) {
-        batch.add(solrDoc);
-        if (batch.size() >= batchSize) {
-          // System.out.println("Solr Server Flush Batch...");
-          // you are blocking?
-          solrClient.add(batch);
-          log.info("Sending Batch to Solr. Size: {}", batch.size());
-          // System.out.println("Solr batch sent..");
-          // batch.clear();
-          batch = Collections.synchronizedList(new ArrayList<SolrInputDocument>());
-        } else {
-          // System.out.println("Batch Size " + batch.size());
-        }
-      }
-    } catch (SolrServerException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+      indexer.put(solrDoc);
+    } catch (InterruptedException e) {
+      log.error("Interrupted queueing {} - it was not sent to solr", docId);
+      Thread.currentThread().interrupt();
     }
 
     // TODO: NO COMMITS HERE!
@@ -123,44 +116,32 @@ public class SendToSolr extends AbstractStage {
   }
 
   @Override
-  public void stopStage() {
-    // TODO Auto-generated method stub
+  public synchronized void stopStage() {
     flush();
-
+    if (indexer != null) {
+      indexer.close();
+      indexer = null;
+    }
   }
 
   public synchronized void flush() {
 
     log.info("Flush called for Send to solr stage. ");
-    // Is this where I should flush the last batch?
-    if (solrClient != null && batch.size() > 0) {
-      try {
-        log.info("flushing last batch. Size: {}", batch.size());
-        solrClient.add(batch);
-      } catch (SolrServerException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      } finally {
-        batch.clear();
-      }
+    if (indexer == null) {
+      return;
     }
-
-    // TODO: should we commit on flush?
     try {
-      if (issueCommit) {
+      if (!indexer.flush(60000)) {
+        // solr is behind - the rest become searchable through commitWithin
+        log.error("Flushing solr timed out with {} documents pending - not committing", indexer.getPending());
+      } else if (issueCommit) {
         log.info("Committing solr");
         solrClient.commit();
       }
-    } catch (SolrServerException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    } catch (Exception e) {
+      log.warn("Flushing solr failed", e);
     }
+    log.info("Solr indexer {}", indexer.getStats());
     // super.flush();
 
   }
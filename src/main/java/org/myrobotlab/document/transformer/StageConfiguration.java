@@ -8,6 +8,9 @@ public class StageConfiguration extends Configuration {
 
   private String stageName = "defaultStage";
   private String stageClass = "org.myrobotlab.document.transformer.AbstractStage";
+  // threads and queue length of the stage in a staged workflow
+  private int numThreads = 1;
+  private int queueLength = 50;
 
   public StageConfiguration(String stageName, String stageClass) {
     config = new HashMap<String, Object>();
@@ -54,4 +57,20 @@ public class StageConfiguration extends Configuration {
     this.stageClass = stageClass;
   }
 
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+  }
+
+  public int getQueueLength() {
+    return queueLength;
+  }
+
+  public void setQueueLength(int queueLength) {
+    this.queueLength = queueLength;
+  }
+
 }
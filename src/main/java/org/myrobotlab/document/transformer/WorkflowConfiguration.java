@@ -11,6 +11,10 @@ public class WorkflowConfiguration extends Configuration {
   private String name = "default";
   private int numWorkerThreads = 1;
   private int queueLength = 50;
+  // each stage runs on its own threads with its own queue
+  private boolean staged = false;
+  // staged workflows keep documents in order through multi threaded stages
+  private boolean preserveOrder = true;
 
   public WorkflowConfiguration(String name) {
     this.name = name;
@@ -51,6 +55,22 @@ public class WorkflowConfiguration extends Configuration {
     this.queueLength = queueLength;
   }
 
+  public boolean isStaged() {
+    return staged;
+  }
+
+  public void setStaged(boolean staged) {
+    this.staged = staged;
+  }
+
+  public boolean isPreserveOrder() {
+    return preserveOrder;
+  }
+
+  public void setPreserveOrder(boolean preserveOrder) {
+    this.preserveOrder = preserveOrder;
+  }
+
   public static WorkflowConfiguration fromXML(String xml) {
     // TODO: move this to a utility to serialize/deserialize the config objects.
     // TODO: should override on the impl classes so they return a properly
@@ -0,0 +1,36 @@
+package org.myrobotlab.document.workflow;
+
+import java.io.Serializable;
+
+/**
+ * throughput and latency of a stage of a staged workflow
+ */
+public class StageStats implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public String name;
+  public int threads;
+  public int queued;
+  public long in;
+  public long out;
+  public long dropped;
+  public long errors;
+  /**
+   * average time spent in processDocument
+   */
+  public double avgProcessMs;
+  /**
+   * average time from entering the stage's queue until processed
+   */
+  public double avgLatencyMs;
+  public double maxLatencyMs;
+  public double docsPerSecond;
+
+  @Override
+  public String toString() {
+    return String.format("%s threads %d queued %d in %d out %d dropped %d errors %d process %.2f ms latency %.2f ms (max %.2f) %.1f docs/s", name, threads, queued, in, out,
+        dropped, errors, avgProcessMs, avgLatencyMs, maxLatencyMs, docsPerSecond);
+  }
+
+}
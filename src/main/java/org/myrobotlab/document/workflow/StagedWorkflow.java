@@ -0,0 +1,286 @@
+package org.myrobotlab.document.workflow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.myrobotlab.document.Document;
+import org.myrobotlab.document.ProcessingStatus;
+import org.myrobotlab.document.transformer.AbstractStage;
+import org.myrobotlab.document.transformer.StageConfiguration;
+import org.myrobotlab.document.transformer.WorkflowConfiguration;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Staged workflow - each stage has its own bounded queue and its own threads
+ * (each with its own instance of the stage), so a slow stage can be given more
+ * threads instead of setting the pace for the whole workflow.
+ *
+ * With preserveOrder documents leave every stage in the order they entered it
+ * - a stage's results are held back until all the documents before them are
+ * done. Child documents are passed on before their parent, as in Workflow.
+ */
+public class StagedWorkflow extends Workflow {
+
+  public final static Logger log = LoggerFactory.getLogger(StagedWorkflow.class);
+
+  static class Item {
+    final Document doc;
+    final long seq;
+    final long queued;
+
+    Item(Document doc, long seq) {
+      this.doc = doc;
+      this.seq = seq;
+      this.queued = System.nanoTime();
+    }
+  }
+
+  class Stage {
+    final String name;
+    final ArrayBlockingQueue<Item> queue;
+    final AbstractStage[] instances;
+    final Thread[] threads;
+    Stage next;
+
+    long nextIn = 0;
+    long nextOut = 0;
+    final Map<Long, List<Document>> done = new HashMap<Long, List<Document>>();
+
+    // stats
+    final long started = System.currentTimeMillis();
+    long in = 0;
+    long out = 0;
+    long dropped = 0;
+    long errors = 0;
+    long processNanos = 0;
+    long latencyNanos = 0;
+    long maxLatencyNanos = 0;
+
+    Stage(StageConfiguration config, int index) throws ClassNotFoundException {
+      name = config.getStageName();
+      int n = Math.max(1, config.getNumThreads());
+      queue = new ArrayBlockingQueue<Item>(Math.max(1, config.getQueueLength()));
+      instances = new AbstractStage[n];
+      threads = new Thread[n];
+      Class<?> sc = StagedWorkflow.class.getClassLoader().loadClass(config.getStageClass().trim());
+      for (int i = 0; i < n; ++i) {
+        try {
+          instances[i] = (AbstractStage) sc.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+          throw new ClassNotFoundException("could not create stage " + name, e);
+        }
+        instances[i].startStage(config);
+        final AbstractStage instance = instances[i];
+        threads[i] = new Thread(() -> work(instance), String.format("%s-%d-%s-%d", getName(), index, name, i));
+        threads[i].setDaemon(true);
+      }
+    }
+
+    void put(Document doc) throws InterruptedException {
+      long seq;
+      synchronized (this) {
+        seq = nextIn++;
+      }
+      queue.put(new Item(doc, seq));
+    }
+
+    void work(AbstractStage instance) {
+      try {
+        while (running) {
+          Item item = queue.take();
+          long start = System.nanoTime();
+          List<Document> results = new ArrayList<Document>();
+          boolean error = false;
+          boolean drop = false;
+          try {
+            List<Document> children = instance.processDocument(item.doc);
+            if (children != null) {
+              results.addAll(children);
+            }
+            if (ProcessingStatus.DROP.equals(item.doc.getStatus())) {
+              drop = true;
+            } else {
+              results.add(item.doc);
+            }
+          } catch (Exception e) {
+            log.warn("stage {} threw on {}", name, item.doc.getId(), e);
+            error = true;
+          }
+          long end = System.nanoTime();
+          synchronized (this) {
+            ++in;
+            out += results.size();
+            if (drop) {
+              ++dropped;
+            }
+            if (error) {
+              ++errors;
+            }
+            processNanos += end - start;
+            latencyNanos += end - item.queued;
+            maxLatencyNanos = Math.max(maxLatencyNanos, end - item.queued);
+          }
+          complete(item.seq, results);
+        }
+      } catch (InterruptedException e) {
+        log.info("{} stopped", Thread.currentThread().getName());
+      }
+    }
+
+    void complete(long seq, List<Document> results) throws InterruptedException {
+      if (!preserveOrder || threads.length == 1) {
+        emit(results);
+        return;
+      }
+      // held until everything before it is done
+      synchronized (done) {
+        done.put(seq, results);
+        List<Document> ready;
+        while ((ready = done.remove(nextOut)) != null) {
+          ++nextOut;
+          emit(ready);
+        }
+      }
+    }
+
+    void emit(List<Document> results) throws InterruptedException {
+      if (next != null) {
+        pending(results.size());
+        for (Document doc : results) {
+          next.put(doc);
+        }
+      }
+      // this stage is done with its document
+      pending(-1);
+    }
+
+    synchronized StageStats getStats() {
+      StageStats stats = new StageStats();
+      stats.name = name;
+      stats.threads = threads.length;
+      stats.queued = queue.size();
+      stats.in = in;
+      stats.out = out;
+      stats.dropped = dropped;
+      stats.errors = errors;
+      if (in > 0) {
+        stats.avgProcessMs = processNanos / 1000000.0 / in;
+        stats.avgLatencyMs = latencyNanos / 1000000.0 / in;
+      }
+      stats.maxLatencyMs = maxLatencyNanos / 1000000.0;
+      stats.docsPerSecond = in * 1000.0 / Math.max(1, System.currentTimeMillis() - started);
+      return stats;
+    }
+  }
+
+  final boolean preserveOrder;
+  final List<Stage> stages = new ArrayList<Stage>();
+  volatile boolean running = false;
+
+  /**
+   * documents in the workflow - a document with children counts each of them
+   * until they leave the last stage
+   */
+  long pending = 0;
+  final Object idle = new Object();
+
+  public StagedWorkflow(WorkflowConfiguration workflowConfig) throws ClassNotFoundException {
+    super(workflowConfig);
+    this.preserveOrder = workflowConfig.isPreserveOrder();
+  }
+
+  @Override
+  public void initialize() {
+    running = true;
+    int index = 0;
+    Stage previous = null;
+    for (StageConfiguration config : workflowConfig.getStages()) {
+      Stage stage;
+      try {
+        stage = new Stage(config, index++);
+      } catch (ClassNotFoundException e) {
+        log.warn("Error starting stage {}", config.getStageName(), e);
+        continue;
+      }
+      if (previous != null) {
+        previous.next = stage;
+      }
+      stages.add(stage);
+      previous = stage;
+    }
+    for (Stage stage : stages) {
+      for (Thread t : stage.threads) {
+        t.start();
+      }
+    }
+  }
+
+  void pending(int delta) {
+    synchronized (idle) {
+      pending += delta;
+      if (pending == 0) {
+        idle.notifyAll();
+      }
+    }
+  }
+
+  @Override
+  public void processDocument(Document doc) throws InterruptedException {
+    if (stages.isEmpty()) {
+      return;
+    }
+    pending(1);
+    stages.get(0).put(doc);
+  }
+
+  /**
+   * waits until every document has left the workflow, then flushes every
+   * stage in order
+   */
+  @Override
+  public void flush() {
+    try {
+      synchronized (idle) {
+        while (pending > 0) {
+          idle.wait();
+        }
+      }
+    } catch (InterruptedException e) {
+      log.info("Interrupted while waiting for workflow {} to drain.", getName());
+      return;
+    }
+    for (Stage stage : stages) {
+      for (AbstractStage instance : stage.instances) {
+        instance.flush();
+      }
+    }
+    log.info("Workflow {} flushed.", getName());
+  }
+
+  @Override
+  public List<StageStats> getStageStats() {
+    List<StageStats> ret = new ArrayList<StageStats>();
+    for (Stage stage : stages) {
+      ret.add(stage.getStats());
+    }
+    return ret;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    for (Stage stage : stages) {
+      for (Thread t : stage.threads) {
+        t.interrupt();
+      }
+      for (AbstractStage instance : stage.instances) {
+        instance.stopStage();
+      }
+    }
+  }
+
+}
@@ -1,5 +1,7 @@
 package org.myrobotlab.document.workflow;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.myrobotlab.document.Document;
@@ -19,12 +21,15 @@ public class Workflow {
   private final int queueLength;
   private final LinkedBlockingQueue<Document> queue;
   private String name = "defaultWorkflow";
+  // documents queued or being processed - flush waits for none
+  private long pending = 0;
+  private final Object idle = new Object();
   // The workflow has it's own copy of each stage. to avoid thread safety issues
   // when running
   // with more than 1 thread. (todo:review this design pattern for something
   // more thread poolesque?)
   private WorkflowWorker[] workers;
-  private WorkflowConfiguration workflowConfig;
+  protected WorkflowConfiguration workflowConfig;
   public final static Logger log = LoggerFactory.getLogger(Workflow.class);
 
   // constructor
@@ -52,7 +57,7 @@ public class Workflow {
   private void initializeWorkerThread(int threadNum) {
     WorkflowWorker worker = null;
     try {
-      worker = new WorkflowWorker(workflowConfig, queue, Integer.toString(threadNum));
+      worker = new WorkflowWorker(this, workflowConfig, queue, Integer.toString(threadNum));
     } catch (ClassNotFoundException e) {
       // TODO: better handling?
       log.warn("Error starting the worker thread. {}", e.getLocalizedMessage());
@@ -64,11 +69,23 @@ public class Workflow {
   }
 
   public void processDocument(Document doc) throws InterruptedException {
+    if (doc == null) {
+      log.warn("Workflow {} can not process a null document.", name);
+      return;
+    }
     // put the document on the processing queue.
-    if (doc != null) {
-      queue.put(doc);
-    } else {
+    synchronized (idle) {
+      ++pending;
+    }
+    boolean queued = false;
+    try {
       queue.put(doc);
+      queued = true;
+    } finally {
+      // a document which never made it to a worker is not waited for
+      if (!queued) {
+        processed();
+      }
     }
   }
 
@@ -90,37 +107,17 @@ public class Workflow {
 
   // flush all the stages on each worker thread.
   public void flush() {
-    // TODO: Or make it block here.
-    while (!queue.isEmpty()) {
-      try {
-        // TODO: give a logger object to this class.
-        // TODO: review this for threading issues and concurrency
-        log.info("Waiting for workflow flush.");
-        Thread.sleep(500);
-      } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        log.info("Interrupted while waiting for queue to drain. {}", e.getMessage());
-        e.printStackTrace();
-      }
-    }
-
-    // now wait for the threads to no longer be running
-    while (true) {
-      boolean oneIsRunning = false;
-      for (int i = 0; i < numWorkerThreads; i++) {
-        oneIsRunning |= workers[i].isProcessing();
-      }
-      if (!oneIsRunning) {
-        break;
-      }
-      try {
-        log.info("Workers are still running...");
-        Thread.sleep(1000);
-      } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+    // wait until every document put on the queue has been processed
+    try {
+      synchronized (idle) {
+        while (pending > 0) {
+          log.info("Waiting for workflow flush.");
+          idle.wait();
+        }
       }
-
+    } catch (InterruptedException e) {
+      log.info("Interrupted while waiting for queue to drain. {}", e.getMessage());
+      return;
     }
 
     // Each worker will get flushed.
@@ -132,6 +129,34 @@ public class Workflow {
 
   }
 
+  // called by a worker when it has finished a document
+  void processed() {
+    synchronized (idle) {
+      --pending;
+      if (pending == 0) {
+        idle.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * @return per stage statistics - only kept by staged workflows
+   */
+  public List<StageStats> getStageStats() {
+    return new ArrayList<StageStats>();
+  }
+
+  public void stop() {
+    if (workers == null) {
+      return;
+    }
+    for (WorkflowWorker worker : workers) {
+      if (worker != null) {
+        worker.interrupt();
+      }
+    }
+  }
+
   public String getName() {
     return name;
   }
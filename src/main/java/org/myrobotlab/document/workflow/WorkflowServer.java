@@ -1,6 +1,7 @@
 package org.myrobotlab.document.workflow;
 
 import java.util.HashMap;
+import java.util.List;
 
 import org.myrobotlab.document.transformer.WorkflowConfiguration;
 
@@ -30,7 +31,7 @@ public class WorkflowServer {
   // }
 
   public void addWorkflow(WorkflowConfiguration config) throws ClassNotFoundException {
-    Workflow w = new Workflow(config);
+    Workflow w = (config.isStaged()) ? new StagedWorkflow(config) : new Workflow(config);
     w.initialize();
     workflowMap.put(w.getName(), w);
   }
@@ -53,6 +54,11 @@ public class WorkflowServer {
 
   }
 
+  public List<StageStats> getStageStats(String workflow) {
+    Workflow w = workflowMap.get(workflow);
+    return w.getStageStats();
+  }
+
   public String[] listWorkflows() {
     // TODO Auto-generated method stub
     String[] ws = new String[workflowMap.keySet().size()];
@@ -23,11 +23,13 @@ public class WorkflowWorker extends Thread {
   private ArrayList<AbstractStage> stages;
 
   private final LinkedBlockingQueue<Document> queue;
+  private final Workflow workflow;
 
-  WorkflowWorker(WorkflowConfiguration workflowConfig, LinkedBlockingQueue<Document> queue, String workerId) throws ClassNotFoundException {
+  WorkflowWorker(Workflow workflow, WorkflowConfiguration workflowConfig, LinkedBlockingQueue<Document> queue, String workerId) throws ClassNotFoundException {
     // set the thread name
     this.setName("WorkflowWorker-" + workflowConfig.getName() + "-" + workerId);
     this.queue = queue;
+    this.workflow = workflow;
     stages = new ArrayList<AbstractStage>();
     for (StageConfiguration stageConf : workflowConfig.getStages()) {
       String stageClass = stageConf.getStageClass().trim();
@@ -61,9 +63,16 @@ public class WorkflowWorker extends Thread {
         } else {
           processing = true;
           // process from the start of the workflow
-          processDocumentInternal(doc, 0);
-          processing = false;
+          try {
+            processDocumentInternal(doc, 0);
+          } finally {
+            processing = false;
+            workflow.processed();
+          }
         }
+      } catch (InterruptedException e) {
+        log.info("Workflow Worker {} stopped", getName());
+        running = false;
       } catch (Exception e) {
         // TODO: Why didn't I see this message before? because the exception was
         // a runtime exception
@@ -0,0 +1,120 @@
+package org.myrobotlab.math.geometry;
+
+import java.util.stream.IntStream;
+
+/**
+ * Converts depth images to point clouds with a pinhole camera model.
+ *
+ * The ray of every pixel is computed once, so a frame is a multiply per
+ * coordinate - rows are done in parallel and written straight into the
+ * primitive arrays of the cloud. The cloud is organized - point i is pixel
+ * (i % width, i / width) - and pixels without depth are NaN.
+ *
+ * Coordinates are in meters, x to the right, y up and z towards the camera (the
+ * scene is at negative z).
+ */
+public class DepthProjector {
+
+  /**
+   * Kinect (v1) depth camera field of view in degrees
+   */
+  public static final float KINECT_HORIZONTAL_FOV = 57.0f;
+  public static final float KINECT_VERTICAL_FOV = 43.0f;
+
+  final int width;
+  final int height;
+  // x/z and y/z of each pixel's ray
+  final float[] rayX;
+  final float[] rayY;
+
+  /**
+   * @param width
+   *          - of the depth image
+   * @param height
+   *          - of the depth image
+   * @param fx
+   *          - focal length in pixels
+   * @param fy
+   *          - focal length in pixels
+   * @param cx
+   *          - principal point
+   * @param cy
+   *          - principal point
+   */
+  public DepthProjector(int width, int height, float fx, float fy, float cx, float cy) {
+    this.width = width;
+    this.height = height;
+    rayX = new float[width * height];
+    rayY = new float[width * height];
+    for (int v = 0; v < height; ++v) {
+      for (int u = 0; u < width; ++u) {
+        rayX[v * width + u] = (u - cx) / fx;
+        // image rows go down
+        rayY[v * width + u] = (cy - v) / fy;
+      }
+    }
+  }
+
+  /**
+   * camera from its field of view - principal point in the center of the
+   * image
+   */
+  public static DepthProjector fromFov(int width, int height, float horizontalFov, float verticalFov) {
+    float fx = (float) ((width / 2.0) / Math.tan(Math.toRadians(horizontalFov) / 2));
+    float fy = (float) ((height / 2.0) / Math.tan(Math.toRadians(verticalFov) / 2));
+    return new DepthProjector(width, height, fx, fy, (width - 1) / 2.0f, (height - 1) / 2.0f);
+  }
+
+  public static DepthProjector kinect(int width, int height) {
+    return fromFov(width, height, KINECT_HORIZONTAL_FOV, KINECT_VERTICAL_FOV);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @param depth
+   *          - depth image, rows of stride values
+   * @param stride
+   *          - values per row - at least width
+   * @param scale
+   *          - meters per depth unit - 0.001 for millimeters
+   * @param min
+   *          - closer depths are ignored (in meters)
+   * @param max
+   *          - further depths are ignored (in meters)
+   * @return the organized cloud
+   */
+  public PointCloud project(short[] depth, int stride, float scale, float min, float max) {
+    int n = width * height;
+    float[] x = new float[n];
+    float[] y = new float[n];
+    float[] z = new float[n];
+    IntStream.range(0, height).parallel().forEach(v -> {
+      int row = v * stride;
+      int i = v * width;
+      for (int u = 0; u < width; ++u, ++i) {
+        // depth is unsigned
+        float d = (depth[row + u] & 0xffff) * scale;
+        if (d < min || d > max || d == 0) {
+          x[i] = Float.NaN;
+          y[i] = Float.NaN;
+          z[i] = Float.NaN;
+        } else {
+          x[i] = rayX[i] * d;
+          y[i] = rayY[i] * d;
+          z[i] = -d;
+        }
+      }
+    });
+    PointCloud pc = new PointCloud(x, y, z, n);
+    pc.setDimensions(width, height);
+    return pc;
+  }
+
+}
@@ -2,7 +2,12 @@ package org.myrobotlab.math.geometry;
 
 /**
  * TODO - add more meta data ?
- * 
+ *
+ * A point cloud can be backed either by an array of Point3df or by
+ * primitive float arrays (structure of arrays). Producers which generate many
+ * points per frame (lidar, depth cameras) should use the primitive form - the
+ * Point3df form is materialized lazily when getData() is called.
+ *
  * @author GroG
  *
  */
@@ -13,11 +18,46 @@ public class PointCloud {
   Point3df[] data;
   float[] colors;
 
+  // primitive (structure of arrays) representation
+  float[] x;
+  float[] y;
+  float[] z;
+  float[] intensity;
+  int size = 0;
+
   public PointCloud(Point3df[] data) {
     this.data = data;
+    this.size = (data == null) ? 0 : data.length;
+  }
+
+  /**
+   * primitive point cloud - the arrays are not copied and are expected to be at
+   * least size long
+   *
+   * @param x
+   *          x coordinates
+   * @param y
+   *          y coordinates
+   * @param z
+   *          z coordinates
+   * @param size
+   *          number of valid points
+   */
+  public PointCloud(float[] x, float[] y, float[] z, int size) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.size = size;
   }
 
   public Point3df[] getData() {
+    if (data == null && x != null) {
+      Point3df[] points = new Point3df[size];
+      for (int i = 0; i < size; ++i) {
+        points[i] = new Point3df(x[i], y[i], z[i]);
+      }
+      data = points;
+    }
     return data;
   }
 
@@ -29,4 +69,41 @@ public class PointCloud {
     return colors;
   }
 
+  public void setIntensity(float[] intensity) {
+    this.intensity = intensity;
+  }
+
+  public float[] getIntensity() {
+    return intensity;
+  }
+
+  public float[] getX() {
+    return x;
+  }
+
+  public float[] getY() {
+    return y;
+  }
+
+  public float[] getZ() {
+    return z;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void setDimensions(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
 }
@@ -0,0 +1,344 @@
+package org.myrobotlab.math.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse grid of cubic voxels - what's occupied, and the centroid of the points
+ * in each occupied voxel.
+ *
+ * Voxels are kept in an open addressing hash table of primitive arrays keyed by
+ * their packed integer coordinates, so adding a point allocates nothing. Used
+ * to downsample point clouds (one point per voxel) and for occupancy queries
+ * (is there anything at x,y,z).
+ *
+ * Voxel coordinates are floor(coordinate / size) and have to fit in 21 bits -
+ * about a million voxels in each direction from the origin.
+ */
+public class VoxelGrid {
+
+  static final long FREE = Long.MIN_VALUE;
+  static final int BITS = 21;
+  static final long MASK = (1L << BITS) - 1;
+
+  final float size;
+
+  long[] keys;
+  float[] sumX;
+  float[] sumY;
+  float[] sumZ;
+  // points in a voxel - 0 once it's been cleared
+  int[] counts;
+  // slots used, occupied or not
+  int used;
+  // voxels with points
+  int occupied;
+
+  /**
+   * @param size
+   *          - side of a voxel
+   */
+  public VoxelGrid(float size) {
+    this(size, 1024);
+  }
+
+  public VoxelGrid(float size, int expected) {
+    if (size <= 0) {
+      throw new IllegalArgumentException(String.format("voxel size %f must be positive", size));
+    }
+    this.size = size;
+    allocate(Integer.highestOneBit(Math.max(16, expected) * 2 - 1) * 2);
+  }
+
+  void allocate(int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, FREE);
+    sumX = new float[capacity];
+    sumY = new float[capacity];
+    sumZ = new float[capacity];
+    counts = new int[capacity];
+    used = 0;
+    occupied = 0;
+  }
+
+  public float getSize() {
+    return size;
+  }
+
+  public int voxel(float coordinate) {
+    return (int) Math.floor(coordinate / size);
+  }
+
+  static long key(int vx, int vy, int vz) {
+    return ((vx & MASK) << (2 * BITS)) | ((vy & MASK) << BITS) | (vz & MASK);
+  }
+
+  static int unpack(long key, int shift) {
+    // sign extends the 21 bits
+    return (int) ((key >> shift) << (64 - BITS) >> (64 - BITS));
+  }
+
+  static int hash(long key) {
+    // murmur3 finalizer
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  /**
+   * @return the slot of the key - or the free slot it would go in
+   */
+  int find(long key) {
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    while (keys[slot] != FREE && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  int insert(long key) {
+    int slot = find(key);
+    if (keys[slot] == FREE) {
+      if ((used + 1) * 2 > keys.length) {
+        grow();
+        slot = find(key);
+      }
+      keys[slot] = key;
+      ++used;
+    }
+    return slot;
+  }
+
+  void grow() {
+    long[] oldKeys = keys;
+    float[] oldX = sumX;
+    float[] oldY = sumY;
+    float[] oldZ = sumZ;
+    int[] oldCounts = counts;
+    allocate(oldKeys.length * 2);
+    for (int i = 0; i < oldKeys.length; ++i) {
+      // cleared voxels are dropped
+      if (oldKeys[i] != FREE && oldCounts[i] > 0) {
+        int slot = find(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        sumX[slot] = oldX[i];
+        sumY[slot] = oldY[i];
+        sumZ[slot] = oldZ[i];
+        counts[slot] = oldCounts[i];
+        ++used;
+        ++occupied;
+      }
+    }
+  }
+
+  /**
+   * adds a point to its voxel - NaN points (no data) are ignored
+   */
+  public void add(float x, float y, float z) {
+    if (Float.isNaN(x) || Float.isNaN(y) || Float.isNaN(z)) {
+      return;
+    }
+    int slot = insert(key(voxel(x), voxel(y), voxel(z)));
+    if (counts[slot]++ == 0) {
+      ++occupied;
+    }
+    sumX[slot] += x;
+    sumY[slot] += y;
+    sumZ[slot] += z;
+  }
+
+  /**
+   * adds every point of a cloud
+   */
+  public void add(PointCloud pc) {
+    float[] x = pc.getX();
+    if (x != null) {
+      float[] y = pc.getY();
+      float[] z = pc.getZ();
+      for (int i = 0; i < pc.size(); ++i) {
+        add(x[i], y[i], z[i]);
+      }
+      return;
+    }
+    Point3df[] points = pc.getData();
+    if (points != null) {
+      for (Point3df p : points) {
+        add(p.x, p.y, p.z);
+      }
+    }
+  }
+
+  /**
+   * empties the voxel of a point - e.g. something was seen through it
+   */
+  public void remove(float x, float y, float z) {
+    int slot = find(key(voxel(x), voxel(y), voxel(z)));
+    if (keys[slot] != FREE && counts[slot] > 0) {
+      counts[slot] = 0;
+      sumX[slot] = 0;
+      sumY[slot] = 0;
+      sumZ[slot] = 0;
+      --occupied;
+    }
+  }
+
+  /**
+   * @return the slot of an occupied voxel - -1 if it's not occupied
+   */
+  public int getSlot(int vx, int vy, int vz) {
+    int slot = find(key(vx, vy, vz));
+    return (keys[slot] != FREE && counts[slot] > 0) ? slot : -1;
+  }
+
+  public boolean isOccupied(float x, float y, float z) {
+    return getSlot(voxel(x), voxel(y), voxel(z)) >= 0;
+  }
+
+  /**
+   * @return points in the voxel of x,y,z
+   */
+  public int getCount(float x, float y, float z) {
+    int slot = getSlot(voxel(x), voxel(y), voxel(z));
+    return (slot < 0) ? 0 : counts[slot];
+  }
+
+  /**
+   * @return occupied voxels
+   */
+  public int size() {
+    return occupied;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, FREE);
+    Arrays.fill(counts, 0);
+    Arrays.fill(sumX, 0);
+    Arrays.fill(sumY, 0);
+    Arrays.fill(sumZ, 0);
+    used = 0;
+    occupied = 0;
+  }
+
+  /**
+   * slots can be iterated from 0 to getSlots() - only occupied ones have a
+   * voxel
+   */
+  public int getSlots() {
+    return keys.length;
+  }
+
+  public boolean isOccupied(int slot) {
+    return keys[slot] != FREE && counts[slot] > 0;
+  }
+
+  public int getVoxelX(int slot) {
+    return unpack(keys[slot], 2 * BITS);
+  }
+
+  public int getVoxelY(int slot) {
+    return unpack(keys[slot], BITS);
+  }
+
+  public int getVoxelZ(int slot) {
+    return unpack(keys[slot], 0);
+  }
+
+  public int getCount(int slot) {
+    return counts[slot];
+  }
+
+  public float getCentroidX(int slot) {
+    return sumX[slot] / counts[slot];
+  }
+
+  public float getCentroidY(int slot) {
+    return sumY[slot] / counts[slot];
+  }
+
+  public float getCentroidZ(int slot) {
+    return sumZ[slot] / counts[slot];
+  }
+
+  /**
+   * @return the centroid of every occupied voxel
+   */
+  public PointCloud downsample() {
+    float[] x = new float[occupied];
+    float[] y = new float[occupied];
+    float[] z = new float[occupied];
+    int n = 0;
+    for (int slot = 0; slot < keys.length; ++slot) {
+      if (isOccupied(slot)) {
+        x[n] = getCentroidX(slot);
+        y[n] = getCentroidY(slot);
+        z[n] = getCentroidZ(slot);
+        ++n;
+      }
+    }
+    return new PointCloud(x, y, z, n);
+  }
+
+  /**
+   * groups the occupied voxels into objects - two voxels are in the same
+   * object when their centroids are closer than distance, directly or through
+   * other voxels of the object
+   *
+   * @param distance
+   *          - how close voxels of an object are
+   * @param minVoxels
+   *          - smaller groups are dropped
+   * @return the slots of each object
+   */
+  public List<int[]> cluster(float distance, int minVoxels) {
+    int reach = (int) Math.ceil(distance / size);
+    float distance2 = distance * distance;
+    boolean[] visited = new boolean[keys.length];
+    int[] queue = new int[occupied];
+    List<int[]> clusters = new ArrayList<>();
+    for (int seed = 0; seed < keys.length; ++seed) {
+      if (visited[seed] || !isOccupied(seed)) {
+        continue;
+      }
+      visited[seed] = true;
+      int head = 0;
+      int tail = 0;
+      queue[tail++] = seed;
+      while (head < tail) {
+        int slot = queue[head++];
+        int vx = getVoxelX(slot);
+        int vy = getVoxelY(slot);
+        int vz = getVoxelZ(slot);
+        float cx = getCentroidX(slot);
+        float cy = getCentroidY(slot);
+        float cz = getCentroidZ(slot);
+        for (int dx = -reach; dx <= reach; ++dx) {
+          for (int dy = -reach; dy <= reach; ++dy) {
+            for (int dz = -reach; dz <= reach; ++dz) {
+              int neighbour = getSlot(vx + dx, vy + dy, vz + dz);
+              if (neighbour < 0 || visited[neighbour]) {
+                continue;
+              }
+              float ex = getCentroidX(neighbour) - cx;
+              float ey = getCentroidY(neighbour) - cy;
+              float ez = getCentroidZ(neighbour) - cz;
+              if (ex * ex + ey * ey + ez * ez < distance2) {
+                visited[neighbour] = true;
+                queue[tail++] = neighbour;
+              }
+            }
+          }
+        }
+      }
+      if (tail >= minVoxels) {
+        clusters.add(Arrays.copyOf(queue, tail));
+      }
+    }
+    return clusters;
+  }
+
+}
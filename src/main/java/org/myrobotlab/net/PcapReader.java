@@ -0,0 +1,141 @@
+package org.myrobotlab.net;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Minimal libpcap file reader - it only understands ethernet captures of IPv4
+ * UDP traffic, which is what sensor recordings (e.g. Velodyne lidar) consist
+ * of. Non UDP records are skipped.
+ *
+ */
+public class PcapReader implements Closeable {
+
+  final static int MAGIC_MICROS = 0xa1b2c3d4;
+  final static int MAGIC_NANOS = 0xa1b23c4d;
+
+  final static int LINKTYPE_ETHERNET = 1;
+
+  DataInputStream in;
+  ByteOrder order;
+  boolean nanos = false;
+  int linkType;
+
+  byte[] record = new byte[65536];
+  byte[] header = new byte[16];
+
+  int destinationPort;
+  long timestampUs;
+
+  public PcapReader(String filename) throws IOException {
+    in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+    byte[] global = new byte[24];
+    in.readFully(global);
+    ByteBuffer bb = ByteBuffer.wrap(global);
+    int magic = bb.getInt(0);
+    if (magic == MAGIC_MICROS || magic == MAGIC_NANOS) {
+      order = ByteOrder.BIG_ENDIAN;
+    } else {
+      bb.order(ByteOrder.LITTLE_ENDIAN);
+      magic = bb.getInt(0);
+      if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+        in.close();
+        throw new IOException(String.format("%s is not a pcap file", filename));
+      }
+      order = ByteOrder.LITTLE_ENDIAN;
+    }
+    nanos = (magic == MAGIC_NANOS);
+    bb.order(order);
+    linkType = bb.getInt(20);
+    if (linkType != LINKTYPE_ETHERNET) {
+      in.close();
+      throw new IOException(String.format("unsupported pcap link type %d", linkType));
+    }
+  }
+
+  /**
+   * reads the next UDP payload into the buffer - the buffer is cleared and then
+   * flipped so it is ready to be read
+   *
+   * @param payload
+   *          destination buffer
+   * @return false at the end of the file
+   * @throws IOException
+   *           on read error
+   */
+  public boolean next(ByteBuffer payload) throws IOException {
+    while (true) {
+      try {
+        in.readFully(header);
+      } catch (EOFException e) {
+        return false;
+      }
+      ByteBuffer hb = ByteBuffer.wrap(header).order(order);
+      long sec = hb.getInt(0) & 0xFFFFFFFFL;
+      long frac = hb.getInt(4) & 0xFFFFFFFFL;
+      int inclLen = hb.getInt(8);
+      if (inclLen > record.length) {
+        record = new byte[inclLen];
+      }
+      in.readFully(record, 0, inclLen);
+
+      // ethernet
+      if (inclLen < 14 + 20 + 8) {
+        continue;
+      }
+      int etherType = ((record[12] & 0xFF) << 8) | (record[13] & 0xFF);
+      if (etherType != 0x0800) {
+        continue;
+      }
+      // ipv4
+      int ip = 14;
+      int ihl = (record[ip] & 0x0F) * 4;
+      int protocol = record[ip + 9] & 0xFF;
+      if (protocol != 17) {
+        continue;
+      }
+      // udp
+      int udp = ip + ihl;
+      destinationPort = ((record[udp + 2] & 0xFF) << 8) | (record[udp + 3] & 0xFF);
+      int udpLen = ((record[udp + 4] & 0xFF) << 8) | (record[udp + 5] & 0xFF);
+      int start = udp + 8;
+      int len = Math.min(udpLen - 8, inclLen - start);
+      if (len <= 0) {
+        continue;
+      }
+
+      timestampUs = sec * 1000000 + (nanos ? frac / 1000 : frac);
+
+      payload.clear();
+      payload.put(record, start, Math.min(len, payload.remaining()));
+      payload.flip();
+      return true;
+    }
+  }
+
+  /**
+   * @return the UDP destination port of the last record read
+   */
+  public int getDestinationPort() {
+    return destinationPort;
+  }
+
+  /**
+   * @return the capture timestamp of the last record read in micro seconds
+   */
+  public long getTimestampUs() {
+    return timestampUs;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+}
@@ -1,55 +1,114 @@
 package org.myrobotlab.net;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.service.Serial;
 import org.slf4j.Logger;
 
+/**
+ * Shares a serial port with any number of tcp clients (loggers, flashers,
+ * monitors ...). A single selector thread accepts clients, broadcasts RX data
+ * to all of them and forwards their data to the serial port.
+ *
+ * RX data is broadcast in chunks - each client has its own bounded buffer, a
+ * slow client loses data (counted in its stats) instead of stalling the port or
+ * the other clients.
+ *
+ * TX is arbitrated - one client owns the serial port at a time so messages
+ * from different clients are not interleaved. Ownership is released after the
+ * owner has been idle for txIdleMs, other clients are not read (tcp back
+ * pressure holds their data) until then.
+ */
 public class TcpSerialHub implements Runnable {
 
-  private class TcpThread implements Runnable {
-    private Socket socket;
+  public final static Logger log = LoggerFactory.getLogger(TcpSerialHub.class);
+
+  /**
+   * snapshot of a client's statistics
+   */
+  public static class ClientStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public String address;
+    public long connected;
+    /**
+     * bytes from the serial port sent to the client
+     */
+    public long rxBytes;
+    /**
+     * bytes from the client written to the serial port
+     */
+    public long txBytes;
+    /**
+     * bytes from the serial port the client was too slow to take
+     */
+    public long droppedBytes;
+    public int buffered;
+    public boolean txOwner;
 
-    TcpThread(Socket socket) {
-      this.socket = socket;
+    public double getRxBytesPerSecond() {
+      long ms = Math.max(1, System.currentTimeMillis() - connected);
+      return rxBytes * 1000.0 / ms;
+    }
+
+    public double getTxBytesPerSecond() {
+      long ms = Math.max(1, System.currentTimeMillis() - connected);
+      return txBytes * 1000.0 / ms;
     }
 
     @Override
-    public void run() {
-      log.info("connected: " + socket);
-      try {
+    public String toString() {
+      return String.format("%s rx %d (%.0f B/s) tx %d (%.0f B/s) dropped %d buffered %d%s", address, rxBytes, getRxBytesPerSecond(), txBytes, getTxBytesPerSecond(), droppedBytes,
+          buffered, (txOwner) ? " tx owner" : "");
+    }
+  }
 
-        InputStream netIn = socket.getInputStream();
+  class Client {
+    final SocketChannel channel;
+    final ByteBuffer out;
+    final String address;
+    final long connected;
+    // written by the selector and serial threads, read by anyone asking for
+    // stats
+    final AtomicLong rxBytes = new AtomicLong();
+    final AtomicLong txBytes = new AtomicLong();
+    final AtomicLong droppedBytes = new AtomicLong();
+    volatile int buffered;
+    volatile boolean isTxOwner;
 
-        int c;
-        while ((c = netIn.read()) != -1) {
-          serial.write(c);
-        }
+    Client(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      this.out = ByteBuffer.allocateDirect(clientBufferSize);
+      address = channel.getRemoteAddress().toString();
+      connected = System.currentTimeMillis();
+    }
 
-      } catch (Exception e) {
-        log.info("error:" + socket);
-      } finally {
-        try {
-          socket.close();
-        } catch (IOException e) {
-        }
-        log.info("closed: " + socket);
-      }
-      
-      clients.remove(this);
+    ClientStats getStats() {
+      ClientStats stats = new ClientStats();
+      stats.address = address;
+      stats.connected = connected;
+      stats.rxBytes = rxBytes.get();
+      stats.txBytes = txBytes.get();
+      stats.droppedBytes = droppedBytes.get();
+      stats.buffered = buffered;
+      stats.txOwner = isTxOwner;
+      return stats;
     }
   }
 
-  public final static Logger log = LoggerFactory.getLogger(TcpSerialHub.class);
   public static void main(String[] args) {
     try {
       TcpSerialHub hub = new TcpSerialHub();
@@ -58,19 +117,42 @@ public class TcpSerialHub implements Runnable {
       log.error("main threw", e);
     }
   }
-  ServerSocket listener;
-  boolean listening;
-  int nThreads = 2; // 20
-  transient ExecutorService pool;
+
+  volatile boolean listening;
 
   int port = 32323;
   transient Serial serial;
 
+  /**
+   * size of each client's outbound buffer
+   */
+  int clientBufferSize = 64 * 1024;
+
+  /**
+   * a tx owner which has not sent anything for this long loses ownership
+   */
+  long txIdleMs = 100;
+
   transient private Thread serverThread;
-  
-  Set<TcpThread> clients = new HashSet<TcpThread>();
+  transient Selector selector;
+  transient ServerSocketChannel server;
+
+  final ConcurrentHashMap<SocketChannel, Client> clients = new ConcurrentHashMap<>();
 
-  // Map<String, Socket> socketsx = new HashMap<>();
+  /**
+   * RX bytes from the serial port waiting to be broadcast - filled by the
+   * serial thread, swapped out by the selector thread
+   */
+  byte[] pending = new byte[8192];
+  int pendingSize = 0;
+  byte[] draining = new byte[8192];
+  final Object pendingLock = new Object();
+
+  Client txOwner = null;
+  long txLastActivity = 0;
+
+  final ByteBuffer readBuffer = ByteBuffer.allocateDirect(4096);
+  final byte[] readBytes = new byte[4096];
 
   public TcpSerialHub() {
   }
@@ -83,28 +165,204 @@ public class TcpSerialHub implements Runnable {
 
   public void attach(Serial serial) {
     this.serial = serial;
-    //serial.addByteListener(this);
   }
 
-  synchronized public void run() {
+  @Override
+  public void run() {
     try {
-      listener = new ServerSocket(port);
       log.info("started server port {}", port);
-      pool = Executors.newFixedThreadPool(nThreads);
-      listening = true;
       while (listening) {
-        TcpThread client = new TcpThread(listener.accept());
-        clients.add(client);
-        pool.execute(client);
+        selector.select(txIdleMs);
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          try {
+            if (key.isAcceptable()) {
+              accept();
+            } else {
+              Client client = (Client) key.attachment();
+              if (key.isReadable()) {
+                read(client);
+              }
+              if (key.isValid() && key.isWritable()) {
+                write(client);
+              }
+            }
+          } catch (IOException e) {
+            close((Client) key.attachment());
+          }
+        }
+        distribute();
+        arbitrate();
       }
+    } catch (ClosedSelectorException e) {
+      log.info("selector closed");
     } catch (Exception e) {
       log.error("TcpSerialHub threw", e);
+    } finally {
+      for (Client client : clients.values()) {
+        close(client);
+      }
+      serverThread = null;
+      try {
+        if (server != null) {
+          server.close();
+        }
+        if (selector != null) {
+          selector.close();
+        }
+      } catch (IOException e) {
+      }
+      log.info("stopped server port {}", port);
+    }
+  }
+
+  void accept() throws IOException {
+    SocketChannel channel = server.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    Client client = new Client(channel);
+    clients.put(channel, client);
+    channel.register(selector, (txOwner == null) ? SelectionKey.OP_READ : 0, client);
+    log.info("connected: {}", client.address);
+  }
+
+  void read(Client client) throws IOException {
+    if (txOwner != null && txOwner != client) {
+      // not our turn - stop reading and let tcp hold the data
+      interest(client, 0, SelectionKey.OP_READ);
+      return;
+    }
+    readBuffer.clear();
+    int n = client.channel.read(readBuffer);
+    if (n < 0) {
+      close(client);
+      return;
+    }
+    if (n == 0) {
+      return;
+    }
+    txOwner = client;
+    client.isTxOwner = true;
+    txLastActivity = System.currentTimeMillis();
+    readBuffer.flip();
+    readBuffer.get(readBytes, 0, n);
+    client.txBytes.addAndGet(n);
+    tx(readBytes, n);
+    // other clients must wait
+    for (Client other : clients.values()) {
+      if (other != client) {
+        interest(other, 0, SelectionKey.OP_READ);
+      }
+    }
+  }
+
+  /**
+   * writes a client's bytes to the serial port
+   */
+  void tx(byte[] bytes, int length) {
+    if (serial == null) {
+      return;
+    }
+    int[] data = new int[length];
+    for (int i = 0; i < length; ++i) {
+      data[i] = bytes[i] & 0xFF;
     }
-    serverThread = null;
     try {
-      listener.close();
+      serial.write(data);
+    } catch (Exception e) {
+      log.error("serial write threw", e);
+    }
+  }
+
+  void write(Client client) throws IOException {
+    client.out.flip();
+    int n = client.channel.write(client.out);
+    client.rxBytes.addAndGet(n);
+    client.out.compact();
+    client.buffered = client.out.position();
+    if (client.out.position() == 0) {
+      interest(client, 0, SelectionKey.OP_WRITE);
+    }
+  }
+
+  /**
+   * copy pending RX data into every client's buffer
+   */
+  void distribute() {
+    int size;
+    synchronized (pendingLock) {
+      if (pendingSize == 0) {
+        return;
+      }
+      byte[] swap = draining;
+      draining = pending;
+      pending = swap;
+      size = pendingSize;
+      pendingSize = 0;
+    }
+    for (Client client : clients.values()) {
+      int n = Math.min(size, client.out.remaining());
+      client.out.put(draining, 0, n);
+      if (n < size) {
+        client.droppedBytes.addAndGet(size - n);
+      }
+      client.buffered = client.out.position();
+      if (n > 0) {
+        interest(client, SelectionKey.OP_WRITE, 0);
+      }
+    }
+  }
+
+  /**
+   * release tx ownership after the idle time and resume reading from everyone
+   */
+  void arbitrate() {
+    if (txOwner != null && System.currentTimeMillis() - txLastActivity > txIdleMs) {
+      txOwner.isTxOwner = false;
+      releaseTx();
+    }
+  }
+
+  /**
+   * nobody owns tx anymore - every client is read again
+   */
+  void releaseTx() {
+    txOwner = null;
+    txLastActivity = 0;
+    for (Client client : clients.values()) {
+      interest(client, SelectionKey.OP_READ, 0);
+    }
+  }
+
+  void interest(Client client, int add, int remove) {
+    SelectionKey key = client.channel.keyFor(selector);
+    if (key != null && key.isValid()) {
+      key.interestOps((key.interestOps() | add) & ~remove);
+    }
+  }
+
+  void close(Client client) {
+    if (client == null) {
+      return;
+    }
+    clients.remove(client.channel);
+    if (txOwner == client) {
+      client.isTxOwner = false;
+      releaseTx();
+    }
+    try {
+      client.channel.close();
     } catch (IOException e) {
     }
+    log.info("closed: {}", client.getStats());
   }
 
   public void start() throws IOException {
@@ -117,44 +375,121 @@ public class TcpSerialHub implements Runnable {
 
   /**
    * Maximum complexity start
-   * 
+   *
    * @param inPort
    *          - listening port
    * @param inThreads
-   *          - number of handler threads
+   *          - ignored - a single selector thread serves all clients
    * @throws IOException
    */
   synchronized public void start(Integer inPort, Integer inThreads) throws IOException {
-    
-    if (inThreads != null) {
-      nThreads = inThreads;
-    }
-    
+
     if (inPort != null && port != inPort) {
       stop();
       port = inPort;
     }
-    
+
     if (serverThread == null) {
-      serverThread = new Thread(this, "tcpserialhub-");
+      selector = Selector.open();
+      server = ServerSocketChannel.open();
+      server.configureBlocking(false);
+      server.bind(new InetSocketAddress(port));
+      server.register(selector, SelectionKey.OP_ACCEPT);
+      listening = true;
+      serverThread = new Thread(this, String.format("tcpserialhub-%d", port));
       serverThread.start();
     }
   }
 
   synchronized public void stop() throws IOException {
     listening = false;
-    if (listener != null) {
-      listener.close();
+    if (selector != null) {
+      selector.wakeup();
     }
-    pool.shutdown();
+    Thread t = serverThread;
+    if (t != null) {
+      try {
+        t.join(1000);
+      } catch (InterruptedException e) {
+      }
+    }
+  }
+
+  public boolean isListening() {
+    return listening;
   }
 
+  public boolean hasClients() {
+    return !clients.isEmpty();
+  }
+
+  /**
+   * queue a RX byte for all clients - called by the serial thread
+   */
   public void broadcast(Integer newByte) throws IOException {
-    for (TcpThread client : clients) {
-      OutputStream out = client.socket.getOutputStream();
-      out.write(newByte);
+    if (clients.isEmpty()) {
+      return;
+    }
+    boolean wakeup;
+    synchronized (pendingLock) {
+      if (pendingSize == pending.length) {
+        // selector is behind - every client would overflow anyway
+        for (Client client : clients.values()) {
+          client.droppedBytes.incrementAndGet();
+        }
+        return;
+      }
+      wakeup = (pendingSize == 0);
+      pending[pendingSize++] = (byte) newByte.intValue();
+    }
+    // only wake the selector for the first byte of a chunk
+    if (wakeup) {
+      selector.wakeup();
+    }
+  }
+
+  public void broadcast(byte[] data, int offset, int length) {
+    if (clients.isEmpty()) {
+      return;
     }
+    boolean wakeup;
+    synchronized (pendingLock) {
+      int n = Math.min(length, pending.length - pendingSize);
+      wakeup = (pendingSize == 0);
+      System.arraycopy(data, offset, pending, pendingSize, n);
+      pendingSize += n;
+      if (n < length) {
+        for (Client client : clients.values()) {
+          client.droppedBytes.addAndGet(length - n);
+        }
+      }
+    }
+    if (wakeup) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * @return a snapshot of every client's statistics
+   */
+  public List<ClientStats> getClientStats() {
+    List<ClientStats> ret = new ArrayList<>();
+    for (Client client : clients.values()) {
+      ret.add(client.getStats());
+    }
+    return ret;
+  }
+
+  public int getPort() {
+    return port;
   }
 
+  public void setClientBufferSize(int size) {
+    clientBufferSize = size;
+  }
+
+  public void setTxIdleMs(long ms) {
+    txIdleMs = ms;
+  }
 
-}
\ No newline at end of file
+}
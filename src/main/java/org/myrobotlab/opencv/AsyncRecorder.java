@@ -0,0 +1,380 @@
+package org.myrobotlab.opencv;
+
+import static org.bytedeco.opencv.global.opencv_core.cvCopy;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.FrameRecorder;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.IplImage;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Records video off the capture thread. The capture thread only copies the
+ * frame into a bounded queue, an encoder thread writes it - so a slow disk
+ * doesn't slow down the video processor.
+ *
+ * When the queue is full the frame is either dropped (dropFrames, for live
+ * video) or the capture thread waits for the encoder (files, where every frame
+ * is wanted).
+ *
+ * A recording is a directory of segments - flv files, or directories of png
+ * files when recording frames. A new segment starts when the current one is
+ * segmentMs long (by frame timestamps) or segmentBytes big.
+ *
+ * Every recorded frame has a line in the directory's index file
+ *
+ * <pre>
+ * frameIndex timestamp segment position file
+ * </pre>
+ *
+ * so a recording can be seeked by frame - a recording of frames can be
+ * replayed by giving the ImageFileFrameGrabber the directory.
+ */
+public class AsyncRecorder {
+
+  public final static Logger log = LoggerFactory.getLogger(AsyncRecorder.class);
+
+  public static final String INDEX_FILE = "index.txt";
+
+  public static class Stats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public String dir;
+    /**
+     * frames accepted into the queue
+     */
+    public long queued;
+    public long recorded;
+    /**
+     * frames dropped because the queue was full
+     */
+    public long dropped;
+    public long errors;
+    /**
+     * frames waiting for the encoder
+     */
+    public int backlog;
+    public int maxBacklog;
+    /**
+     * time the capture thread waited for a full queue
+     */
+    public double blockedMs;
+    public double avgEncodeMs;
+    public int segments;
+    public long bytes;
+    public boolean closed;
+
+    @Override
+    public String toString() {
+      return String.format("%s queued %d recorded %d dropped %d errors %d backlog %d (max %d) blocked %.1f ms encode %.2f ms segments %d bytes %d", dir, queued, recorded,
+          dropped, errors, backlog, maxBacklog, blockedMs, avgEncodeMs, segments, bytes);
+    }
+  }
+
+  static class Entry {
+    final IplImage image;
+    final int frameIndex;
+    final long timestamp;
+
+    Entry(IplImage image, int frameIndex, long timestamp) {
+      this.image = image;
+      this.frameIndex = frameIndex;
+      this.timestamp = timestamp;
+    }
+  }
+
+  final String dir;
+  final boolean frames;
+  final boolean dropFrames;
+  final ArrayBlockingQueue<Entry> queue;
+  final ImagePool pool;
+  final Thread encoder;
+
+  String format = "png";
+  double frameRate = 30;
+  long segmentMs = 0;
+  long segmentBytes = 0;
+
+  volatile boolean closed = false;
+
+  // encoder thread state
+  OpenCVFrameConverter.ToIplImage converter = new OpenCVFrameConverter.ToIplImage();
+  FrameRecorder recorder;
+  PrintWriter index;
+  int segment = -1;
+  int position;
+  long segmentStartTs;
+  long segmentSize;
+  String segmentFile;
+
+  // stats
+  long queued;
+  long recorded;
+  long dropped;
+  long errors;
+  int maxBacklog;
+  long blockedNanos;
+  long encodeNanos;
+  long bytes;
+
+  /**
+   * @param dir
+   *          - directory of the recording, created if it doesn't exist
+   * @param frames
+   *          - record png files instead of flv
+   * @param queueSize
+   *          - frames waiting for the encoder
+   * @param dropFrames
+   *          - drop frames when the queue is full instead of waiting
+   */
+  public AsyncRecorder(String dir, boolean frames, int queueSize, boolean dropFrames) {
+    this.dir = dir;
+    this.frames = frames;
+    this.dropFrames = dropFrames;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+    // the copies go back as soon as they are encoded
+    this.pool = new ImagePool(Math.max(1, queueSize));
+    encoder = new Thread(() -> encode(), String.format("recorder-%s", new File(dir).getName()));
+    encoder.setDaemon(true);
+  }
+
+  /**
+   * @param frameRate
+   *          - frame rate of flv segments
+   */
+  public AsyncRecorder setFrameRate(double frameRate) {
+    this.frameRate = frameRate;
+    return this;
+  }
+
+  /**
+   * @param segmentMs
+   *          - longest segment in frame time - 0 for no limit
+   * @param segmentBytes
+   *          - biggest segment - 0 for no limit
+   */
+  public AsyncRecorder setSegments(long segmentMs, long segmentBytes) {
+    this.segmentMs = segmentMs;
+    this.segmentBytes = segmentBytes;
+    return this;
+  }
+
+  /**
+   * @param format
+   *          - image format of recorded frames, png by default
+   */
+  public AsyncRecorder setFormat(String format) {
+    this.format = format;
+    return this;
+  }
+
+  public AsyncRecorder start() throws IOException {
+    File d = new File(dir);
+    d.mkdirs();
+    index = new PrintWriter(new FileWriter(new File(d, INDEX_FILE)));
+    index.println("# frameIndex timestamp segment position file");
+    encoder.start();
+    return this;
+  }
+
+  /**
+   * queues a copy of the image - called on the capture thread
+   *
+   * @param image
+   *          - the image, only read before this returns
+   * @param frameIndex
+   *          - its frame index
+   * @param timestamp
+   *          - its timestamp in ms
+   * @return false if it was dropped
+   */
+  public boolean record(IplImage image, int frameIndex, long timestamp) throws InterruptedException {
+    if (closed || image == null) {
+      return false;
+    }
+    if (dropFrames && queue.remainingCapacity() == 0) {
+      synchronized (this) {
+        ++dropped;
+      }
+      return false;
+    }
+    IplImage copy = pool.borrow(image.width(), image.height(), image.depth(), image.nChannels());
+    cvCopy(image, copy);
+    Entry entry = new Entry(copy, frameIndex, timestamp);
+    if (dropFrames) {
+      if (!queue.offer(entry)) {
+        pool.release(copy);
+        synchronized (this) {
+          ++dropped;
+        }
+        return false;
+      }
+    } else {
+      long start = System.nanoTime();
+      queue.put(entry);
+      synchronized (this) {
+        blockedNanos += System.nanoTime() - start;
+      }
+    }
+    synchronized (this) {
+      ++queued;
+      maxBacklog = Math.max(maxBacklog, queue.size());
+    }
+    return true;
+  }
+
+  /**
+   * stops accepting frames - the encoder finishes the backlog and closes the
+   * files on its own thread
+   */
+  public void close() {
+    closed = true;
+  }
+
+  /**
+   * @param timeoutMs
+   *          - longest wait
+   * @return true if the encoder finished
+   */
+  public boolean awaitClosed(long timeoutMs) throws InterruptedException {
+    encoder.join(timeoutMs);
+    return !encoder.isAlive();
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  public String getDir() {
+    return dir;
+  }
+
+  void encode() {
+    try {
+      while (true) {
+        Entry entry = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (entry == null) {
+          if (closed) {
+            break;
+          }
+          continue;
+        }
+        long start = System.nanoTime();
+        try {
+          write(entry);
+          synchronized (this) {
+            ++recorded;
+            encodeNanos += System.nanoTime() - start;
+          }
+        } catch (Exception e) {
+          log.error("recording frame {} to {} failed", entry.frameIndex, dir, e);
+          synchronized (this) {
+            ++errors;
+          }
+        }
+        pool.release(entry.image);
+      }
+    } catch (InterruptedException e) {
+      log.info("recorder {} interrupted", dir);
+    }
+    closeSegment();
+    index.close();
+    // frames left by an interrupt
+    Entry entry = null;
+    while ((entry = queue.poll()) != null) {
+      pool.release(entry.image);
+    }
+    pool.clear();
+    log.info("recorder closed {}", getStats());
+  }
+
+  void write(Entry entry) throws Exception {
+    if (recorder == null || (segmentMs > 0 && entry.timestamp - segmentStartTs >= segmentMs) || (segmentBytes > 0 && segmentSize >= segmentBytes)) {
+      closeSegment();
+      openSegment(entry);
+    }
+    recorder.record(converter.convert(entry.image));
+
+    String file = null;
+    if (frames) {
+      file = ((FrameFileRecorder) recorder).getLastFilename();
+      long size = new File(file).length();
+      segmentSize += size;
+      synchronized (this) {
+        bytes += size;
+      }
+      file = new File(dir).toURI().relativize(new File(file).toURI()).getPath();
+    } else {
+      file = new File(segmentFile).getName();
+      // encoded as it goes - the file size is close
+      segmentSize = new File(segmentFile).length();
+    }
+    index.printf("%d %d %d %d %s%n", entry.frameIndex, entry.timestamp, segment, position, file);
+    ++position;
+  }
+
+  void openSegment(Entry entry) throws Exception {
+    ++segment;
+    position = 0;
+    segmentSize = 0;
+    segmentStartTs = entry.timestamp;
+    if (frames) {
+      segmentFile = String.format("%s%ssegment-%03d", dir, File.separator, segment);
+      FrameFileRecorder ffr = new FrameFileRecorder(dir, segmentFile);
+      ffr.setFormat(format);
+      recorder = ffr;
+    } else {
+      segmentFile = String.format("%s%ssegment-%03d.flv", dir, File.separator, segment);
+      recorder = new FFmpegFrameRecorder(segmentFile, entry.image.width(), entry.image.height(), 0);
+      recorder.setFormat("flv");
+      recorder.setFrameRate(frameRate);
+    }
+    recorder.start();
+    log.info("recording segment {}", segmentFile);
+  }
+
+  void closeSegment() {
+    if (recorder == null) {
+      return;
+    }
+    try {
+      recorder.stop();
+      recorder.release();
+    } catch (Exception e) {
+      log.error("closing segment {} failed", segmentFile, e);
+    }
+    if (!frames) {
+      synchronized (this) {
+        bytes += new File(segmentFile).length();
+      }
+    }
+    index.flush();
+    recorder = null;
+  }
+
+  public synchronized Stats getStats() {
+    Stats stats = new Stats();
+    stats.dir = dir;
+    stats.queued = queued;
+    stats.recorded = recorded;
+    stats.dropped = dropped;
+    stats.errors = errors;
+    stats.backlog = queue.size();
+    stats.maxBacklog = maxBacklog;
+    stats.blockedMs = blockedNanos / 1000000.0;
+    stats.avgEncodeMs = (recorded == 0) ? 0 : encodeNanos / 1000000.0 / recorded;
+    stats.segments = segment + 1;
+    stats.bytes = bytes;
+    stats.closed = closed;
+    return stats;
+  }
+
+}
@@ -0,0 +1,559 @@
+package org.myrobotlab.opencv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Feature vectors of enrolled faces and their names - the model of the
+ * FaceRecognizer filter's INDEX type.
+ *
+ * A face is described by uniform local binary pattern histograms over a grid
+ * of cells (what LBPH compares), square rooted and normalized so the euclidean
+ * distance between two faces is a good measure.
+ *
+ * Enrolling a face only adds its vector - nothing is retrained. The index file
+ * is a header and a record per face, so a new face is appended to it.
+ *
+ * Nearest neighbour search is exact, but skips most of the faces: the faces are
+ * also projected onto the few principal components they vary most in, and the
+ * distance between two projections is never more than the distance between
+ * the faces. Faces are compared closest projection first, and the search stops
+ * at the first one whose projection is further than the best match so far.
+ * Faces of different people are often not much further apart than faces of
+ * the same person, so that can still be many faces - a search can be limited
+ * to the closest projections, which is approximate but rarely differs.
+ */
+public class FaceIndex {
+
+  public final static Logger log = LoggerFactory.getLogger(FaceIndex.class);
+
+  static final int MAGIC = 0x46494458;
+  static final int VERSION = 1;
+
+  /**
+   * bins of a uniform lbp histogram - 58 uniform patterns and the rest
+   */
+  public static final int BINS = 59;
+
+  static final int[] UNIFORM = new int[256];
+
+  static {
+    int bin = 0;
+    for (int code = 0; code < 256; ++code) {
+      // bit changes going around the circle
+      int transitions = Integer.bitCount((code ^ ((code >> 1) | ((code & 1) << 7))) & 0xff);
+      UNIFORM[code] = (transitions <= 2) ? bin++ : BINS - 1;
+    }
+  }
+
+  public static class Match implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final String name;
+    public final String source;
+    public final double distance;
+
+    Match(String name, String source, double distance) {
+      this.name = name;
+      this.source = source;
+      this.distance = distance;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s %.4f %s", name, distance, source);
+    }
+  }
+
+  final int grid;
+  final int dims;
+
+  // the face vectors, one after the other
+  float[] vectors;
+  int size;
+  int[] faceLabels;
+  final List<String> sources = new ArrayList<>();
+  final Set<String> sourceSet = new HashSet<>();
+
+  final List<String> labels = new ArrayList<>();
+  final Map<String, Integer> labelIds = new HashMap<>();
+
+  /**
+   * orthonormal basis of the subspace the faces vary most in - components rows
+   * of dims, null until there are enough faces
+   */
+  float[] basis;
+  int components = 32;
+  // the faces projected onto the basis
+  float[] projected;
+  // faces when the basis was built - it's rebuilt when they double
+  int basisSize;
+
+  /**
+   * most faces a search compares - 0 for an exact search
+   */
+  int candidates = 0;
+
+  // searches and the faces they compared - how well the bound prunes
+  long searches;
+  long compared;
+
+  /**
+   * @param grid
+   *          - cells per side of the face
+   */
+  public FaceIndex(int grid) {
+    this.grid = grid;
+    this.dims = grid * grid * BINS;
+    vectors = new float[16 * dims];
+    faceLabels = new int[16];
+  }
+
+  public FaceIndex() {
+    this(4);
+  }
+
+  /**
+   * the feature vector of a face
+   *
+   * @param gray
+   *          - 8 bit gray pixels, row by row
+   * @param width
+   *          - of the face
+   * @param height
+   *          - of the face
+   * @param grid
+   *          - cells per side
+   * @return grid * grid histograms of BINS
+   */
+  public static float[] features(byte[] gray, int width, int height, int grid) {
+    float[] hist = new float[grid * grid * BINS];
+    int[] counts = new int[grid * grid];
+    for (int y = 1; y < height - 1; ++y) {
+      int cellRow = (y * grid / height) * grid;
+      for (int x = 1; x < width - 1; ++x) {
+        int i = y * width + x;
+        int c = gray[i] & 0xff;
+        int code = 0;
+        code |= ((gray[i - width - 1] & 0xff) >= c) ? 0x80 : 0;
+        code |= ((gray[i - width] & 0xff) >= c) ? 0x40 : 0;
+        code |= ((gray[i - width + 1] & 0xff) >= c) ? 0x20 : 0;
+        code |= ((gray[i + 1] & 0xff) >= c) ? 0x10 : 0;
+        code |= ((gray[i + width + 1] & 0xff) >= c) ? 0x08 : 0;
+        code |= ((gray[i + width] & 0xff) >= c) ? 0x04 : 0;
+        code |= ((gray[i + width - 1] & 0xff) >= c) ? 0x02 : 0;
+        code |= ((gray[i - 1] & 0xff) >= c) ? 0x01 : 0;
+        int cell = cellRow + x * grid / width;
+        ++hist[cell * BINS + UNIFORM[code]];
+        ++counts[cell];
+      }
+    }
+    double norm = 0;
+    for (int cell = 0; cell < counts.length; ++cell) {
+      for (int b = 0; b < BINS; ++b) {
+        int k = cell * BINS + b;
+        hist[k] = (counts[cell] == 0) ? 0 : (float) Math.sqrt(hist[k] / counts[cell]);
+        norm += hist[k] * hist[k];
+      }
+    }
+    if (norm > 0) {
+      float scale = (float) (1 / Math.sqrt(norm));
+      for (int k = 0; k < hist.length; ++k) {
+        hist[k] *= scale;
+      }
+    }
+    return hist;
+  }
+
+  public float[] features(byte[] gray, int width, int height) {
+    return features(gray, width, height, grid);
+  }
+
+  /**
+   * enrolls a face
+   *
+   * @param name
+   *          - who it is
+   * @param source
+   *          - where it came from, e.g. its training image - null if nowhere
+   * @param vector
+   *          - its features
+   */
+  public synchronized void add(String name, String source, float[] vector) {
+    append(name, source, vector);
+    if (size >= 2 * Math.max(basisSize, components)) {
+      buildBasis();
+    } else if (basis != null) {
+      project(size - 1);
+    }
+  }
+
+  void append(String name, String source, float[] vector) {
+    if (vector.length != dims) {
+      throw new IllegalArgumentException(String.format("vector has %d dimensions - index has %d", vector.length, dims));
+    }
+    if (size == faceLabels.length) {
+      vectors = Arrays.copyOf(vectors, vectors.length * 2);
+      faceLabels = Arrays.copyOf(faceLabels, faceLabels.length * 2);
+    }
+    System.arraycopy(vector, 0, vectors, size * dims, dims);
+    Integer id = labelIds.get(name);
+    if (id == null) {
+      id = labels.size();
+      labels.add(name);
+      labelIds.put(name, id);
+    }
+    faceLabels[size] = id;
+    sources.add(source);
+    if (source != null) {
+      sourceSet.add(source);
+    }
+    ++size;
+  }
+
+  /**
+   * principal components of (a sample of) the faces by orthogonal iteration -
+   * any orthonormal basis keeps the bound exact, a better one prunes more, so
+   * faces enrolled later are just projected onto it
+   */
+  void buildBasis() {
+    int step = Math.max(1, size / 256);
+    int samples = (size + step - 1) / step;
+    double[] mean = new double[dims];
+    for (int s = 0; s < size; s += step) {
+      int offset = s * dims;
+      for (int k = 0; k < dims; ++k) {
+        mean[k] += vectors[offset + k];
+      }
+    }
+    for (int k = 0; k < dims; ++k) {
+      mean[k] /= samples;
+    }
+
+    Random random = new Random(0);
+    double[][] q = new double[components][dims];
+    for (double[] row : q) {
+      for (int k = 0; k < dims; ++k) {
+        row[k] = random.nextGaussian();
+      }
+    }
+    orthonormalize(q);
+    double[] x = new double[dims];
+    for (int iteration = 0; iteration < 8; ++iteration) {
+      double[][] z = new double[components][dims];
+      for (int s = 0; s < size; s += step) {
+        int offset = s * dims;
+        for (int k = 0; k < dims; ++k) {
+          x[k] = vectors[offset + k] - mean[k];
+        }
+        for (int j = 0; j < components; ++j) {
+          double c = 0;
+          for (int k = 0; k < dims; ++k) {
+            c += x[k] * q[j][k];
+          }
+          for (int k = 0; k < dims; ++k) {
+            z[j][k] += c * x[k];
+          }
+        }
+      }
+      orthonormalize(z);
+      q = z;
+    }
+
+    basis = new float[components * dims];
+    for (int j = 0; j < components; ++j) {
+      for (int k = 0; k < dims; ++k) {
+        basis[j * dims + k] = (float) q[j][k];
+      }
+    }
+    projected = new float[faceLabels.length * components];
+    for (int i = 0; i < size; ++i) {
+      project(i);
+    }
+    basisSize = size;
+  }
+
+  /**
+   * gram schmidt - a row which is (numerically) dependent on the ones before it
+   * is replaced by a unit vector so the rows stay a basis
+   */
+  void orthonormalize(double[][] rows) {
+    for (int j = 0; j < rows.length; ++j) {
+      double[] row = rows[j];
+      for (int attempt = 0;; ++attempt) {
+        // twice - once isn't numerically enough
+        for (int pass = 0; pass < 2; ++pass) {
+          for (int i = 0; i < j; ++i) {
+            double dot = 0;
+            for (int k = 0; k < dims; ++k) {
+              dot += row[k] * rows[i][k];
+            }
+            for (int k = 0; k < dims; ++k) {
+              row[k] -= dot * rows[i][k];
+            }
+          }
+        }
+        double norm = 0;
+        for (int k = 0; k < dims; ++k) {
+          norm += row[k] * row[k];
+        }
+        if (norm > 1e-20) {
+          norm = Math.sqrt(norm);
+          for (int k = 0; k < dims; ++k) {
+            row[k] /= norm;
+          }
+          break;
+        }
+        Arrays.fill(row, 0);
+        row[(j + attempt) % dims] = 1;
+      }
+    }
+  }
+
+  void project(int face) {
+    if (projected.length < faceLabels.length * components) {
+      projected = Arrays.copyOf(projected, faceLabels.length * components);
+    }
+    project(vectors, face * dims, projected, face * components);
+  }
+
+  void project(float[] vector, int offset, float[] out, int outOffset) {
+    for (int j = 0; j < components; ++j) {
+      double sum = 0;
+      int b = j * dims;
+      for (int k = 0; k < dims; ++k) {
+        sum += vector[offset + k] * basis[b + k];
+      }
+      out[outOffset + j] = (float) sum;
+    }
+  }
+
+  /**
+   * squared distance to a face - gives up once it's beyond limit
+   */
+  double squaredDistance(float[] vector, int face, double limit) {
+    double sum = 0;
+    int offset = face * dims;
+    for (int k = 0; k < dims; ++k) {
+      double d = vector[k] - vectors[offset + k];
+      sum += d * d;
+      // checking every 16 dimensions is enough to prune
+      if ((k & 15) == 15 && sum >= limit) {
+        return sum;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @param vector
+   *          - features of the face
+   * @return the closest enrolled face - null if there are none
+   */
+  public synchronized Match nearest(float[] vector) {
+    if (size == 0) {
+      return null;
+    }
+    if (basis == null) {
+      return nearestLinear(vector);
+    }
+    ++searches;
+    // the distance of the projections is a lower bound of the distance - the
+    // faces are compared in the order of their bounds, packed with their
+    // index so a primitive sort does (positive floats sort like their bits)
+    float[] q = new float[components];
+    project(vector, 0, q, 0);
+    long[] order = new long[size];
+    for (int i = 0; i < size; ++i) {
+      int offset = i * components;
+      float sum = 0;
+      for (int j = 0; j < components; ++j) {
+        float d = q[j] - projected[offset + j];
+        sum += d * d;
+      }
+      order[i] = ((long) Float.floatToIntBits(sum) << 32) | i;
+    }
+    Arrays.sort(order);
+
+    double best = Double.MAX_VALUE;
+    int bestFace = -1;
+    int n = 0;
+    for (long o : order) {
+      // float rounding - the bound is shrunk a little to stay a bound
+      double bound = Float.intBitsToFloat((int) (o >>> 32)) * 0.999;
+      if (bound >= best || (candidates > 0 && bestFace >= 0 && ++n > candidates)) {
+        break;
+      }
+      int face = (int) o;
+      ++compared;
+      double d = squaredDistance(vector, face, best);
+      if (d < best) {
+        best = d;
+        bestFace = face;
+      }
+    }
+    return new Match(labels.get(faceLabels[bestFace]), sources.get(bestFace), Math.sqrt(best));
+  }
+
+  /**
+   * compares every face - what nearest has to agree with
+   */
+  synchronized Match nearestLinear(float[] vector) {
+    if (size == 0) {
+      return null;
+    }
+    ++searches;
+    compared += size;
+    double best = Double.MAX_VALUE;
+    int bestFace = -1;
+    for (int i = 0; i < size; ++i) {
+      double d = squaredDistance(vector, i, best);
+      if (d < best) {
+        best = d;
+        bestFace = i;
+      }
+    }
+    return new Match(labels.get(faceLabels[bestFace]), sources.get(bestFace), Math.sqrt(best));
+  }
+
+  /**
+   * @param candidates
+   *          - most faces a search compares, closest projections first - 0 (the
+   *          default) compares as many as it takes to be exact
+   */
+  public synchronized void setCandidates(int candidates) {
+    this.candidates = candidates;
+  }
+
+  public synchronized boolean contains(String source) {
+    return sourceSet.contains(source);
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized List<String> getNames() {
+    return new ArrayList<>(labels);
+  }
+
+  /**
+   * @return searches, the faces they compared and the faces there are
+   */
+  public synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<String, Object>();
+    stats.put("faces", size);
+    stats.put("names", labels.size());
+    stats.put("dims", dims);
+    stats.put("searches", searches);
+    stats.put("comparedPerSearch", (searches == 0) ? 0 : compared / (double) searches);
+    return stats;
+  }
+
+  /**
+   * writes the whole index - to a temporary file next to it which then
+   * atomically replaces file, a reader sees the old index or the new one
+   */
+  public synchronized void save(File file) throws IOException {
+    Path target = file.getAbsoluteFile().toPath();
+    Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        writeHeader(out);
+        for (int i = 0; i < size; ++i) {
+          writeFace(out, i);
+        }
+      }
+      Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * enrolls a face and appends it to the index file - creating the file if it
+   * doesn't exist yet
+   */
+  public synchronized void add(File file, String name, String source, float[] vector) throws IOException {
+    add(name, source, vector);
+    if (!file.exists() || file.length() == 0) {
+      save(file);
+      return;
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+      writeFace(out, size - 1);
+    }
+  }
+
+  void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(grid);
+  }
+
+  void writeFace(DataOutputStream out, int face) throws IOException {
+    out.writeUTF(labels.get(faceLabels[face]));
+    out.writeUTF((sources.get(face) == null) ? "" : sources.get(face));
+    int offset = face * dims;
+    for (int k = 0; k < dims; ++k) {
+      out.writeFloat(vectors[offset + k]);
+    }
+  }
+
+  /**
+   * reads an index file
+   */
+  public static FaceIndex load(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(String.format("%s is not a face index", file));
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException(String.format("%s is version %d - expected %d", file, version, VERSION));
+      }
+      FaceIndex index = new FaceIndex(in.readInt());
+      float[] vector = new float[index.dims];
+      while (true) {
+        String name = null;
+        try {
+          name = in.readUTF();
+        } catch (EOFException e) {
+          break;
+        }
+        String source = in.readUTF();
+        for (int k = 0; k < vector.length; ++k) {
+          vector[k] = in.readFloat();
+        }
+        index.append(name, source.isEmpty() ? null : source, vector);
+      }
+      if (index.size >= 2 * index.components) {
+        index.buildBasis();
+      }
+      return index;
+    }
+  }
+
+}
@@ -0,0 +1,393 @@
+package org.myrobotlab.opencv;
+
+import java.io.File;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.opencv.opencv_core.IplImage;
+import org.myrobotlab.framework.Instantiator;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.service.OpenCV;
+import org.slf4j.Logger;
+
+/**
+ * Repeatable measurement of a filter chain - no camera, no capture thread.
+ *
+ * The frames of a recording (a directory of images, an AsyncRecorder index or
+ * a video file) are decoded once into memory, then replayed through a
+ * BlockingQueueGrabber into the chain the same way the video thread runs it.
+ * The same frames go through the same filters in the same order every run, so
+ * two runs can be compared - e.g. before and after a change, or on two boards.
+ *
+ * The first warmup frames let the JIT, the image pool and the filters' lazily
+ * allocated images settle and aren't counted. Then for the measured frames
+ * <pre>
+ * per filter  - ns/frame (avg, p50, p99, max)
+ * per frame   - ns/frame of the whole chain and end-to-end fps
+ * allocation  - bytes allocated on the heap per frame (HotSpot only)
+ * native      - javacpp's native bytes before and after, image pool stats
+ * </pre>
+ *
+ * From the command line
+ * <pre>
+ * FilterBenchmark {dir|index|video} {frames} {filter type} [{filter type} ...]
+ * </pre>
+ */
+public class FilterBenchmark {
+
+  public final static Logger log = LoggerFactory.getLogger(FilterBenchmark.class);
+
+  public static class FilterStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public String name;
+    public String type;
+    public double avgNs;
+    public long p50Ns;
+    public long p99Ns;
+    public long maxNs;
+
+    @Override
+    public String toString() {
+      return String.format("%-20s %-20s avg %10.0f p50 %10d p99 %10d max %10d ns/frame", name, type, avgNs, p50Ns, p99Ns, maxNs);
+    }
+  }
+
+  public static class Result implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public String source;
+    public int width;
+    public int height;
+    public int warmupFrames;
+    public int frames;
+    public List<FilterStats> filters = new ArrayList<>();
+    public double avgFrameNs;
+    public long p50FrameNs;
+    public long p99FrameNs;
+    public long maxFrameNs;
+    public double fps;
+    /**
+     * heap allocated per frame - -1 if the jvm can't tell
+     */
+    public long allocatedBytesPerFrame = -1;
+    /**
+     * native bytes javacpp tracks, before the warmup and after the last frame
+     */
+    public long nativeBytesBefore;
+    public long nativeBytesAfter;
+    public long physicalBytesAfter;
+    public ImagePool.Stats pool;
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%s %dx%d - %d frames (%d warmup)%n", source, width, height, frames, warmupFrames));
+      for (FilterStats filter : filters) {
+        sb.append(filter).append(String.format("%n"));
+      }
+      sb.append(String.format("frame avg %.0f p50 %d p99 %d max %d ns - %.1f fps%n", avgFrameNs, p50FrameNs, p99FrameNs, maxFrameNs, fps));
+      sb.append(String.format("allocated %d bytes/frame native %d -> %d bytes physical %d bytes%n", allocatedBytesPerFrame, nativeBytesBefore, nativeBytesAfter,
+          physicalBytesAfter));
+      sb.append(String.format("image pool %s", pool));
+      return sb.toString();
+    }
+  }
+
+  static final Set<String> IMAGE_EXT = new HashSet<>(Arrays.asList("jpg", "jpeg", "png", "gif", "bmp", "tif", "tiff"));
+
+  final OpenCV opencv;
+  final String name;
+  final List<OpenCVFilter> filters = new ArrayList<>();
+  final List<Frame> frames = new ArrayList<>();
+  final ImagePool pool = new ImagePool();
+  String source;
+
+  /**
+   * @param opencv
+   *          - service the filters belong to - can be null for filters which
+   *          don't use their service (most of the image processing ones)
+   */
+  public FilterBenchmark(OpenCV opencv) {
+    this.opencv = opencv;
+    this.name = (opencv == null) ? "benchmark" : opencv.getName();
+  }
+
+  /**
+   * adds a filter of one of the OpenCV.POSSIBLE_FILTERS types to the end of the
+   * chain, named after its type
+   */
+  public FilterBenchmark addFilter(String type) {
+    String name = type.substring(0, 1).toLowerCase() + type.substring(1);
+    return addFilter(name, type);
+  }
+
+  public FilterBenchmark addFilter(String name, String type) {
+    OpenCVFilter filter = (OpenCVFilter) Instantiator.getNewInstance(String.format("org.myrobotlab.opencv.OpenCVFilter%s", type), name);
+    if (filter == null) {
+      throw new IllegalArgumentException(String.format("could not create filter %s of type %s", name, type));
+    }
+    return addFilter(filter);
+  }
+
+  public FilterBenchmark addFilter(OpenCVFilter filter) {
+    if (opencv != null) {
+      filter.setOpenCV(opencv);
+    }
+    filters.add(filter);
+    return this;
+  }
+
+  public List<OpenCVFilter> getFilters() {
+    return filters;
+  }
+
+  /**
+   * decodes the recording into memory - decoding isn't part of the measurement
+   *
+   * @param path
+   *          - a directory of images, an AsyncRecorder index file or a video
+   *          file
+   * @param maxFrames
+   *          - most frames to load - 0 for all of them
+   * @return the number of frames loaded
+   */
+  public int load(String path, int maxFrames) throws FrameGrabber.Exception {
+    File file = new File(path);
+    if (!file.exists()) {
+      throw new FrameGrabber.Exception(String.format("%s does not exist", path));
+    }
+    FrameGrabber grabber = null;
+    int length = 0;
+    if (file.isDirectory() || file.getName().equals(AsyncRecorder.INDEX_FILE) || isImageFile(path)) {
+      ImageFileFrameGrabber ifg = new ImageFileFrameGrabber(path);
+      // the image grabber loops - stop at its length
+      length = ifg.getLengthInFrames();
+      grabber = ifg;
+    } else {
+      grabber = new FFmpegFrameGrabber(path);
+    }
+    releaseFrames();
+    source = path;
+    grabber.start();
+    try {
+      while (maxFrames <= 0 || frames.size() < maxFrames) {
+        if (length > 0 && frames.size() >= length) {
+          break;
+        }
+        Frame frame = grabber.grab();
+        if (frame == null) {
+          break;
+        }
+        if (frame.image == null) {
+          // audio
+          continue;
+        }
+        // grabbers reuse their frame
+        frames.add(frame.clone());
+      }
+    } finally {
+      grabber.stop();
+      grabber.release();
+    }
+    log.info("loaded {} frames from {}", frames.size(), path);
+    return frames.size();
+  }
+
+  /**
+   * runs the chain over the loaded frames - looping over them when more frames
+   * are asked for than were loaded
+   *
+   * @param warmupFrames
+   *          - frames run before measuring
+   * @param measuredFrames
+   *          - frames measured
+   * @return the measurements
+   */
+  public Result run(int warmupFrames, int measuredFrames) {
+    if (frames.isEmpty()) {
+      throw new IllegalStateException("no frames loaded");
+    }
+    if (filters.isEmpty()) {
+      throw new IllegalStateException("no filters to benchmark");
+    }
+    Result result = new Result();
+    result.source = source;
+    result.width = frames.get(0).imageWidth;
+    result.height = frames.get(0).imageHeight;
+    result.warmupFrames = warmupFrames;
+    result.frames = measuredFrames;
+    result.nativeBytesBefore = Pointer.totalBytes();
+
+    // feeds the frames the way a grabber does on the video thread
+    BlockingQueueGrabber grabber = new BlockingQueueGrabber(new LinkedBlockingQueue<Frame>());
+
+    for (int i = 0; i < warmupFrames; ++i) {
+      grabber.add(frames.get(i % frames.size()));
+      process(grabber.grab(), i, null);
+    }
+
+    long[] frameNanos = new long[measuredFrames];
+    long[][] filterNanos = new long[filters.size()][measuredFrames];
+    long allocatedBefore = getAllocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < measuredFrames; ++i) {
+      long frameStart = System.nanoTime();
+      int index = warmupFrames + i;
+      grabber.add(frames.get(index % frames.size()));
+      long[] times = process(grabber.grab(), index, new long[filters.size()]);
+      frameNanos[i] = System.nanoTime() - frameStart;
+      for (int j = 0; j < times.length; ++j) {
+        filterNanos[j][i] = times[j];
+      }
+    }
+    long total = System.nanoTime() - start;
+    long allocatedAfter = getAllocatedBytes();
+
+    for (int j = 0; j < filters.size(); ++j) {
+      FilterStats stats = new FilterStats();
+      stats.name = filters.get(j).name;
+      stats.type = filters.get(j).getClass().getSimpleName().substring("OpenCVFilter".length());
+      long[] nanos = filterNanos[j];
+      Arrays.sort(nanos);
+      stats.avgNs = average(nanos);
+      stats.p50Ns = percentile(nanos, 0.5);
+      stats.p99Ns = percentile(nanos, 0.99);
+      stats.maxNs = percentile(nanos, 1);
+      result.filters.add(stats);
+    }
+    Arrays.sort(frameNanos);
+    result.avgFrameNs = average(frameNanos);
+    result.p50FrameNs = percentile(frameNanos, 0.5);
+    result.p99FrameNs = percentile(frameNanos, 0.99);
+    result.maxFrameNs = percentile(frameNanos, 1);
+    result.fps = (total == 0) ? 0 : measuredFrames * 1000000000.0 / total;
+    if (allocatedBefore >= 0 && allocatedAfter >= 0 && measuredFrames > 0) {
+      result.allocatedBytesPerFrame = (allocatedAfter - allocatedBefore) / measuredFrames;
+    }
+    result.nativeBytesAfter = Pointer.totalBytes();
+    result.physicalBytesAfter = Pointer.physicalBytes();
+    result.pool = pool.getStats();
+    log.info("benchmark\n{}", result);
+    return result;
+  }
+
+  /**
+   * runs the chain on one frame like OpenCV.processFilters
+   *
+   * @return each filter's time - null when not measuring
+   */
+  long[] process(Frame frame, int frameIndex, long[] times) {
+    // timestamps of the recording when it has them
+    long ts = (frame.timestamp > 0) ? frame.timestamp / 1000 : frameIndex * 1000L / 30;
+    OpenCVData data = new OpenCVData(name, ts, frameIndex, frame);
+    data.setImagePool(pool);
+    for (int i = 0; i < filters.size(); ++i) {
+      OpenCVFilter filter = filters.get(i);
+      if (!filter.isEnabled()) {
+        continue;
+      }
+      long start = System.nanoTime();
+      IplImage input = filter.setData(data);
+      if (input == null) {
+        log.error("could not get setData image for {}", filter.name);
+        continue;
+      }
+      IplImage processed = filter.processFrame(input);
+      filter.postProcess(processed);
+      long nanos = System.nanoTime() - start;
+      data.putFilterTime(filter.name, nanos);
+      if (times != null) {
+        times[i] = nanos;
+      }
+    }
+    data.release();
+    return times;
+  }
+
+  static long getAllocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  static double average(long[] nanos) {
+    if (nanos.length == 0) {
+      return 0;
+    }
+    long total = 0;
+    for (long n : nanos) {
+      total += n;
+    }
+    return total / (double) nanos.length;
+  }
+
+  /**
+   * @param sorted
+   *          - sorted measurements
+   * @param p
+   *          - 0 to 1
+   */
+  static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+  }
+
+  static boolean isImageFile(String path) {
+    String ext = path.substring(path.lastIndexOf('.') + 1).toLowerCase();
+    return IMAGE_EXT.contains(ext);
+  }
+
+  void releaseFrames() {
+    // the clones are freed with their buffers
+    frames.clear();
+  }
+
+  /**
+   * releases the filters, the frames and the pooled images
+   */
+  public void release() {
+    for (OpenCVFilter filter : filters) {
+      filter.release();
+    }
+    releaseFrames();
+    pool.clear();
+  }
+
+  public static void main(String[] args) {
+    try {
+      LoggingFactory.init("info");
+      if (args.length < 3) {
+        System.out.println("FilterBenchmark {dir|index|video} {frames} {filter type} [{filter type} ...]");
+        System.out.println(String.format("filter types %s", Arrays.toString(OpenCV.POSSIBLE_FILTERS)));
+        return;
+      }
+      int count = Integer.parseInt(args[1]);
+      FilterBenchmark benchmark = new FilterBenchmark(null);
+      for (int i = 2; i < args.length; ++i) {
+        benchmark.addFilter(args[i]);
+      }
+      benchmark.load(args[0], 0);
+      Result result = benchmark.run(Math.max(10, count / 10), count);
+      System.out.println(result);
+      benchmark.release();
+    } catch (Exception e) {
+      log.error("main threw", e);
+    }
+  }
+
+}
@@ -0,0 +1,174 @@
+package org.myrobotlab.opencv;
+
+import static org.myrobotlab.service.OpenCV.INPUT_KEY;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.bytedeco.opencv.opencv_core.IplImage;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * The filters of a pipeline as a graph - every filter has one source, the
+ * filter whose output it processes. A filter's source is its sourceKey: "input"
+ * for the grabbed frame or the name of another filter. Without a sourceKey (or
+ * "output") the source is the enabled filter before it, as in the sequential
+ * pipeline.
+ *
+ * Filters which share a source are independent branches and run concurrently
+ * on a fork join pool - a filter is forked when its source is done, and
+ * process returns when every filter has (the per frame barrier).
+ *
+ * Only process and postProcess run in parallel - displays are processed after
+ * the barrier in pipeline order since they draw on a shared image.
+ */
+public class FilterGraph {
+
+  public final static Logger log = LoggerFactory.getLogger(FilterGraph.class);
+
+  static class Node {
+    final OpenCVFilter filter;
+    final String source;
+    final List<Node> children = new ArrayList<>();
+
+    Node(OpenCVFilter filter, String source) {
+      this.filter = filter;
+      this.source = source;
+    }
+  }
+
+  final List<Node> roots = new ArrayList<>();
+  final List<Node> nodes = new ArrayList<>();
+
+  /**
+   * @param filters
+   *          the pipeline in order - disabled filters are passed through to
+   *          their source
+   */
+  public FilterGraph(Collection<OpenCVFilter> filters) {
+    Map<String, Node> byName = new HashMap<>();
+    // sources of disabled filters - a filter reading a disabled filter reads
+    // its source
+    Map<String, String> passThrough = new HashMap<>();
+    String previous = INPUT_KEY;
+    for (OpenCVFilter filter : filters) {
+      String source = filter.sourceKey;
+      if (source == null || source.length() == 0 || "output".equals(source)) {
+        source = previous;
+      }
+      while (passThrough.containsKey(source)) {
+        source = passThrough.get(source);
+      }
+      if (!INPUT_KEY.equals(source) && !byName.containsKey(source)) {
+        // a filter later in the pipeline or an unknown key - keep the order
+        log.warn("filter {} source {} is not an earlier filter - using {}", filter.name, source, previous);
+        source = previous;
+      }
+      if (!filter.isEnabled()) {
+        passThrough.put(filter.name, source);
+        continue;
+      }
+      Node node = new Node(filter, source);
+      Node parent = byName.get(source);
+      if (parent == null) {
+        roots.add(node);
+      } else {
+        parent.children.add(node);
+      }
+      byName.put(filter.name, node);
+      nodes.add(node);
+      previous = filter.name;
+    }
+  }
+
+  /**
+   * runs the filters - independent branches concurrently on pool
+   *
+   * @param pool
+   *          the pool
+   * @param data
+   *          the frame's data
+   */
+  public void process(ForkJoinPool pool, OpenCVData data) throws InterruptedException {
+    try {
+      pool.invoke(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+          invokeAll(tasks(roots, data));
+        }
+      });
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof InterruptedException) {
+        throw (InterruptedException) e.getCause();
+      }
+      throw e;
+    }
+
+    // the pipeline's output is its last filter's, as when sequential
+    if (!nodes.isEmpty()) {
+      data.setOutput(nodes.get(nodes.size() - 1).filter.name);
+    }
+
+    // displays in pipeline order
+    for (Node node : nodes) {
+      data.setSelectedFilter(node.filter.name);
+      node.filter.processDisplay();
+    }
+  }
+
+  static List<RecursiveAction> tasks(List<Node> nodes, OpenCVData data) {
+    List<RecursiveAction> tasks = new ArrayList<>();
+    for (Node node : nodes) {
+      tasks.add(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+          if (run(node, data)) {
+            invokeAll(tasks(node.children, data));
+          }
+        }
+      });
+    }
+    return tasks;
+  }
+
+  static boolean run(Node node, OpenCVData data) {
+    OpenCVFilter filter = node.filter;
+    long start = System.nanoTime();
+    IplImage input = filter.setData(data, node.source);
+    if (input == null) {
+      log.error("could not get setData image for {} from {}", filter.name, node.source);
+      return false;
+    }
+    try {
+      IplImage processed = filter.processFrame(input);
+      filter.postProcess(processed);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    data.putFilterTime(filter.name, System.nanoTime() - start);
+    return true;
+  }
+
+  /**
+   * @return the filter names as source -&gt; filter edges
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Node node : nodes) {
+      sb.append(node.source).append(" -> ").append(node.filter.name).append("\n");
+    }
+    return sb.toString();
+  }
+
+}
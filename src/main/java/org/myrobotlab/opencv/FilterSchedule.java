@@ -0,0 +1,147 @@
+package org.myrobotlab.opencv;
+
+import java.io.Serializable;
+
+/**
+ * When an expensive filter runs - a filter with a schedule processes only some
+ * of the frames and passes the others through untouched.
+ *
+ * The interval between runs is the largest of
+ * <pre>
+ * every     - a fixed interval, e.g. 5 runs the filter every 5th frame
+ * budgetMs  - the filter's average cost spread over as many frames as it takes
+ *             to stay within budgetMs per frame
+ * targetFps - adaptive, the filter gets the time the rest of the pipeline
+ *             leaves of a frame period at targetFps
+ * </pre>
+ * but never more than maxInterval - so a detector still runs periodically,
+ * however slow it is.
+ *
+ * Costs and frame periods are measured as exponential moving averages.
+ */
+public class FilterSchedule implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * weight of a new measurement in the averages
+   */
+  static final double ALPHA = 0.2;
+
+  /**
+   * run at least every this many frames - 1 is every frame
+   */
+  public int every = 1;
+
+  /**
+   * average cost per frame allowed - 0 for no budget
+   */
+  public double budgetMs = 0;
+
+  /**
+   * frame rate the pipeline should hold - 0 for not adaptive
+   */
+  public double targetFps = 0;
+
+  /**
+   * longest interval any policy can make
+   */
+  public int maxInterval = 30;
+
+  /**
+   * current interval
+   */
+  public int interval = 1;
+
+  public long runs;
+  public long skipped;
+  public double avgCostMs;
+  public double avgFramePeriodMs;
+
+  int lastRunFrame = -1;
+  long lastFrameTs;
+
+  public FilterSchedule() {
+  }
+
+  public FilterSchedule(int every, double budgetMs, double targetFps) {
+    this.every = every;
+    this.budgetMs = budgetMs;
+    this.targetFps = targetFps;
+  }
+
+  /**
+   * called for every frame
+   *
+   * @param frameIndex
+   *          - the frame's index
+   * @return true if the filter should process the frame
+   */
+  public synchronized boolean isDue(int frameIndex) {
+    long now = System.nanoTime();
+    if (lastFrameTs != 0) {
+      avgFramePeriodMs = average(avgFramePeriodMs, (now - lastFrameTs) / 1000000.0);
+    }
+    lastFrameTs = now;
+
+    interval = computeInterval();
+    // capture restarted, frame indexes start over
+    if (lastRunFrame < 0 || frameIndex < lastRunFrame || frameIndex - lastRunFrame >= interval) {
+      lastRunFrame = frameIndex;
+      return true;
+    }
+    ++skipped;
+    return false;
+  }
+
+  /**
+   * the filter processed a frame
+   *
+   * @param nanos
+   *          - what it took
+   */
+  public synchronized void processed(long nanos) {
+    ++runs;
+    avgCostMs = average(avgCostMs, nanos / 1000000.0);
+  }
+
+  int computeInterval() {
+    int ret = Math.max(1, every);
+    if (runs == 0) {
+      return ret;
+    }
+    if (budgetMs > 0) {
+      ret = Math.max(ret, (int) Math.ceil(avgCostMs / budgetMs));
+    }
+    if (targetFps > 0 && avgFramePeriodMs > 0) {
+      // the frame period without this filter's share of it
+      double rest = avgFramePeriodMs - avgCostMs / interval;
+      double slack = 1000.0 / targetFps - rest;
+      ret = (slack <= 0) ? maxInterval : Math.max(ret, (int) Math.ceil(avgCostMs / slack));
+    }
+    return Math.min(ret, Math.max(1, maxInterval));
+  }
+
+  double average(double avg, double value) {
+    return (avg == 0) ? value : avg + ALPHA * (value - avg);
+  }
+
+  /**
+   * starts measuring over and runs the next frame
+   */
+  public synchronized void reset() {
+    lastRunFrame = -1;
+    lastFrameTs = 0;
+    interval = 1;
+    runs = 0;
+    skipped = 0;
+    avgCostMs = 0;
+    avgFramePeriodMs = 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("interval %d runs %d skipped %d avg %.2f ms frame period %.2f ms", interval, runs, skipped, avgCostMs, avgFramePeriodMs);
+  }
+
+}
@@ -11,16 +11,29 @@ public class FrameFileRecorder extends FrameRecorder {
   int frameIndex = 0;
   String rootDir = "OpenCV";
   String framesDir = null;
+  String lastFilename = null;
   long timestamp;
 
   public FrameFileRecorder(String cacheDir) {
     rootDir = cacheDir;
   }
 
+  /**
+   * @param cacheDir - root directory
+   * @param framesDir - directory the frames are written to, instead of a new
+   *          timestamped one under cacheDir
+   */
+  public FrameFileRecorder(String cacheDir, String framesDir) {
+    rootDir = cacheDir;
+    this.framesDir = framesDir;
+  }
+
   @Override
   public void start() throws Exception {
     timestamp = System.currentTimeMillis();
-    framesDir = rootDir + File.separator + timestamp;
+    if (framesDir == null) {
+      framesDir = rootDir + File.separator + timestamp;
+    }
     File dir = new File(framesDir);
     dir.mkdirs();
     if (format == null) {
@@ -36,9 +49,17 @@ public class FrameFileRecorder extends FrameRecorder {
   public void record(Frame frame) throws Exception {
     String filename = String.format(framesDir + File.separator + "%08d.%s", frameIndex, format);
     OpenCV.saveToFile(filename, OpenCV.toImage(frame));
+    lastFilename = filename;
     ++frameIndex;
   }
 
+  /**
+   * @return file of the last recorded frame
+   */
+  public String getLastFilename() {
+    return lastFilename;
+  }
+
   @Override
   public void release() throws Exception {
   }
@@ -0,0 +1,286 @@
+package org.myrobotlab.opencv;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Staged video pipeline - each stage (filter, display, publish ..) has its own
+ * thread and a small bounded queue from the stage before it, so consecutive
+ * frames overlap: while frame n is published, n+1 is filtered and n+2 grabbed.
+ * The frame period becomes the slowest stage's time instead of the sum of all.
+ *
+ * With dropFrames a full queue drops its oldest frame - a live camera always
+ * processes the latest frame. Without it the producer blocks, which keeps every
+ * frame of a file.
+ */
+public class FramePipeline {
+
+  public final static Logger log = LoggerFactory.getLogger(FramePipeline.class);
+
+  public interface Stage {
+    void process(OpenCVData data) throws Exception;
+  }
+
+  public static class StageStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public String name;
+    public long frames;
+    public long dropped;
+    public int queued;
+    public double avgMs;
+    /**
+     * fraction of the time the stage was busy
+     */
+    public double utilization;
+
+    @Override
+    public String toString() {
+      return String.format("%s %.2f ms %.0f%% frames %d dropped %d queued %d", name, avgMs, utilization * 100, frames, dropped, queued);
+    }
+  }
+
+  public static class Stats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public double fps;
+    /**
+     * frame rate the slowest stage allows
+     */
+    public double maxFps;
+    /**
+     * grab to end of the last stage
+     */
+    public double avgLatencyMs;
+    public double maxLatencyMs;
+    public long frames;
+    public long dropped;
+    public List<StageStats> stages = new ArrayList<>();
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("fps %.1f max %.1f latency %.1f ms (max %.1f) frames %d dropped %d", fps, maxFps, avgLatencyMs, maxLatencyMs, frames, dropped));
+      for (StageStats stage : stages) {
+        sb.append("\n  ").append(stage);
+      }
+      return sb.toString();
+    }
+  }
+
+  class StageThread extends Thread {
+    final String stageName;
+    final Stage stage;
+    final ArrayBlockingQueue<OpenCVData> queue;
+    StageThread next;
+
+    long frames;
+    long dropped;
+    long busyNanos;
+
+    StageThread(String stageName, Stage stage) {
+      super(String.format("%s-%s", name, stageName));
+      this.stageName = stageName;
+      this.stage = stage;
+      this.queue = new ArrayBlockingQueue<>(queueSize);
+      setDaemon(true);
+    }
+
+    void put(OpenCVData data) throws InterruptedException {
+      if (!dropFrames) {
+        queue.put(data);
+        return;
+      }
+      while (!queue.offer(data)) {
+        OpenCVData old = queue.poll();
+        if (old != null) {
+          old.dispose();
+          synchronized (this) {
+            ++dropped;
+          }
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      // the frame this stage owns - not yet handed to the next stage
+      OpenCVData data = null;
+      try {
+        while (running) {
+          data = queue.take();
+          long start = System.nanoTime();
+          try {
+            stage.process(data);
+          } catch (InterruptedException e) {
+            throw e;
+          } catch (Exception e) {
+            log.error("stage {} threw on frame {}", stageName, data.getFrameIndex(), e);
+          }
+          long end = System.nanoTime();
+          synchronized (this) {
+            ++frames;
+            busyNanos += end - start;
+          }
+          if (next != null) {
+            next.put(data);
+          } else {
+            done(data);
+          }
+          data = null;
+        }
+      } catch (InterruptedException e) {
+        log.info("{} stopped", getName());
+        if (data != null) {
+          data.dispose();
+        }
+      }
+    }
+
+    /**
+     * disposes the frames still waiting for this stage
+     */
+    void drain() {
+      OpenCVData data;
+      while ((data = queue.poll()) != null) {
+        data.dispose();
+      }
+    }
+
+    synchronized StageStats getStats(long elapsedNanos) {
+      StageStats stats = new StageStats();
+      stats.name = stageName;
+      stats.frames = frames;
+      stats.dropped = dropped;
+      stats.queued = queue.size();
+      stats.avgMs = (frames == 0) ? 0 : busyNanos / 1000000.0 / frames;
+      stats.utilization = (elapsedNanos == 0) ? 0 : busyNanos / (double) elapsedNanos;
+      return stats;
+    }
+  }
+
+  final String name;
+  final int queueSize;
+  final boolean dropFrames;
+  final List<StageThread> stages = new ArrayList<>();
+  volatile boolean running = false;
+
+  long started;
+  // the grabbing stage runs on the caller's thread
+  long grabFrames;
+  long grabNanos;
+  long frames;
+  long latencyNanos;
+  long maxLatencyNanos;
+
+  /**
+   * @param name
+   *          prefix of the stage threads
+   * @param queueSize
+   *          frames waiting before each stage
+   * @param dropFrames
+   *          drop the oldest frame when a stage falls behind - otherwise block
+   */
+  public FramePipeline(String name, int queueSize, boolean dropFrames) {
+    this.name = name;
+    this.queueSize = Math.max(1, queueSize);
+    this.dropFrames = dropFrames;
+  }
+
+  public FramePipeline addStage(String stageName, Stage stage) {
+    StageThread thread = new StageThread(stageName, stage);
+    if (!stages.isEmpty()) {
+      stages.get(stages.size() - 1).next = thread;
+    }
+    stages.add(thread);
+    return this;
+  }
+
+  public void start() {
+    running = true;
+    started = System.nanoTime();
+    for (StageThread stage : stages) {
+      stage.start();
+    }
+  }
+
+  /**
+   * stops the stage threads and disposes every frame still in the pipeline
+   */
+  public void stop() {
+    running = false;
+    for (StageThread stage : stages) {
+      stage.interrupt();
+    }
+    for (StageThread stage : stages) {
+      try {
+        // a stage still running could hand a frame to a drained queue
+        stage.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    for (StageThread stage : stages) {
+      stage.drain();
+    }
+  }
+
+  /**
+   * hands a grabbed frame to the first stage
+   *
+   * @param data
+   *          the frame
+   * @param grabNanos
+   *          time it took to grab - for the grab stage's utilization
+   */
+  public void put(OpenCVData data, long grabNanos) throws InterruptedException {
+    synchronized (this) {
+      ++grabFrames;
+      this.grabNanos += grabNanos;
+    }
+    if (stages.isEmpty()) {
+      done(data);
+    } else {
+      stages.get(0).put(data);
+    }
+  }
+
+  void done(OpenCVData data) {
+    // frame timestamps are wall clock millis
+    long latency = (System.currentTimeMillis() - data.getTs()) * 1000000;
+    synchronized (this) {
+      ++frames;
+      latencyNanos += latency;
+      maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+    }
+  }
+
+  public synchronized Stats getStats() {
+    long elapsed = System.nanoTime() - started;
+    Stats stats = new Stats();
+    StageStats grab = new StageStats();
+    grab.name = "grab";
+    grab.frames = grabFrames;
+    grab.avgMs = (grabFrames == 0) ? 0 : grabNanos / 1000000.0 / grabFrames;
+    grab.utilization = (elapsed == 0) ? 0 : grabNanos / (double) elapsed;
+    stats.stages.add(grab);
+    double slowestMs = grab.avgMs;
+    for (StageThread stage : stages) {
+      StageStats s = stage.getStats(elapsed);
+      stats.dropped += s.dropped;
+      slowestMs = Math.max(slowestMs, s.avgMs);
+      stats.stages.add(s);
+    }
+    stats.frames = frames;
+    stats.fps = (elapsed == 0) ? 0 : frames * 1e9 / elapsed;
+    stats.maxFps = (slowestMs == 0) ? 0 : 1000.0 / slowestMs;
+    stats.avgLatencyMs = (frames == 0) ? 0 : latencyNanos / 1000000.0 / frames;
+    stats.maxLatencyMs = maxLatencyNanos / 1000000.0;
+    return stats;
+  }
+
+}
@@ -2,8 +2,12 @@ package org.myrobotlab.opencv;
 
 import static org.bytedeco.opencv.helper.opencv_imgcodecs.cvLoadImage;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.bytedeco.opencv.opencv_core.IplImage;
@@ -20,6 +24,10 @@ public class ImageFileFrameGrabber extends FrameGrabber {
   // public int delay = 31; // 32 fps is 31.5 ms per frame
   public int delay = 16;
   private ArrayList<File> imageFiles = new ArrayList<File>();
+  /**
+   * recorded timestamps (ms) of the images when loaded from an index file
+   */
+  private ArrayList<Long> timestamps = new ArrayList<Long>();
   private int grabCount = 0;
 
   protected transient IplImage image;
@@ -38,10 +46,15 @@ public class ImageFileFrameGrabber extends FrameGrabber {
 
   public void load() {
     File target = new File(path);
-    if (!target.isDirectory()) {
+    File index = target.isDirectory() ? new File(target, AsyncRecorder.INDEX_FILE) : target;
+    if (index.getName().equals(AsyncRecorder.INDEX_FILE) && index.exists()) {
+      loadIndex(index);
+    } else if (!target.isDirectory()) {
       imageFiles.add(target);
     } else {
       File[] listOfFiles = target.listFiles();
+      // in name order - the same sequence every run
+      Arrays.sort(listOfFiles);
       for (File file : listOfFiles) {
         if (file.isFile()) {
           // TODO: check what formats opencv's cvLoadImage supports and add that
@@ -55,6 +68,34 @@ public class ImageFileFrameGrabber extends FrameGrabber {
     }
   }
 
+  /**
+   * loads the frames of a recording in the order they were recorded - see
+   * AsyncRecorder
+   * 
+   * @param index - the recording's index file
+   */
+  void loadIndex(File index) {
+    try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+      String line = null;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("#") || line.trim().length() == 0) {
+          continue;
+        }
+        // frameIndex timestamp segment position file
+        String[] parts = line.split(" ", 5);
+        String name = parts[4].toLowerCase();
+        if (!name.endsWith("png") && !name.endsWith("jpg")) {
+          log.warn("{} is not an image - only recorded frames can be replayed", parts[4]);
+          continue;
+        }
+        imageFiles.add(new File(index.getParentFile(), parts[4]));
+        timestamps.add(Long.parseLong(parts[1]));
+      }
+    } catch (IOException e) {
+      log.error("could not read index {}", index, e);
+    }
+  }
+
   @Override
   public Frame grab() {
     /*
@@ -63,6 +104,11 @@ public class ImageFileFrameGrabber extends FrameGrabber {
      * catch (InterruptedException e) {} // set the file path
      * 
      */
+    frameNumber = grabCount;
+    if (grabCount < timestamps.size()) {
+      // microseconds like other grabbers
+      timestamp = timestamps.get(grabCount) * 1000;
+    }
     path = imageFiles.get(grabCount).getAbsolutePath();
     log.debug("Grabbing file {} - {}", grabCount, path);
     // grab it.
@@ -99,6 +145,21 @@ public class ImageFileFrameGrabber extends FrameGrabber {
     return converter.convert(image);
   }
 
+  /**
+   * seeks - the next grab returns this frame
+   */
+  @Override
+  public void setFrameNumber(int frameNumber) {
+    if (imageFiles.size() > 0) {
+      grabCount = Math.max(0, frameNumber) % imageFiles.size();
+    }
+  }
+
+  @Override
+  public int getLengthInFrames() {
+    return imageFiles.size();
+  }
+
   public int getDelay() {
     return delay;
   }
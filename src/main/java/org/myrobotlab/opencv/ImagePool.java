@@ -0,0 +1,199 @@
+package org.myrobotlab.opencv;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bytedeco.opencv.opencv_core.IplImage;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Native image buffers shared by the filters of a pipeline - keyed by width,
+ * height, depth and channels. A filter borrows its output for a frame through
+ * OpenCVData.borrow and the frame returns everything it borrowed when it is
+ * disposed, so steady state video allocates nothing after the first few
+ * frames.
+ *
+ * Reuse is driven by the frame's reference count - anything still reading the
+ * data (a subscriber, a queue, a recorder) holds a reference, and the images
+ * only come back here after the last one is released.
+ */
+public class ImagePool {
+
+  public final static Logger log = LoggerFactory.getLogger(ImagePool.class);
+
+  static final class Key {
+    final int width;
+    final int height;
+    final int depth;
+    final int channels;
+
+    Key(int width, int height, int depth, int channels) {
+      this.width = width;
+      this.height = height;
+      this.depth = depth;
+      this.channels = channels;
+    }
+
+    Key(IplImage image) {
+      this(image.width(), image.height(), image.depth(), image.nChannels());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return width == k.width && height == k.height && depth == k.depth && channels == k.channels;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((width * 31 + height) * 31 + depth) * 31 + channels;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%dx%d depth %d channels %d", width, height, depth, channels);
+    }
+  }
+
+  public static class Stats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /**
+     * native images created
+     */
+    public long allocated;
+    /**
+     * borrows served from the pool
+     */
+    public long reused;
+    /**
+     * native images freed - pool full or cleared
+     */
+    public long freed;
+    /**
+     * images waiting to be borrowed
+     */
+    public int free;
+    public long freeBytes;
+
+    @Override
+    public String toString() {
+      return String.format("allocated %d reused %d freed %d free %d (%d bytes)", allocated, reused, freed, free, freeBytes);
+    }
+  }
+
+  final Map<Key, ArrayDeque<IplImage>> free = new HashMap<>();
+
+  /**
+   * images kept per key - more are freed
+   */
+  int maxFree = 8;
+
+  long allocated;
+  long reused;
+  long freed;
+
+  public ImagePool() {
+  }
+
+  public ImagePool(int maxFree) {
+    this.maxFree = maxFree;
+  }
+
+  /**
+   * @return a free image of the size and type or a new one - its content is
+   *         undefined
+   */
+  public IplImage borrow(int width, int height, int depth, int channels) {
+    IplImage image = poll(width, height, depth, channels);
+    return (image == null) ? create(width, height, depth, channels) : image;
+  }
+
+  /**
+   * @return a free image of the size and type - null if there is none
+   */
+  public synchronized IplImage poll(int width, int height, int depth, int channels) {
+    ArrayDeque<IplImage> images = free.get(new Key(width, height, depth, channels));
+    if (images == null || images.isEmpty()) {
+      return null;
+    }
+    ++reused;
+    return images.pop();
+  }
+
+  /**
+   * @return a new native image - it goes into the pool when released
+   */
+  public IplImage create(int width, int height, int depth, int channels) {
+    synchronized (this) {
+      ++allocated;
+    }
+    return IplImage.create(width, height, depth, channels);
+  }
+
+  /**
+   * returns the images of a frame whose last reference was released - they can
+   * be borrowed right away
+   */
+  public synchronized void retire(List<IplImage> images) {
+    for (IplImage image : images) {
+      release(image);
+    }
+  }
+
+  /**
+   * returns an image which nothing references anymore
+   */
+  public synchronized void release(IplImage image) {
+    if (image == null) {
+      return;
+    }
+    Key key = new Key(image);
+    ArrayDeque<IplImage> images = free.get(key);
+    if (images == null) {
+      images = new ArrayDeque<>();
+      free.put(key, images);
+    }
+    if (images.size() < maxFree) {
+      images.push(image);
+    } else {
+      ++freed;
+      image.release();
+    }
+  }
+
+  /**
+   * frees all the native memory of the pool - images still borrowed are left
+   * to their borrowers
+   */
+  public synchronized void clear() {
+    for (ArrayDeque<IplImage> images : free.values()) {
+      for (IplImage image : images) {
+        ++freed;
+        image.release();
+      }
+    }
+    free.clear();
+  }
+
+  public synchronized Stats getStats() {
+    Stats stats = new Stats();
+    stats.allocated = allocated;
+    stats.reused = reused;
+    stats.freed = freed;
+    for (ArrayDeque<IplImage> images : free.values()) {
+      stats.free += images.size();
+      for (IplImage image : images) {
+        stats.freeBytes += image.imageSize();
+      }
+    }
+    return stats;
+  }
+
+}
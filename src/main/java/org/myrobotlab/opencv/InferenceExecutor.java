@@ -0,0 +1,320 @@
+package org.myrobotlab.opencv;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Runs the networks of the DNN filters off the video threads. Filters submit
+ * their frame and return right away - the result comes back later on a worker
+ * thread, tagged with the frame index it was computed from.
+ *
+ * Each model keeps at most one pending frame per source (filter of an OpenCV
+ * service), a newer frame replaces it - so a slow network always works on the
+ * latest frame and nothing queues up. Pending frames of different sources
+ * sharing a model (several cameras) are batched into one forward pass.
+ *
+ * The worker pool is bounded and a model is only used by one worker at a time,
+ * since a Net isn't thread safe.
+ */
+public class InferenceExecutor {
+
+  public final static Logger log = LoggerFactory.getLogger(InferenceExecutor.class);
+
+  private static InferenceExecutor instance;
+
+  public static class Request {
+    public final String source;
+    public final int frameIndex;
+    /**
+     * what the model's prepare made of the filter's input
+     */
+    public final Mat image;
+    /**
+     * size of the filter's input - results are scaled to it
+     */
+    public final int width;
+    public final int height;
+    /**
+     * lowest confidence the filter wants
+     */
+    public final double threshold;
+    final long submitted = System.nanoTime();
+    final Consumer<Result<?>> callback;
+
+    Request(String source, int frameIndex, Mat image, int width, int height, double threshold, Consumer<Result<?>> callback) {
+      this.source = source;
+      this.frameIndex = frameIndex;
+      this.image = image;
+      this.width = width;
+      this.height = height;
+      this.threshold = threshold;
+      this.callback = callback;
+    }
+  }
+
+  public static class Result<R> {
+    public final String source;
+    public final int frameIndex;
+    /**
+     * null when the network failed
+     */
+    public final R result;
+    public final int batchSize;
+    /**
+     * submit to result
+     */
+    public final double latencyMs;
+
+    Result(Request request, R result, int batchSize) {
+      this.source = request.source;
+      this.frameIndex = request.frameIndex;
+      this.result = result;
+      this.batchSize = batchSize;
+      this.latencyMs = (System.nanoTime() - request.submitted) / 1000000.0;
+    }
+  }
+
+  public static class Stats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public long submitted;
+    /**
+     * frames replaced by a newer one before they were run
+     */
+    public long dropped;
+    public long batches;
+    public long images;
+    public long errors;
+    public double avgBatch;
+    public double avgInferenceMs;
+    public int models;
+    public int pending;
+
+    @Override
+    public String toString() {
+      return String.format("submitted %d dropped %d batches %d (avg %.2f images) avg %.2f ms errors %d models %d pending %d", submitted, dropped, batches, avgBatch,
+          avgInferenceMs, errors, models, pending);
+    }
+  }
+
+  class ModelQueue {
+    final InferenceModel<?> model;
+    final LinkedHashMap<String, Request> pending = new LinkedHashMap<>();
+    int refs = 1;
+    boolean scheduled = false;
+    boolean closed = false;
+
+    ModelQueue(InferenceModel<?> model) {
+      this.model = model;
+    }
+  }
+
+  final ExecutorService workers;
+  final Map<String, ModelQueue> models = new HashMap<>();
+
+  long submitted;
+  long dropped;
+  long batches;
+  long images;
+  long errors;
+  long inferenceNanos;
+
+  /**
+   * @return the executor shared by all the OpenCV services
+   */
+  public static synchronized InferenceExecutor getInstance() {
+    if (instance == null) {
+      instance = new InferenceExecutor(Math.max(1, java.lang.Runtime.getRuntime().availableProcessors() / 2));
+    }
+    return instance;
+  }
+
+  /**
+   * @param numThreads
+   *          workers - more than the number of models is never used
+   */
+  public InferenceExecutor(int numThreads) {
+    AtomicInteger count = new AtomicInteger();
+    workers = Executors.newFixedThreadPool(numThreads, r -> {
+      Thread t = new Thread(r, String.format("inference-%d", count.incrementAndGet()));
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * @param key
+   *          the model's key
+   * @param factory
+   *          creates the model when no filter uses it yet
+   * @return the model shared by every filter asking for key - null if the
+   *         factory returned null
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized <R> InferenceModel<R> getModel(String key, Supplier<InferenceModel<R>> factory) {
+    ModelQueue queue = models.get(key);
+    if (queue != null) {
+      ++queue.refs;
+      return (InferenceModel<R>) queue.model;
+    }
+    InferenceModel<R> model = factory.get();
+    if (model != null) {
+      models.put(key, new ModelQueue(model));
+    }
+    return model;
+  }
+
+  /**
+   * a filter is done with the model - it's closed when no filter uses it
+   */
+  public synchronized void release(InferenceModel<?> model) {
+    ModelQueue queue = models.get(model.getKey());
+    if (queue == null || queue.model != model || --queue.refs > 0) {
+      return;
+    }
+    models.remove(model.getKey());
+    queue.closed = true;
+    for (Request request : queue.pending.values()) {
+      request.image.release();
+    }
+    queue.pending.clear();
+    if (!queue.scheduled) {
+      model.close();
+    }
+    // else the worker closes it after its batch
+  }
+
+  /**
+   * queues a frame - replacing the source's pending frame if it wasn't run yet
+   *
+   * @param model
+   *          the model from getModel
+   * @param source
+   *          the submitting filter - unique across services
+   * @param frameIndex
+   *          index of the frame, returned with the result
+   * @param image
+   *          the filter's input - prepared (copied) before this returns
+   * @param threshold
+   *          lowest confidence the filter wants
+   * @param callback
+   *          called with the result on a worker thread
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public <R> void submit(InferenceModel<R> model, String source, int frameIndex, Mat image, double threshold, Consumer<Result<R>> callback) {
+    Mat prepared = model.prepare(image);
+    Request request = new Request(source, frameIndex, prepared, image.cols(), image.rows(), threshold, (Consumer) callback);
+    synchronized (this) {
+      ModelQueue queue = models.get(model.getKey());
+      if (queue == null || queue.model != model) {
+        log.warn("model {} was released - dropping frame {} of {}", model.getKey(), frameIndex, source);
+        prepared.release();
+        return;
+      }
+      ++submitted;
+      Request old = queue.pending.remove(source);
+      if (old != null) {
+        ++dropped;
+        old.image.release();
+      }
+      queue.pending.put(source, request);
+      if (!queue.scheduled) {
+        queue.scheduled = true;
+        workers.execute(() -> run(queue));
+      }
+    }
+  }
+
+  /**
+   * runs one batch of a model and reschedules it if frames are waiting - so
+   * models take turns on the workers
+   */
+  void run(ModelQueue queue) {
+    List<Request> batch = new ArrayList<>();
+    synchronized (this) {
+      Iterator<Request> it = queue.pending.values().iterator();
+      while (it.hasNext() && batch.size() < Math.max(1, queue.model.getMaxBatch())) {
+        batch.add(it.next());
+        it.remove();
+      }
+    }
+
+    List<?> results = null;
+    long start = System.nanoTime();
+    try {
+      if (!batch.isEmpty()) {
+        results = queue.model.infer(batch);
+      }
+    } catch (Exception e) {
+      log.error("model {} failed on a batch of {}", queue.model.getKey(), batch.size(), e);
+    }
+    long nanos = System.nanoTime() - start;
+
+    for (int i = 0; i < batch.size(); ++i) {
+      Request request = batch.get(i);
+      Object result = (results != null && i < results.size()) ? results.get(i) : null;
+      try {
+        request.callback.accept(new Result<Object>(request, result, batch.size()));
+      } catch (Exception e) {
+        log.error("result callback of {} threw", request.source, e);
+      }
+      request.image.release();
+    }
+
+    synchronized (this) {
+      if (!batch.isEmpty()) {
+        ++batches;
+        images += batch.size();
+        inferenceNanos += nanos;
+        if (results == null) {
+          ++errors;
+        }
+      }
+      if (queue.closed) {
+        queue.scheduled = false;
+        queue.model.close();
+      } else if (queue.pending.isEmpty()) {
+        queue.scheduled = false;
+      } else {
+        workers.execute(() -> run(queue));
+      }
+    }
+  }
+
+  public synchronized Stats getStats() {
+    Stats stats = new Stats();
+    stats.submitted = submitted;
+    stats.dropped = dropped;
+    stats.batches = batches;
+    stats.images = images;
+    stats.errors = errors;
+    stats.avgBatch = (batches == 0) ? 0 : images / (double) batches;
+    stats.avgInferenceMs = (batches == 0) ? 0 : inferenceNanos / 1000000.0 / batches;
+    stats.models = models.size();
+    for (ModelQueue queue : models.values()) {
+      stats.pending += queue.pending.size();
+    }
+    return stats;
+  }
+
+  /**
+   * stops the workers - frames already running finish
+   */
+  public void shutdown() {
+    workers.shutdown();
+  }
+
+}
@@ -0,0 +1,54 @@
+package org.myrobotlab.opencv;
+
+import java.util.List;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+/**
+ * A network run by the InferenceExecutor. A model is only ever used by one
+ * worker at a time, and filters with the same key share it - their frames are
+ * batched into one forward pass when the network allows it.
+ *
+ * @param <R>
+ *          the result for one image
+ */
+public interface InferenceModel<R> {
+
+  /**
+   * @return models with the same key are the same network
+   */
+  String getKey();
+
+  /**
+   * @return most images in one forward pass - 1 if the network can't batch
+   */
+  int getMaxBatch();
+
+  /**
+   * called on the video thread - the image is only valid until the filter
+   * returns, so this has to copy what the network needs (typically resized to
+   * its input size)
+   *
+   * @param image
+   *          the filter's input
+   * @return the copy queued for inference
+   */
+  Mat prepare(Mat image);
+
+  /**
+   * runs the network on a worker thread
+   *
+   * @param batch
+   *          up to getMaxBatch requests - at most one per source
+   * @return a result for each request, in order
+   * @throws Exception
+   *           if the network failed
+   */
+  List<R> infer(List<InferenceExecutor.Request> batch) throws Exception;
+
+  /**
+   * frees the network - after the last filter using it is released
+   */
+  void close();
+
+}
@@ -4,15 +4,19 @@ import static org.myrobotlab.service.OpenCV.INPUT_KEY;
 
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
@@ -47,7 +51,16 @@ import org.slf4j.Logger;
  * 
  * Some optimizations are done by saving the results of type conversions. For
  * example if a JPG is asked for it is saved back into the data map, so that if
- * its asked again, the cached copy will be returned
+ * its asked again, the cached copy will be returned. Conversions are only made
+ * when asked for - a frame nobody displays is never converted to a
+ * BufferedImage.
+ * 
+ * The native images of a frame are reference counted. The video processor
+ * holds the first reference and releases it when the frame is done, anything
+ * keeping the data longer (a queue, a recorder) retains it and releases it when
+ * it's finished - the images go back to the pool after the last release. Every
+ * subscriber is handed a reference of its own and releases it when it's done,
+ * a reference which is never released only keeps the images out of the pool.
  * 
  * All data is put in with keys with the following format
  * [ServiceName].[FilterName].[Data Type] - e.g.
@@ -85,6 +98,46 @@ public class OpenCVData extends CvData {
   public final static Logger log = LoggerFactory.getLogger(OpenCVData.class);
   private static final long serialVersionUID = 1L;
 
+  public static final String BUFFERED_IMAGE = "BufferedImage";
+  public static final String FRAME = "Frame";
+  public static final String GRAPHICS = "Graphics2D";
+  public static final String IPL_IMAGE = "IplImage";
+  public static final String JPG = "jpg";
+  public static final String MAT = "Mat";
+  public static final String ROI = "Roi";
+
+  /**
+   * full keys by service, filter and type - built once, formatting them on
+   * every get and put was a good part of the cost of a lookup
+   */
+  static final Map<String, Map<String, Map<String, String>>> keys = new ConcurrentHashMap<>();
+
+  /**
+   * @param name
+   *          - service
+   * @param filter
+   *          - filter, input or output
+   * @param type
+   *          - type of the data - null for the prefix of the filter's keys
+   * @return the key [name].[filter].[type] - always the same String instance
+   */
+  public static String key(String name, String filter, String type) {
+    Map<String, Map<String, String>> filters = keys.get(name);
+    if (filters == null) {
+      filters = keys.computeIfAbsent(name, k -> new ConcurrentHashMap<>());
+    }
+    Map<String, String> types = filters.get(filter);
+    if (types == null) {
+      types = filters.computeIfAbsent(filter, k -> new ConcurrentHashMap<>());
+    }
+    String t = (type == null) ? "" : type;
+    String key = types.get(t);
+    if (key == null) {
+      key = types.computeIfAbsent(t, k -> (type == null) ? String.format("%s.%s", name, filter) : String.format("%s.%s.%s", name, filter, type));
+    }
+    return key;
+  }
+
   public static void main(String[] args) {
     try {
       LoggingFactory.init();
@@ -123,7 +176,30 @@ public class OpenCVData extends CvData {
   /**
    * list of filters which have processed this pipeline
    */
-  List<String> filters = new ArrayList<String>();
+  List<String> filters = Collections.synchronizedList(new ArrayList<String>());
+
+  /**
+   * nano seconds each filter took to process this frame
+   */
+  Map<String, Long> filterTimes = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+  /**
+   * native images created for this frame - and borrows the pool served
+   */
+  int nativeAllocations;
+  int pooledImages;
+
+  /**
+   * pool the frame borrows from - images go back when it's disposed
+   */
+  transient ImagePool pool;
+  transient List<IplImage> borrowed = new ArrayList<>();
+
+  /**
+   * references to the native images - 0 once they're released (or when
+   * deserialized, there are none)
+   */
+  transient int refs = 1;
 
   private int frameIndex;
 
@@ -132,6 +208,12 @@ public class OpenCVData extends CvData {
    */
   transient Map<String, Graphics2D> g2ds = new HashMap<>();
 
+  /**
+   * keys of the cached conversions - dropped when what they were converted
+   * from is replaced
+   */
+  transient Set<String> converted = ConcurrentHashMap.newKeySet();
+
   /**
    * name of the service which produced this data
    */
@@ -144,11 +226,16 @@ public class OpenCVData extends CvData {
 
   private String selectedFilter = INPUT_KEY;
 
+  /**
+   * filters processed in parallel each select themselves on their own thread
+   */
+  transient ThreadLocal<String> threadSelectedFilter = new ThreadLocal<>();
+
   /**
    * all non-serializable data including frames an IplImages It will also
    * contain a global source set of keys
    */
-  transient final Map<String, Object> sources = new TreeMap<>();
+  transient final Map<String, Object> sources = Collections.synchronizedMap(new TreeMap<>());
 
   private long timestamp;
 
@@ -163,25 +250,137 @@ public class OpenCVData extends CvData {
 
     // before the first filter is added input & output point to the
     // same things
-    sources.put(String.format("%s.input.Frame", name), frame);
-    sources.put(String.format("%s.output.Frame", name), frame);
+    sources.put(key(INPUT, FRAME), frame);
+    sources.put(key(OUTPUT, FRAME), frame);
 
     IplImage firstImage = OpenCV.toImage(frame);
     if (firstImage == null) {
       log.error("could not convert frame to image !!!!");
     }
-    sources.put(String.format("%s.input.IplImage", name), firstImage);
-    sources.put(String.format("%s.output.IplImage", name), firstImage);
+    sources.put(key(INPUT, IPL_IMAGE), firstImage);
+    sources.put(key(OUTPUT, IPL_IMAGE), firstImage);
+
+  }
 
+  String key(String filter, String type) {
+    return key(String.valueOf(name), String.valueOf(filter), type);
   }
 
   /**
-   * resource cleanup
+   * resource cleanup - releases the reference of the video processor
    */
   public void dispose() {
-    for (Graphics2D g : g2ds.values()) {
-      g.dispose();
+    release();
+  }
+
+  /**
+   * keeps the native images of this frame valid until release is called - for
+   * anything holding on to the data after the video processor is done with it
+   * 
+   * @return this
+   */
+  public synchronized OpenCVData retain() {
+    if (refs <= 0) {
+      log.warn("{} frame {} was already released", name, frameIndex);
+    } else {
+      ++refs;
     }
+    return this;
+  }
+
+  /**
+   * a reference for each subscriber the data is published to - every
+   * subscriber releases its own when it's done with the data
+   * 
+   * @param count - number of subscribers
+   * @return this
+   */
+  public synchronized OpenCVData retain(int count) {
+    if (refs <= 0) {
+      log.warn("{} frame {} was already released", name, frameIndex);
+    } else {
+      refs += count;
+    }
+    return this;
+  }
+
+  /**
+   * drops a reference - the last one returns the native images to the pool
+   */
+  @Override
+  public void release() {
+    synchronized (this) {
+      if (refs <= 0 || --refs > 0) {
+        return;
+      }
+    }
+    synchronized (g2ds) {
+      for (Graphics2D g : g2ds.values()) {
+        g.dispose();
+      }
+      g2ds.clear();
+    }
+    synchronized (borrowed) {
+      if (pool != null && !borrowed.isEmpty()) {
+        pool.retire(borrowed);
+      }
+      borrowed.clear();
+    }
+  }
+
+  /**
+   * @return references to the native images - 0 once they're released
+   */
+  public synchronized int getRefCount() {
+    return refs;
+  }
+
+  /**
+   * an image for this frame - from the pool when there is one, it goes back
+   * when the frame is disposed
+   * 
+   * @param width - width
+   * @param height - height
+   * @param depth - depth e.g. IPL_DEPTH_8U
+   * @param channels - channels
+   * @return an image of undefined content
+   */
+  public IplImage borrow(int width, int height, int depth, int channels) {
+    if (pool == null) {
+      synchronized (borrowed) {
+        ++nativeAllocations;
+      }
+      return IplImage.create(width, height, depth, channels);
+    }
+    IplImage image = pool.poll(width, height, depth, channels);
+    synchronized (borrowed) {
+      if (image == null) {
+        image = pool.create(width, height, depth, channels);
+        ++nativeAllocations;
+      } else {
+        ++pooledImages;
+      }
+      borrowed.add(image);
+    }
+    return image;
+  }
+
+  public void setImagePool(ImagePool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * @return native images created while processing this frame
+   */
+  public int getNativeAllocations() {
+    return nativeAllocations;
+  }
+
+  /**
+   * @return images borrowed from the pool while processing this frame
+   */
+  public int getPooledImages() {
+    return pooledImages;
   }
 
   public IplImage get(String fullKey) {
@@ -189,7 +388,7 @@ public class OpenCVData extends CvData {
   }
 
   public List<Rectangle> getBoundingBoxArray() {
-    return (List) sources.get(String.format("%s.output.BoundingBoxArray", name));
+    return (List) sources.get(key(OUTPUT, "BoundingBoxArray"));
   }
 
   /**
@@ -202,17 +401,56 @@ public class OpenCVData extends CvData {
     return getBufferedImage(null);
   }
 
+  /**
+   * the filter's image as a BufferedImage - converted on the first call, later
+   * calls return the same image (with whatever was drawn on it)
+   * 
+   * @param filterKey - the filter, null for the selected one
+   * @return - the buffered image
+   */
   public BufferedImage getBufferedImage(String filterKey) {
-    // search through current sources
-    String key = String.format("%s.BufferedImage", getKeyPrefix(filterKey));
+    String key = key(getFilterKey(filterKey), BUFFERED_IMAGE);
     BufferedImage image = (BufferedImage) sources.get(key);
-
-    if (image != null) {
-      // 1st selected ? 2nd output ?
+    if (image == null) {
       image = OpenCV.toBufferedImage(getImage(filterKey));
-      sources.put(key, image);
+      if (image != null) {
+        sources.put(key, image);
+        converted.add(key);
+      }
     }
-    return (BufferedImage) sources.get(key);
+    return image;
+  }
+
+  /**
+   * the filter's BufferedImage as a JPG - encoded on the first call. For the
+   * output it's the display, so it should be asked for after the display is
+   * drawn.
+   * 
+   * @param filterKey - the filter, null for the selected one
+   * @return - jpg bytes, null if there is no image
+   */
+  public byte[] getJpg(String filterKey) {
+    String key = key(getFilterKey(filterKey), JPG);
+    byte[] jpg = (byte[]) sources.get(key);
+    if (jpg == null) {
+      BufferedImage image = getBufferedImage(filterKey);
+      if (image == null) {
+        return null;
+      }
+      try {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, JPG, bos)) {
+          log.warn("no jpg writer for image type {}", image.getType());
+          return null;
+        }
+        jpg = bos.toByteArray();
+        sources.put(key, jpg);
+        converted.add(key);
+      } catch (IOException e) {
+        log.error("could not encode {}", key, e);
+      }
+    }
+    return jpg;
   }
 
   /**
@@ -231,7 +469,7 @@ public class OpenCVData extends CvData {
    */
   public BufferedImage getDisplay() {
     BufferedImage bi = null;
-    String key = String.format("%s.BufferedImage", getKeyPrefix("output"));
+    String key = key(OUTPUT, BUFFERED_IMAGE);
     if (!sources.containsKey(key)) {
 
       IplImage image = getImage(); // <- should be output or "selected Filter ..
@@ -245,6 +483,7 @@ public class OpenCVData extends CvData {
       }
       // cache result
       sources.put(key, bi);
+      converted.add(key);
       // put(String.format("%s.display", name), bi);
     }
     return (BufferedImage) sources.get(key);
@@ -255,8 +494,7 @@ public class OpenCVData extends CvData {
   }
 
   public Frame getFrame(String filterKey) {
-    String key = String.format("%s.Frame", getKeyPrefix(filterKey));
-    return (Frame) sources.get(key);
+    return (Frame) sources.get(key(getFilterKey(filterKey), FRAME));
   }
 
   public int getFrameIndex() {
@@ -264,11 +502,13 @@ public class OpenCVData extends CvData {
   }
 
   public Graphics2D getGraphics(String filterKey) {
-    if (g2ds.containsKey(filterKey)) {
-      return g2ds.get(filterKey);
-    } else {
-      Graphics2D graphics = getBufferedImage(filterKey).createGraphics();
-      g2ds.put(filterKey, graphics);
+    String filter = getFilterKey(filterKey);
+    synchronized (g2ds) {
+      Graphics2D graphics = g2ds.get(filter);
+      if (graphics == null) {
+        graphics = getBufferedImage(filter).createGraphics();
+        g2ds.put(filter, graphics);
+      }
       return graphics;
     }
   }
@@ -288,21 +528,18 @@ public class OpenCVData extends CvData {
   public IplImage getImage(String filterKey) {
 
     // try cumulative output
-    String key = String.format("%s.IplImage", getKeyPrefix(filterKey));
+    String key = key(getFilterKey(filterKey), IPL_IMAGE);
     if (sources.containsKey(key)) {
       return (IplImage) sources.get(key);
     }
 
-    IplImage image = null;
-    if (!sources.containsKey(key)) {
-      image = OpenCV.toImage(getFrame(filterKey));
-      sources.put(key, image);
-    }
-    return (IplImage) sources.get(key);
+    IplImage image = OpenCV.toImage(getFrame(filterKey));
+    sources.put(key, image);
+    return image;
   }
 
   public Frame getInputFrame() {
-    return (Frame) sources.get(String.format("%s.input.Frame", name));
+    return (Frame) sources.get(key(INPUT, FRAME));
   }
 
   public IplImage getInputImage() {
@@ -310,13 +547,19 @@ public class OpenCVData extends CvData {
   }
 
   public String getKeyPrefix(String filterKey) {
-    if (filterKey == null && selectedFilter != null) {
-      filterKey = selectedFilter;
-    } else if (filterKey == null && selectedFilter == null) {
-      filterKey = "output";
-    }
+    return key(getFilterKey(filterKey), null);
+  }
 
-    return String.format("%s.%s", name, filterKey);
+  /**
+   * @return filterKey, the selected filter when it's null or output when none
+   *         is selected
+   */
+  String getFilterKey(String filterKey) {
+    if (filterKey != null) {
+      return filterKey;
+    }
+    String selectedFilter = getSelectedFilter();
+    return (selectedFilter != null) ? selectedFilter : OUTPUT;
   }
 
   /**
@@ -337,14 +580,25 @@ public class OpenCVData extends CvData {
     return (IplImage) sources.get(String.format("%s.video", OpenCV.INPUT_KEY));
   }
 
+  /**
+   * the filter's image as a Mat - a header over the same native data, made on
+   * the first call
+   * 
+   * @param filterKey - the filter, null for the selected one
+   * @return - the mat
+   */
   public Mat getMat(String filterKey) {
-    String key = String.format("%s.%s.Mat", filterKey, name);
-    Mat image = null;
-    if (!sources.containsKey(key)) {
-      image = OpenCV.toMat(getFrame(filterKey));
-      sources.put(key, image);
+    String key = key(getFilterKey(filterKey), MAT);
+    Mat image = (Mat) sources.get(key);
+    if (image == null) {
+      IplImage src = getImage(filterKey);
+      image = (src == null) ? null : OpenCV.toMat(src);
+      if (image != null) {
+        sources.put(key, image);
+        converted.add(key);
+      }
     }
-    return (Mat) sources.get(key);
+    return image;
   }
 
   public String getName() {
@@ -356,13 +610,49 @@ public class OpenCVData extends CvData {
   }
 
   public List<Point2df> getPointArray() {
-    return (List) sources.get(String.format("%s.output.PointArray", name));
+    return (List) sources.get(key(OUTPUT, "PointArray"));
+  }
+
+  /**
+   * @param filterKey - the filter which found it, null for the selected one
+   * @return region of interest the filter put - e.g. where a tracker expects
+   *         its object - null if there's none
+   */
+  public Rectangle getRoi(String filterKey) {
+    return (Rectangle) sources.get(key(getFilterKey(filterKey), ROI));
   }
 
   public String getSelectedFilter() {
+    if (threadSelectedFilter != null) {
+      String filter = threadSelectedFilter.get();
+      if (filter != null) {
+        return filter;
+      }
+    }
     return selectedFilter;
   }
 
+  public Map<String, Long> getFilterTimes() {
+    return filterTimes;
+  }
+
+  public void putFilterTime(String filterName, long nanos) {
+    filterTimes.put(filterName, nanos);
+  }
+
+  /**
+   * makes a filter's image the output - filters processed in parallel all
+   * write the output, this sets the one the pipeline ends with
+   * 
+   * @param filterName - the filter
+   */
+  public void setOutput(String filterName) {
+    Object image = sources.get(key(filterName, IPL_IMAGE));
+    if (image != null) {
+      put(OUTPUT, IPL_IMAGE, image);
+    }
+  }
+
   public long getTimestamp() {
     return timestamp;
   }
@@ -380,27 +670,71 @@ public class OpenCVData extends CvData {
    */
   public void postProcess(IplImage processedImage) {
     put(processedImage);
-    filters.add(selectedFilter);
+    filters.add(getSelectedFilter());
   }
 
   public void put(BufferedImage object) {
-    sources.put(String.format("%s.output.BufferedImage", name), object);
-    sources.put(String.format("%s.%s.BufferedImage", name, selectedFilter), object);
+    String filter = getSelectedFilter();
+    put(OUTPUT, BUFFERED_IMAGE, object);
+    put(filter, BUFFERED_IMAGE, object);
   }
 
   public void put(Graphics2D object) {
-    sources.put(String.format("%s.output.Graphics2D", name), object);
-    sources.put(String.format("%s.%s.Graphics2D", name, selectedFilter), object);
+    String filter = getSelectedFilter();
+    put(OUTPUT, GRAPHICS, object);
+    put(filter, GRAPHICS, object);
   }
 
   public void put(IplImage object) {
-    sources.put(String.format("%s.output.IplImage", name), object);
-    sources.put(String.format("%s.%s.IplImage", name, selectedFilter), object);
+    String filter = getSelectedFilter();
+    put(OUTPUT, IPL_IMAGE, object);
+    put(filter, IPL_IMAGE, object);
   }
 
   public void put(Mat object) {
-    sources.put(String.format("%s.output.Mat", name), object);
-    sources.put(String.format("%s.%s.Mat", name, selectedFilter), object);
+    String filter = getSelectedFilter();
+    put(OUTPUT, MAT, object);
+    put(filter, MAT, object);
+  }
+
+  /**
+   * puts a filter's data - every representation made from what it replaces is
+   * dropped, the next get converts again. Only a display filters have drawn on
+   * is kept, the drawing is cumulative.
+   */
+  void put(String filter, String type, Object object) {
+    String key = key(filter, type);
+    sources.put(key, object);
+    converted.remove(key);
+    if (IPL_IMAGE.equals(type)) {
+      invalidate(filter, MAT);
+      invalidate(filter, JPG);
+      if (!OUTPUT.equals(filter) || converted.contains(key(filter, BUFFERED_IMAGE))) {
+        invalidate(filter, BUFFERED_IMAGE);
+      }
+    } else if (BUFFERED_IMAGE.equals(type)) {
+      invalidate(filter, JPG);
+      disposeGraphics(filter);
+    }
+  }
+
+  void invalidate(String filter, String type) {
+    String key = key(filter, type);
+    sources.remove(key);
+    converted.remove(key);
+    if (BUFFERED_IMAGE.equals(type)) {
+      disposeGraphics(filter);
+    }
+  }
+
+  void disposeGraphics(String filter) {
+    Graphics2D graphics;
+    synchronized (g2ds) {
+      graphics = g2ds.remove(filter);
+    }
+    if (graphics != null) {
+      graphics.dispose();
+    }
   }
 
   /**
@@ -411,16 +745,27 @@ public class OpenCVData extends CvData {
    * @param object - the value
    */
   public void put(String keyPart, Object object) {
-    sources.put(String.format("%s.output.%s", name, keyPart), object);
-    sources.put(String.format("%s.%s.%s", name, selectedFilter, keyPart), object);
+    String filter = getSelectedFilter();
+    put(OUTPUT, keyPart, object);
+    put(filter, keyPart, object);
+  }
+
+  /**
+   * a region of interest for filters downstream - filters with the selected
+   * filter as their roiSource only process this region
+   * 
+   * @param roi - region in image coordinates
+   */
+  public void putRoi(Rectangle roi) {
+    put(ROI, roi);
   }
 
   public void putBoundingBoxArray(ArrayList<Rectangle> bb) {
-    sources.put(String.format("%s.output.BoundingBoxArray", name), bb);
+    sources.put(key(OUTPUT, "BoundingBoxArray"), bb);
   }
 
   public void putDisplay(BufferedImage bi) {
-    sources.put(String.format("%s.BufferedImage", getKeyPrefix("output")), bi);
+    put(OUTPUT, BUFFERED_IMAGE, bi);
   }
 
   /**
@@ -448,6 +793,9 @@ public class OpenCVData extends CvData {
 
   public void setSelectedFilter(String selectedFilter) {
     this.selectedFilter = selectedFilter;
+    if (threadSelectedFilter != null) {
+      threadSelectedFilter.set(selectedFilter);
+    }
   }
 
   public void setTimestamp(long timestamp) {
@@ -457,7 +805,7 @@ public class OpenCVData extends CvData {
   public String toString() {
     StringBuilder sb = new StringBuilder();
     sb.append(String.format("%s ts %d fi %d\n", name, timestamp, frameIndex));
-    sb.append(String.format("selectedFilter: %s\n", selectedFilter));
+    sb.append(String.format("selectedFilter: %s\n", getSelectedFilter()));
     // sb.append(String.format("displayFilter: %s\n", displayFilter));
     sb.append("data:\n");
     for (String key : sources.keySet()) {
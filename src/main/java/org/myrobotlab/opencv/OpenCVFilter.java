@@ -27,6 +27,7 @@ package org.myrobotlab.opencv;
 
 import static org.bytedeco.opencv.global.opencv_core.cvCopy;
 import static org.bytedeco.opencv.global.opencv_core.cvCreateImage;
+import static org.bytedeco.opencv.global.opencv_core.cvSize;
 import static org.bytedeco.opencv.global.opencv_imgcodecs.IMREAD_UNCHANGED;
 import static org.bytedeco.opencv.global.opencv_imgcodecs.cvLoadImage;
 import static org.bytedeco.opencv.global.opencv_imgcodecs.imread;
@@ -44,6 +45,7 @@ import javax.swing.ImageIcon;
 
 import org.bytedeco.opencv.opencv_core.IplImage;
 import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
 import org.bytedeco.javacv.CanvasFrame;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.Java2DFrameConverter;
@@ -53,6 +55,7 @@ import org.myrobotlab.framework.Service;
 import org.myrobotlab.image.Util;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.math.geometry.PointCloud;
+import org.myrobotlab.math.geometry.Rectangle;
 import org.myrobotlab.service.OpenCV;
 import org.slf4j.Logger;
 
@@ -229,6 +232,28 @@ public abstract class OpenCVFilter implements Serializable {
 
   public String sourceKey;
 
+  /**
+   * when the filter runs - null processes every frame
+   */
+  FilterSchedule schedule;
+
+  /**
+   * filter whose region of interest (OpenCVData.putRoi) this filter processes
+   * instead of the whole image - null for the whole image
+   */
+  String roiSource;
+
+  /**
+   * margin added around the roi on each side - a fraction of its size
+   */
+  double roiMargin = 0.25;
+
+  /**
+   * region being processed - null when it's the whole image. Filters
+   * reporting coordinates offset them by its x and y.
+   */
+  transient Rectangle roi;
+
   int width;
 
   public OpenCVFilter() {
@@ -258,6 +283,35 @@ public abstract class OpenCVFilter implements Serializable {
     }
   }
 
+  /**
+   * an image for the current frame - borrowed from the frame's pool, so
+   * filters which return a new image each frame don't allocate native memory
+   * each frame
+   * 
+   * @param width - width
+   * @param height - height
+   * @param depth - depth e.g. IPL_DEPTH_8U
+   * @param channels - channels
+   * @return an image of undefined content - valid until the frame is disposed
+   */
+  public IplImage borrow(int width, int height, int depth, int channels) {
+    if (data == null) {
+      return cvCreateImage(cvSize(width, height), depth, channels);
+    }
+    return data.borrow(width, height, depth, channels);
+  }
+
+  public IplImage borrow(IplImage image) {
+    return borrow(image.width(), image.height(), image.depth(), image.nChannels());
+  }
+
+  /**
+   * a copy the caller owns - unlike borrowed images it stays valid after the
+   * frame is released
+   * 
+   * @param image - the image to copy
+   * @return the copy
+   */
   public IplImage copy(final IplImage image) {
     IplImage copy = cvCreateImage(image.cvSize(), image.depth(), image.nChannels());
     cvCopy(image, copy, null);
@@ -334,6 +388,101 @@ public abstract class OpenCVFilter implements Serializable {
 
   public abstract IplImage process(IplImage image) throws InterruptedException;
 
+  /**
+   * processes the frame the filter's data was set to as its schedule and roi
+   * source say - a frame which isn't due is passed through, with a roi only
+   * the region is processed. A filter returning the region it was given
+   * outputs the whole input.
+   * 
+   * @param input - the input from setData
+   * @return the filter's output
+   * @throws InterruptedException - when the filter is interrupted
+   */
+  public IplImage processFrame(IplImage input) throws InterruptedException {
+    if (schedule != null && !schedule.isDue(data.getFrameIndex())) {
+      return input;
+    }
+    long start = System.nanoTime();
+    IplImage processed = null;
+    roi = getRoi(input);
+    if (roi == null) {
+      processed = process(input);
+    } else {
+      Mat region = new Mat(toMat(input), new Rect((int) roi.x, (int) roi.y, (int) roi.width, (int) roi.height));
+      IplImage crop = toImage(region);
+      processed = process(crop);
+      if (processed == crop) {
+        processed = input;
+      }
+      region.close();
+    }
+    if (schedule != null) {
+      schedule.processed(System.nanoTime() - start);
+    }
+    return processed;
+  }
+
+  /**
+   * @return the roi source's region with roiMargin, clipped to the image -
+   *         null if there is none or it's the whole image
+   */
+  Rectangle getRoi(IplImage input) {
+    if (roiSource == null || data == null) {
+      return null;
+    }
+    Rectangle r = data.getRoi(roiSource);
+    if (r == null || r.width <= 0 || r.height <= 0) {
+      return null;
+    }
+    int x0 = Math.max(0, (int) (r.x - r.width * roiMargin));
+    int y0 = Math.max(0, (int) (r.y - r.height * roiMargin));
+    int x1 = Math.min(input.width(), (int) Math.ceil(r.x + r.width * (1 + roiMargin)));
+    int y1 = Math.min(input.height(), (int) Math.ceil(r.y + r.height * (1 + roiMargin)));
+    if (x1 - x0 < 2 || y1 - y0 < 2 || (x0 == 0 && y0 == 0 && x1 == input.width() && y1 == input.height())) {
+      return null;
+    }
+    return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+  }
+
+  /**
+   * runs the filter every frame
+   */
+  public void clearSchedule() {
+    schedule = null;
+  }
+
+  /**
+   * @return the filter's schedule - null if it runs every frame
+   */
+  public FilterSchedule getSchedule() {
+    return schedule;
+  }
+
+  /**
+   * see FilterSchedule
+   * 
+   * @param every - run at least every this many frames
+   * @param budgetMs - average cost per frame allowed, 0 for none
+   * @param targetFps - frame rate to hold, 0 for not adaptive
+   * @return the schedule
+   */
+  public FilterSchedule setSchedule(int every, double budgetMs, double targetFps) {
+    schedule = new FilterSchedule(every, budgetMs, targetFps);
+    return schedule;
+  }
+
+  /**
+   * @param roiSource - filter whose region of interest is processed, null
+   *          for the whole image
+   */
+  public void setRoiSource(String roiSource) {
+    this.roiSource = roiSource;
+  }
+
+  public void setRoiMargin(double roiMargin) {
+    this.roiMargin = roiMargin;
+  }
+
   /**
    * method which determines if this filter to process its display TODO - have
    * it also decide if its cumulative display or not
@@ -421,6 +570,24 @@ public abstract class OpenCVFilter implements Serializable {
     // FIXME - getImage(filter.sourceKey) => if null then use getImage()
     // grab the incoming image ..
     IplImage image = data.getOutputImage(); // <-- getting input from output
+    return setImage(image);
+  }
+
+  /**
+   * setData for a filter graph - the input is the output of source instead of
+   * the cumulative output, which other branches may be writing
+   * 
+   * @param data - the frame's data
+   * @param source - input or the name of the filter whose output is processed
+   * @return the input image
+   */
+  public IplImage setData(OpenCVData data, String source) {
+    this.data = data;
+    data.setSelectedFilter(name);
+    return setImage(data.getImage(source));
+  }
+
+  private IplImage setImage(IplImage image) {
     if (image != null && (image.width() != width || image.nChannels() != channels)) {
       width = image.width();
       channels = image.nChannels();
@@ -78,8 +78,9 @@ public class OpenCVFilterDL4J extends OpenCVFilter implements Runnable {
       displayResultYolo(image, yoloLastResult);
     }
     // ok now we just need to update the image that the current thread is
-    // processing (if the current thread is idle i guess?)
-    lastImage = image;
+    // processing (if the current thread is idle i guess?) - a clone, the
+    // frame's images go back to the pool before the classifier reads it
+    lastImage = image.clone();
     return image;
   }
 
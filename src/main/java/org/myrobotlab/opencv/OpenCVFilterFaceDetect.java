@@ -220,16 +220,21 @@ public class OpenCVFilterFaceDetect extends OpenCVFilter {
       if (vec != null) {
         
         faceCnt = (int)vec.size();
+        // processing a roi - faces are reported in frame coordinates
+        int dx = (roi == null) ? 0 : (int) roi.x;
+        int dy = (roi == null) ? 0 : (int) roi.y;
         for (i = 0; i < faceCnt; i++) {
           try {
             Rect r = vec.get(i);
-            bb.add(new Rectangle(r.x(), r.y(), r.width(), r.height()));
-            data.putBoundingBoxArray(bb);
+            bb.add(new Rectangle(r.x() + dx, r.y() + dy, r.width(), r.height()));
             r.close();
           } catch (Exception e) {
           }
         }
       }
+      // put even when empty - no array means the filter didn't run on the
+      // frame
+      data.putBoundingBoxArray(bb);
     } else {
       log.info("Creating and loading new classifier instance {}", cascadeFile);
       cascade = new CascadeClassifier(String.format("%s/%s", cascadeDir, cascadeFile));
@@ -26,7 +26,7 @@
 package org.myrobotlab.opencv;
 
 import static org.bytedeco.opencv.global.opencv_core.CV_32F;
-import static org.bytedeco.opencv.global.opencv_dnn.blobFromImage;
+import static org.bytedeco.opencv.global.opencv_dnn.blobFromImages;
 import static org.bytedeco.opencv.global.opencv_dnn.readNetFromCaffe;
 import static org.bytedeco.opencv.global.opencv_imgproc.resize;
 
@@ -42,6 +42,7 @@ import org.bytedeco.javacpp.indexer.FloatIndexer;
 import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.bytedeco.opencv.opencv_core.IplImage;
 import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
 import org.bytedeco.opencv.opencv_core.Scalar;
 import org.bytedeco.opencv.opencv_core.Size;
 import org.bytedeco.opencv.opencv_dnn.Net;
@@ -56,13 +57,105 @@ public class OpenCVFilterFaceDetectDNN extends OpenCVFilter {
   public final static Logger log = LoggerFactory.getLogger(OpenCVFilterFaceDetectDNN.class.getCanonicalName());
   // int x0, y0, x1, y1;
 
-  private String FACE_LABEL = "face";
-  private Net net;
+  private static final String FACE_LABEL = "face";
+
+  /**
+   * the caffe ssd face detector - shared by the filters of all services, their
+   * frames are detected in one batch
+   */
+  static class FaceModel implements InferenceModel<List<Classification>> {
+    final String key;
+    final Net net;
+
+    FaceModel(String key, String protoTxt, String model) {
+      this.key = key;
+      net = readNetFromCaffe(protoTxt, model);
+      log.info("Caffe DNN Face Detector model loaded.");
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public int getMaxBatch() {
+      return 8;
+    }
+
+    @Override
+    public Mat prepare(Mat image) {
+      // resize the image to match the input size of the model - the copy
+      // queued for the network is small
+      Mat inputMat = new Mat();
+      resize(image, inputMat, new Size(300, 300));
+      return inputMat;
+    }
+
+    @Override
+    public List<List<Classification>> infer(List<InferenceExecutor.Request> batch) {
+      List<List<Classification>> ret = new ArrayList<>();
+      MatVector images = new MatVector(batch.size());
+      for (int i = 0; i < batch.size(); ++i) {
+        images.put(i, batch.get(i).image);
+        ret.add(new ArrayList<>());
+      }
+      // create a 4-dimensional blob from the images with NCHW (Number of
+      // images in the batch, Channel, Height, Width) dimensions order,
+      // for more details read the official docs at
+      // https://docs.opencv.org/trunk/d6/d0f/group__dnn.html#gabd0e76da3c6ad15c08b01ef21ad55dd8
+      Mat blob = blobFromImages(images, 1.0, new Size(300, 300), new Scalar(104.0, 177.0, 123.0, 0), false, false, CV_32F);
+      // set the input to network model
+      net.setInput(blob);
+      // feed forward the input to the network to get the output matrix
+      Mat output = net.forward();
+      // extract a 2d matrix for 4d output matrix with form of (number of
+      // detections x 7) - the detections of all the images in the batch
+      Mat ne = new Mat(new Size(output.size(3), output.size(2)), CV_32F, output.ptr(0, 0));
+      FloatIndexer srcIndexer = ne.createIndexer();
+      for (int i = 0; i < output.size(2); i++) {
+        // image of the batch
+        int image = (int) srcIndexer.get(i, 0);
+        if (image < 0 || image >= batch.size()) {
+          continue;
+        }
+        InferenceExecutor.Request request = batch.get(image);
+        float confidence = srcIndexer.get(i, 2);
+        if (confidence > request.threshold) {
+          float tx = srcIndexer.get(i, 3) * request.width;// top left point's x
+          float ty = srcIndexer.get(i, 4) * request.height;// top left point's y
+          float bx = srcIndexer.get(i, 5) * request.width;// bottom right point's x
+          float by = srcIndexer.get(i, 6) * request.height;// bottom right point's y
+          Classification classification = new Classification(FACE_LABEL, confidence, new Rectangle(tx, ty, bx - tx, by - ty));
+          classification.setFrameIndex(request.frameIndex);
+          ret.get(image).add(classification);
+        }
+      }
+      srcIndexer.release();
+      ne.close();
+      blob.close();
+      return ret;
+    }
+
+    @Override
+    public void close() {
+      net.deallocate();
+    }
+  }
+
+  transient InferenceModel<List<Classification>> inference;
+
   /**
-   * bounding boxes of faces
+   * bounding boxes of faces - of frame lastFrameIndex
    */
-  final List<Rectangle> bb = new ArrayList<>();
-  final Map<String, List<Classification>> classifications = new TreeMap<>();
+  volatile List<Rectangle> bb = new ArrayList<>();
+  volatile Map<String, List<Classification>> classifications = new TreeMap<>();
+  /**
+   * frame the last detection was done on - detection is asynchronous, results
+   * are some frames behind the video
+   */
+  volatile int lastFrameIndex = -1;
+
   // if deps were checked in it would be like this
   /*
   public String model = FileIO.gluePaths(Service.getResourceDir(OpenCV.class),"models/facedetectdnn/res10_300x300_ssd_iter_140000.caffemodel");
@@ -74,7 +167,6 @@ public class OpenCVFilterFaceDetectDNN extends OpenCVFilter {
   double threshold = .2;
 
   transient private final OpenCVFrameConverter.ToIplImage grabberConverter = new OpenCVFrameConverter.ToIplImage();
-  transient private OpenCVFrameConverter.ToIplImage converterToIpl = new OpenCVFrameConverter.ToIplImage();
 
   public OpenCVFilterFaceDetectDNN() {
     this(null);
@@ -95,8 +187,8 @@ public class OpenCVFilterFaceDetectDNN extends OpenCVFilter {
       log.warn("Caffe DNN Face Detector model not found {}", model);
       return;
     }
-    net = readNetFromCaffe(protoTxt, model);
-    log.info("Caffe DNN Face Detector model loaded.");
+    String key = String.format("FaceDetectDNN %s %s", protoTxt, model);
+    inference = InferenceExecutor.getInstance().getModel(key, () -> new FaceModel(key, protoTxt, model));
   }
 
   @Override
@@ -106,85 +198,46 @@ public class OpenCVFilterFaceDetectDNN extends OpenCVFilter {
 
   @Override
   public IplImage process(IplImage image) {
-    int h = image.height();
-    int w = image.width();
-    // TODO: cv2.resize(image, (300, 300))
-    Mat srcMat = grabberConverter.convertToMat(grabberConverter.convert(image));
-    Mat inputMat = new Mat();
-    resize(srcMat, inputMat, new Size(300, 300));// resize the image to match
-    // the input size of the model
-    // create a 4-dimensional blob from image with NCHW (Number of images in the
-    // batch -for training only-, Channel, Height, Width)
-    // dimensions order,
-    // for more details read the official docs at
-    // https://docs.opencv.org/trunk/d6/d0f/group__dnn.html#gabd0e76da3c6ad15c08b01ef21ad55dd8
-    Mat blob = blobFromImage(inputMat, 1.0, new Size(300, 300), new Scalar(104.0, 177.0, 123.0, 0), false, false, CV_32F);
-    // log.info("Input Blob : {}", blob);
-    // set the input to network model
-    if (blob == null) {
+    if (inference == null) {
       return image;
     }
-    net.setInput(blob);
-    // feed forward the input to the network to get the output matrix
-    Mat output = net.forward();
-    Mat ne = new Mat(new Size(output.size(3), output.size(2)), CV_32F, output.ptr(0, 0));// extract
-    // a
-    // 2d
-    // matrix
-    // for
-    // 4d
-    // output
-    // matrix
-    // with
-    // form
-    // of
-    // (number
-    // of
-    // detections
-    // x
-    // 7)
-    FloatIndexer srcIndexer = ne.createIndexer(); // create indexer to access
-    // elements of the matrix
-    // log.info("Output Size: {}", output.size(3));
-    bb.clear();
-    classifications.clear();
-    for (int i = 0; i < output.size(3); i++) {// iterate to extract elements
-      float confidence = srcIndexer.get(i, 2);
-      // log.info("Getting element {} confidence {}", i, confidence);
-      float f1 = srcIndexer.get(i, 3);
-      float f2 = srcIndexer.get(i, 4);
-      float f3 = srcIndexer.get(i, 5);
-      float f4 = srcIndexer.get(i, 6);
-
-      if (confidence > threshold) {
-        // log.info("Passes the threshold test.");
-        float tx = f1 * w;// top left point's x
-        float ty = f2 * h;// top left point's y
-        float bx = f3 * w;// bottom right point's x
-        float by = f4 * h;// bottom right point's y
-        Rectangle rect = new Rectangle(tx, ty, bx - tx, by - ty);
-        List<Classification> cl = null;
-        Classification classification = new Classification(FACE_LABEL, confidence, rect);
-        if (classifications.containsKey(FACE_LABEL)) {
-          classifications.get(FACE_LABEL).add(classification);
-        } else {
-          cl = new ArrayList<>();
-          cl.add(classification);
-          classifications.put(FACE_LABEL, cl);
-        }
-        bb.add(rect);
+    Mat srcMat = grabberConverter.convertToMat(grabberConverter.convert(image));
+    InferenceExecutor.getInstance().submit(inference, String.format("%s.%s", data.getName(), name), data.getFrameIndex(), srcMat, threshold, r -> onResult(r));
+    return image;
+  }
 
+  void onResult(InferenceExecutor.Result<List<Classification>> result) {
+    if (result.result == null) {
+      return;
+    }
+    List<Rectangle> faces = new ArrayList<>();
+    Map<String, List<Classification>> ret = new TreeMap<>();
+    for (Classification classification : result.result) {
+      faces.add(classification.getBoundingBox());
+      List<Classification> cl = ret.get(FACE_LABEL);
+      if (cl == null) {
+        cl = new ArrayList<>();
+        ret.put(FACE_LABEL, cl);
       }
+      cl.add(classification);
     }
+    bb = faces;
+    classifications = ret;
+    lastFrameIndex = result.frameIndex;
+    publishClassification(ret);
+  }
 
-    publishClassification(classifications);
-    IplImage result = grabberConverter.convert(converterToIpl.convert(srcMat));
-    ne.close();
-    return result;
+  @Override
+  public void release() {
+    if (inference != null) {
+      InferenceExecutor.getInstance().release(inference);
+      inference = null;
+    }
   }
 
   @Override
   public BufferedImage processDisplay(Graphics2D graphics, BufferedImage image) {
+    Map<String, List<Classification>> classifications = this.classifications;
     for (String label : classifications.keySet()) {
       List<Classification> cl = classifications.get(label);
       for (Classification c : cl) {
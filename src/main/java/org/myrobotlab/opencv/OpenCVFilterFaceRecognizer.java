@@ -24,7 +24,10 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.imageio.ImageIO;
@@ -61,6 +64,11 @@ import org.slf4j.Logger;
  * It computes the "distance" from the reference new image to existing images
  * that it's been trained on and provides a prediction of what label applies
  * 
+ * The INDEX recognizer keeps a FaceIndex of the enrolled faces instead of an
+ * OpenCV model - a face taken in training mode is enrolled right away, and
+ * train only reads the images the index hasn't seen. An LBPH model is updated
+ * the same way, Eigen and Fisher models have to be trained from all the images.
+ * 
  * Based on:
  * https://github.com/bytedeco/javacv/blob/master/samples/OpenCVFaceRecognizer.
  * java
@@ -108,6 +116,16 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
   private boolean face = false;
   private String lastRecognizedName = null;
   public String faceModelFilename = "faceModel.bin";
+  // the index lives in the training directory, next to the images it indexes
+  public String faceIndexFilename = "faceIndex.bin";
+  // faces further than this from every enrolled face are unknown - 0 for no limit
+  public double maxDistance = 0;
+  // most faces a prediction compares - 0 for an exact search
+  public int searchCandidates = 64;
+  public static final String UNKNOWN = "unknown";
+  // side of the image the index's features are computed from
+  static final int INDEX_FACE_SIZE = 64;
+  transient private FaceIndex faceIndex;
 
   public OpenCVFilterFaceRecognizer(String name) {
     super(name);
@@ -119,7 +137,7 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
   }
 
   public enum RecognizerType {
-    FISHER, EIGEN, LBPH
+    FISHER, EIGEN, LBPH, INDEX
   }
 
   public void initAll() {
@@ -187,6 +205,42 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
       log.info("No images found for training.");
       return false;
     }
+    FaceIndex index = getFaceIndex();
+    boolean indexed = index.size() > 0;
+    // only the images the index hasn't seen are read
+    Map<File, Mat> loaded = new HashMap<File, Mat>();
+    List<Mat> newFaces = new ArrayList<Mat>();
+    List<String> newNames = new ArrayList<String>();
+    for (File image : imageFiles) {
+      String source = getSource(image);
+      if (index.contains(source)) {
+        continue;
+      }
+      Mat face = loadTrainingImage(image);
+      // The directory name is the label.
+      String personName = image.getParentFile().getName();
+      index.add(personName, source, features(face));
+      loaded.put(image, face);
+      newFaces.add(face);
+      newNames.add(personName);
+    }
+    if (!newFaces.isEmpty()) {
+      index.save(getFaceIndexFile());
+    }
+    log.info("{} new training images, {} faces indexed", newFaces.size(), index.size());
+
+    if (RecognizerType.INDEX.equals(recognizerType)) {
+      trained = index.size() > 0;
+      return true;
+    }
+    if (RecognizerType.LBPH.equals(recognizerType) && trained && indexed) {
+      // lbph learns the new images without starting over
+      if (!newFaces.isEmpty()) {
+        update(newFaces, newNames);
+      }
+      return true;
+    }
+
     // Storage for the files that we load.
     MatVector images = new MatVector(imageFiles.size());
     // storage for the labels for the images
@@ -196,15 +250,10 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
     // a map between the hashcode and the string label
     HashMap<Integer, String> idToLabelMap = new HashMap<Integer, String>();
     for (File image : imageFiles) {
-      // load the image
-      log.info("Loading training image file: {}", image.getAbsolutePath());
-      // we know that imread doesn't work with non-ascii file paths.. so we want
-      // to use a different
-      // so, load the image into memory, warp it in a byte pointer and pass it
-      // to imdecode to load the image from memory, instead of
-      // from disk
-      byte[] tmpImg = FileIO.toByteArray(image);
-      Mat img = imdecode(new Mat(new BytePointer(tmpImg)), IMREAD_GRAYSCALE);
+      Mat resized = loaded.get(image);
+      if (resized == null) {
+        resized = loadTrainingImage(image);
+      }
       // The directory name is the label.
       String personName = image.getParentFile().getName();
       // String personName = UnicodeFolder.get(image.getParentFile().getName());
@@ -214,19 +263,6 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
       // we really need a better metadata store for these images. (atleast this
       // is deterministic.)
       int label = personName.hashCode();
-      // make sure all our test images are resized
-      Mat resized = resizeImage(img);
-      // Mask out unwanted parts of the training image by applying the resized mask
-      if (facemask != null) {
-        Mat maskedface = facemask.clone();
-        resized.copyTo(maskedface, facemask);
-        resized = maskedface;
-      }
-      // so, now our input for the training set is always 256x256 image.
-      // we should probably run face detect and center this resized image, 
-      // so we can see if we detect a full face in the image or not..
-      // If these images are generated by this filter, they'll already be
-      // cropped so it's ok
       if (debug) {
         // add a debug method to show the image
         show(resized, personName);
@@ -254,6 +290,126 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
     return true;
   }
 
+  /**
+   * loads a training image - resized and masked like the faces it's compared to
+   */
+  private Mat loadTrainingImage(File image) throws IOException {
+    log.info("Loading training image file: {}", image.getAbsolutePath());
+    // we know that imread doesn't work with non-ascii file paths.. so we want
+    // to use a different
+    // so, load the image into memory, warp it in a byte pointer and pass it
+    // to imdecode to load the image from memory, instead of
+    // from disk
+    byte[] tmpImg = FileIO.toByteArray(image);
+    Mat img = imdecode(new Mat(new BytePointer(tmpImg)), IMREAD_GRAYSCALE);
+    // so, now our input for the training set is always 256x256 image.
+    // we should probably run face detect and center this resized image,
+    // so we can see if we detect a full face in the image or not..
+    // If these images are generated by this filter, they'll already be
+    // cropped so it's ok
+    return normalizeFace(img);
+  }
+
+  /**
+   * resizes a face to the model size and masks it
+   */
+  private Mat normalizeFace(Mat img) {
+    // make sure all our test images are resized
+    Mat resized = resizeImage(img);
+    // Mask out unwanted parts of the training image by applying the resized mask
+    if (facemask != null) {
+      Mat maskedface = facemask.clone();
+      resized.copyTo(maskedface, facemask);
+      resized = maskedface;
+    }
+    return resized;
+  }
+
+  /**
+   * the features the index compares - of a normalized face
+   */
+  private float[] features(Mat face) {
+    Mat small = resizeImage(face, INDEX_FACE_SIZE, INDEX_FACE_SIZE);
+    byte[] pixels = new byte[INDEX_FACE_SIZE * INDEX_FACE_SIZE];
+    small.data().get(pixels);
+    return getFaceIndex().features(pixels, INDEX_FACE_SIZE, INDEX_FACE_SIZE);
+  }
+
+  /**
+   * teaches an lbph model new faces
+   */
+  private void update(List<Mat> faces, List<String> names) {
+    MatVector images = new MatVector(faces.size());
+    Mat labels = new Mat(faces.size(), 1, CV_32SC1);
+    IntBuffer labelsBuf = labels.getIntBuffer();
+    for (int i = 0; i < faces.size(); ++i) {
+      images.put(i, faces.get(i));
+      labelsBuf.put(i, names.get(i).hashCode());
+    }
+    faceRecognizer.update(images, labels);
+    for (String name : names) {
+      faceRecognizer.setLabelInfo(name.hashCode(), name);
+    }
+  }
+
+  /**
+   * enrolls a face without training - it's added to the index, and an LBPH
+   * model learns it. Eigen and Fisher models learn it the next time they're
+   * trained.
+   * 
+   * @param name
+   *          who it is
+   * @param image
+   *          its training image in the training directory
+   * @param face
+   *          the gray face
+   * @throws IOException
+   *           if the index couldn't be written
+   */
+  public void enroll(String name, File image, Mat face) throws IOException {
+    Mat normalized = normalizeFace(face);
+    getFaceIndex().add(getFaceIndexFile(), name, getSource(image), features(normalized));
+    if (RecognizerType.INDEX.equals(recognizerType)) {
+      trained = true;
+    } else if (RecognizerType.LBPH.equals(recognizerType) && trained) {
+      update(Collections.singletonList(normalized), Collections.singletonList(name));
+    }
+  }
+
+  /**
+   * @return the index of the enrolled faces - loaded from the training
+   *         directory the first time
+   */
+  public synchronized FaceIndex getFaceIndex() {
+    if (faceIndex == null) {
+      File file = getFaceIndexFile();
+      if (file.exists()) {
+        try {
+          faceIndex = FaceIndex.load(file);
+          log.info("loaded {} faces from {}", faceIndex.size(), file);
+        } catch (IOException e) {
+          log.error("could not load face index {} - training starts a new one", file, e);
+        }
+      }
+      if (faceIndex == null) {
+        faceIndex = new FaceIndex();
+      }
+      faceIndex.setCandidates(searchCandidates);
+    }
+    return faceIndex;
+  }
+
+  public File getFaceIndexFile() {
+    return new File(trainingDir, faceIndexFilename);
+  }
+
+  /**
+   * an image's name in the index - its path in the training directory
+   */
+  private String getSource(File image) {
+    return new File(trainingDir).getAbsoluteFile().toURI().relativize(image.getAbsoluteFile().toURI()).getPath();
+  }
+
   private void initRecognizer() {
     // Configure which type of recognizer to use
     if (RecognizerType.FISHER.equals(recognizerType)) {
@@ -279,6 +435,14 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
    *          the filename to save the current model to.
    */
   public void save(String filename) {
+    if (RecognizerType.INDEX.equals(recognizerType)) {
+      try {
+        getFaceIndex().save(new File(filename));
+      } catch (IOException e) {
+        log.error("could not save face index to {}", filename, e);
+      }
+      return;
+    }
     faceRecognizer.save(filename);
   }
 
@@ -296,8 +460,21 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
    *          the filename that represents the saved model.
    */
   public void load(String filename) {
-    // faceRecognizer.load(new File(filename));
-    faceRecognizer.read(filename);
+    if (RecognizerType.INDEX.equals(recognizerType)) {
+      try {
+        FaceIndex index = FaceIndex.load(new File(filename));
+        index.setCandidates(searchCandidates);
+        synchronized (this) {
+          faceIndex = index;
+        }
+      } catch (IOException e) {
+        log.error("could not load face index {}", filename, e);
+        return;
+      }
+    } else {
+      // faceRecognizer.load(new File(filename));
+      faceRecognizer.read(filename);
+    }
     // assume we're trained now..
     trained = true;
     // let's also flip it to recognize mode
@@ -403,7 +580,9 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
           log.info("Training Mode for {}.", trainName);
           if (!StringUtils.isEmpty(trainName)) {
             try {
-              saveTrainingImage(trainName, dFaceMat);
+              File file = saveTrainingImage(trainName, dFaceMat);
+              // enrolled now - not when everything is trained again
+              enroll(trainName, file, dFaceMat);
               cvPutText(image, "Snapshot Saved: " + trainName, cvPoint(20, 60), font, CvScalar.CYAN);
             } catch (IOException e) {
               cvPutText(image, "Error saving: " + trainName, cvPoint(20, 60), font, CvScalar.CYAN);
@@ -443,16 +622,19 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
   }
 
   private String predictFace(Mat dFaceMat) {
-    Mat dFaceMatSized = resizeImage(dFaceMat);
     // If we're applying a mask, do it before the prediction
-    // TODO: this mask if it exists needs to be used at training time too!
-    if (facemask != null) {
-      Mat maskedface = facemask.clone();
-      dFaceMatSized.copyTo(maskedface, facemask);
-      dFaceMatSized = maskedface;
-      if (debug) {
-        show(dFaceMatSized, "Masked Face");
+    Mat dFaceMatSized = normalizeFace(dFaceMat);
+    if (debug && facemask != null) {
+      show(dFaceMatSized, "Masked Face");
+    }
+    if (RecognizerType.INDEX.equals(recognizerType)) {
+      FaceIndex.Match match = getFaceIndex().nearest(features(dFaceMatSized));
+      if (match == null || (maxDistance > 0 && match.distance > maxDistance)) {
+        log.info("Unrecognized face {}", match);
+        return UNKNOWN;
       }
+      log.info("Recognized a Face {}", match);
+      return match.name;
     }
     int predictedLabel = faceRecognizer.predict_label(dFaceMatSized);
     BytePointer bp = faceRecognizer.getLabelInfo(predictedLabel);
@@ -483,7 +665,7 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
     }
   }
 
-  private void saveTrainingImage(String label, Mat dFaceMat) throws IOException {
+  private File saveTrainingImage(String label, Mat dFaceMat) throws IOException {
     // Init the training directory location.
     File labelDir = new File(trainingDir + File.separator + label);
     if (!labelDir.exists()) {
@@ -494,8 +676,10 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
     String filename = trainingDir + File.separator + label + File.separator + randValue + ".png";
     // TODO: we need to be able to write a unicode filename with a path here..
     BufferedImage buffImg = toBufferedImage(dFaceMat);
-    ImageIO.write(buffImg, "png", new File(filename));
+    File file = new File(filename);
+    ImageIO.write(buffImg, "png", file);
     log.info("Saved Training image {} ", filename);
+    return file;
   }
 
   private Frame makeGrayScale(IplImage image) {
@@ -662,8 +846,27 @@ public class OpenCVFilterFaceRecognizer extends OpenCVFilter {
     return trainingDir;
   }
 
-  public void setTrainingDir(String trainingDir) {
+  public synchronized void setTrainingDir(String trainingDir) {
     this.trainingDir = trainingDir;
+    // the index of the new directory is loaded when it's needed
+    faceIndex = null;
+  }
+
+  public double getMaxDistance() {
+    return maxDistance;
+  }
+
+  public void setMaxDistance(double maxDistance) {
+    this.maxDistance = maxDistance;
+  }
+
+  /**
+   * @param searchCandidates
+   *          most faces a prediction compares - 0 for an exact search
+   */
+  public void setSearchCandidates(int searchCandidates) {
+    this.searchCandidates = searchCandidates;
+    getFaceIndex().setCandidates(searchCandidates);
   }
 
   public String getCascadeDir() {
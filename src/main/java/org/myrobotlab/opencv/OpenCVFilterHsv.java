@@ -51,7 +51,6 @@ public class OpenCVFilterHsv extends OpenCVFilter {
 
   public final static Logger log = LoggerFactory.getLogger(OpenCVFilterHsv.class.getCanonicalName());
 
-  transient IplImage hsv = null;
   transient IplImage hue = null;
   transient IplImage value = null;
   transient IplImage saturation = null;
@@ -75,11 +74,11 @@ public class OpenCVFilterHsv extends OpenCVFilter {
 
   @Override
   public void imageChanged(IplImage image) {
-    hsv = IplImage.createCompatible(image);
   }
 
   @Override
   public IplImage process(IplImage image) {
+    IplImage hsv = borrow(image);
     cvCvtColor(image, hsv, CV_RGB2HSV);
     return hsv;
 
@@ -178,7 +178,8 @@ public class OpenCVFilterKinectNavigate extends OpenCVFilter {
       return depth;
 
     } else {
-      lastDepthImage = image;
+      // read when a point is sampled - the frame's images go back to the pool
+      lastDepthImage = image.clone();
     }
 
     return image;
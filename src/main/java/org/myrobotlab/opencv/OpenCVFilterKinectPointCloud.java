@@ -25,8 +25,6 @@
 
 package org.myrobotlab.opencv;
 
-import static org.bytedeco.opencv.global.opencv_core.IPL_DEPTH_8U;
-
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -36,16 +34,15 @@ import java.util.List;
 
 import org.apache.commons.math3.geometry.euclidean.threed.SphericalCoordinates;
 import org.bytedeco.opencv.opencv_core.IplImage;
-import org.bytedeco.javacpp.indexer.UByteIndexer;
-import org.bytedeco.javacpp.indexer.UShortRawIndexer;
-import org.bytedeco.javacv.Parallel;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.image.Util;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.math.geometry.DepthProjector;
 import org.myrobotlab.math.geometry.Point;
 import org.myrobotlab.math.geometry.Point3df;
 import org.myrobotlab.math.geometry.PointCloud;
+import org.myrobotlab.math.geometry.VoxelGrid;
 import org.myrobotlab.service.BoofCv;
 import org.myrobotlab.service.JMonkeyEngine;
 import org.myrobotlab.service.OpenCV;
@@ -55,7 +52,6 @@ import org.slf4j.Logger;
 import boofcv.alg.distort.radtan.RemoveRadialPtoN_F64;
 import boofcv.io.calibration.CalibrationIO;
 import boofcv.struct.calib.CameraPinholeRadial;
-import georegression.struct.point.Point2D_F64;
 
 /**
  * <pre>
@@ -104,15 +100,29 @@ public class OpenCVFilterKinectPointCloud extends OpenCVFilter {
   float cameraHeading = 0;
   float cameraTilt = 0;// degrees ?
   double r, theta, phi;
-  Point3df[] depthBuffer;
   float[] colorBuffer;
-  IplImage color;
   // double focalLength = h / 2 * Math.tan((43 * 0.0174533)/2);
   // BoofCv
   RemoveRadialPtoN_F64 p2n = null;
 
   int width, height = 0;
 
+  /**
+   * depths (in meters) outside of the range are dropped from the cloud
+   */
+  public float minDepth = 0.4f;
+  public float maxDepth = 8.0f;
+
+  /**
+   * if greater than 0 the cloud is downsampled to the centroid of each voxel
+   * of this size (in meters)
+   */
+  public float voxelSize = 0;
+
+  transient DepthProjector projector = null;
+  transient VoxelGrid voxelGrid = null;
+  transient short[] depthData = null;
+
   public OpenCVFilterKinectPointCloud(String name) {
     super(name);
 
@@ -155,96 +165,45 @@ public class OpenCVFilterKinectPointCloud extends OpenCVFilter {
       clearSamplePoints = false;
     }
 
-    if (color == null) {
-      color = IplImage.create(depth.width(), depth.height(), IPL_DEPTH_8U, 3);
+    if (projector == null || projector.getWidth() != depth.width() || projector.getHeight() != depth.height()) {
+      projector = DepthProjector.kinect(depth.width(), depth.height());
     }
 
-    final UShortRawIndexer depthIdx = (UShortRawIndexer) depth.createIndexer();
-    final UByteIndexer colorIdx = color.createIndexer();
-
-    // f = camera focal length
-    // xv = x viewport
-    // yv = y viewport
-
-    // w = screen width
-    // h = screen height
-
-    // xw = x world coordinate
-    // xy = y world coordinate
-    // zy = z world coordinate
-
-    // buffer = FloatBuffer.allocate(depth.width() * depth.height());
-    depthBuffer = new Point3df[width * height];
-    if (colorBuffer == null) {
-      colorBuffer = new float[width * height * 4]; // RGBA
+    // the rays of each pixel are precomputed - this is a multiply per
+    // coordinate into primitive arrays instead of a Point3df per pixel
+    int stride = depth.widthStep() / 2;
+    int length = stride * depth.height();
+    if (depthData == null || depthData.length != length) {
+      depthData = new short[length];
     }
+    depth.getShortBuffer().get(depthData, 0, length);
 
-    /**
-     * <pre>
-     * for (int i = 0; i < color.width() * color.height(); ++i) {
-     *   colorBuffer[i] = 0.5f;
-     *   colorBuffer[i + 1] = 0.5f;
-     *   colorBuffer[i + 2] = i % 100 * .999f;
-     *   colorBuffer[i + 3] = 1f;
-     * }
-     * </pre>
-     */
-
-    Point2D_F64 n = new Point2D_F64();
-
-    Parallel.loop(0, height, new Parallel.Looper() {
-      public void loop(int from, int to, int looperID) {
-        for (int xv = from; xv < to; xv++) {
-          for (int yv = 0; yv < width; yv++) {
-
-            // FIXME - find correct scale for x & y in mm
-
-            double xw, yw, zw = 0;
-            float depth = depthIdx.get(xv, yv);
-
-            // zw = D * f / sqrt(xv² + yv² + f²)
-            // https://hub.jmonkeyengine.org/t/point-cloud-visualization/25838
-
-            int index = yv * height + xv;
-            // colorIdx.put(index, 33);
-            // colorIdx.put(index+1, 33);
-
-            /**
-             * <pre>
-             * BoofCv way p2n.compute(xv,yv,n); Point3D_F64 p = new
-             * Point3D_F64(); p.z = depth; p.x = n.x*p.z; p.y = n.y*p.z;
-             * 
-             * float scaled = depth/1000;
-             * 
-             * yw = n.y*scaled; xw = n.x*scaled; zw = scaled; // really ?
-             */
-
-            zw = -1 * depth / 1000; // we want in 1 meter world unit
-            xw = 2 * (xv - 639 / 2) * Math.tan(57 / 2 * 0.0174533) * (zw / 640);
-            yw = 2 * (479 - yv - 479 / 2) * Math.tan(43 / 2 * 0.0174533) * (zw / 480);
-
-            // points[index] = new Point3df((float)xw,(float)yw,(float)zw);
-            // jmonkey has a flipped y/x
-            depthBuffer[index] = new Point3df((float) yw, (float) xw, (float) zw);
-            if (color != null) {
-
-            }
-          }
-        }
+    // kinect depth is in mm - we want in 1 meter world unit
+    PointCloud cloud = projector.project(depthData, stride, 0.001f, minDepth, maxDepth);
+
+    if (voxelSize > 0) {
+      // one point per voxel
+      if (voxelGrid == null || voxelGrid.getSize() != voxelSize) {
+        voxelGrid = new VoxelGrid(voxelSize, cloud.size() / 8);
+      } else {
+        voxelGrid.clear();
+      }
+      voxelGrid.add(cloud);
+      cloud = voxelGrid.downsample();
+    } else {
+      if (colorBuffer == null || colorBuffer.length != width * height * 4) {
+        colorBuffer = new float[width * height * 4]; // RGBA
       }
-    });
+      cloud.setColors(colorBuffer);
+    }
 
-    pointCloud = new PointCloud(depthBuffer);
-    pointCloud.setColors(colorBuffer);
+    pointCloud = cloud;
 
     // NO MORE PUBLISHING - just put into OpenCVData !!!
     // publishPointCloud(pointCloud);
 
     put(pointCloud);
 
-    depthIdx.release();
-    colorIdx.release();
-
     return depth;
   }
 
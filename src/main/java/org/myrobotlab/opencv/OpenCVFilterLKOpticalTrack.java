@@ -55,6 +55,8 @@ import org.bytedeco.opencv.opencv_core.TermCriteria;
 import org.myrobotlab.cv.TrackingPoint;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.math.geometry.Point;
+import org.myrobotlab.math.geometry.Point2df;
+import org.myrobotlab.math.geometry.Rectangle;
 import org.slf4j.Logger;
 
 /**
@@ -119,6 +121,18 @@ public class OpenCVFilterLKOpticalTrack extends OpenCVFilter {
 
   int winSize = 15;
 
+  /**
+   * points with a larger error are lost - they're not part of the point array
+   * or the roi
+   */
+  float maxError = 550;
+
+  /**
+   * smallest side of the roi - the size of what's tracked when only its
+   * center is a tracking point
+   */
+  int minRoiSize = 64;
+
   Mat zeroPoints = toMat(IplImage.create(new CvSize(0, 0), 32, 2));
 
   private long currentPntCnt;
@@ -171,10 +185,11 @@ public class OpenCVFilterLKOpticalTrack extends OpenCVFilter {
     for (int i = 0; i < idx.size(0); i++) {
       newIdx.put(i, 0, idx.get(i,0));
       newIdx.put(i, 1, idx.get(i,1));
-      log.info("here");
     }
 
-    toResize.release();
+    if (toResize != zeroPoints) {
+      toResize.release();
+    }
     newIdx.release();
     idx.release();
 
@@ -233,6 +248,17 @@ public class OpenCVFilterLKOpticalTrack extends OpenCVFilter {
 
     // cornersA = toMat(IplImage.create(new CvSize(maxPointCnt, 1), 32, 2));
 
+    // cleared before a new sample point is added, both may come in one frame
+    if (clearPoints) {
+      if (cornersA != zeroPoints) {
+        cornersA.release();
+      }
+      cornersA = zeroPoints;
+      clearPoints = false;
+      trackingPoints.clear();
+      pointsToPublish.clear();
+    }
+
     if (samplePoint != null) {
       addPoint(samplePoint.x, samplePoint.y);
       samplePoint = null;
@@ -249,14 +275,6 @@ public class OpenCVFilterLKOpticalTrack extends OpenCVFilter {
       }
     }
 
-    if (clearPoints) {
-      cornersA.release();
-      cornersA = zeroPoints;
-      clearPoints = false;
-      trackingPoints.clear();
-      pointsToPublish.clear();
-    }
-
     // cornersA = toMat(IplImage.create(new CvSize(maxPointCnt, 1), 32,
     // 2));//new Mat(); // FIXME - empty ???
 
@@ -310,6 +328,8 @@ public class OpenCVFilterLKOpticalTrack extends OpenCVFilter {
       trackingPoints.put(i, direction);
     }
 
+    publishPoints();
+
     // FIXME !!! - close all resources
     // releasing previous frame
     matA.release();
@@ -335,6 +355,31 @@ public class OpenCVFilterLKOpticalTrack extends OpenCVFilter {
     return image;
   }
 
+  /**
+   * puts the points still tracked as the point array and their bounding box as
+   * the roi - a filter using this one as its roiSource searches around them
+   */
+  void publishPoints() {
+    List<Point2df> points = new ArrayList<>();
+    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (TrackingPoint point : trackingPoints.values()) {
+      if (point.found == null || point.found == 0 || point.error == null || point.error > maxError) {
+        continue;
+      }
+      points.add(new Point2df(point.p1.x, point.p1.y));
+      minX = Math.min(minX, point.p1.x);
+      minY = Math.min(minY, point.p1.y);
+      maxX = Math.max(maxX, point.p1.x);
+      maxY = Math.max(maxY, point.p1.y);
+    }
+    data.put("PointArray", points);
+    if (!points.isEmpty()) {
+      float size = Math.max(minRoiSize, Math.max(maxX - minX, maxY - minY));
+      float cx = (minX + maxX) / 2, cy = (minY + maxY) / 2;
+      data.putRoi(new Rectangle(cx - size / 2, cy - size / 2, size, size));
+    }
+  }
+
   @Override
   public BufferedImage processDisplay(Graphics2D graphics, BufferedImage image) {
 
@@ -370,8 +415,16 @@ public class OpenCVFilterLKOpticalTrack extends OpenCVFilter {
     return image;
   }
 
+  public void clearPoints() {
+    clearPoints = true;
+  }
+
   public void samplePoint(Integer x, Integer y) {
     samplePoint = new Point(x, y);
   }
 
+  public void setMinRoiSize(Integer minRoiSize) {
+    this.minRoiSize = minRoiSize;
+  }
+
 }
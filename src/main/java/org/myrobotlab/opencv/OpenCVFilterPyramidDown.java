@@ -25,8 +25,6 @@
 
 package org.myrobotlab.opencv;
 
-import static org.bytedeco.opencv.global.opencv_core.cvCreateImage;
-import static org.bytedeco.opencv.global.opencv_core.cvSize;
 import static org.bytedeco.opencv.global.opencv_imgproc.cvPyrDown;
 
 import java.awt.Graphics2D;
@@ -44,8 +42,6 @@ public class OpenCVFilterPyramidDown extends OpenCVFilter {
 
   final static int CV_GAUSSIAN_5X5 = 7;
 
-  transient IplImage dst = null;
-
   public OpenCVFilterPyramidDown(String name) {
     super(name);
   }
@@ -56,11 +52,11 @@ public class OpenCVFilterPyramidDown extends OpenCVFilter {
 
   @Override
   public void imageChanged(IplImage image) {
-    dst = cvCreateImage(cvSize(image.width() / 2, image.height() / 2), image.depth(), image.nChannels());
   }
 
   @Override
   public IplImage process(IplImage image) {
+    IplImage dst = borrow(image.width() / 2, image.height() / 2, image.depth(), image.nChannels());
     cvPyrDown(image, dst, CV_GAUSSIAN_5X5);
     return dst;
   }
@@ -25,8 +25,6 @@
 
 package org.myrobotlab.opencv;
 
-import static org.bytedeco.opencv.global.opencv_core.cvCreateImage;
-import static org.bytedeco.opencv.global.opencv_core.cvSize;
 import static org.bytedeco.opencv.global.opencv_imgproc.cvPyrUp;
 
 import java.awt.Graphics2D;
@@ -42,8 +40,6 @@ public class OpenCVFilterPyramidUp extends OpenCVFilter {
 
   public final static Logger log = LoggerFactory.getLogger(OpenCVFilterPyramidUp.class);
 
-  transient IplImage dst = null;
-
   int filter = 7;
 
   public OpenCVFilterPyramidUp(String name) {
@@ -65,10 +61,7 @@ public class OpenCVFilterPyramidUp extends OpenCVFilter {
       log.error("image is null");
     }
 
-    if (dst == null) {
-      dst = cvCreateImage(cvSize(2 * image.width(), 2 * image.height()), 8, image.nChannels());
-    }
-
+    IplImage dst = borrow(2 * image.width(), 2 * image.height(), 8, image.nChannels());
     cvPyrUp(image, dst, filter);
 
     return dst;
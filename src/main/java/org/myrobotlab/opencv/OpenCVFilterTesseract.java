@@ -58,8 +58,9 @@ public class OpenCVFilterTesseract extends OpenCVFilter implements Runnable {
       displayResult(image, lastResult);
     }
     // ok now we just need to update the image that the current thread is
-    // processing (if the current thread is idle i guess?)
-    lastImage = image;
+    // processing (if the current thread is idle i guess?) - a clone, the
+    // frame's images go back to the pool before the classifier reads it
+    lastImage = image.clone();
     return image;
   }
 
@@ -1,9 +1,6 @@
 package org.myrobotlab.opencv;
 
 import static org.bytedeco.opencv.global.opencv_core.CV_32F;
-import static org.bytedeco.opencv.global.opencv_core.IPL_DEPTH_8U;
-import static org.bytedeco.opencv.global.opencv_core.cvCopy;
-import static org.bytedeco.opencv.global.opencv_core.cvCreateImage;
 import static org.bytedeco.opencv.global.opencv_dnn.blobFromImage;
 import static org.bytedeco.opencv.global.opencv_dnn.readNetFromDarknet;
 
@@ -35,12 +32,11 @@ import org.bytedeco.opencv.opencv_core.Size;
 import org.bytedeco.opencv.opencv_dnn.Net;
 import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.myrobotlab.document.Classification;
-import org.myrobotlab.framework.Service;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.math.geometry.Rectangle;
 import org.slf4j.Logger;
 
-public class OpenCVFilterYolo extends OpenCVFilter implements Runnable {
+public class OpenCVFilterYolo extends OpenCVFilter {
 
   private static final long serialVersionUID = 1L;
   public final static Logger log = LoggerFactory.getLogger(OpenCVFilterYolo.class);
@@ -73,393 +69,394 @@ public class OpenCVFilterYolo extends OpenCVFilter implements Runnable {
   transient private OpenCVFrameConverter.ToIplImage converterToIpl = new OpenCVFrameConverter.ToIplImage();
 
   boolean debug = false;
-  private Net net;
-  ArrayList<String> classNames;
   // public ArrayList<Classification> lastResult = null;
-  public ArrayList<Classification> lastResult = null;
-  private volatile IplImage lastImage = null;
-  private volatile boolean pending = false;
-  private transient Thread classifier;
-
-  public OpenCVFilterYolo(String name) {
-    super(name);
-    enable(); // start classifier thread
-  }
-
-  public OpenCVFilterYolo() {
-    this(null);
-  }
+  public volatile ArrayList<Classification> lastResult = null;
+  /**
+   * frame lastResult was classified from - classification is asynchronous,
+   * results are some frames behind the video
+   */
+  volatile int lastFrameIndex = -1;
+  transient InferenceModel<List<Classification>> inference;
+  transient int count = 0;
+  transient long start = 0;
+
+  /**
+   * the darknet model - loaded by the first classification on an inference
+   * worker, and shared with the other yolo filters using the same files. Yolo's
+   * region output isn't split by image, so it classifies one frame at a time.
+   */
+  class YoloModel implements InferenceModel<List<Classification>> {
+    final String home;
+    final String config;
+    final String weights;
+    final String names;
+    private Net net;
+    ArrayList<String> classNames;
+
+    YoloModel(String home, String config, String weights, String names) {
+      this.home = home;
+      this.config = config;
+      this.weights = weights;
+      this.names = names;
+    }
 
-  private void downloadYoloModel() {
-    log.info("downloadYoloModel - begin");
-    File yoloHome = new File(darknetHome);
-    if (!yoloHome.exists()) {
-      yoloHome.mkdirs();
+    @Override
+    public String getKey() {
+      return key(home, config, weights, names);
     }
 
-    // now we need to check the files in the directory exist.
-    // 3 files to check for
-    File modelConfigFile = new File(darknetHome + File.separator + modelConfig);
-    File modelWeightsFile = new File(darknetHome + File.separator + modelWeights);
-    // TODO: localize this? why not!
-    File modelNamesFile = new File(darknetHome + File.separator + modelNames);
+    @Override
+    public int getMaxBatch() {
+      return 1;
+    }
 
-    if (!modelConfigFile.exists()) {
-      // download & cache!
-      downloadAndCache(modelConfigUrl, modelConfigFile, null);
+    @Override
+    public Mat prepare(Mat image) {
+      // bounding boxes are cropped from the full image
+      return image.clone();
     }
-    if (!modelWeightsFile.exists()) {
-      // download & cache!
-      downloadAndCache(modelWeightsUrl, modelWeightsFile, "Large download 200mb +/-");
+
+    @Override
+    public List<List<Classification>> infer(List<InferenceExecutor.Request> batch) {
+      if (net == null) {
+        loadYolo();
+      }
+      List<List<Classification>> ret = new ArrayList<>();
+      for (InferenceExecutor.Request request : batch) {
+        ret.add(yoloFrame(request));
+      }
+      return ret;
     }
-    if (!modelNamesFile.exists()) {
-      // download & cache!
-      downloadAndCache(modelNamesUrl, modelNamesFile, null);
+
+    @Override
+    public void close() {
+      if (net != null) {
+        net.deallocate();
+        net = null;
+      }
     }
-    log.info("downloadYoloModel - end");
 
-  }
+    private void downloadYoloModel() {
+      log.info("downloadYoloModel - begin");
+      File yoloHome = new File(home);
+      if (!yoloHome.exists()) {
+        yoloHome.mkdirs();
+      }
 
-  private void downloadAndCache(String uri, File location, String details) {
-    // TODO: clean up the error handling here.
-    log.info("downloadAndCache - begin");
-
-    log.info("Downloading {} to file location {}) {}", uri, location.getAbsolutePath(), details);
-    URL url = null;
-    try {
-      url = new URL(uri);
-    } catch (MalformedURLException e) {
-      log.warn("Invalid url passed! {}", uri);
-      e.printStackTrace();
-      return;
-    }
-    InputStream in = null;
-    try {
-      in = url.openStream();
-    } catch (IOException e) {
-      log.error("Error opening a connection to {} ", uri, e);
-      return;
-    }
-    DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
-    try {
-      // open up the destination file for writing
-      FileOutputStream fos = new FileOutputStream(location);
-      IOUtils.copy(dis, fos);
-      fos.close();
-      dis.close();
-    } catch (IOException e) {
-      log.warn("Error downloading.", e);
-      // clean up a partially written file
-      if (location.exists()) {
-        log.warn("Partially downloaded file.. cleaning up");
-        location.delete();
+      // now we need to check the files in the directory exist.
+      // 3 files to check for
+      File modelConfigFile = new File(home + File.separator + config);
+      File modelWeightsFile = new File(home + File.separator + weights);
+      // TODO: localize this? why not!
+      File modelNamesFile = new File(home + File.separator + names);
+
+      if (!modelConfigFile.exists()) {
+        // download & cache!
+        downloadAndCache(modelConfigUrl, modelConfigFile, null);
       }
-      return;
+      if (!modelWeightsFile.exists()) {
+        // download & cache!
+        downloadAndCache(modelWeightsUrl, modelWeightsFile, "Large download 200mb +/-");
+      }
+      if (!modelNamesFile.exists()) {
+        // download & cache!
+        downloadAndCache(modelNamesUrl, modelNamesFile, null);
+      }
+      log.info("downloadYoloModel - end");
+
     }
-    log.info("downloadAndCache - end");
-  }
 
-  private void loadYolo() {
-    log.info("loadYolo - begin");
-
-    // If the model isn't there, we should download it and cache it.
-    log.info("Staritng yolo download verification");
-    downloadYoloModel();
-    log.info("Completed downloading yolo model");
-    net = readNetFromDarknet(darknetHome + File.separator + modelConfig, darknetHome + File.separator + modelWeights);
-    log.info("Loaded yolo darknet model to opencv");
-    // load the class names
-    try {
-      classNames = loadClassNames(darknetHome + File.separator + modelNames);
-    } catch (IOException e) {
-      log.warn("Error unable to load class names from file {}", modelNames, e);
-      return;
+    private void downloadAndCache(String uri, File location, String details) {
+      // TODO: clean up the error handling here.
+      log.info("downloadAndCache - begin");
+
+      log.info("Downloading {} to file location {}) {}", uri, location.getAbsolutePath(), details);
+      URL url = null;
+      try {
+        url = new URL(uri);
+      } catch (MalformedURLException e) {
+        log.error("Invalid url passed! {}", uri, e);
+        return;
+      }
+      InputStream in = null;
+      try {
+        in = url.openStream();
+      } catch (IOException e) {
+        log.error("Error opening a connection to {} ", uri, e);
+        return;
+      }
+      DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+      try {
+        // open up the destination file for writing
+        FileOutputStream fos = new FileOutputStream(location);
+        IOUtils.copy(dis, fos);
+        fos.close();
+        dis.close();
+      } catch (IOException e) {
+        log.warn("Error downloading.", e);
+        // clean up a partially written file
+        if (location.exists()) {
+          log.warn("Partially downloaded file.. cleaning up");
+          location.delete();
+        }
+        return;
+      }
+      log.info("downloadAndCache - end");
     }
-    log.info("Done loading model..");
-    log.info("loadYolo - end");
-  }
 
-  private ArrayList<String> loadClassNames(String filename) throws IOException {
-    log.info("loadClassNames - begin");
-    ArrayList<String> names = new ArrayList<String>();
-    FileReader fileReader = new FileReader(filename);
-    BufferedReader bufferedReader = new BufferedReader(fileReader);
-    String line;
-    int i = 0;
-    while ((line = bufferedReader.readLine()) != null) {
-      names.add(line.trim());
-      i++;
+    private void loadYolo() {
+      log.info("loadYolo - begin");
+
+      // If the model isn't there, we should download it and cache it.
+      log.info("Staritng yolo download verification");
+      downloadYoloModel();
+      log.info("Completed downloading yolo model");
+      net = readNetFromDarknet(home + File.separator + config, home + File.separator + weights);
+      log.info("Loaded yolo darknet model to opencv");
+      // load the class names
+      try {
+        classNames = loadClassNames(home + File.separator + names);
+      } catch (IOException e) {
+        log.warn("Error unable to load class names from file {}", names, e);
+        return;
+      }
+      log.info("Done loading model..");
+      log.info("loadYolo - end");
     }
-    log.info("read {} names", i);
-    fileReader.close();
 
-    log.info("loadClassNames - end");
-    return names;
-  }
+    private ArrayList<String> loadClassNames(String filename) throws IOException {
+      log.info("loadClassNames - begin");
+      ArrayList<String> names = new ArrayList<String>();
+      FileReader fileReader = new FileReader(filename);
+      BufferedReader bufferedReader = new BufferedReader(fileReader);
+      String line;
+      int i = 0;
+      while ((line = bufferedReader.readLine()) != null) {
+        names.add(line.trim());
+        i++;
+      }
+      log.info("read {} names", i);
+      fileReader.close();
 
-  @Override
-  public IplImage process(IplImage image) throws InterruptedException {
-    if (lastResult != null) {
-      // the thread running will be updating lastResult for it as fast as it
-      // can.
-      // displayResult(image, lastResult);
+      log.info("loadClassNames - end");
+      return names;
     }
-    // ok now we just need to update the image that the current thread is
-    // processing (if the current thread is idle i guess?)
-    lastImage = image;
-    if (enabled) {
-      pending = true;
-    }
-    return image;
-  }
 
-  @Override
-  public void imageChanged(IplImage image) {
-  }
-
-  @Override
-  public void run() {
-    log.info("run - begin");
-    try {
-      int count = 0;
-      long start = System.currentTimeMillis();
-      loadYolo();
-      log.info("Starting the Yolo classifier thread...");
-      // in a loop, grab the current image and classify it and update the
-      // result.
-      running = true;
-      // loading the model takes a lot of time, we want to block enable/disable
-      // until we are actually running - then we notifyAll
-
-      while (running && enabled) {
-        if (!pending) {
-          log.debug("Skipping frame");
-          Thread.sleep(10);
+    private ArrayList<Classification> yoloFrame(InferenceExecutor.Request request) {
+      log.debug("yoloFrame - begin");
+      // this is our list of objects that have been detected in a given frame.
+      ArrayList<Classification> yoloObjects = new ArrayList<Classification>();
+      // convert that frame to a matrix (Mat) using the frame converters in javacv
+
+      // log.info("Yolo frame start");
+      Mat inputMat = request.image;
+      // the image of the classifications - a copy, the request's is freed
+      IplImage frame = null;
+      // log.info("Input mat created");
+      // TODO: I think yolo expects RGB color (which is inverted in the next step)
+      // so if the input image isn't in RGB color, we might need a cvCutColor
+      log.debug("yoloFrame - blobFromImage");
+      Mat inputBlob = blobFromImage(inputMat, 1 / 255.F, new Size(416, 416), new Scalar(), true, false, CV_32F);
+      // put our frame/input blob into the model.
+      // log.info("input blob created");
+      log.debug("yoloFrame - blob {}", inputBlob);
+      net.setInput(inputBlob);
+
+      log.debug("Feed forward!");
+      // log.info("Input blob set on network.");
+      // ask for the detection_out layer i guess? not sure the details of the
+      // forward method, but this computes everything like magic!
+      Mat detectionMat = net.forward("detection_out");
+      // log.info("output detection matrix produced");
+      log.debug("detection matrix computed");
+      // iterate the rows of the detection matrix.
+      for (int i = 0; i < detectionMat.rows(); i++) {
+        Mat currentRow = detectionMat.row(i);
+        float confidence = currentRow.getFloatBuffer().get(CONFIDENCE_INDEX);
+        if (confidence < request.threshold) {
+          // skip the noise
           continue;
         }
 
-        log.info("process - begin");
-        // only classify this if we haven't already classified it.
-        if (lastImage != null) {
-          // lastResult = dl4j.classifyImageVGG16(lastImage);
-          log.debug("Doing yolo...");
-          lastResult = yoloFrame(lastImage);
-          // log.info("Yolo done.");
-          // we processed, next object we'll pick up.
-          pending = false;
-          count++;
-          if (count % 10 == 0) {
-            double rate = 1000.0 * count / (float) (System.currentTimeMillis() - start);
-            log.info("Yolo Classification Rate : {}", rate);
-          }
+        // System.out.println("\nCurrent row has " + currentRow.size().width() +
+        // "=width " + currentRow.size().height() + "=height.");
+        // currentRow.position(probability_index);
+        // int probability_size = detectionMat.cols() - probability_index;
+        // detectionMat;
+
+        // String className = getWithDefault(classNames, i);
+        // System.out.print("\nROW (" + className + "): " +
+        // currentRow.getFloatBuffer().get(4) + " -- \t\t");
+        for (int c = CONFIDENCE_INDEX + 1; c < currentRow.size().get(); c++) {
+          float val = currentRow.getFloatBuffer().get(c);
+          // TODO: this filtering logic is probably wrong.
+          if (val > 0.0) {
+            String label = classNames.get(c - CONFIDENCE_INDEX - 1);
+            // System.out.println("Index : " + c + "->" + val + " label : " +
+            // classNames.get(c-probability_index) );
+            // let's just say this is something we've detected..
+            // ok. in theory this is something we think it might actually be.
+            float x = currentRow.getFloatBuffer().get(0);
+            float y = currentRow.getFloatBuffer().get(1);
+
+            float width = currentRow.getFloatBuffer().get(2);
+            float height = currentRow.getFloatBuffer().get(3);
+            int xLeftBottom = (int) ((x - width / 2) * inputMat.cols());
+            int yLeftBottom = (int) ((y - height / 2) * inputMat.rows());
+            int xRightTop = (int) ((x + width / 2) * inputMat.cols());
+            int yRightTop = (int) ((y + height / 2) * inputMat.rows());
+
+            if (xLeftBottom < 0) {
+              xLeftBottom = 0;
+            }
+            if (yLeftBottom < 0) {
+              yLeftBottom = 0;
+            }
 
-          Map<String, List<Classification>> ret = new TreeMap<>();
-          for (Classification c : lastResult) {
-            List<Classification> nl = null;
-            if (ret.containsKey(c.getLabel())) {
-              nl = ret.get(c.getLabel());
-            } else {
-              nl = new ArrayList<>();
-              ret.put(c.getLabel(), nl);
+            // crop the right top
+            if (xRightTop > inputMat.cols()) {
+              xRightTop = inputMat.cols();
             }
-            nl.add(c);
-          }
 
-          invoke("publishClassification", ret);
-        } else {
-          log.info("No Image to classify...");
-        }
-        // TODO: see why there's a race condition. i seem to need a little delay
-        // here o/w the recognition never seems to start.
-        // maybe lastImage needs to be marked as volatile ?
-
-        Thread.sleep(1);
-      } // while (running)
-      
-    } catch (Exception e) {
-      log.error("yolo thread threw", e);
-    }
-    
-    synchronized (lock) {
-      classifier = null;
-    }
-    
-    log.info("yolo exiting classifier thread");
-    log.info("run - end");
-  }
+            if (yRightTop > inputMat.rows()) {
+              yRightTop = inputMat.rows();
+            }
 
-  private ArrayList<Classification> yoloFrame(IplImage frame) {
-    log.debug("Starting yolo on frame...");
-    log.info("yoloFrame - begin");
-    // this is our list of objects that have been detected in a given frame.
-    ArrayList<Classification> yoloObjects = new ArrayList<Classification>();
-    // convert that frame to a matrix (Mat) using the frame converters in javacv
-
-    log.info("yoloFrame - grabberConverter {}", frame);
-    // log.info("Yolo frame start");
-    Mat inputMat = grabberConverter.convertToMat(grabberConverter.convert(frame));
-    // log.info("Input mat created");
-    // TODO: I think yolo expects RGB color (which is inverted in the next step)
-    // so if the input image isn't in RGB color, we might need a cvCutColor
-    log.info("yoloFrame - blobFromImage");
-    Mat inputBlob = blobFromImage(inputMat, 1 / 255.F, new Size(416, 416), new Scalar(), true, false, CV_32F);
-    // put our frame/input blob into the model.
-    // log.info("input blob created");
-    log.info("yoloFrame - blob {}", inputBlob);
-    net.setInput(inputBlob);
-
-    log.debug("Feed forward!");
-    // log.info("Input blob set on network.");
-    // ask for the detection_out layer i guess? not sure the details of the
-    // forward method, but this computes everything like magic!
-    Mat detectionMat = net.forward("detection_out");
-    // log.info("output detection matrix produced");
-    log.debug("detection matrix computed");
-    // iterate the rows of the detection matrix.
-    for (int i = 0; i < detectionMat.rows(); i++) {
-      Mat currentRow = detectionMat.row(i);
-      float confidence = currentRow.getFloatBuffer().get(CONFIDENCE_INDEX);
-      if (confidence < confidenceThreshold) {
-        // skip the noise
-        continue;
-      }
+            log.debug(label + " (" + confidence + "%) [(" + xLeftBottom + "," + yLeftBottom + "),(" + xRightTop + "," + yRightTop + ")]");
+            Rect boundingBox = new Rect(xLeftBottom, yLeftBottom, xRightTop - xLeftBottom, yRightTop - yLeftBottom);
+            // grab just the bytes for the ROI defined by that rect..
+            // get that as a mat, save it as a byte array (png?) other encoding?
+            // TODO: have a target size?
 
-      // System.out.println("\nCurrent row has " + currentRow.size().width() +
-      // "=width " + currentRow.size().height() + "=height.");
-      // currentRow.position(probability_index);
-      // int probability_size = detectionMat.cols() - probability_index;
-      // detectionMat;
-
-      // String className = getWithDefault(classNames, i);
-      // System.out.print("\nROW (" + className + "): " +
-      // currentRow.getFloatBuffer().get(4) + " -- \t\t");
-      for (int c = CONFIDENCE_INDEX + 1; c < currentRow.size().get(); c++) {
-        float val = currentRow.getFloatBuffer().get(c);
-        // TODO: this filtering logic is probably wrong.
-        if (val > 0.0) {
-          String label = classNames.get(c - CONFIDENCE_INDEX - 1);
-          // System.out.println("Index : " + c + "->" + val + " label : " +
-          // classNames.get(c-probability_index) );
-          // let's just say this is something we've detected..
-          // ok. in theory this is something we think it might actually be.
-          float x = currentRow.getFloatBuffer().get(0);
-          float y = currentRow.getFloatBuffer().get(1);
-
-          float width = currentRow.getFloatBuffer().get(2);
-          float height = currentRow.getFloatBuffer().get(3);
-          int xLeftBottom = (int) ((x - width / 2) * inputMat.cols());
-          int yLeftBottom = (int) ((y - height / 2) * inputMat.rows());
-          int xRightTop = (int) ((x + width / 2) * inputMat.cols());
-          int yRightTop = (int) ((y + height / 2) * inputMat.rows());
-
-          if (xLeftBottom < 0) {
-            xLeftBottom = 0;
-          }
-          if (yLeftBottom < 0) {
-            yLeftBottom = 0;
+            IplImage cropped = extractSubImage(inputMat, boundingBox);
+            if (debug) {
+              debug = false;
+              show(cropped, "detected img");
+            }
+            if (frame == null) {
+              frame = converterToIpl.convertToIplImage(converterToIpl.convert(inputMat)).clone();
+            }
+            Classification obj = new Classification(String.format("%s-%d", request.source, request.frameIndex));
+            obj.setLabel(label);
+            obj.setBoundingBox(xLeftBottom, yLeftBottom, xRightTop - xLeftBottom, yRightTop - yLeftBottom);
+            obj.setConfidence(confidence);
+            obj.setFrameIndex(request.frameIndex);
+            // obj.setImage(data.getDisplay());
+            // for non-serializable "local" image objects
+            obj.setObject(frame);
+            yoloObjects.add(obj);
           }
+        }
+      }
+      log.debug("yoloFrame - end");
+      return yoloObjects;
+    }
 
-          // crop the right top
-          if (xRightTop > inputMat.cols()) {
-            xRightTop = inputMat.cols();
-          }
+    private IplImage extractSubImage(Mat inputMat, Rect boundingBox) {
+      log.debug("extractSubImage - begin");
+      //
+      log.debug(boundingBox.x() + " " + boundingBox.y() + " " + boundingBox.width() + " " + boundingBox.height());
 
-          if (yRightTop > inputMat.rows()) {
-            yRightTop = inputMat.rows();
-          }
+      // TODO: figure out if the width/height is too large! don't want to go array
+      // out of bounds
+      Mat cropped = new Mat(inputMat, boundingBox);
 
-          log.debug(label + " (" + confidence + "%) [(" + xLeftBottom + "," + yLeftBottom + "),(" + xRightTop + "," + yRightTop + ")]");
-          Rect boundingBox = new Rect(xLeftBottom, yLeftBottom, xRightTop - xLeftBottom, yRightTop - yLeftBottom);
-          // grab just the bytes for the ROI defined by that rect..
-          // get that as a mat, save it as a byte array (png?) other encoding?
-          // TODO: have a target size?
+      IplImage image = converterToIpl.convertToIplImage(converterToIpl.convert(cropped));
+      // This mat should be the cropped image!
 
-          IplImage cropped = extractSubImage(inputMat, boundingBox);
-          if (debug) {
-            debug = false;
-            show(cropped, "detected img");
-          }
-          Classification obj = new Classification(String.format("%s.%s-%d", data.getName(), name, data.getFrameIndex()));
-          obj.setLabel(label);
-          obj.setBoundingBox(xLeftBottom, yLeftBottom, xRightTop - xLeftBottom, yRightTop - yLeftBottom);
-          obj.setConfidence(confidence);
-          // obj.setImage(data.getDisplay());
-          // for non-serializable "local" image objects
-          obj.setObject(frame);
-          yoloObjects.add(obj);
-        }
-      }
+      log.debug("extractSubImage - end");
+      return image;
     }
-    log.info("yoloFrame - end");
-    return yoloObjects;
   }
 
-  private IplImage extractSubImage(Mat inputMat, Rect boundingBox) {
-    log.info("extractSubImage - begin");
-    //
-    log.debug(boundingBox.x() + " " + boundingBox.y() + " " + boundingBox.width() + " " + boundingBox.height());
+  public OpenCVFilterYolo(String name) {
+    super(name);
+  }
+
+  public OpenCVFilterYolo() {
+    this(null);
+  }
 
-    // TODO: figure out if the width/height is too large! don't want to go array
-    // out of bounds
-    Mat cropped = new Mat(inputMat, boundingBox);
+  static String key(String home, String config, String weights, String names) {
+    return String.format("Yolo %s %s %s %s", home, config, weights, names);
+  }
 
-    IplImage image = converterToIpl.convertToIplImage(converterToIpl.convert(cropped));
-    // This mat should be the cropped image!
+  /**
+   * the model of the filter's current files - they can be set after the filter
+   * is created, the model of a previous configuration is released
+   * 
+   * @return the shared model
+   */
+  synchronized InferenceModel<List<Classification>> getModel() {
+    String home = darknetHome;
+    String config = modelConfig;
+    String weights = modelWeights;
+    String names = modelNames;
+    String key = key(home, config, weights, names);
+    if (inference != null && !inference.getKey().equals(key)) {
+      InferenceExecutor.getInstance().release(inference);
+      inference = null;
+    }
+    if (inference == null) {
+      inference = InferenceExecutor.getInstance().getModel(key, () -> new YoloModel(home, config, weights, names));
+    }
+    return inference;
+  }
 
-    log.info("extractSubImage - end");
+  @Override
+  public IplImage process(IplImage image) throws InterruptedException {
+    // the classification of the latest frame is done on an inference worker -
+    // lastResult is updated as fast as yolo can go
+    if (enabled) {
+      Mat inputMat = grabberConverter.convertToMat(grabberConverter.convert(image));
+      InferenceExecutor.getInstance().submit(getModel(), String.format("%s.%s", data.getName(), name), data.getFrameIndex(), inputMat, confidenceThreshold, r -> onResult(r));
+    }
     return image;
   }
 
   @Override
-  public void release() {
-    // synchronized (lock) {
-      log.info("release - begin");
-      disable(); // blocks until ready
-
-      // while(isRunning){ sleep(30) .. check again }
-      // bleed out the thread before deallocating
-
-      if (net != null) {
-        net.deallocate();
-        net = null;
-      }
-      log.info("release - end");
-   //  }
+  public void imageChanged(IplImage image) {
   }
 
-  volatile Object lock = new Object();
-
-  @Override
-  public void enable() {
-    if (classifier != null) {
-      // already enabled
+  void onResult(InferenceExecutor.Result<List<Classification>> result) {
+    if (result.result == null) {
       return;
     }
-    log.info("enabling yolo");    
-    synchronized (lock) {
-      log.info("enable - begin");
-      super.enable();
-      if (classifier == null) {
-        classifier = new Thread(this, "YoloClassifierThread");
-        classifier.start();
+    lastResult = new ArrayList<>(result.result);
+    lastFrameIndex = result.frameIndex;
+    if (count++ == 0) {
+      start = System.currentTimeMillis();
+    } else if (count % 10 == 0) {
+      double rate = 1000.0 * count / (float) (System.currentTimeMillis() - start);
+      log.debug("Yolo Classification Rate : {}", rate);
+    }
+
+    Map<String, List<Classification>> ret = new TreeMap<>();
+    for (Classification c : lastResult) {
+      List<Classification> nl = null;
+      if (ret.containsKey(c.getLabel())) {
+        nl = ret.get(c.getLabel());
+      } else {
+        nl = new ArrayList<>();
+        ret.put(c.getLabel(), nl);
       }
-      log.info("enable - end");
+      nl.add(c);
     }
+
+    publishClassification(ret);
   }
 
   @Override
-  public void disable() {
-    if (classifier == null) {
-      // already disabled
-      return;
-    }
-    super.disable();    
-    int waitTime = 0;
-    while (classifier != null && waitTime < 1000) {
-      ++waitTime;
-      Service.sleep(10);
+  public void release() {
+    log.info("release - begin");
+    disable();
+    synchronized (this) {
+      if (inference != null) {
+        InferenceExecutor.getInstance().release(inference);
+        inference = null;
+      }
     }
-    log.info("capture - waited {} times", waitTime);
+    log.info("release - end");
   }
 
   @Override
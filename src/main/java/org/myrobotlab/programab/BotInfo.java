@@ -2,8 +2,11 @@ package org.myrobotlab.programab;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.alicebot.ab.Bot;
+import org.alicebot.ab.Category;
 import org.alicebot.ab.Properties;
 import org.myrobotlab.io.FileIO;
 import org.myrobotlab.logging.LoggerFactory;
@@ -23,6 +26,17 @@ public class BotInfo {
   private transient Bot bot;
   public Properties properties = new Properties();
   private transient ProgramAB programab;
+  /**
+   * sessions respond under the read lock, changes to the bot's categories,
+   * sets and maps are made under the write lock
+   */
+  private transient final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  /**
+   * the bot has categories with learn or learnf - their responses add
+   * categories, so they are answered under the write lock
+   */
+  private transient volatile boolean learns = false;
+  private transient ResponseCache responseCache;
   // public Locale locale = new Locale("en-US");
   /**
    * base64 png
@@ -47,21 +61,119 @@ public class BotInfo {
   public synchronized Bot getBot() {
     if (bot == null) {
       // lazy loading of bot - created on the first use
-      
-      if (properties.containsKey("locale")) {
-        bot = new Bot(name, path.getAbsolutePath(), java.util.Locale.forLanguageTag(properties.get("locale")));
-      } else {
-        bot = new Bot(name, path.getAbsolutePath());
+      java.util.Locale locale = (properties.containsKey("locale")) ? java.util.Locale.forLanguageTag(properties.get("locale")) : null;
+
+      String hash = null;
+      if (programab.isSnapshots()) {
+        BotSnapshot snapshot = new BotSnapshot(path);
+        try {
+          hash = snapshot.hash();
+          if (snapshot.isValid(hash)) {
+            bot = snapshot.load(name, locale);
+          }
+        } catch (Exception | LinkageError e) {
+          log.warn("loading snapshot of {} failed - parsing aiml", name, e);
+          bot = null;
+        }
+      }
+
+      if (bot == null) {
+        if (locale != null) {
+          bot = new Bot(name, path.getAbsolutePath(), locale);
+        } else {
+          bot = new Bot(name, path.getAbsolutePath());
+        }
+        if (hash != null) {
+          writeSnapshot(bot, hash);
+        }
       }
 
       bot.setSraixHandler(new MrlSraixHandler(programab));
+      learns = false;
+      for (Category c : bot.brain.getCategories()) {
+        categoryAdded(c);
+      }
     }
     return bot;
   }
 
+  /**
+   * a category was added to the bot - call under the write lock
+   */
+  public void categoryAdded(Category c) {
+    if (c.getTemplate().contains("<learn")) {
+      learns = true;
+    }
+  }
+
+  /**
+   * @return true if a response can add categories to the bot
+   */
+  public boolean canLearn() {
+    getBot();
+    return learns;
+  }
+
+  /**
+   * writes the snapshot in the background - the first start is not slowed
+   * down
+   */
+  void writeSnapshot(Bot bot, String hash) {
+    Thread writer = new Thread(() -> {
+      lock.readLock().lock();
+      try {
+        new BotSnapshot(path).write(bot, hash);
+      } catch (Exception e) {
+        log.warn("writing snapshot of {} failed", name, e);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }, String.format("%s-snapshot", name));
+    writer.setDaemon(true);
+    writer.start();
+  }
+
   public Bot reload() {
-    bot = null;
-    return getBot();
+    lock.writeLock().lock();
+    try {
+      synchronized (this) {
+        bot = null;
+        responseCache = null;
+      }
+      return getBot();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the bot's response cache - null if response caching is off
+   */
+  public synchronized ResponseCache getResponseCache() {
+    if (!programab.isResponseCache()) {
+      return null;
+    }
+    if (responseCache == null) {
+      responseCache = new ResponseCache(getBot());
+    }
+    return responseCache;
+  }
+
+  /**
+   * the bot's categories, sets or maps changed
+   */
+  public synchronized void clearResponseCache() {
+    if (responseCache != null) {
+      responseCache.clear();
+    }
+  }
+
+  public Lock readLock() {
+    return lock.readLock();
+  }
+
+  public Lock writeLock() {
+    return lock.writeLock();
   }
   
   public boolean isActive() {
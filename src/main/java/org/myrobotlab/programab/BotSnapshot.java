@@ -0,0 +1,374 @@
+package org.myrobotlab.programab;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alicebot.ab.AIMLMap;
+import org.alicebot.ab.AIMLSet;
+import org.alicebot.ab.Bot;
+import org.alicebot.ab.Category;
+import org.alicebot.ab.MagicStrings;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Compiled snapshot of a bot - its categories, sets and maps in a single
+ * binary file keyed by a hash of the bot's aiml, sets, maps and config files.
+ * Loading a snapshot skips the xml parsing which dominates the start of large
+ * bots.
+ *
+ * The Bot is created over a skeleton directory (config only, no aiml) which is
+ * fast, then filled from the snapshot and pointed back at the real bot
+ * directory so learnf, sets and maps are still written where they belong.
+ *
+ * Categories of the brain, the deleted and the unfinished graphs are kept in
+ * their own sections. Categories from learnf.aiml are added to the learnf graph
+ * as well as the brain - like Program AB does when it parses the file.
+ */
+public class BotSnapshot {
+
+  transient public final static Logger log = LoggerFactory.getLogger(BotSnapshot.class);
+
+  static final int MAGIC = 0x4d524c53;
+  static final int VERSION = 2;
+
+  /**
+   * directories which make up a bot - a change in any of them makes the
+   * snapshot stale
+   */
+  static final String[] SOURCES = new String[] { "aiml", "sets", "maps", "config" };
+
+  final File botDir;
+  final File dir;
+  final File file;
+  final File skeleton;
+
+  public BotSnapshot(File botDir) {
+    this.botDir = botDir.getAbsoluteFile();
+    this.dir = new File(this.botDir, "snapshot");
+    this.file = new File(dir, "bot.snapshot");
+    this.skeleton = new File(dir, "skeleton");
+  }
+
+  /**
+   * @return hash of every source file's name and content
+   * @throws IOException
+   *           if a file can't be read
+   */
+  public String hash() throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    digest.update(Integer.toString(VERSION).getBytes(StandardCharsets.UTF_8));
+    for (String source : SOURCES) {
+      List<File> files = new ArrayList<>();
+      list(new File(botDir, source), files);
+      Collections.sort(files);
+      for (File f : files) {
+        digest.update(botDir.toPath().relativize(f.toPath()).toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(Files.readAllBytes(f.toPath()));
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (byte b : digest.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  static void list(File dir, List<File> files) {
+    File[] list = dir.listFiles();
+    if (list == null) {
+      return;
+    }
+    for (File f : list) {
+      if (f.isDirectory()) {
+        list(f, files);
+      } else {
+        files.add(f);
+      }
+    }
+  }
+
+  /**
+   * @param hash
+   *          current hash of the sources
+   * @return true if the snapshot exists and was made from these sources
+   */
+  public boolean isValid(String hash) {
+    if (!file.exists() || !skeleton.exists()) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return in.readInt() == MAGIC && in.readInt() == VERSION && hash.equals(in.readUTF());
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * writes the bot's categories, sets and maps and the skeleton directory
+   *
+   * @param bot
+   *          a loaded bot
+   * @param hash
+   *          hash of the sources it was loaded from
+   * @throws IOException
+   *           on write error
+   */
+  public void write(Bot bot, String hash) throws IOException {
+    long start = System.currentTimeMillis();
+    // skeleton - a bot directory without aiml, sets or maps
+    for (String sub : new String[] { "aiml", "sets", "maps", "config" }) {
+      new File(skeleton, sub).mkdirs();
+    }
+    File config = new File(botDir, "config");
+    File[] configFiles = config.listFiles();
+    if (configFiles != null) {
+      for (File f : configFiles) {
+        if (f.isFile()) {
+          Files.copy(f.toPath(), new File(skeleton, "config/" + f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    }
+
+    File tmp = new File(dir, "bot.snapshot.tmp");
+    List<Category> categories = bot.brain.getCategories();
+    List<Category> deleted = bot.deletedGraph.getCategories();
+    List<Category> unfinished = bot.unfinishedGraph.getCategories();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(hash);
+      Map<String, Integer> strings = new HashMap<>();
+
+      out.writeInt(bot.setMap.size());
+      for (Map.Entry<String, AIMLSet> set : bot.setMap.entrySet()) {
+        writeString(out, set.getKey());
+        out.writeInt(set.getValue().size());
+        for (String value : set.getValue()) {
+          writeString(out, value);
+        }
+      }
+
+      out.writeInt(bot.mapMap.size());
+      for (Map.Entry<String, AIMLMap> map : bot.mapMap.entrySet()) {
+        writeString(out, map.getKey());
+        out.writeInt(map.getValue().size());
+        for (Map.Entry<String, String> entry : map.getValue().entrySet()) {
+          writeString(out, entry.getKey());
+          writeString(out, entry.getValue());
+        }
+      }
+
+      writeCategories(out, strings, categories);
+      writeCategories(out, strings, deleted);
+      writeCategories(out, strings, unfinished);
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    log.info("wrote snapshot {} {} categories {} bytes in {} ms", file, categories.size(), file.length(), System.currentTimeMillis() - start);
+  }
+
+  /**
+   * creates the bot from the snapshot
+   *
+   * @param name
+   *          bot name
+   * @param locale
+   *          bot locale - null for the default
+   * @return the bot
+   * @throws IOException
+   *           if the snapshot can't be read
+   */
+  public Bot load(String name, java.util.Locale locale) throws IOException {
+    long start = System.currentTimeMillis();
+    Bot bot = (locale != null) ? new Bot(name, skeleton.getAbsolutePath(), locale) : new Bot(name, skeleton.getAbsolutePath());
+    relocate(bot);
+
+    int count;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException(String.format("%s is not a snapshot", file));
+      }
+      in.readUTF();
+      List<String> strings = new ArrayList<>();
+
+      int sets = in.readInt();
+      for (int i = 0; i < sets; ++i) {
+        String setName = readString(in);
+        AIMLSet set = new AIMLSet(setName, bot);
+        int size = in.readInt();
+        int maxLength = 1;
+        for (int j = 0; j < size; ++j) {
+          String value = readString(in);
+          set.add(value);
+          maxLength = Math.max(maxLength, value.split(" ").length);
+        }
+        // multi word members are only matched up to the longest member
+        if (maxLength > 1) {
+          setField(set, "maxLength", maxLength);
+        }
+        bot.setMap.put(setName, set);
+      }
+
+      int maps = in.readInt();
+      for (int i = 0; i < maps; ++i) {
+        String mapName = readString(in);
+        AIMLMap map = new AIMLMap(mapName, bot);
+        int size = in.readInt();
+        for (int j = 0; j < size; ++j) {
+          map.put(readString(in), readString(in));
+        }
+        bot.mapMap.put(mapName, map);
+      }
+
+      List<Category> categories = readCategories(in, strings);
+      for (Category c : categories) {
+        bot.brain.addCategory(c);
+        if (c.getFilename() != null && c.getFilename().contains(MagicStrings.learnf_aiml_file)) {
+          bot.learnfGraph.addCategory(c);
+        }
+      }
+      for (Category c : readCategories(in, strings)) {
+        bot.deletedGraph.addCategory(c);
+      }
+      for (Category c : readCategories(in, strings)) {
+        bot.unfinishedGraph.addCategory(c);
+      }
+      count = categories.size();
+    }
+    log.info("loaded snapshot {} {} categories in {} ms", file, count, System.currentTimeMillis() - start);
+    return bot;
+  }
+
+  static void writeCategories(DataOutputStream out, Map<String, Integer> strings, List<Category> categories) throws IOException {
+    out.writeInt(categories.size());
+    for (Category c : categories) {
+      out.writeInt(c.getActivationCnt());
+      writeString(out, c.getPattern());
+      // that, topic and filename repeat - written once and referenced
+      writeShared(out, strings, c.getThat());
+      writeShared(out, strings, c.getTopic());
+      writeString(out, c.getTemplate());
+      writeShared(out, strings, c.getFilename());
+    }
+  }
+
+  static List<Category> readCategories(DataInputStream in, List<String> strings) throws IOException {
+    int count = in.readInt();
+    List<Category> categories = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      int activationCnt = in.readInt();
+      String pattern = readString(in);
+      String that = readShared(in, strings);
+      String topic = readShared(in, strings);
+      String template = readString(in);
+      String filename = readShared(in, strings);
+      categories.add(new Category(activationCnt, pattern, that, topic, template, filename));
+    }
+    return categories;
+  }
+
+  /**
+   * points the paths of the bot from the skeleton back to the bot directory
+   */
+  void relocate(Bot bot) {
+    bot.root_path = relocate(bot.root_path);
+    bot.bot_path = relocate(bot.bot_path);
+    bot.bot_name_path = relocate(bot.bot_name_path);
+    bot.aiml_path = relocate(bot.aiml_path);
+    bot.aimlif_path = relocate(bot.aimlif_path);
+    bot.config_path = relocate(bot.config_path);
+    bot.log_path = relocate(bot.log_path);
+    bot.sets_path = relocate(bot.sets_path);
+    bot.maps_path = relocate(bot.maps_path);
+  }
+
+  String relocate(String path) {
+    String from = skeleton.getAbsolutePath();
+    if (path != null && path.startsWith(from)) {
+      return botDir.getAbsolutePath() + path.substring(from.length());
+    }
+    return path;
+  }
+
+  /**
+   * sets a field program-ab only has in some versions - a snapshot of a bot
+   * which needs it can't be loaded without it
+   */
+  static void setField(Object o, String name, Object value) throws IOException {
+    try {
+      Field field = o.getClass().getField(name);
+      field.set(o, value);
+    } catch (Exception e) {
+      throw new IOException(String.format("could not set %s.%s", o.getClass().getSimpleName(), name), e);
+    }
+  }
+
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] b = new byte[length];
+    in.readFully(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  static void writeShared(DataOutputStream out, Map<String, Integer> strings, String s) throws IOException {
+    Integer index = strings.get(s);
+    if (index != null) {
+      out.writeInt(index);
+      return;
+    }
+    strings.put(s, strings.size());
+    out.writeInt(-1);
+    writeString(out, s);
+  }
+
+  static String readShared(DataInputStream in, List<String> strings) throws IOException {
+    int index = in.readInt();
+    if (index >= 0) {
+      return strings.get(index);
+    }
+    String s = readString(in);
+    strings.add(s);
+    return s;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+}
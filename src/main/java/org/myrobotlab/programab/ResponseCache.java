@@ -0,0 +1,429 @@
+package org.myrobotlab.programab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.alicebot.ab.AIMLSet;
+import org.alicebot.ab.Bot;
+import org.alicebot.ab.Category;
+import org.alicebot.ab.Chat;
+import org.alicebot.ab.History;
+import org.alicebot.ab.MagicStrings;
+import org.alicebot.ab.Nodemapper;
+import org.alicebot.ab.Predicates;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Response cache of a bot - shared by all its sessions.
+ *
+ * An input is cacheable when the category it matches (and every category
+ * reached through literal srai) has a template which only depends on the
+ * input, the topic and predicates read with get - no random, set, think, date,
+ * that, condition, learn, sraix or oob. The key is the normalized input, the
+ * topic and the values of the predicates those templates read, so users with
+ * different names get different entries and a changed predicate simply misses.
+ *
+ * Categories with a that pattern are not cached, nor are inputs whose pattern
+ * also has a that specific category - the match would depend on the last
+ * response.
+ */
+public class ResponseCache {
+
+  transient public final static Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+  /**
+   * template tags which make a response depend on more than the key
+   */
+  static final String[] DYNAMIC = new String[] { "<random", "<set", "<think", "<learn", "<sraix", "<date", "<interval", "<request", "<response", "<input", "<that", "<oob",
+      "<system", "<javascript", "<sr/", "<sr ", "<condition", "<id", "<size", "<vocabulary", "<loop", "<eval", "<program" };
+
+  static final Pattern GET = Pattern.compile("<get\\s+name\\s*=\\s*\"([^\"]+)\"\\s*/>");
+  static final Pattern SRAI = Pattern.compile("<srai>([^<]*)</srai>");
+  static final Pattern SET = Pattern.compile("<SET>([^<]+)</SET>");
+
+  static final int MAX_DEPTH = 8;
+
+  static class Analysis {
+    final boolean cacheable;
+    final boolean learns;
+    final String[] reads;
+    final String[] srai;
+
+    Analysis(boolean cacheable, boolean learns, String[] reads, String[] srai) {
+      this.cacheable = cacheable;
+      this.learns = learns;
+      this.reads = reads;
+      this.srai = srai;
+    }
+  }
+
+  /**
+   * result of a lookup
+   */
+  public static class Lookup {
+    /**
+     * null if the input is not cacheable
+     */
+    public String key;
+    public String input;
+    public String[] reads;
+    /**
+     * the response may add categories - the cache must be cleared after it
+     */
+    public boolean learns;
+  }
+
+  static class Entry {
+    final String response;
+    final String[] reads;
+
+    Entry(String response, String[] reads) {
+      this.response = response;
+      this.reads = reads;
+    }
+  }
+
+  final Bot bot;
+
+  final Map<Category, Analysis> analyses = Collections.synchronizedMap(new IdentityHashMap<Category, Analysis>());
+
+  /**
+   * pattern and topic of every category with a that pattern
+   */
+  volatile Set<String> thatPatterns = null;
+
+  /**
+   * the bot has categories which learn - uncacheable responses might reach
+   * them
+   */
+  volatile boolean botLearns = false;
+
+  int maxEntries = 10000;
+
+  final LinkedHashMap<String, Entry> responses = new LinkedHashMap<String, Entry>(1024, 0.75f, true);
+
+  long hits = 0;
+  long misses = 0;
+  long uncacheable = 0;
+  long invalidations = 0;
+
+  public ResponseCache(Bot bot) {
+    this.bot = bot;
+  }
+
+  /**
+   * scans the categories once for that patterns and learning templates
+   */
+  Set<String> getThatPatterns() {
+    Set<String> patterns = thatPatterns;
+    if (patterns == null) {
+      patterns = new HashSet<String>();
+      boolean learns = false;
+      for (Category c : bot.brain.getCategories()) {
+        if (!"*".equals(c.getThat())) {
+          patterns.add(c.getPattern() + "\u0000" + c.getTopic());
+        }
+        learns |= c.getTemplate().contains("<learn");
+      }
+      botLearns = learns;
+      thatPatterns = patterns;
+    }
+    return patterns;
+  }
+
+  Analysis analyze(Category c) {
+    Analysis analysis = analyses.get(c);
+    if (analysis != null) {
+      return analysis;
+    }
+    String template = c.getTemplate();
+    String lower = template.toLowerCase();
+    boolean learns = lower.contains("<learn");
+    boolean cacheable = true;
+    for (String tag : DYNAMIC) {
+      if (lower.contains(tag)) {
+        cacheable = false;
+        break;
+      }
+    }
+    List<String> reads = new ArrayList<String>();
+    List<String> srai = new ArrayList<String>();
+    if (cacheable) {
+      Matcher m = GET.matcher(template);
+      while (m.find()) {
+        reads.add(m.group(1));
+      }
+      // a get of a local var or with a nested name is not understood
+      cacheable = reads.size() == count(lower, "<get");
+    }
+    if (cacheable) {
+      Matcher m = SRAI.matcher(template);
+      while (m.find()) {
+        srai.add(m.group(1).trim());
+      }
+      // srai of anything but literal text can reach any category
+      cacheable = srai.size() == count(lower, "<srai");
+    }
+    if (!cacheable && lower.contains("<sr")) {
+      learns |= botLearns;
+    }
+    analysis = new Analysis(cacheable, learns, reads.toArray(new String[reads.size()]), srai.toArray(new String[srai.size()]));
+    analyses.put(c, analysis);
+    return analysis;
+  }
+
+  static int count(String s, String tag) {
+    int n = 0;
+    for (int i = s.indexOf(tag); i >= 0; i = s.indexOf(tag, i + tag.length())) {
+      ++n;
+    }
+    return n;
+  }
+
+  /**
+   * resolves the categories an input reaches
+   *
+   * @return true if all of them are cacheable
+   */
+  boolean resolve(String input, String that, String topic, Set<String> reads, Lookup lookup, int depth) {
+    if (depth > MAX_DEPTH) {
+      return false;
+    }
+    Nodemapper leaf = bot.brain.match(input, that, topic);
+    if (leaf == null || leaf.category == null) {
+      return false;
+    }
+    Category c = leaf.category;
+    Analysis analysis = analyze(c);
+    lookup.learns |= analysis.learns;
+    if (!analysis.cacheable || !"*".equals(c.getThat()) || getThatPatterns().contains(c.getPattern() + "\u0000" + c.getTopic())) {
+      return false;
+    }
+    reads.addAll(Arrays.asList(analysis.reads));
+    for (String target : analysis.srai) {
+      if (!resolve(target, that, topic, reads, lookup, depth + 1)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * finds the cache key of an input
+   *
+   * @param input
+   *          raw input text
+   * @param that
+   *          last sentence of the previous response
+   * @param predicates
+   *          the session's predicates
+   * @return the lookup - its key is null if the input is not cacheable
+   */
+  public Lookup lookup(String input, String that, Predicates predicates) {
+    Lookup lookup = new Lookup();
+    getThatPatterns();
+    String[] sentences = bot.preProcessor.sentenceSplit(bot.preProcessor.normalize(input));
+    // later sentences depend on the response to the first
+    if (sentences.length != 1) {
+      uncacheable();
+      return lookup;
+    }
+    String sentence = sentences[0].trim();
+    String topic = predicates.get("topic");
+    Set<String> reads = new TreeSet<String>();
+    if (!resolve(sentence, that, topic, reads, lookup, 0)) {
+      uncacheable();
+      return lookup;
+    }
+    StringBuilder key = new StringBuilder(sentence.toUpperCase());
+    key.append('\u0000').append(topic);
+    for (String read : reads) {
+      key.append('\u0000').append(read).append('=').append(predicates.get(read));
+    }
+    lookup.key = key.toString();
+    lookup.input = sentence;
+    lookup.reads = reads.toArray(new String[reads.size()]);
+    return lookup;
+  }
+
+  synchronized void uncacheable() {
+    ++uncacheable;
+  }
+
+  /**
+   * @return the cached response or null
+   */
+  public synchronized String get(Lookup lookup) {
+    if (lookup.key == null) {
+      return null;
+    }
+    Entry entry = responses.get(lookup.key);
+    if (entry == null) {
+      ++misses;
+      return null;
+    }
+    ++hits;
+    return entry.response;
+  }
+
+  public synchronized void put(Lookup lookup, String response) {
+    if (lookup.key == null) {
+      return;
+    }
+    responses.put(lookup.key, new Entry(response, lookup.reads));
+    if (responses.size() > maxEntries) {
+      Iterator<String> it = responses.keySet().iterator();
+      it.next();
+      it.remove();
+    }
+  }
+
+  /**
+   * records a cached response in the chat's history as if it had been
+   * answered - the next input may match on it
+   */
+  public void record(Chat chat, String input, Lookup lookup, String response) {
+    History<String> contextThat = new History<String>("contextThat");
+    contextThat.add(that(response));
+    chat.inputHistory.add(lookup.input);
+    chat.thatHistory.add(contextThat);
+    chat.requestHistory.add(input);
+    chat.responseHistory.add(response);
+  }
+
+  /**
+   * @return the last sentence of a response - what the next input's that is
+   */
+  public String that(String response) {
+    String[] sentences = bot.preProcessor.sentenceSplit(bot.preProcessor.normalize(response));
+    for (int i = sentences.length - 1; i >= 0; --i) {
+      if (sentences[i].trim().length() > 0) {
+        return sentences[i].trim();
+      }
+    }
+    return MagicStrings.default_that;
+  }
+
+  /**
+   * drops every entry - the bot's categories, sets or maps changed
+   */
+  public synchronized void clear() {
+    responses.clear();
+    analyses.clear();
+    thatPatterns = null;
+    ++invalidations;
+  }
+
+  /**
+   * drops the entries which read a predicate - they would miss anyway, this
+   * frees them
+   */
+  public synchronized void invalidate(String predicate) {
+    Iterator<Entry> it = responses.values().iterator();
+    while (it.hasNext()) {
+      if (Arrays.asList(it.next().reads).contains(predicate)) {
+        it.remove();
+        ++invalidations;
+      }
+    }
+  }
+
+  public synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  public synchronized double getHitRatio() {
+    long total = hits + misses + uncacheable;
+    return (total == 0) ? 0 : (double) hits / total;
+  }
+
+  public synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<String, Object>();
+    stats.put("entries", responses.size());
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("uncacheable", uncacheable);
+    stats.put("hitRatio", getHitRatio());
+    stats.put("invalidations", invalidations);
+    return stats;
+  }
+
+  /**
+   * times matching a sample input of every pattern
+   *
+   * @param bot
+   *          the bot
+   * @param patterns
+   *          patterns of the bot's categories
+   * @return count, matched and latency percentiles in microseconds
+   */
+  public static Map<String, Object> benchmark(Bot bot, List<String> patterns) {
+    long[] nanos = new long[patterns.size()];
+    int matched = 0;
+    for (int i = 0; i < nanos.length; ++i) {
+      String input = sample(bot, patterns.get(i));
+      long start = System.nanoTime();
+      Nodemapper leaf = bot.brain.match(input, MagicStrings.default_that, MagicStrings.default_topic);
+      nanos[i] = System.nanoTime() - start;
+      if (leaf != null && leaf.category != null) {
+        ++matched;
+      }
+    }
+    Arrays.sort(nanos);
+    long total = 0;
+    for (long n : nanos) {
+      total += n;
+    }
+    Map<String, Object> stats = new LinkedHashMap<String, Object>();
+    stats.put("patterns", nanos.length);
+    stats.put("matched", matched);
+    if (nanos.length > 0) {
+      stats.put("avgUs", total / 1000.0 / nanos.length);
+      stats.put("p50Us", nanos[nanos.length / 2] / 1000.0);
+      stats.put("p99Us", nanos[Math.min(nanos.length - 1, (int) (nanos.length * 0.99))] / 1000.0);
+      stats.put("maxUs", nanos[nanos.length - 1] / 1000.0);
+    }
+    return stats;
+  }
+
+  /**
+   * an input which matches a pattern - wildcards become a word, sets their
+   * first member
+   */
+  static String sample(Bot bot, String pattern) {
+    Matcher m = SET.matcher(pattern);
+    StringBuffer sb = new StringBuffer();
+    while (m.find()) {
+      AIMLSet set = bot.setMap.get(m.group(1).toLowerCase());
+      String member = (set == null || set.isEmpty()) ? "FOO" : set.iterator().next();
+      m.appendReplacement(sb, Matcher.quoteReplacement(member));
+    }
+    m.appendTail(sb);
+    StringBuilder input = new StringBuilder();
+    for (String word : sb.toString().split(" ")) {
+      if (word.isEmpty()) {
+        continue;
+      }
+      if (word.equals("*") || word.equals("_") || word.equals("#") || word.equals("^")) {
+        word = "FOO";
+      } else if (word.startsWith("$")) {
+        word = word.substring(1);
+      }
+      input.append((input.length() > 0) ? " " : "").append(word);
+    }
+    return input.toString();
+  }
+
+}
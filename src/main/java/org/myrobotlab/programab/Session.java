@@ -2,10 +2,25 @@ package org.myrobotlab.programab;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 import org.alicebot.ab.Chat;
+import org.alicebot.ab.MagicStrings;
 import org.alicebot.ab.Predicates;
 import org.myrobotlab.io.FileIO;
 import org.myrobotlab.logging.LoggerFactory;
@@ -15,6 +30,11 @@ import org.slf4j.Logger;
 /**
  * Session provides ProgramAB session info and reference to Chat and Bot
  * 
+ * A session owns its Chat (predicates, history, that/topic) and processes its
+ * requests one at a time, in order, on a pool of workers shared by all the
+ * sessions. The Bot is shared read only by all the sessions of that bot unless
+ * it has learning categories. Different users are answered concurrently.
+ * 
  * @author GroG
  *
  */
@@ -40,6 +60,39 @@ public class Session {
   // public Map<String,String> predicates = new TreeMap<>();
   public Predicates predicates = null;
 
+  /**
+   * workers shared by all the sessions - idle ones time out
+   */
+  transient static ThreadPoolExecutor workers;
+
+  transient static final AtomicInteger workerCount = new AtomicInteger();
+
+  /**
+   * requests of this session waiting for a worker - guarded by Session.class
+   */
+  transient ArrayDeque<FutureTask<?>> requests;
+
+  /**
+   * a worker has been given this session's next request
+   */
+  transient boolean scheduled = false;
+
+  /**
+   * predicate files are written by a single background writer so a slow disk
+   * never holds up a response
+   */
+  transient static ExecutorService writer;
+
+  /**
+   * last predicates written - unchanged predicates are not written again
+   */
+  transient String savedPredicates;
+
+  /**
+   * last sentence of the last response - the that of the next input
+   */
+  transient String that = MagicStrings.default_that;
+
   /**
    * Session for a user and bot
    * 
@@ -76,27 +129,149 @@ public class Session {
     return chat;
   }
 
-  public void savePredicates() {
+  /**
+   * Save the predicates - they are copied now and written by the background
+   * writer, nothing is written if they have not changed since the last save.
+   * 
+   * @return completes when the predicates are on disk
+   */
+  public Future<?> savePredicates() {
     StringBuilder sb = new StringBuilder();
-    for (String predicate : getChat().predicates.keySet()) {
-      String value = getChat().predicates.get(predicate);
-      sb.append(predicate + ":" + value + "\n");
+    synchronized (this) {
+      Predicates p = getChat().predicates;
+      for (String predicate : p.keySet()) {
+        String value = p.get(predicate);
+        sb.append(predicate + ":" + value + "\n");
+      }
+    }
+    String text = sb.toString();
+    if (text.equals(savedPredicates)) {
+      return CompletableFuture.completedFuture(null);
     }
+    savedPredicates = text;
     File predicates = new File(FileIO.gluePaths(botInfo.path.getAbsolutePath(), String.format("config/%s.predicates.txt", userName)));
-    predicates.getParentFile().mkdirs();
-    log.info("Bot : {} User : {} Predicates Filename : {} ", botInfo.name, userName, predicates);
-    try {
-      FileOutputStream fos = new FileOutputStream(predicates);
-      fos.write(sb.toString().getBytes());
-      fos.close();
-    } catch (Exception e) {
-      log.error("writing predicates threw", e);
+    return getWriter().submit(() -> {
+      predicates.getParentFile().mkdirs();
+      log.info("Bot : {} User : {} Predicates Filename : {} ", botInfo.name, userName, predicates);
+      // written next to the file and renamed - a crash never leaves half a file
+      File tmp = new File(predicates.getAbsolutePath() + ".tmp");
+      try (FileOutputStream fos = new FileOutputStream(tmp)) {
+        fos.write(text.getBytes());
+      } catch (Exception e) {
+        log.error("writing predicates threw", e);
+        savedPredicates = null;
+        return;
+      }
+      try {
+        Files.move(tmp.toPath(), predicates.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (Exception e) {
+        log.error("renaming predicates threw", e);
+        savedPredicates = null;
+      }
+    });
+  }
+
+  static synchronized ExecutorService getWriter() {
+    if (writer == null) {
+      writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "predicates-writer");
+        t.setDaemon(true);
+        return t;
+      });
     }
+    return writer;
   }
 
-  public Response getResponse(String inText) {
+  static synchronized ExecutorService getWorkers() {
+    if (workers == null) {
+      int size = Runtime.getRuntime().availableProcessors();
+      workers = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+        Thread t = new Thread(r, String.format("programab-session-%d", workerCount.incrementAndGet()));
+        t.setDaemon(true);
+        return t;
+      });
+      workers.allowCoreThreadTimeOut(true);
+    }
+    return workers;
+  }
 
-    String text = getChat().multisentenceRespond(inText);
+  /**
+   * queue a task on this session
+   * 
+   * @param task
+   *          the task - runs after all the previously submitted tasks of this
+   *          session
+   * @return the result
+   */
+  public <T> Future<T> submit(Callable<T> task) {
+    FutureTask<T> future = new FutureTask<T>(task);
+    synchronized (Session.class) {
+      if (requests == null) {
+        requests = new ArrayDeque<FutureTask<?>>();
+      }
+      requests.add(future);
+      if (!scheduled) {
+        scheduled = true;
+        getWorkers().execute(this::runNext);
+      }
+    }
+    return future;
+  }
+
+  /**
+   * runs the oldest request of this session - the next one is queued behind
+   * the other sessions' requests so a busy session can't starve them
+   */
+  void runNext() {
+    FutureTask<?> task;
+    synchronized (Session.class) {
+      task = requests.poll();
+    }
+    task.run();
+    synchronized (Session.class) {
+      if (requests.isEmpty()) {
+        scheduled = false;
+      } else {
+        getWorkers().execute(this::runNext);
+      }
+    }
+  }
+
+  public synchronized Response getResponse(String inText) {
+
+    String text = null;
+    ResponseCache cache = botInfo.getResponseCache();
+    ResponseCache.Lookup lookup = null;
+    // other sessions may respond at the same time - the bot can't change
+    // underneath them, and a bot which learns changes while responding
+    Lock lock = (botInfo.canLearn()) ? botInfo.writeLock() : botInfo.readLock();
+    lock.lock();
+    try {
+      Chat chat = getChat();
+      if (cache != null) {
+        lookup = cache.lookup(inText, that, chat.predicates);
+        text = cache.get(lookup);
+        if (text != null) {
+          cache.record(chat, inText, lookup, text);
+        }
+      }
+      if (text == null) {
+        text = chat.multisentenceRespond(inText);
+        if (cache != null) {
+          cache.put(lookup, text);
+        }
+      }
+      if (cache != null && lookup.learns) {
+        // the bot may have learned a category which changes other matches
+        cache.clear();
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (cache != null) {
+      that = cache.that(text);
+    }
+    lastResponseTime = new Date();
 
     // Find any oob tags
     ArrayList<OOBPayload> oobTags = OOBPayload.extractOOBPayloads(text, programab);
@@ -123,21 +298,31 @@ public class Session {
 
   }
 
-  public Chat reload() {
+  public synchronized Chat reload() {
     botInfo.reload();
     chat = null;
+    savedPredicates = null;
     return getChat();
   }
 
-  public void remove(String predicateName) {
+  public synchronized void remove(String predicateName) {
     getChat().predicates.remove(predicateName);
+    invalidate(predicateName);
   }
 
-  public void setPredicate(String predicateName, String predicateValue) {
+  public synchronized void setPredicate(String predicateName, String predicateValue) {
     getChat().predicates.put(predicateName, predicateValue);
+    invalidate(predicateName);
+  }
+
+  void invalidate(String predicateName) {
+    ResponseCache cache = botInfo.getResponseCache();
+    if (cache != null) {
+      cache.invalidate(predicateName);
+    }
   }
 
-  public String getPredicate(String predicateName) {
+  public synchronized String getPredicate(String predicateName) {
     return getChat().predicates.get(predicateName);
   }
 
@@ -0,0 +1,266 @@
+package org.myrobotlab.sensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.myrobotlab.math.geometry.PointCloud;
+
+/**
+ * Decoder for Velodyne VLP-16 data packets. A data packet is 1206 bytes - 12
+ * data blocks of 100 bytes followed by a 4 byte timestamp and 2 factory bytes
+ * (return mode and product id).
+ *
+ * Each data block has a 0xFFEE flag, an azimuth in hundredths of a degree and
+ * 32 channel records (2 firing sequences of 16 lasers) of 2 byte distance (2mm
+ * units) and 1 byte reflectivity. All values are little endian.
+ *
+ * Points are accumulated into primitive float arrays, when the azimuth wraps
+ * around a complete 360 degree sweep is returned as a PointCloud.
+ *
+ * This class is not thread safe - it is expected to be driven by a single
+ * receiving thread.
+ */
+public class Vlp16Decoder {
+
+  public final static int PACKET_SIZE = 1206;
+  public final static int BLOCKS_PER_PACKET = 12;
+  public final static int BLOCK_SIZE = 100;
+  public final static int LASERS = 16;
+  public final static int FIRINGS_PER_BLOCK = 2;
+
+  /**
+   * block flag is 0xFF 0xEE on the wire - this is its little endian value
+   */
+  public final static int BLOCK_FLAG = 0xEEFF;
+
+  public final static int RETURN_MODE_STRONGEST = 0x37;
+  public final static int RETURN_MODE_LAST = 0x38;
+  public final static int RETURN_MODE_DUAL = 0x39;
+
+  /**
+   * time between laser firings and the full firing cycle in micro seconds
+   */
+  public final static double LASER_TIME_US = 2.304;
+  public final static double FIRING_CYCLE_US = 55.296;
+
+  public final static float DISTANCE_RESOLUTION_M = 0.002f;
+
+  /**
+   * vertical angle of each laser id in degrees
+   */
+  public final static int[] ELEVATION_DEGREES = { -15, 1, -13, 3, -11, 5, -9, 7, -7, 9, -5, 11, -3, 13, -1, 15 };
+
+  final static float[] SIN_ELEVATION = new float[LASERS];
+  final static float[] COS_ELEVATION = new float[LASERS];
+
+  /**
+   * sin/cos lookup by azimuth in hundredths of a degree
+   */
+  final static float[] SIN_AZIMUTH = new float[36000];
+  final static float[] COS_AZIMUTH = new float[36000];
+
+  /**
+   * fractional azimuth offset of each channel in a block relative to the
+   * azimuth gap between blocks
+   */
+  final static double[] CHANNEL_OFFSET = new double[LASERS * FIRINGS_PER_BLOCK];
+
+  static {
+    for (int i = 0; i < LASERS; ++i) {
+      double rad = Math.toRadians(ELEVATION_DEGREES[i]);
+      SIN_ELEVATION[i] = (float) Math.sin(rad);
+      COS_ELEVATION[i] = (float) Math.cos(rad);
+    }
+    for (int i = 0; i < SIN_AZIMUTH.length; ++i) {
+      double rad = Math.toRadians(i / 100.0);
+      SIN_AZIMUTH[i] = (float) Math.sin(rad);
+      COS_AZIMUTH[i] = (float) Math.cos(rad);
+    }
+    for (int seq = 0; seq < FIRINGS_PER_BLOCK; ++seq) {
+      for (int laser = 0; laser < LASERS; ++laser) {
+        CHANNEL_OFFSET[seq * LASERS + laser] = (laser * LASER_TIME_US + seq * FIRING_CYCLE_US) / (2 * FIRING_CYCLE_US);
+      }
+    }
+  }
+
+  float[] x;
+  float[] y;
+  float[] z;
+  float[] intensity;
+  int size = 0;
+
+  int lastAzimuth = -1;
+  int returnMode = RETURN_MODE_STRONGEST;
+
+  long packets = 0;
+  long badPackets = 0;
+  long sweeps = 0;
+
+  float minRange = 0.4f;
+
+  // per packet scratch
+  final int[] azimuths = new int[BLOCKS_PER_PACKET];
+
+  public Vlp16Decoder() {
+    // ~30k points per sweep at 10Hz single return
+    this(32768);
+  }
+
+  public Vlp16Decoder(int initialCapacity) {
+    x = new float[initialCapacity];
+    y = new float[initialCapacity];
+    z = new float[initialCapacity];
+    intensity = new float[initialCapacity];
+  }
+
+  /**
+   * decode a single data packet - the buffer's position should be at the start
+   * of the packet and its limit at the end of it. The buffer's position is left
+   * unchanged.
+   *
+   * @param packet
+   *          the packet
+   * @return a completed sweep if this packet crossed the 0 azimuth, otherwise
+   *         null
+   */
+  public PointCloud decode(ByteBuffer packet) {
+    if (packet.remaining() < PACKET_SIZE) {
+      ++badPackets;
+      return null;
+    }
+
+    ByteOrder order = packet.order();
+    packet.order(ByteOrder.LITTLE_ENDIAN);
+    int start = packet.position();
+
+    try {
+      returnMode = packet.get(start + 1204) & 0xFF;
+      boolean dual = (returnMode == RETURN_MODE_DUAL);
+
+      for (int block = 0; block < BLOCKS_PER_PACKET; ++block) {
+        int offset = start + block * BLOCK_SIZE;
+        if ((packet.getShort(offset) & 0xFFFF) != BLOCK_FLAG) {
+          ++badPackets;
+          return null;
+        }
+        azimuths[block] = packet.getShort(offset + 2) & 0xFFFF;
+      }
+
+      PointCloud sweep = null;
+      // in dual return mode blocks come in pairs with the same azimuth
+      int step = dual ? 2 : 1;
+
+      for (int block = 0; block < BLOCKS_PER_PACKET; ++block) {
+        int azimuth = azimuths[block];
+
+        int gap;
+        if (block + step < BLOCKS_PER_PACKET) {
+          gap = azimuths[block + step] - azimuth;
+        } else {
+          // last block(s) - use the previous gap
+          gap = azimuth - azimuths[block - step];
+        }
+        if (gap < 0) {
+          gap += 36000;
+        }
+
+        // sweep completes when azimuth wraps
+        if (lastAzimuth >= 0 && azimuth < lastAzimuth && (!dual || (block % 2 == 0))) {
+          sweep = sweep();
+        }
+        lastAzimuth = azimuth;
+
+        int offset = start + block * BLOCK_SIZE + 4;
+        int pairOffset = (dual && (block % 2 == 1)) ? offset - BLOCK_SIZE : -1;
+
+        for (int channel = 0; channel < LASERS * FIRINGS_PER_BLOCK; ++channel) {
+          int c = offset + channel * 3;
+          int raw = packet.getShort(c) & 0xFFFF;
+          if (raw == 0) {
+            continue;
+          }
+          if (pairOffset >= 0 && (packet.getShort(pairOffset + channel * 3) & 0xFFFF) == raw) {
+            // dual return - second return identical to the first
+            continue;
+          }
+          float range = raw * DISTANCE_RESOLUTION_M;
+          if (range < minRange) {
+            continue;
+          }
+
+          int laser = channel % LASERS;
+          int a = (int) (azimuth + gap * CHANNEL_OFFSET[channel]) % 36000;
+          float xy = range * COS_ELEVATION[laser];
+
+          ensureCapacity(size + 1);
+          x[size] = xy * SIN_AZIMUTH[a];
+          y[size] = xy * COS_AZIMUTH[a];
+          z[size] = range * SIN_ELEVATION[laser];
+          intensity[size] = packet.get(c + 2) & 0xFF;
+          ++size;
+        }
+      }
+
+      ++packets;
+      return sweep;
+
+    } finally {
+      packet.order(order);
+    }
+  }
+
+  /**
+   * completes the current sweep - the accumulated points are copied into a new
+   * PointCloud and the accumulator is reset
+   *
+   * @return the sweep
+   */
+  public PointCloud sweep() {
+    PointCloud pc = new PointCloud(Arrays.copyOf(x, size), Arrays.copyOf(y, size), Arrays.copyOf(z, size), size);
+    pc.setIntensity(Arrays.copyOf(intensity, size));
+    size = 0;
+    ++sweeps;
+    return pc;
+  }
+
+  void ensureCapacity(int capacity) {
+    if (capacity > x.length) {
+      int newCapacity = Math.max(capacity, x.length * 2);
+      x = Arrays.copyOf(x, newCapacity);
+      y = Arrays.copyOf(y, newCapacity);
+      z = Arrays.copyOf(z, newCapacity);
+      intensity = Arrays.copyOf(intensity, newCapacity);
+    }
+  }
+
+  public void reset() {
+    size = 0;
+    lastAzimuth = -1;
+  }
+
+  public int getReturnMode() {
+    return returnMode;
+  }
+
+  public long getPacketCount() {
+    return packets;
+  }
+
+  public long getBadPacketCount() {
+    return badPackets;
+  }
+
+  public long getSweepCount() {
+    return sweeps;
+  }
+
+  public int getPendingPoints() {
+    return size;
+  }
+
+  public void setMinRange(float minRange) {
+    this.minRange = minRange;
+  }
+
+}
@@ -0,0 +1,144 @@
+package org.myrobotlab.serial;
+
+/**
+ * A primitive circular byte buffer used by the frame decoders. Positions are
+ * absolute (monotonically increasing longs) and are masked into the backing
+ * array, which makes frame bookkeeping independent of wrap around.
+ *
+ * Not thread safe - a ring is owned by a single decoder.
+ *
+ */
+public class ByteRing {
+
+  final byte[] buffer;
+  final int mask;
+
+  /**
+   * absolute read position
+   */
+  long head = 0;
+
+  /**
+   * absolute write position
+   */
+  long tail = 0;
+
+  /**
+   * scratch used when a requested slice wraps around the end of the buffer
+   */
+  byte[] scratch;
+
+  /**
+   * @param capacity
+   *          rounded up to the next power of 2
+   */
+  public ByteRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+    buffer = new byte[size];
+    mask = size - 1;
+    scratch = new byte[size];
+  }
+
+  public int capacity() {
+    return buffer.length;
+  }
+
+  public int size() {
+    return (int) (tail - head);
+  }
+
+  public int free() {
+    return buffer.length - size();
+  }
+
+  public long head() {
+    return head;
+  }
+
+  public long tail() {
+    return tail;
+  }
+
+  public boolean write(int b) {
+    if (tail - head == buffer.length) {
+      return false;
+    }
+    buffer[(int) (tail++ & mask)] = (byte) b;
+    return true;
+  }
+
+  /**
+   * bulk write with at most 2 array copies
+   *
+   * @return number of bytes written - less than length if the ring is full
+   */
+  public int write(byte[] data, int offset, int length) {
+    int n = Math.min(length, free());
+    int pos = (int) (tail & mask);
+    int first = Math.min(n, buffer.length - pos);
+    System.arraycopy(data, offset, buffer, pos, first);
+    if (n > first) {
+      System.arraycopy(data, offset + first, buffer, 0, n - first);
+    }
+    tail += n;
+    return n;
+  }
+
+  /**
+   * @return unsigned byte at an absolute position
+   */
+  public int get(long position) {
+    return buffer[(int) (position & mask)] & 0xFF;
+  }
+
+  public void set(long position, int b) {
+    buffer[(int) (position & mask)] = (byte) b;
+  }
+
+  /**
+   * @return the absolute position of the first occurrence of b between from
+   *         (inclusive) and the tail, or -1
+   */
+  public long indexOf(int b, long from) {
+    byte value = (byte) b;
+    for (long i = Math.max(from, head); i < tail; ++i) {
+      if (buffer[(int) (i & mask)] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * consume bytes up to (not including) an absolute position
+   */
+  public void skipTo(long position) {
+    head = Math.min(position, tail);
+  }
+
+  public void skip(int n) {
+    skipTo(head + n);
+  }
+
+  public void clear() {
+    head = tail;
+  }
+
+  /**
+   * Hands a slice of the ring to a listener. If the slice is contiguous in the
+   * backing array no copy is made, otherwise it is assembled in a scratch
+   * array.
+   */
+  public void slice(long start, int length, FrameListener listener) {
+    int pos = (int) (start & mask);
+    if (pos + length <= buffer.length) {
+      listener.onFrame(buffer, pos, length);
+    } else {
+      int first = buffer.length - pos;
+      System.arraycopy(buffer, pos, scratch, 0, first);
+      System.arraycopy(buffer, 0, scratch, first, length - first);
+      listener.onFrame(scratch, 0, length);
+    }
+  }
+
+}
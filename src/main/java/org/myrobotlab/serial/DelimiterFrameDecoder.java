@@ -0,0 +1,74 @@
+package org.myrobotlab.serial;
+
+/**
+ * Frames terminated by a delimiter byte - e.g. '\n' for NMEA sentences and
+ * other line based protocols.
+ *
+ */
+public class DelimiterFrameDecoder extends FrameDecoder {
+
+  final int delimiter;
+
+  /**
+   * if true the delimiter is included at the end of the emitted frame
+   */
+  final boolean includeDelimiter;
+
+  /**
+   * position up to which the ring has already been scanned
+   */
+  long scanned;
+
+  /**
+   * an over long frame was dropped - discard until the next delimiter
+   */
+  boolean discarding = false;
+
+  public DelimiterFrameDecoder(int delimiter, int maxFrameLength, boolean includeDelimiter) {
+    super(maxFrameLength);
+    this.delimiter = delimiter;
+    this.includeDelimiter = includeDelimiter;
+  }
+
+  public DelimiterFrameDecoder(int delimiter, int maxFrameLength, boolean includeDelimiter, FrameListener listener) {
+    this(delimiter, maxFrameLength, includeDelimiter);
+    this.listener = listener;
+  }
+
+  @Override
+  protected void decode() {
+    while (true) {
+      long pos = ring.indexOf(delimiter, scanned);
+      if (pos < 0) {
+        scanned = ring.tail();
+        if (ring.size() > maxFrameLength) {
+          if (!discarding) {
+            error();
+          }
+          discarding = true;
+          ring.clear();
+          scanned = ring.tail();
+        }
+        return;
+      }
+      int length = (int) (pos - ring.head()) + (includeDelimiter ? 1 : 0);
+      if (discarding) {
+        discarding = false;
+      } else if (length > maxFrameLength) {
+        error();
+      } else {
+        emit(ring.head(), length);
+      }
+      ring.skipTo(pos + 1);
+      scanned = ring.head();
+    }
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    scanned = ring.head();
+    discarding = false;
+  }
+
+}
@@ -0,0 +1,113 @@
+package org.myrobotlab.serial;
+
+/**
+ * Base of the serial framing layer. Bytes from a serial port are appended to a
+ * primitive ring buffer and the concrete decoder emits complete frames to a
+ * FrameListener as slices of that buffer, so services no longer need their own
+ * byte at a time state machines.
+ *
+ * A decoder is not thread safe - it is expected to be fed by the single thread
+ * which reads the port.
+ *
+ */
+public abstract class FrameDecoder {
+
+  protected final ByteRing ring;
+
+  protected FrameListener listener;
+
+  /**
+   * largest frame accepted (including any header), larger frames are
+   * discarded and counted as errors
+   */
+  protected int maxFrameLength;
+
+  long frameCount = 0;
+  long errorCount = 0;
+  long byteCount = 0;
+
+  public FrameDecoder(int maxFrameLength) {
+    this.maxFrameLength = maxFrameLength;
+    this.ring = new ByteRing(maxFrameLength * 2);
+  }
+
+  public FrameDecoder(int maxFrameLength, FrameListener listener) {
+    this(maxFrameLength);
+    this.listener = listener;
+  }
+
+  public void setListener(FrameListener listener) {
+    this.listener = listener;
+  }
+
+  public void write(int b) {
+    ++byteCount;
+    ring.write(b);
+    decode();
+    if (ring.free() == 0) {
+      overflow();
+    }
+  }
+
+  public void write(byte[] data) {
+    write(data, 0, data.length);
+  }
+
+  public void write(byte[] data, int offset, int length) {
+    byteCount += length;
+    while (length > 0) {
+      int n = ring.write(data, offset, length);
+      offset += n;
+      length -= n;
+      decode();
+      if (ring.free() == 0) {
+        overflow();
+      }
+    }
+  }
+
+  /**
+   * scan the ring, emit all complete frames and consume them
+   */
+  protected abstract void decode();
+
+  /**
+   * the ring is full and no frame could be found - drop everything buffered
+   */
+  protected void overflow() {
+    ++errorCount;
+    reset();
+  }
+
+  protected void emit(long start, int length) {
+    ++frameCount;
+    if (listener != null) {
+      ring.slice(start, length, listener);
+    }
+  }
+
+  protected void error() {
+    ++errorCount;
+  }
+
+  public void reset() {
+    ring.clear();
+  }
+
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  public long getErrorCount() {
+    return errorCount;
+  }
+
+  public long getByteCount() {
+    return byteCount;
+  }
+
+  public int getBuffered() {
+    return ring.size();
+  }
+
+}
@@ -0,0 +1,13 @@
+package org.myrobotlab.serial;
+
+/**
+ * Receives complete frames from a FrameDecoder. The frame is a slice of the
+ * decoder's buffer - it is only valid for the duration of the call, a listener
+ * which needs to keep the data must copy it.
+ *
+ */
+public interface FrameListener {
+
+  public void onFrame(byte[] buffer, int offset, int length);
+
+}
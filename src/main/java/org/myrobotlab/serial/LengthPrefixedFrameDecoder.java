@@ -0,0 +1,66 @@
+package org.myrobotlab.serial;
+
+/**
+ * Frames which carry their own length in a header field. The total frame
+ * length is lengthFieldOffset + lengthFieldSize + length + lengthAdjustment.
+ *
+ * The emitted slice starts after stripBytes header bytes.
+ *
+ */
+public class LengthPrefixedFrameDecoder extends FrameDecoder {
+
+  final int lengthFieldOffset;
+  final int lengthFieldSize;
+  final boolean bigEndian;
+  final int lengthAdjustment;
+  final int stripBytes;
+
+  public LengthPrefixedFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldSize, boolean bigEndian, int lengthAdjustment, int stripBytes) {
+    super(maxFrameLength);
+    if (lengthFieldSize < 1 || lengthFieldSize > 4) {
+      throw new IllegalArgumentException(String.format("length field size %d not supported", lengthFieldSize));
+    }
+    this.lengthFieldOffset = lengthFieldOffset;
+    this.lengthFieldSize = lengthFieldSize;
+    this.bigEndian = bigEndian;
+    this.lengthAdjustment = lengthAdjustment;
+    this.stripBytes = stripBytes;
+  }
+
+  /**
+   * single byte length at the start of the frame, the length field is stripped
+   */
+  public LengthPrefixedFrameDecoder(int maxFrameLength) {
+    this(maxFrameLength, 0, 1, true, 0, 1);
+  }
+
+  @Override
+  protected void decode() {
+    int header = lengthFieldOffset + lengthFieldSize;
+    while (ring.size() >= header) {
+      long head = ring.head();
+      long length = 0;
+      for (int i = 0; i < lengthFieldSize; ++i) {
+        int b = ring.get(head + lengthFieldOffset + i);
+        if (bigEndian) {
+          length = (length << 8) | b;
+        } else {
+          length |= ((long) b) << (8 * i);
+        }
+      }
+      long frameLength = header + length + lengthAdjustment;
+      if (frameLength < header || frameLength > maxFrameLength || frameLength < stripBytes) {
+        // bad length - resync on the next byte
+        error();
+        ring.skip(1);
+        continue;
+      }
+      if (ring.size() < frameLength) {
+        return;
+      }
+      emit(head + stripBytes, (int) frameLength - stripBytes);
+      ring.skipTo(head + frameLength);
+    }
+  }
+
+}
@@ -0,0 +1,52 @@
+package org.myrobotlab.serial;
+
+/**
+ * Frames of the form MAGIC|SIZE|PAYLOAD... where SIZE is a single byte payload
+ * length - this is the MrlComm message format. Only the payload is emitted.
+ * Bytes which do not start with the magic number are discarded and counted as
+ * errors until the stream resyncs.
+ *
+ */
+public class MagicSizeFrameDecoder extends FrameDecoder {
+
+  final int magic;
+  final int maxPayload;
+
+  public MagicSizeFrameDecoder(int magic, int maxPayload) {
+    super(maxPayload + 2);
+    this.magic = magic;
+    this.maxPayload = maxPayload;
+  }
+
+  public MagicSizeFrameDecoder(int magic, int maxPayload, FrameListener listener) {
+    this(magic, maxPayload);
+    this.listener = listener;
+  }
+
+  @Override
+  protected void decode() {
+    while (ring.size() > 0) {
+      long head = ring.head();
+      if (ring.get(head) != magic) {
+        error();
+        ring.skip(1);
+        continue;
+      }
+      if (ring.size() < 2) {
+        return;
+      }
+      int size = ring.get(head + 1);
+      if (size > maxPayload) {
+        error();
+        ring.skip(1);
+        continue;
+      }
+      if (ring.size() < size + 2) {
+        return;
+      }
+      emit(head + 2, size);
+      ring.skipTo(head + 2 + size);
+    }
+  }
+
+}
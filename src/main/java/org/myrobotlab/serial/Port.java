@@ -29,7 +29,7 @@ public abstract class Port implements Runnable, SerialControl {
    * Thread for reading if required - in case of PortQueue and PortStream (but
    * not PortJSSC)
    */
-  transient Thread readingThread = null;
+  transient volatile Thread readingThread = null;
   boolean listening = false;
   
 
@@ -146,6 +146,21 @@ public abstract class Port implements Runnable, SerialControl {
 
   abstract public int read() throws Exception;
 
+  /**
+   * bulk read - blocks until at least one byte is available. Ports which can
+   * read more than a byte at a time override this.
+   *
+   * @return number of bytes read or -1 if the port is closed
+   */
+  public int read(byte[] data, int offset, int length) throws Exception {
+    int b = read();
+    if (b < 0) {
+      return -1;
+    }
+    data[offset] = (byte) b;
+    return 1;
+  }
+
   /**
    * reads from Ports input stream and puts it on the Serials main RX line - to
    * be published and buffered - PortJSSC uses the thread of the library to "push" serial data
@@ -155,34 +170,39 @@ public abstract class Port implements Runnable, SerialControl {
 
     log.info("listening on port {}", portName);
     listening = true;
-    Integer newByte = -1;
+    byte[] chunk = new byte[1024];
+    int n = -1;
+    int lastTotal = stats.total;
     try {
-      while (listening && ((newByte = read()) > -1)) { // "real" java byte
-        // 255 / -1 will
-        // kill this
-        // log.error(String.format("%d",newByte));
+      // listeners get whatever has arrived in one call instead of a call per
+      // byte
+      while (listening && ((n = read(chunk, 0, chunk.length)) > -1)) {
         for (String key : listeners.keySet()) {
-          listeners.get(key).onByte(newByte);
-          // log.info(String.format("%d",newByte));
+          listeners.get(key).onBytes(chunk, 0, n);
         }
-        ++stats.total;
-        if (stats.total % stats.interval == 0) {
+        stats.total += n;
+        if (stats.total - lastTotal >= stats.interval) {
 
           stats.ts = System.currentTimeMillis();
-          stats.delta = stats.ts - stats.lastTS;
-          stats.lineSpeed = (8 * stats.interval) / stats.delta;
+          stats.delta = Math.max(1, stats.ts - stats.lastTS);
+          stats.lineSpeed = (8 * (stats.total - lastTotal)) / stats.delta;
           for (String key : listeners.keySet()) {
             listeners.get(key).updateStats(stats);
           }
           stats.lastTS = stats.ts;
+          lastTotal = stats.total;
         }
       }
-      log.info("{} no longer listening - last byte {} ", portName, newByte);
+      log.info("{} no longer listening - last read {} ", portName, n);
     } catch (InterruptedException e) {
       log.info("port {} interrupted - stopping listener", portName);
     } catch (Exception e1) {
       log.error("port reading thread threw", e1);
     } finally {
+      // the next listen() starts a new reader
+      if (readingThread == Thread.currentThread()) {
+        readingThread = null;
+      }
       log.info("stopped listening on {}", portName);
     }
   }
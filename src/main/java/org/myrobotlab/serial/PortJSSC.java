@@ -216,19 +216,17 @@ public class PortJSSC extends Port implements SerialControl, SerialPortEventList
       byte[] buffer = null;
       try {
         buffer = this.port.readBytes(event.getEventValue());
-        for (int i = 0; i < buffer.length; i++) {
-
-          for (String key : listeners.keySet()) {
-            listeners.get(key).onByte((int) (buffer[i] & 0xFF));
-          }
-          ++stats.total;
-          if (stats.total % stats.interval == 0) {
-            stats.ts = System.currentTimeMillis();
-            log.info("===stats - dequeued total {} - {} bytes in {} ms {} Kbps", stats.total, stats.interval, stats.ts - stats.lastTS,
-                8 * stats.interval / (stats.ts - stats.lastTS));
-            // publishQueueStats(stats);
-            stats.lastTS = stats.ts;
-          }
+        for (String key : listeners.keySet()) {
+          listeners.get(key).onBytes(buffer, 0, buffer.length);
+        }
+        int lastTotal = stats.total;
+        stats.total += buffer.length;
+        if (stats.total / stats.interval != lastTotal / stats.interval) {
+          stats.ts = System.currentTimeMillis();
+          log.info("===stats - dequeued total {} - {} bytes in {} ms {} Kbps", stats.total, stats.interval, stats.ts - stats.lastTS,
+              8 * stats.interval / Math.max(1, stats.ts - stats.lastTS));
+          // publishQueueStats(stats);
+          stats.lastTS = stats.ts;
         }
       } catch (Exception e) {
         log.error("serialEvent readBytes threw", e);
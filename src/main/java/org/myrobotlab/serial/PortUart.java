@@ -0,0 +1,194 @@
+package org.myrobotlab.serial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * In memory virtual serial port. Two PortUarts connected with a pair of
+ * SpscByteRings form a null modem cable - what one writes the other reads.
+ * Unlike PortQueue there is no per byte boxing or locking, bytes are moved in
+ * bulk.
+ *
+ * The rings can simulate the baud rate and latency of a real line - see
+ * setBaudRate, setLatency and setTimeScale.
+ *
+ * Closing a port only stops its own reader - the rings are shared with the
+ * other port of the pair and stay open, so either side can reconnect. Writes
+ * to a peer that stopped reading give up after writeTimeoutMs, the bytes that
+ * did not fit are dropped and counted as txErrors.
+ *
+ */
+public class PortUart extends Port {
+
+  public final static Logger log = LoggerFactory.getLogger(PortUart.class);
+
+  public final static int DEFAULT_CAPACITY = 64 * 1024;
+
+  final SpscByteRing in;
+  final SpscByteRing out;
+
+  /**
+   * bulk read buffer - read() is served from here so the ring is only touched
+   * once per chunk
+   */
+  final byte[] rxChunk = new byte[1024];
+  int rxPos = 0;
+  int rxLen = 0;
+
+  /**
+   * conversion buffer for write(int[]) - the ring has a single producer so the
+   * write methods are synchronized in case several threads share this port
+   */
+  final byte[] txChunk = new byte[1024];
+
+  /**
+   * how long a write waits for the peer to make room before dropping the rest
+   */
+  long writeTimeoutMs = 1000;
+
+  public PortUart(String portName, SpscByteRing in, SpscByteRing out) {
+    super(portName);
+    this.in = in;
+    this.out = out;
+  }
+
+  /**
+   * creates two connected ports
+   *
+   * @return [0] port a, [1] port b
+   */
+  static public PortUart[] createPair(String portA, String portB) {
+    return createPair(portA, portB, DEFAULT_CAPACITY);
+  }
+
+  static public PortUart[] createPair(String portA, String portB, int capacity) {
+    SpscByteRing left = new SpscByteRing(capacity);
+    SpscByteRing right = new SpscByteRing(capacity);
+    return new PortUart[] { new PortUart(portA, left, right), new PortUart(portB, right, left) };
+  }
+
+  public int available() throws IOException {
+    return (rxLen - rxPos) + in.available();
+  }
+
+  @Override
+  public List<String> getPortNames() {
+    return new ArrayList<String>();
+  }
+
+  @Override
+  public int read() throws IOException, InterruptedException {
+    if (rxPos == rxLen) {
+      int n = in.read(rxChunk, 0, rxChunk.length);
+      if (n < 0) {
+        return -1;
+      }
+      rxPos = 0;
+      rxLen = n;
+    }
+    return rxChunk[rxPos++] & 0xFF;
+  }
+
+  /**
+   * bulk read - blocks until at least one byte is available
+   */
+  public int read(byte[] data, int offset, int length) throws InterruptedException {
+    if (rxPos < rxLen) {
+      int n = Math.min(length, rxLen - rxPos);
+      System.arraycopy(rxChunk, rxPos, data, offset, n);
+      rxPos += n;
+      return n;
+    }
+    return in.read(data, offset, length);
+  }
+
+  public int read(byte[] data) throws InterruptedException {
+    return read(data, 0, data.length);
+  }
+
+  @Override
+  public boolean setParams(int rate, int dataBits, int stopBits, int parity) {
+    log.debug("setSerialPortParams {} {} {} {}", rate, dataBits, stopBits, parity);
+    this.rate = rate;
+    this.dataBits = dataBits;
+    this.stopBits = stopBits;
+    this.parity = parity;
+    return true;
+  }
+
+  @Override
+  synchronized public void write(int data) throws IOException {
+    txChunk[0] = (byte) data;
+    send(txChunk, 0, 1);
+  }
+
+  @Override
+  synchronized public void write(int[] data) throws IOException {
+    for (int i = 0; i < data.length; i += txChunk.length) {
+      int n = Math.min(txChunk.length, data.length - i);
+      for (int j = 0; j < n; ++j) {
+        txChunk[j] = (byte) data[i + j];
+      }
+      send(txChunk, 0, n);
+    }
+  }
+
+  public void write(byte[] data) throws IOException {
+    write(data, 0, data.length);
+  }
+
+  synchronized public void write(byte[] data, int offset, int length) throws IOException {
+    send(data, offset, length);
+  }
+
+  void send(byte[] data, int offset, int length) throws IOException {
+    try {
+      int n = out.write(data, offset, length, writeTimeoutMs);
+      if (n < length) {
+        txErrors += length - n;
+        log.warn("{} peer is not reading - dropped {} bytes, {} tx errors", portName, length - n, txErrors);
+      }
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+  public void setWriteTimeout(long writeTimeoutMs) {
+    this.writeTimeoutMs = writeTimeoutMs;
+  }
+
+  public int getTxErrors() {
+    return txErrors;
+  }
+
+  /**
+   * simulated line speed of what this port transmits - 0 is unthrottled
+   */
+  public void setBaudRate(int baudRate) {
+    out.setBaudRate(baudRate);
+  }
+
+  /**
+   * simulated latency of what this port transmits in micro seconds
+   */
+  public void setLatency(long latencyUs) {
+    out.setLatency(latencyUs);
+  }
+
+  /**
+   * 1.0 is real time - larger values run the simulated line faster
+   */
+  public void setTimeScale(double timeScale) {
+    out.setTimeScale(timeScale);
+  }
+
+  @Override
+  public boolean isHardware() {
+    return false;
+  }
+
+}
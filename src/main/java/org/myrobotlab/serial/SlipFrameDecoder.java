@@ -0,0 +1,105 @@
+package org.myrobotlab.serial;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * SLIP (RFC 1055) framing. Frames are terminated by END, END and ESC bytes
+ * inside the frame are escaped. Escapes are removed in place in the ring so
+ * the emitted frame is still a slice of the buffer. Empty frames (back to back
+ * END bytes) are ignored.
+ *
+ */
+public class SlipFrameDecoder extends FrameDecoder {
+
+  public final static int END = 0xC0;
+  public final static int ESC = 0xDB;
+  public final static int ESC_END = 0xDC;
+  public final static int ESC_ESC = 0xDD;
+
+  /**
+   * next unread raw position
+   */
+  long scanned;
+
+  /**
+   * end of the unescaped frame data - always &lt;= scanned
+   */
+  long written;
+
+  boolean escaped = false;
+
+  public SlipFrameDecoder(int maxFrameLength) {
+    super(maxFrameLength);
+  }
+
+  public SlipFrameDecoder(int maxFrameLength, FrameListener listener) {
+    this(maxFrameLength);
+    this.listener = listener;
+  }
+
+  @Override
+  protected void decode() {
+    long tail = ring.tail();
+    while (scanned < tail) {
+      int b = ring.get(scanned++);
+      if (escaped) {
+        escaped = false;
+        if (b == ESC_END) {
+          ring.set(written++, END);
+        } else if (b == ESC_ESC) {
+          ring.set(written++, ESC);
+        } else {
+          // protocol violation - keep the byte as RFC 1055 suggests
+          error();
+          ring.set(written++, b);
+        }
+      } else if (b == ESC) {
+        escaped = true;
+      } else if (b == END) {
+        int length = (int) (written - ring.head());
+        if (length > 0) {
+          if (length > maxFrameLength) {
+            error();
+          } else {
+            emit(ring.head(), length);
+          }
+        }
+        ring.skipTo(scanned);
+        written = scanned;
+      } else {
+        ring.set(written++, b);
+      }
+    }
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    scanned = ring.head();
+    written = scanned;
+    escaped = false;
+  }
+
+  /**
+   * @return a SLIP encoded frame with leading and trailing END
+   */
+  static public byte[] encode(byte[] data, int offset, int length) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length + 8);
+    out.write(END);
+    for (int i = offset; i < offset + length; ++i) {
+      int b = data[i] & 0xFF;
+      if (b == END) {
+        out.write(ESC);
+        out.write(ESC_END);
+      } else if (b == ESC) {
+        out.write(ESC);
+        out.write(ESC_ESC);
+      } else {
+        out.write(b);
+      }
+    }
+    out.write(END);
+    return out.toByteArray();
+  }
+
+}
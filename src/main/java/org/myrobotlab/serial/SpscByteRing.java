@@ -0,0 +1,337 @@
+package org.myrobotlab.serial;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free single producer single consumer byte ring. Exactly one thread may
+ * write and exactly one thread may read. Reads and writes are bulk array
+ * copies - there is no per byte boxing or locking.
+ *
+ * Optionally the ring simulates a physical line - each byte becomes visible to
+ * the reader only after it would have been clocked out at the configured baud
+ * rate (8N1 - 10 bits per byte) plus a fixed latency. A time scale greater
+ * than 1 runs the simulated line faster than real time.
+ *
+ */
+public class SpscByteRing {
+
+  final byte[] buffer;
+  final int mask;
+
+  /**
+   * consumer position
+   */
+  final AtomicLong head = new AtomicLong();
+
+  /**
+   * producer position
+   */
+  final AtomicLong tail = new AtomicLong();
+
+  // cached copies of the other side's position
+  long headCache = 0;
+  long tailCache = 0;
+
+  /**
+   * per byte visibility time - only allocated when the line is simulated
+   */
+  volatile long[] stamps;
+
+  long nsPerByte = 0;
+  long latencyNs = 0;
+  double timeScale = 1.0;
+  int baudRate = 0;
+  long latencyUs = 0;
+
+  /**
+   * simulated time the last written byte leaves the wire
+   */
+  long wire = 0;
+
+  volatile Thread parkedReader;
+  volatile Thread parkedWriter;
+
+  volatile boolean closed = false;
+
+  public SpscByteRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+    buffer = new byte[size];
+    mask = size - 1;
+  }
+
+  public int capacity() {
+    return buffer.length;
+  }
+
+  /**
+   * @param baudRate
+   *          simulated line speed, 0 for unthrottled
+   */
+  public void setBaudRate(int baudRate) {
+    this.baudRate = baudRate;
+    update();
+  }
+
+  /**
+   * @param latencyUs
+   *          fixed delay before a byte becomes readable, 0 for none
+   */
+  public void setLatency(long latencyUs) {
+    this.latencyUs = latencyUs;
+    update();
+  }
+
+  /**
+   * @param timeScale
+   *          1.0 is real time, 2.0 runs the simulated line twice as fast
+   */
+  public void setTimeScale(double timeScale) {
+    if (timeScale <= 0) {
+      throw new IllegalArgumentException("time scale must be positive");
+    }
+    this.timeScale = timeScale;
+    update();
+  }
+
+  public int getBaudRate() {
+    return baudRate;
+  }
+
+  public long getLatency() {
+    return latencyUs;
+  }
+
+  public double getTimeScale() {
+    return timeScale;
+  }
+
+  void update() {
+    nsPerByte = (baudRate > 0) ? (long) (10 * 1000000000.0 / baudRate / timeScale) : 0;
+    latencyNs = (long) (latencyUs * 1000 / timeScale);
+    if ((nsPerByte > 0 || latencyNs > 0) && stamps == null) {
+      stamps = new long[buffer.length];
+    }
+  }
+
+  boolean isSimulated() {
+    return nsPerByte > 0 || latencyNs > 0;
+  }
+
+  public int available() {
+    return (int) (tail.get() - head.get());
+  }
+
+  /**
+   * non blocking write
+   *
+   * @return number of bytes written - may be less than length if the ring is
+   *         full
+   */
+  public int offer(byte[] data, int offset, int length) {
+    long t = tail.get();
+    if (t + length - headCache > buffer.length) {
+      headCache = head.get();
+    }
+    int n = (int) Math.min(length, buffer.length - (t - headCache));
+    if (n <= 0) {
+      return 0;
+    }
+    int pos = (int) (t & mask);
+    int first = Math.min(n, buffer.length - pos);
+    System.arraycopy(data, offset, buffer, pos, first);
+    if (n > first) {
+      System.arraycopy(data, offset + first, buffer, 0, n - first);
+    }
+    long[] s = stamps;
+    if (s != null && isSimulated()) {
+      long now = System.nanoTime();
+      if (wire < now) {
+        wire = now;
+      }
+      for (int i = 0; i < n; ++i) {
+        wire += nsPerByte;
+        s[(int) ((t + i) & mask)] = wire + latencyNs;
+      }
+    }
+    // volatile store publishes the data to the reader - a full store (not
+    // lazySet) so the parked reader check below can not be reordered before it
+    tail.set(t + n);
+    Thread reader = parkedReader;
+    if (reader != null) {
+      LockSupport.unpark(reader);
+    }
+    return n;
+  }
+
+  /**
+   * blocking write - returns when all bytes are in the ring
+   */
+  public void write(byte[] data, int offset, int length) throws InterruptedException {
+    while (length > 0) {
+      int n = offer(data, offset, length);
+      offset += n;
+      length -= n;
+      if (length > 0) {
+        waitForSpace();
+      }
+    }
+  }
+
+  public void write(byte[] data) throws InterruptedException {
+    write(data, 0, data.length);
+  }
+
+  /**
+   * blocking write that gives up when the reader has not made any room for
+   * timeoutMs - a reader that went away must not hang the writer forever
+   *
+   * @return number of bytes written - less than length if the reader stalled
+   *         or the ring was closed
+   */
+  public int write(byte[] data, int offset, int length, long timeoutMs) throws InterruptedException {
+    int written = 0;
+    long deadline = System.nanoTime() + timeoutMs * 1000000;
+    while (written < length && !closed) {
+      int n = offer(data, offset + written, length - written);
+      if (n > 0) {
+        written += n;
+        deadline = System.nanoTime() + timeoutMs * 1000000;
+      } else if (System.nanoTime() - deadline >= 0) {
+        break;
+      } else {
+        waitForSpace();
+      }
+    }
+    return written;
+  }
+
+  // single byte scratch for each side
+  final byte[] single = new byte[1];
+  final byte[] singleRead = new byte[1];
+
+  public void write(int b) throws InterruptedException {
+    single[0] = (byte) b;
+    write(single, 0, 1);
+  }
+
+  /**
+   * non blocking read
+   *
+   * @return number of bytes read, 0 if none are available, -1 if the ring is
+   *         closed and empty
+   */
+  public int poll(byte[] data, int offset, int length) {
+    long h = head.get();
+    if (tailCache - h < length) {
+      tailCache = tail.get();
+    }
+    int n = (int) Math.min(length, tailCache - h);
+    if (n <= 0) {
+      return closed && tail.get() == h ? -1 : 0;
+    }
+    long[] s = stamps;
+    if (s != null) {
+      long now = System.nanoTime();
+      int visible = 0;
+      while (visible < n && s[(int) ((h + visible) & mask)] <= now) {
+        ++visible;
+      }
+      n = visible;
+      if (n == 0) {
+        return 0;
+      }
+    }
+    int pos = (int) (h & mask);
+    int first = Math.min(n, buffer.length - pos);
+    System.arraycopy(buffer, pos, data, offset, first);
+    if (n > first) {
+      System.arraycopy(buffer, 0, data, offset + first, n - first);
+    }
+    head.set(h + n);
+    Thread writer = parkedWriter;
+    if (writer != null) {
+      LockSupport.unpark(writer);
+    }
+    return n;
+  }
+
+  /**
+   * blocking bulk read
+   *
+   * @return number of bytes read (at least 1) or -1 if closed
+   */
+  public int read(byte[] data, int offset, int length) throws InterruptedException {
+    while (true) {
+      int n = poll(data, offset, length);
+      if (n != 0) {
+        return n;
+      }
+      waitForData();
+    }
+  }
+
+  public int read(byte[] data) throws InterruptedException {
+    return read(data, 0, data.length);
+  }
+
+  /**
+   * blocking single byte read
+   *
+   * @return unsigned byte or -1 if closed
+   */
+  public int read() throws InterruptedException {
+    int n = read(singleRead, 0, 1);
+    return (n < 0) ? -1 : singleRead[0] & 0xFF;
+  }
+
+  void waitForData() throws InterruptedException {
+    long waitNs = 100000;
+    long[] s = stamps;
+    long h = head.get();
+    if (s != null && tail.get() > h) {
+      // data is there but not yet visible on the simulated line
+      waitNs = Math.max(1000, s[(int) (h & mask)] - System.nanoTime());
+      LockSupport.parkNanos(this, waitNs);
+    } else {
+      parkedReader = Thread.currentThread();
+      if (tail.get() == h && !closed) {
+        LockSupport.parkNanos(this, waitNs);
+      }
+      parkedReader = null;
+    }
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  void waitForSpace() throws InterruptedException {
+    parkedWriter = Thread.currentThread();
+    if (tail.get() - head.get() >= buffer.length) {
+      LockSupport.parkNanos(this, 100000);
+    }
+    parkedWriter = null;
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (closed) {
+      throw new InterruptedException("ring closed");
+    }
+  }
+
+  /**
+   * readers get -1 once the remaining data has been drained
+   */
+  public void close() {
+    closed = true;
+    Thread reader = parkedReader;
+    if (reader != null) {
+      LockSupport.unpark(reader);
+    }
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+}
@@ -13,7 +13,6 @@ import java.util.Arrays;
 import java.util.Base64;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -26,6 +25,8 @@ import org.myrobotlab.arduino.BoardInfo;
 import org.myrobotlab.arduino.BoardType;
 import org.myrobotlab.arduino.DeviceSummary;
 import org.myrobotlab.arduino.Msg;
+import org.myrobotlab.arduino.PinArrayTracker;
+import org.myrobotlab.framework.MRLListener;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.framework.interfaces.Attachable;
 import org.myrobotlab.framework.interfaces.NameProvider;
@@ -40,8 +41,11 @@ import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.math.interfaces.Mapper;
 import org.myrobotlab.math.MapperLinear;
 import org.myrobotlab.sensor.EncoderData;
+import org.myrobotlab.serial.FrameListener;
+import org.myrobotlab.serial.MagicSizeFrameDecoder;
 import org.myrobotlab.service.abstracts.AbstractMicrocontroller;
 import org.myrobotlab.service.data.DeviceMapping;
+import org.myrobotlab.service.data.PinArray;
 import org.myrobotlab.service.data.PinData;
 import org.myrobotlab.service.data.SerialRelayData;
 import org.myrobotlab.service.interfaces.EncoderControl;
@@ -71,7 +75,7 @@ import org.slf4j.Logger;
 
 public class Arduino extends AbstractMicrocontroller
     implements I2CBusController, I2CController, SerialDataListener, ServoController, MotorController, NeoPixelController, UltrasonicSensorController, PortConnector, RecordControl,
-    /* SerialRelayListener, */PortListener, PortPublisher, EncoderController, PinArrayPublisher {
+    /* SerialRelayListener, */PortListener, PortPublisher, EncoderController, PinArrayPublisher, FrameListener {
 
   transient public final static Logger log = LoggerFactory.getLogger(Arduino.class);
 
@@ -170,7 +174,6 @@ public class Arduino extends AbstractMicrocontroller
 
   private long boardInfoRequestTs;
 
-  int byteCount;
   @Deprecated /*
                * should develop a MrlSerial on Arduinos and
                * Arduino.getSerial("s1")
@@ -209,6 +212,22 @@ public class Arduino extends AbstractMicrocontroller
 
   transient int[] ioCmd = new int[MAX_MSG_SIZE];
 
+  /**
+   * frames MAGIC_NUMBER|MSG_SIZE|PAYLOAD messages from the serial stream
+   */
+  transient MagicSizeFrameDecoder frameDecoder = new MagicSizeFrameDecoder(MAGIC_NUMBER, MAX_MSG_SIZE, this);
+
+  /**
+   * change detection for polled pins - see publishPinArrayDelta
+   */
+  transient PinArrayTracker pinArrayTracker = new PinArrayTracker();
+
+  /**
+   * change detection of the publishPinArrayDelta subscribers which set their
+   * own deadbands or thresholds - keyed by subscriber name
+   */
+  transient Map<String, PinArrayTracker> pinArrayTrackers = new ConcurrentHashMap<>();
+
   @Deprecated /*
                * use attachables like everything else - power mapping should be
                * inside the motorcontrol
@@ -217,8 +236,6 @@ public class Arduino extends AbstractMicrocontroller
 
   public transient Msg msg;
 
-  int msgSize;
-
   Integer nextDeviceId = 0;
 
   int numAck = 0;
@@ -1441,76 +1458,47 @@ public class Arduino extends AbstractMicrocontroller
   // FIXME - onByte(int[] data)
   @Override
   public Integer onByte(Integer newByte) {
-    try {
-      /**
-       * Archtype InputStream read - rxtxLib does not have this straightforward
-       * design, but the details of how it behaves is is handled in the Serial
-       * service and we are given a unified interface
-       *
-       * The "read()" is data taken from a blocking queue in the Serial service.
-       * If we want to support blocking functions in Arduino then we'll
-       * "publish" to our local queues
-       */
-      // TODO: consider reading more than 1 byte at a time ,and make this
-      // callback onBytes or something like that.
+    /**
+     * Archtype InputStream read - rxtxLib does not have this straightforward
+     * design, but the details of how it behaves is is handled in the Serial
+     * service and we are given a unified interface
+     *
+     * The "read()" is data taken from a blocking queue in the Serial service.
+     * Framing (MAGIC_NUMBER|MSG_SIZE|PAYLOAD) is done by the frame decoder
+     * which calls onFrame with a complete message
+     */
+    if (log.isDebugEnabled()) {
+      log.info("onByte {} \tbuffered \t{}", newByte, frameDecoder.getBuffered());
+    }
+    long errors = frameDecoder.getErrorCount();
+    frameDecoder.write(newByte);
+    if (frameDecoder.getErrorCount() > errors) {
+      warn(String.format("Arduino->MRL error - bad magic number or size %d - %d rx errors", newByte, ++errorServiceToHardwareRxCnt));
+    }
+    return newByte;
+  }
 
-      ++byteCount;
-      if (log.isDebugEnabled()) {
-        log.info("onByte {} \tbyteCount \t{}", newByte, byteCount);
-      }
-      if (byteCount == 1) {
-        if (newByte != MAGIC_NUMBER) {
-          byteCount = 0;
-          msgSize = 0;
-          Arrays.fill(ioCmd, 0); // FIXME - optimize - remove
-          warn(String.format("Arduino->MRL error - bad magic number %d - %d rx errors", newByte, ++errorServiceToHardwareRxCnt));
-          // dump.setLength(0);
-        }
-        return newByte;
-      } else if (byteCount == 2) {
-        // get the size of message
-        if (newByte > 64) {
-          byteCount = 0;
-          msgSize = 0;
-          error(String.format("Arduino->MRL error %d rx sz errors", ++errorServiceToHardwareRxCnt));
-          return newByte;
-        }
-        msgSize = newByte.intValue();
-        // dump.append(String.format("MSG|SZ %d", msgSize));
-      } else if (byteCount > 2) {
-        // remove header - fill msg data - (2) headbytes -1
-        // (offset)
-        // dump.append(String.format("|P%d %d", byteCount,
-        // newByte));
-        ioCmd[byteCount - 3] = newByte.intValue();
-      } else {
-        // the case where byteCount is negative?! not got.
-        error(String.format("Arduino->MRL error %d rx negsz errors", ++errorServiceToHardwareRxCnt));
-        return newByte;
+  /**
+   * a complete MrlComm message payload from the frame decoder
+   */
+  @Override
+  public void onFrame(byte[] frame, int offset, int length) {
+    try {
+      for (int i = 0; i < length; ++i) {
+        ioCmd[i] = frame[offset + i] & 0xFF;
       }
-      if (byteCount == 2 + msgSize) {
-        // we've received a full message
-
-        msg.processCommand(ioCmd);
+      Arrays.fill(ioCmd, length, ioCmd.length, 0);
 
-        // Our 'first' getBoardInfo may not receive a acknowledgement
-        // so this should be disabled until boadInfo is valid
+      msg.processCommand(ioCmd);
 
-        // clean up memory/buffers
-        msgSize = 0;
-        byteCount = 0;
-        Arrays.fill(ioCmd, 0); // optimize remove
-      }
+      // Our 'first' getBoardInfo may not receive a acknowledgement
+      // so this should be disabled until boadInfo is valid
     } catch (Exception e) {
       ++errorHardwareToServiceRxCnt;
       error("msg structure violation %d", errorHardwareToServiceRxCnt);
-      log.warn("msg_structure violation byteCount {} buffer {}", byteCount, Arrays.copyOf(ioCmd, byteCount));
-      // try again (clean up memory buffer)
-      msgSize = 0;
-      byteCount = 0;
+      log.warn("msg_structure violation size {} buffer {}", length, Arrays.copyOf(ioCmd, length));
       Logging.logError(e);
     }
-    return newByte;
   }
 
   @Override
@@ -1755,14 +1743,13 @@ public class Arduino extends AbstractMicrocontroller
   // < publishPinArray/[] data
   public PinData[] publishPinArray(int[] data) {
     log.debug("publishPinArray {}", data);
-    // if subscribers -
-    // look for subscribed pins and publish them
 
     int pinDataCnt = data.length / 3;
-    PinData[] pinArray = new PinData[pinDataCnt];
 
-    // parse sort reduce ...
-    for (int i = 0; i < pinArray.length; ++i) {
+    // one pass over the primitive data - the change tracker decides if
+    // anything is worth publishing this cycle
+    pinArrayTracker.begin();
+    for (int i = 0; i < pinDataCnt; ++i) {
       int address = data[3 * i];
       PinDefinition pinDef = getPin(address);
       if (pinDef == null) {
@@ -1770,12 +1757,31 @@ public class Arduino extends AbstractMicrocontroller
         continue;
       }
       int value = Serial.bytesToInt(data, (3 * i) + 1, 2);
-      PinData pinData = new PinData(pinDef.getPinName(), value);
       // update def with last value
       pinDef.setValue(value);
-      pinArray[i] = pinData;
+      pinArrayTracker.add(address, pinDef.getPinName(), value);
+    }
+    PinArray changed = pinArrayTracker.end();
+    publishPinArrayDeltas(changed);
+
+    // the PinData listeners and publishPinArray subscribers only hear about
+    // the pins which changed
+    boolean arraySubscribers = outbox.notifyList.containsKey("publishPinArray");
+    if (changed == null || (pinListeners.isEmpty() && pinArrayListeners.isEmpty() && !arraySubscribers)) {
+      return null;
+    }
+
+    PinData[] pinArray = new PinData[changed.getChangedCount()];
+    int n = 0;
+    for (int i = 0; i < changed.size; ++i) {
+      if (!changed.isChanged(i)) {
+        continue;
+      }
+      PinData pinData = new PinData(changed.pin[i], changed.value[i]);
+      pinArray[n++] = pinData;
 
       // handle individual pins
+      int address = changed.address[i];
       if (pinListeners.containsKey(address)) {
         Set<PinListener> set = pinListeners.get(address);
         for (PinListener pinListner : set) {
@@ -1788,38 +1794,148 @@ public class Arduino extends AbstractMicrocontroller
       }
     }
 
-    // TODO: improve this logic so it doesn't something more effecient.
-    HashMap<String, PinData> pinDataMap = new HashMap<String, PinData>();
-    for (int i = 0; i < pinArray.length; i++) {
-      if (pinArray[i] != null && pinArray[i].pin != null) {
-        pinDataMap.put(pinArray[i].pin, pinArray[i]);
-      }
-    }
-
     for (String name : pinArrayListeners.keySet()) {
-      // put the pin data into a map for quick lookup
       PinArrayListener pal = pinArrayListeners.get(name);
-      if (pal.getActivePins() != null && pal.getActivePins().length > 0) {
-        int numActive = pal.getActivePins().length;
-        PinData[] subArray = new PinData[numActive];
-        for (int i = 0; i < numActive; i++) {
-          String key = pal.getActivePins()[i];
-          if (pinDataMap.containsKey(key)) {
-            subArray[i] = pinDataMap.get(key);
-          } else {
-            subArray[i] = null;
+      String[] activePins = pal.getActivePins();
+      if (activePins != null && activePins.length > 0) {
+        // the current values of the pins the listener is asking for - if
+        // one of them changed
+        PinData[] subArray = new PinData[activePins.length];
+        boolean activeChanged = false;
+        for (int i = 0; i < activePins.length; i++) {
+          int index = indexOf(changed, activePins[i]);
+          if (index >= 0) {
+            subArray[i] = new PinData(changed.pin[index], changed.value[index]);
+            activeChanged |= changed.isChanged(index);
           }
         }
-        // only the values that the listener is asking for.
-        pal.onPinArray(subArray);
+        if (activeChanged) {
+          pal.onPinArray(subArray);
+        }
       } else {
-        // the full array
         pal.onPinArray(pinArray);
       }
     }
+
+    if (arraySubscribers) {
+      invoke("publishPinArray", new Object[] { pinArray });
+    }
     return pinArray;
   }
 
+  static int indexOf(PinArray pins, String pin) {
+    for (int i = 0; i < pins.size; ++i) {
+      if (pin.equals(pins.pin[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * subscribers without their own deadbands or thresholds share the default
+   * change set, the others get theirs from their own tracker
+   */
+  void publishPinArrayDeltas(PinArray changed) {
+    if (pinArrayTrackers.isEmpty()) {
+      if (changed != null) {
+        invoke("publishPinArrayDelta", changed);
+      }
+      return;
+    }
+    List<MRLListener> subscribers = outbox.notifyList.get("publishPinArrayDelta");
+    if (subscribers == null) {
+      return;
+    }
+    for (MRLListener listener : new ArrayList<MRLListener>(subscribers)) {
+      PinArrayTracker tracker = pinArrayTrackers.get(subscriberName(listener.callbackName));
+      PinArray pins = (tracker == null) ? changed : tracker.update(pinArrayTracker);
+      if (pins != null) {
+        send(listener.callbackName, listener.callbackMethod, pins);
+      }
+    }
+  }
+
+  static String subscriberName(String name) {
+    int at = name.indexOf('@');
+    return (at < 0) ? name : name.substring(0, at);
+  }
+
+  PinArrayTracker getPinArrayTracker(String subscriber) {
+    return pinArrayTrackers.computeIfAbsent(subscriberName(subscriber), k -> new PinArrayTracker());
+  }
+
+  PinDefinition getValidPin(String pin) {
+    PinDefinition pinDef = getPin(pin);
+    if (pinDef == null) {
+      log.error("{} is not a valid pin", pin);
+    }
+    return pinDef;
+  }
+
+  /**
+   * published once per poll cycle - only when at least one pin changed beyond
+   * the subscriber's deadband or crossed its threshold
+   * 
+   * @param pins
+   *          snapshot of all polled pins with the change mask set
+   * @return the snapshot
+   */
+  public PinArray publishPinArrayDelta(PinArray pins) {
+    return pins;
+  }
+
+  /**
+   * the pin is only reported to this publishPinArrayDelta subscriber when its
+   * value moved more than deadband from the last value reported to it
+   * 
+   * @param subscriber
+   *          name of the subscribing service
+   * @param pin
+   *          pin name e.g. A0
+   * @param deadband
+   *          0 reports every change
+   */
+  public void setPinDeadband(String subscriber, String pin, int deadband) {
+    PinDefinition pinDef = getValidPin(pin);
+    if (pinDef != null) {
+      getPinArrayTracker(subscriber).setDeadband(pinDef.getAddress(), deadband);
+    }
+  }
+
+  /**
+   * the pin is always reported to this publishPinArrayDelta subscriber when
+   * its value crosses the threshold
+   * 
+   * @param subscriber
+   *          name of the subscribing service
+   * @param pin
+   *          pin name e.g. A0
+   * @param threshold
+   *          the level
+   */
+  public void setPinThreshold(String subscriber, String pin, int threshold) {
+    PinDefinition pinDef = getValidPin(pin);
+    if (pinDef != null) {
+      getPinArrayTracker(subscriber).setThreshold(pinDef.getAddress(), threshold);
+    }
+  }
+
+  public void clearPinThreshold(String subscriber, String pin) {
+    PinDefinition pinDef = getValidPin(pin);
+    PinArrayTracker tracker = pinArrayTrackers.get(subscriberName(subscriber));
+    if (pinDef != null && tracker != null) {
+      tracker.clearThreshold(pinDef.getAddress());
+    }
+  }
+
+  /**
+   * the subscriber goes back to being told about every change
+   */
+  public void clearPinFilters(String subscriber) {
+    pinArrayTrackers.remove(subscriberName(subscriber));
+  }
+
   public List<String> publishPortNames(List<String> portNames) {
     return portNames;
   }
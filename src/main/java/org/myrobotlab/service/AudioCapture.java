@@ -42,15 +42,19 @@ import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.TargetDataLine;
 
+import org.myrobotlab.audio.VoiceActivityDetector;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.serial.SpscByteRing;
+import org.myrobotlab.service.data.AudioFrame;
 import org.slf4j.Logger;
 
 /**
@@ -87,6 +91,168 @@ public class AudioCapture extends Service {
   boolean bigEndian = false;
   // true,false
 
+  /**
+   * streaming mode - duration of the published frames
+   */
+  int frameMs = 20;
+
+  /**
+   * capacity of the capture ring - the microphone (and a file streamed in real
+   * time) never blocks, if the frame thread falls this far behind audio is
+   * dropped and counted in overruns. A file read at full speed waits for the
+   * frame thread instead, nothing is dropped.
+   */
+  int ringMs = 2000;
+
+  /**
+   * voice activity detection - utterances are published as single frames
+   */
+  boolean vad = true;
+  int preRollMs = 200;
+  int maxUtteranceMs = 15000;
+
+  public volatile boolean streaming = false;
+  volatile long overruns = 0;
+  volatile long frameCount = 0;
+
+  transient AudioFormat streamFormat;
+  transient SpscByteRing ring;
+  transient StreamThread streamThread;
+  transient FrameThread frameThread;
+  transient VoiceActivityDetector detector;
+
+  /**
+   * reads the microphone (or a wav file) into the ring
+   */
+  class StreamThread extends Thread {
+    TargetDataLine line;
+    AudioInputStream in;
+    boolean realTime;
+
+    StreamThread(TargetDataLine line, AudioInputStream in, boolean realTime) {
+      super(String.format("%s.stream", getName()));
+      this.line = line;
+      this.in = in;
+      this.realTime = realTime;
+    }
+
+    @Override
+    public void run() {
+      byte[] buffer = new byte[ring.capacity() / 8];
+      double nsPerByte = 1e9 / (streamFormat.getFrameRate() * streamFormat.getFrameSize());
+      long startNs = System.nanoTime();
+      long bytes = 0;
+      try {
+        while (streaming) {
+          int n = (line != null) ? line.read(buffer, 0, buffer.length) : in.read(buffer, 0, buffer.length);
+          if (n < 0) {
+            break;
+          }
+          if (line == null && !realTime) {
+            // a file is read as fast as it's processed
+            ring.write(buffer, 0, n);
+          } else {
+            int offered = ring.offer(buffer, 0, n);
+            if (offered < n) {
+              overruns += n - offered;
+            }
+          }
+          bytes += n;
+          if (realTime) {
+            long waitNs = startNs + (long) (bytes * nsPerByte) - System.nanoTime();
+            if (waitNs > 0) {
+              Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        log.info("{} interrupted", getName());
+      } catch (Exception e) {
+        error(e);
+      } finally {
+        try {
+          if (line != null) {
+            line.stop();
+            line.close();
+          }
+          if (in != null) {
+            in.close();
+          }
+        } catch (Exception e) {
+        }
+        // the frame thread drains what is left and ends
+        ring.close();
+      }
+    }
+  }
+
+  /**
+   * cuts the ring into frames, runs voice activity detection and publishes
+   */
+  class FrameThread extends Thread {
+
+    FrameThread() {
+      super(String.format("%s.frames", getName()));
+    }
+
+    @Override
+    public void run() {
+      int frameBytes = getFrameBytes();
+      byte[] frame = new byte[frameBytes];
+      long startTs = System.currentTimeMillis();
+      long seq = 0;
+      try {
+        while (true) {
+          int fill = 0;
+          while (fill < frameBytes) {
+            int n = ring.read(frame, fill, frameBytes - fill);
+            if (n < 0) {
+              break;
+            }
+            fill += n;
+          }
+          if (fill < frameBytes) {
+            break;
+          }
+
+          boolean ended = false;
+          if (detector != null) {
+            ended = detector.process(frame, 0);
+          }
+
+          // frames are only copied if someone is listening
+          if (outbox.notifyList.containsKey("publishAudioFrame")) {
+            AudioFrame audioFrame = new AudioFrame(startTs + seq * frameMs, seq, streamFormat.getSampleRate(), streamFormat.getChannels(), frame.clone());
+            if (detector != null) {
+              audioFrame.energy = detector.getEnergy();
+              audioFrame.zcr = detector.getZcr();
+              audioFrame.voiced = detector.isVoiced();
+            }
+            invoke("publishAudioFrame", audioFrame);
+          }
+
+          if (ended) {
+            long first = detector.getUtteranceStart();
+            AudioFrame utterance = new AudioFrame(startTs + first * frameMs, first, streamFormat.getSampleRate(), streamFormat.getChannels(), detector.getUtterance());
+            utterance.voiced = true;
+            invoke("publishUtterance", utterance);
+          }
+          ++seq;
+          ++frameCount;
+        }
+      } catch (InterruptedException e) {
+        log.info("{} interrupted", getName());
+      } catch (Exception e) {
+        error(e);
+      } finally {
+        streaming = false;
+        // a file reader waiting for space gives up
+        ring.close();
+        broadcastState();
+      }
+    }
+  }
+
   class CaptureThread extends Thread {
     // An arbitrary-size temporary holding
     // buffer
@@ -281,6 +447,131 @@ public class AudioCapture extends Service {
     } // end playAudio
   }
 
+  int getFrameBytes() {
+    return (int) (streamFormat.getSampleRate() * frameMs / 1000) * streamFormat.getFrameSize();
+  }
+
+  /**
+   * Streams the microphone into a fixed size ring. Fixed duration frames are
+   * published with publishAudioFrame and utterances segmented by voice
+   * activity detection with publishUtterance - memory use does not grow no
+   * matter how long it listens.
+   * 
+   * @throws LineUnavailableException
+   *           if the microphone can not be opened
+   */
+  public void startStreaming() throws LineUnavailableException {
+    AudioFormat format = getAudioFormat();
+    TargetDataLine line = AudioSystem.getTargetDataLine(format);
+    line.open(format);
+    line.start();
+    startStreaming(format, line, null, false);
+  }
+
+  /**
+   * streams a wav file as if it was the microphone
+   * 
+   * @param filename
+   *          the wav file
+   * @param realTime
+   *          if true frames are produced at the recording's rate, otherwise as
+   *          fast as possible
+   * @throws Exception
+   *           on read error
+   */
+  public void streamFile(String filename, boolean realTime) throws Exception {
+    AudioInputStream in = AudioSystem.getAudioInputStream(new File(filename));
+    AudioFormat format = in.getFormat();
+    if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) || format.getSampleSizeInBits() != 16 || format.isBigEndian()) {
+      format = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+      in = AudioSystem.getAudioInputStream(format, in);
+    }
+    startStreaming(format, null, in, realTime);
+  }
+
+  synchronized void startStreaming(AudioFormat format, TargetDataLine line, AudioInputStream in, boolean realTime) {
+    if (streaming) {
+      stopStreaming();
+    }
+    streamFormat = format;
+    int frameBytes = getFrameBytes();
+    ring = new SpscByteRing((int) (format.getSampleRate() * ringMs / 1000) * format.getFrameSize());
+    detector = (vad) ? new VoiceActivityDetector(frameBytes, preRollMs / frameMs, maxUtteranceMs / frameMs) : null;
+    overruns = 0;
+    frameCount = 0;
+    streaming = true;
+    streamThread = new StreamThread(line, in, realTime);
+    frameThread = new FrameThread();
+    frameThread.start();
+    streamThread.start();
+    broadcastState();
+  }
+
+  public synchronized void stopStreaming() {
+    streaming = false;
+    try {
+      if (streamThread != null) {
+        streamThread.join(1000);
+      }
+      if (frameThread != null) {
+        frameThread.join(1000);
+      }
+    } catch (InterruptedException e) {
+    }
+    streamThread = null;
+    frameThread = null;
+    broadcastState();
+  }
+
+  /**
+   * waits for a streamed file to be completely processed
+   * 
+   * @throws InterruptedException
+   */
+  public void waitForStream() throws InterruptedException {
+    FrameThread t = frameThread;
+    if (t != null) {
+      t.join();
+    }
+  }
+
+  public AudioFrame publishAudioFrame(AudioFrame frame) {
+    return frame;
+  }
+
+  public AudioFrame publishUtterance(AudioFrame utterance) {
+    return utterance;
+  }
+
+  public void setFrameMs(int frameMs) {
+    this.frameMs = frameMs;
+  }
+
+  public void setVad(boolean vad) {
+    this.vad = vad;
+  }
+
+  public VoiceActivityDetector getVoiceActivityDetector() {
+    return detector;
+  }
+
+  /**
+   * @return number of bytes dropped because the frame thread fell behind
+   */
+  public long getOverruns() {
+    return overruns;
+  }
+
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  @Override
+  public void stopService() {
+    stopStreaming();
+    super.stopService();
+  }
+
   public ByteArrayOutputStream publishCapture() {
     return byteArrayOutputStream;
   }
@@ -28,10 +28,17 @@ package org.myrobotlab.service;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.myrobotlab.audio.AudioMixer;
 import org.myrobotlab.audio.AudioProcessor;
+import org.myrobotlab.audio.AudioSink;
+import org.myrobotlab.audio.FileSink;
+import org.myrobotlab.audio.LineSink;
+import org.myrobotlab.audio.NullSink;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.image.Util;
@@ -94,6 +101,27 @@ public class AudioFile extends Service {
   // if set to true, playback will become a no-op
   private boolean mute = false;
 
+  /**
+   * if true all tracks are mixed in software onto a single output line instead
+   * of each track opening its own line
+   */
+  boolean mixing = false;
+
+  /**
+   * tracks which lower the volume of the other tracks while they play (e.g.
+   * speech over music)
+   */
+  Set<String> duckingTracks = new HashSet<String>();
+
+  double duckGain = 0.3;
+
+  /**
+   * mixer output - "line", "null" or the name of a wav file
+   */
+  String sink = "line";
+
+  transient AudioMixer mixer = null;
+
   public AudioFile(String n, String id) {
     super(n, id);
   }
@@ -117,6 +145,9 @@ public class AudioFile extends Service {
       p.stopPlaying();
       p.interrupt();
     }
+    if (mixer != null) {
+      mixer.stop();
+    }
   }
 
   // TODO test with jar://resource/AudioFile/tick.mp3 & https://host/mp3 :
@@ -504,6 +535,89 @@ public class AudioFile extends Service {
     file.delete();
   }
 
+  /**
+   * mix all tracks in software onto one output line
+   * 
+   * @param b
+   */
+  public void setMixing(boolean b) {
+    mixing = b;
+    if (!b && mixer != null) {
+      mixer.stop();
+      mixer = null;
+    }
+    broadcastState();
+  }
+
+  public boolean isMixing() {
+    return mixing;
+  }
+
+  synchronized public AudioMixer getMixer() {
+    if (mixer == null) {
+      mixer = new AudioMixer();
+      mixer.setSink(createSink(sink));
+      mixer.setDuckGain(duckGain);
+    }
+    mixer.start();
+    return mixer;
+  }
+
+  AudioSink createSink(String sink) {
+    if (sink == null || "line".equals(sink)) {
+      return new LineSink();
+    } else if ("null".equals(sink)) {
+      return new NullSink(true);
+    }
+    return new FileSink(sink);
+  }
+
+  /**
+   * set the mixer output
+   * 
+   * @param sink
+   *          "line" for the sound card, "null" to discard the audio or a wav
+   *          filename to record it
+   */
+  public void setSink(String sink) {
+    this.sink = sink;
+    if (mixer != null) {
+      mixer.setSink(createSink(sink));
+    }
+    broadcastState();
+  }
+
+  /**
+   * a ducking track lowers the volume of all other tracks while it plays
+   * 
+   * @param track
+   * @param b
+   */
+  public void setDucking(String track, boolean b) {
+    if (b) {
+      duckingTracks.add(track);
+    } else {
+      duckingTracks.remove(track);
+    }
+    broadcastState();
+  }
+
+  public boolean isDucking(String track) {
+    return duckingTracks.contains(track);
+  }
+
+  /**
+   * @param gain
+   *          gain of the other tracks while a ducking track plays
+   */
+  public void setDuckGain(double gain) {
+    duckGain = gain;
+    if (mixer != null) {
+      mixer.setDuckGain(gain);
+    }
+    broadcastState();
+  }
+
   public boolean isMute() {
     return mute;
   }
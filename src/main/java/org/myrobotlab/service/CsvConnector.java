@@ -1,13 +1,20 @@
 package org.myrobotlab.service;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.myrobotlab.document.Document;
 import org.myrobotlab.document.connector.AbstractConnector;
+import org.myrobotlab.document.connector.Checkpoint;
 import org.myrobotlab.document.connector.ConnectorState;
+import org.myrobotlab.document.connector.CsvChunks;
 import org.myrobotlab.document.transformer.ConnectorConfig;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.string.StringUtil;
@@ -26,6 +33,15 @@ public class CsvConnector extends AbstractConnector {
   private boolean useRowAsId = true;
   private int skipRows = 1;
   private boolean firstRowAsColumns = false;
+  // the file is split into chunks of records parsed on numThreads threads
+  private int numThreads = java.lang.Runtime.getRuntime().availableProcessors();
+  private long chunkSize = 16 * 1024 * 1024;
+  private transient boolean[] completed;
+  private transient int nextIncomplete;
+
+  // opencsv defaults
+  static final char QUOTE = '"';
+  static final char ESCAPE = '\\';
 
   public CsvConnector(String name, String id) {
     super(name, id);
@@ -49,6 +65,7 @@ public class CsvConnector extends AbstractConnector {
     useRowAsId = config.getBoolParam("useRowAsId", useRowAsId);
     skipRows = config.getIntegerParam("skipRows", skipRows);
     firstRowAsColumns = config.getBoolParam("firstRowAsColumns", firstRowAsColumns);
+    numThreads = config.getIntegerParam("numThreads", numThreads);
   }
 
   public void initialize() {
@@ -87,39 +104,96 @@ public class CsvConnector extends AbstractConnector {
       return;
     }
 
-    FileReader reader = null;
+    char sep = separator.charAt(0);
+    long offset = 0;
+    long firstRecord = 0;
+    List<CsvChunks.Chunk> chunks;
     try {
-      reader = new FileReader(fileToCrawl);
-    } catch (FileNotFoundException e) {
-      // This should not happen
-      e.printStackTrace();
+      if (firstRowAsColumns) {
+        // we should read the first row as the column header
+        offset = CsvChunks.recordEnd(fileToCrawl, 0, sep, QUOTE, ESCAPE);
+        CSVReader header = new CSVReader(new InputStreamReader(CsvChunks.open(fileToCrawl, 0, offset), Charset.defaultCharset()), sep);
+        columns = header.readNext();
+        header.close();
+      }
+      // pick out which column has the primary key / id field.
+      initialize();
+
+      // resume after the last checkpointed record
+      Checkpoint cp = openCheckpoint(fileToCrawl.getAbsolutePath());
+      if (cp != null && cp.get("offset") != null) {
+        offset = cp.getLong("offset", offset);
+        firstRecord = cp.getLong("record", 0);
+        log.info("resuming crawl of {} at byte {} record {}", filename, offset, firstRecord);
+      }
+      chunks = CsvChunks.split(fileToCrawl, offset, firstRecord, chunkSize, sep, QUOTE, ESCAPE);
+    } catch (IOException e) {
+      log.error("IO Exception reading {}", filename, e);
+      state = ConnectorState.STOPPED;
+      return;
+    }
+
+    // chunks are parsed in parallel - the checkpoint advances past the
+    // chunks which are done, in order
+    long start = System.currentTimeMillis();
+    completed = new boolean[chunks.size()];
+    nextIncomplete = 0;
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (CsvChunks.Chunk chunk : chunks) {
+      results.add(pool.submit(() -> crawlChunk(fileToCrawl, chunk, sep, chunks)));
     }
-    CSVReader csvReader = new CSVReader(reader, separator.charAt(0));
-    if (firstRowAsColumns) {
-      // we should read the first row as the column header
+    boolean done = true;
+    for (Future<Boolean> result : results) {
       try {
-        columns = csvReader.readNext();
-      } catch (IOException e) {
+        done &= result.get();
+      } catch (Exception e) {
+        log.error("crawling {} failed", filename, e);
+        done = false;
+      }
+    }
+    pool.shutdown();
+    log.info("crawled {} chunks of {} in {} ms", chunks.size(), filename, System.currentTimeMillis() - start);
+
+    // Lets poll until our outbox has been completely picked up.
+    while (outbox.size() > 0) {
+      // wait until our outbox has drained before going to stopped?
+      try {
+        log.info("Waiting for outbox to drain. Size: {}", outbox.size());
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
         // TODO Auto-generated catch block
         e.printStackTrace();
       }
     }
-    // pick out which column has the primary key / id field.
-    initialize();
 
-    int rowNum = 0;
-    String[] nextLine;
+    if (done) {
+      clearCheckpoint();
+    } else {
+      log.info("Crawl interrupted, stopping crawl.");
+      saveCheckpoint(true);
+    }
+    // TODO: why the heck does this not block until we're done as we expect?!?!
+    state = (done) ? ConnectorState.STOPPED : ConnectorState.INTERRUPTED;
+    flush();
+    // TODO: push this state management to the base class?
 
-    try {
+  }
 
+  /**
+   * @return true if the whole chunk was fed
+   */
+  private boolean crawlChunk(File file, CsvChunks.Chunk chunk, char sep, List<CsvChunks.Chunk> chunks) throws IOException {
+    long rowNum = chunk.firstRecord;
+    String[] nextLine;
+    CSVReader csvReader = new CSVReader(new InputStreamReader(CsvChunks.open(file, chunk), Charset.defaultCharset()), sep);
+    try {
       while ((nextLine = csvReader.readNext()) != null) {
         // TODO: replace this with connector state, and make private isRunning
         // again.
         if (!state.equals(ConnectorState.RUNNING)) {
           // we've been interrupted.
-          log.info("Crawl interrupted, stopping crawl.");
-          state = ConnectorState.INTERRUPTED;
-          break;
+          return false;
         }
         rowNum++;
         if (rowNum <= skipRows) {
@@ -132,7 +206,7 @@ public class CsvConnector extends AbstractConnector {
           id = getDocIdPrefix() + nextLine[idColumn];
         }
         Document docToSend = new Document(id);
-        for (int i = 0; i < numFields; i++) {
+        for (int i = 0; i < numFields && i < nextLine.length; i++) {
           String v = nextLine[i];
           if (!StringUtil.isEmpty(v)) {
             docToSend.addToField(columns[i], v);
@@ -140,31 +214,28 @@ public class CsvConnector extends AbstractConnector {
         }
         feed(docToSend);
       }
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      // shouldn't see this.. but who knows.
-      e.printStackTrace();
-      log.error("IO Exception during crawl. {}", e.getMessage());
-      // TODO: re-throw something else?
+    } finally {
+      csvReader.close();
     }
+    chunkComplete(chunk, chunks);
+    return true;
+  }
 
-    // Lets poll until our outbox has been completely picked up.
-    while (outbox.size() > 0) {
-      // wait until our outbox has drained before going to stopped?
-      try {
-        log.info("Waiting for outbox to drain. Size: {}", outbox.size());
-        Thread.sleep(10);
-      } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
+  private synchronized void chunkComplete(CsvChunks.Chunk chunk, List<CsvChunks.Chunk> chunks) {
+    completed[chunk.index] = true;
+    if (checkpoint == null) {
+      return;
+    }
+    boolean advanced = false;
+    while (nextIncomplete < chunks.size() && completed[nextIncomplete]) {
+      CsvChunks.Chunk done = chunks.get(nextIncomplete++);
+      checkpoint.put("offset", done.end);
+      checkpoint.put("record", done.firstRecord + done.records);
+      advanced = true;
+    }
+    if (advanced) {
+      saveCheckpoint(false);
     }
-
-    // TODO: why the heck does this not block until we're done as we expect?!?!
-    state = ConnectorState.STOPPED;
-    flush();
-    // TODO: push this state management to the base class?
-
   }
 
   @Override
@@ -213,6 +284,22 @@ public class CsvConnector extends AbstractConnector {
     this.numFields = numFields;
   }
 
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+  }
+
+  public long getChunkSize() {
+    return chunkSize;
+  }
+
+  public void setChunkSize(long chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
   public int getIdColumn() {
     return idColumn;
   }
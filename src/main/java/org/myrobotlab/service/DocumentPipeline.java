@@ -7,6 +7,7 @@ import org.myrobotlab.document.ProcessingStatus;
 import org.myrobotlab.document.connector.ConnectorState;
 import org.myrobotlab.document.transformer.StageConfiguration;
 import org.myrobotlab.document.transformer.WorkflowConfiguration;
+import org.myrobotlab.document.workflow.StageStats;
 import org.myrobotlab.document.workflow.WorkflowMessage;
 import org.myrobotlab.document.workflow.WorkflowServer;
 import org.myrobotlab.framework.Service;
@@ -21,6 +22,8 @@ public class DocumentPipeline extends Service implements DocumentListener, Docum
   private WorkflowConfiguration config;
   private transient WorkflowServer workflowServer;
   private String workflowName = "default";
+  // how often stage stats of a staged workflow are published
+  private int statsIntervalMs = 5000;
 
   public DocumentPipeline(String n, String id) {
     super(n, id);
@@ -97,7 +100,26 @@ public class DocumentPipeline extends Service implements DocumentListener, Docum
     log.info("outbox size is {}", getOutbox().size());
     workflowServer.flush(workflowName);
     // TODO: what if our inbox isn't empty?
+    publishStats();
+  }
+
+  public List<StageStats> getStageStats() {
+    return workflowServer.getStageStats(workflowName);
+  }
+
+  public List<StageStats> publishStageStats(List<StageStats> stats) {
+    return stats;
+  }
 
+  public void publishStats() {
+    if (workflowServer == null || !config.isStaged()) {
+      return;
+    }
+    invoke("publishStageStats", getStageStats());
+  }
+
+  public void setStatsIntervalMs(int statsIntervalMs) {
+    this.statsIntervalMs = statsIntervalMs;
   }
 
   public static void main(String[] args) throws Exception {
@@ -153,6 +175,10 @@ public class DocumentPipeline extends Service implements DocumentListener, Docum
     // We can't drop messages! apply back pressure if the inbox is full!
     this.inbox.setBlocking(true);
 
+    if (config.isStaged()) {
+      addTask(statsIntervalMs, "publishStats");
+    }
+
   }
 
   // TODO: put this on a base class or something?
@@ -172,6 +198,7 @@ public class DocumentPipeline extends Service implements DocumentListener, Docum
   public boolean onFlush() {
     // here we need to pass a flush message to the workflow server
     workflowServer.flush(workflowName);
+    publishStats();
     return true;
   }
 
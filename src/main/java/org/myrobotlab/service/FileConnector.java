@@ -3,14 +3,18 @@ package org.myrobotlab.service;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.myrobotlab.document.Document;
 import org.myrobotlab.document.connector.AbstractConnector;
+import org.myrobotlab.document.connector.Checkpoint;
 import org.myrobotlab.document.connector.ConnectorState;
+import org.myrobotlab.document.connector.ParallelFileWalker;
 import org.myrobotlab.document.transformer.ConnectorConfig;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.logging.LoggerFactory;
@@ -24,7 +28,11 @@ public class FileConnector extends AbstractConnector implements DocumentPublishe
   private String directory;
   // TODO: add wildcard includes/excludes
   // TODO: add file path includes/excludes
-  private boolean interrupted = false;
+  private volatile boolean interrupted = false;
+  // directories are walked in parallel on a work stealing pool
+  private int numThreads = java.lang.Runtime.getRuntime().availableProcessors();
+  // checkpoint keys of the directories completely crawled
+  static final String COMPLETE = "complete.";
 
   public FileConnector(String name, String id) {
     super(name, id);
@@ -39,16 +47,49 @@ public class FileConnector extends AbstractConnector implements DocumentPublishe
   @Override
   public void startCrawling() {
     state = ConnectorState.RUNNING;
-    Path startPath = Paths.get(directory);
-    try {
-      Files.walkFileTree(startPath, this);
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    interrupted = false;
+    Path startPath = Paths.get(directory).toAbsolutePath().normalize();
+
+    // an interrupted crawl resumes past the directories it completed - files
+    // of directories it was in the middle of are fed again
+    Set<Path> complete = ConcurrentHashMap.newKeySet();
+    Checkpoint cp = openCheckpoint(startPath.toString());
+    if (cp != null) {
+      for (String dir : cp.keys(COMPLETE)) {
+        complete.add(Paths.get(dir));
+      }
+      if (complete.size() > 0) {
+        log.info("resuming crawl of {} - skipping {} completed directories", startPath, complete.size());
+      }
+    }
+
+    long start = System.currentTimeMillis();
+    boolean done = new ParallelFileWalker(numThreads).walk(startPath, complete, new ParallelFileWalker.Visitor() {
+      @Override
+      public boolean isRunning() {
+        return !interrupted && ConnectorState.RUNNING.equals(state);
+      }
+
+      @Override
+      public void visitFile(Path file, BasicFileAttributes attrs) {
+        feedFile(file, attrs);
+      }
+
+      @Override
+      public void directoryComplete(Path dir, List<Path> subdirs) {
+        markComplete(dir, subdirs);
+      }
+    });
+    if (done) {
+      log.info("File Connector finished walking the tree in {} ms.", System.currentTimeMillis() - start);
+      clearCheckpoint();
+      // TODO: should we flush here immediately?
+      state = ConnectorState.STOPPED;
+    } else {
+      log.info("File Connector interrupted after {} ms.", System.currentTimeMillis() - start);
+      saveCheckpoint(true);
+      state = ConnectorState.INTERRUPTED;
     }
-    log.info("File Connector finished walking the tree.");
-    // TODO: should we flush here immediately?
-    state = ConnectorState.STOPPED;
   }
 
   @Override
@@ -62,12 +103,29 @@ public class FileConnector extends AbstractConnector implements DocumentPublishe
     return FileVisitResult.CONTINUE;
   }
 
+  private void markComplete(Path dir, List<Path> subdirs) {
+    if (checkpoint == null) {
+      return;
+    }
+    // the directory covers its sub directories from now on
+    for (Path subdir : subdirs) {
+      checkpoint.remove(COMPLETE + subdir);
+    }
+    checkpoint.put(COMPLETE + dir, 1);
+    saveCheckpoint(false);
+  }
+
   @Override
   public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
     if (interrupted) {
       state = ConnectorState.INTERRUPTED;
       return FileVisitResult.TERMINATE;
     }
+    feedFile(file, attrs);
+    return FileVisitResult.CONTINUE;
+  }
+
+  private void feedFile(Path file, BasicFileAttributes attrs) {
     String docId = getDocIdPrefix() + file.toFile().getAbsolutePath();
     Document doc = new Document(docId);
     doc.setField("last_modified", attrs.lastModifiedTime());
@@ -77,7 +135,6 @@ public class FileConnector extends AbstractConnector implements DocumentPublishe
     // TODO: potentially add a byte array of the file
     // or maybe an input stream or other handle to the file.
     feed(doc);
-    return FileVisitResult.CONTINUE;
   }
 
   @Override
@@ -102,6 +159,14 @@ public class FileConnector extends AbstractConnector implements DocumentPublishe
     this.directory = directory;
   }
 
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+  }
+
   /**
    * This static method returns all the details of the class without it having
    * to be constructed. It has description, categories, dependencies, and peer
@@ -1,6 +1,5 @@
 package org.myrobotlab.service;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Comparator;
@@ -14,6 +13,8 @@ import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.serial.DelimiterFrameDecoder;
+import org.myrobotlab.serial.FrameListener;
 import org.myrobotlab.service.interfaces.SerialDataListener;
 import org.myrobotlab.service.interfaces.SerialDevice;
 import org.slf4j.Logger;
@@ -38,7 +39,7 @@ import org.slf4j.Logger;
  * wandered into our out of a fenced area.
  *
  */
-public class Gps extends Service implements SerialDataListener {
+public class Gps extends Service implements SerialDataListener, FrameListener {
 
   /***********************************************************************************
    * This block of methods will be used to GeoFencing This code is based on the
@@ -155,7 +156,7 @@ public class Gps extends Service implements SerialDataListener {
 
   public static final String GEOID_SEPARATION_KEY = "GEOID_SEPARATION_KEY";
 
-  transient public ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  transient DelimiterFrameDecoder frameDecoder = new DelimiterFrameDecoder(0x0a, 1024, true, this);
 
   String model;
 
@@ -195,72 +196,63 @@ public class Gps extends Service implements SerialDataListener {
 
   @Override
   public Integer onByte(Integer b) throws IOException {
+    // GPS strings end with /CR /LF = 0x0d 0x0a
+    frameDecoder.write(b);
+    return b;
+  }
 
+  /**
+   * a complete NMEA sentence (including the trailing /CR /LF) from the frame
+   * decoder
+   */
+  @Override
+  public void onFrame(byte[] frame, int offset, int length) {
     try {
-      // log.info("byteReceived Index = " + index + " actual data byte = "
-      // + String.format("%02x", b));
-      buffer.write(b);
-      // so a byte was appended
-      // now depending on what model it was and
-      // what stage of initialization we do that funky stuff
-      if (b == 0x0a) { // GPS strings end with /CR /LF = 0x0d 0x0a
-
-        // log.info("Buffer size = " + buffer.size() + " Buffer = " +
-        // buffer.toString());
-        buffer.flush(); // flush entire buffer so I can convert it to a
-        // byte array
-        // message = buffer.toByteArray();
-        messageString = new String(buffer.toByteArray(), ("UTF-8"));
-        // log.info("size of message = " + message.length);
-
-        if (messageString.contains("GGA")) {
-          log.info("GGA string detected");
-          invoke("publishGGAData");
-        } else if (messageString.contains("RMC")) {
-          log.info("RMC string detected");
-          invoke("publishRMCData");
-        } else if (messageString.contains("VTG")) {
-          log.info("VTG string detected");
-          invoke("publishVTGData");
-        } else if (messageString.contains("GSA")) {
-          log.info("GSA string detected");
-          invoke("publishGSAData");
-        } else if (messageString.contains("GSV")) {
-          log.info("GSV string detected");
-          invoke("publishGSVData");
-        } else if (messageString.contains("GLL")) {
-          log.info("GLL string detected");
-          invoke("publishGLLData");
-        } else if (messageString.contains("ZDA")) {
-          log.info("ZDA string detected");
-          invoke("publishZDAData");
-        } else if (messageString.contains("MSS")) {
-          log.info("MSS string detected");
-          invoke("publishMSSData");
-        } else if (messageString.contains("POLYN")) // San Jose
-        // navigation FV-M8
-        // specific?
-        {
-          log.info("POLYN string detected");
-          // invoke("publishPOLYNData");
-        } else if (messageString.contains("PMTK101")) {
-          log.info("Hot Restart string detected");
-          // invoke("publishMTKData");
-        } else if (messageString.contains("PMTK010, 001")) {
-          log.info("Startup string detected");
-          // invoke("publishMTKData");
-        } else {
-          log.info("unknown string detected");
-        }
-        buffer.reset();
+      messageString = new String(frame, offset, length, "UTF-8");
+
+      if (messageString.contains("GGA")) {
+        log.info("GGA string detected");
+        invoke("publishGGAData");
+      } else if (messageString.contains("RMC")) {
+        log.info("RMC string detected");
+        invoke("publishRMCData");
+      } else if (messageString.contains("VTG")) {
+        log.info("VTG string detected");
+        invoke("publishVTGData");
+      } else if (messageString.contains("GSA")) {
+        log.info("GSA string detected");
+        invoke("publishGSAData");
+      } else if (messageString.contains("GSV")) {
+        log.info("GSV string detected");
+        invoke("publishGSVData");
+      } else if (messageString.contains("GLL")) {
+        log.info("GLL string detected");
+        invoke("publishGLLData");
+      } else if (messageString.contains("ZDA")) {
+        log.info("ZDA string detected");
+        invoke("publishZDAData");
+      } else if (messageString.contains("MSS")) {
+        log.info("MSS string detected");
+        invoke("publishMSSData");
+      } else if (messageString.contains("POLYN")) // San Jose
+      // navigation FV-M8
+      // specific?
+      {
+        log.info("POLYN string detected");
+        // invoke("publishPOLYNData");
+      } else if (messageString.contains("PMTK101")) {
+        log.info("Hot Restart string detected");
+        // invoke("publishMTKData");
+      } else if (messageString.contains("PMTK010, 001")) {
+        log.info("Startup string detected");
+        // invoke("publishMTKData");
+      } else {
+        log.info("unknown string detected");
       }
 
     } catch (Exception e) {
       error(e.getMessage());
     }
-
-    return b;
-
   }
 
   public double calculateDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
@@ -972,6 +972,8 @@ public class InMoov2 extends Service implements TextListener, TextPublisher, Joy
 	}
 
 	public OpenCVData onOpenCVData(OpenCVData data) {
+		// nothing keeps it - the reference it was handed goes back
+		data.release();
 		return data;
 	}
 
@@ -1071,15 +1071,8 @@ public class JMonkeyEngine extends Service implements Gateway, ServoController,
 
   public void initPointCloud(PointCloud pc) {
 
-    Point3df[] points = pc.getData();
-    Vector3f[] lineVerticies = new Vector3f[points.length];
-
-    for (int i = 0; i < points.length; ++i) {
-      Point3df p = points[i];
-      lineVerticies[i] = new Vector3f(p.x, p.y, p.z);
-    }
-
-    pointCloudBuffer = BufferUtils.createFloatBuffer(lineVerticies);
+    pointCloudBuffer = BufferUtils.createFloatBuffer(pc.size() * 3);
+    putPointCloud(pc);
 
     // pointCloudMesh.setMode(Mesh.Mode.TriangleFan);
     pointCloudMesh.setMode(Mesh.Mode.Points);
@@ -1088,7 +1081,9 @@ public class JMonkeyEngine extends Service implements Gateway, ServoController,
 
     // https://hub.jmonkeyengine.org/t/how-to-render-a-3d-point-cloud/27341/11
     pointCloudMesh.setBuffer(VertexBuffer.Type.Position, 3, pointCloudBuffer);
-    pointCloudMesh.setBuffer(VertexBuffer.Type.Color, 4, pc.getColors());
+    if (pc.getColors() != null) {
+      pointCloudMesh.setBuffer(VertexBuffer.Type.Color, 4, pc.getColors());
+    }
     pointCloudMesh.updateBound();
     pointCloudMesh.updateCounts();
     // pointCloudMesh.setPointSize(0.0003);
@@ -1429,6 +1424,7 @@ public class JMonkeyEngine extends Service implements Gateway, ServoController,
   public void onCvData(CvData data) {
     // onPointCloud(data.getPointCloud()); FIXME - brittle and not correct
     // FIXME - do something interesting ... :)
+    data.release();
   }
 
   public void onPointCloud(PointCloud pc) {
@@ -1444,22 +1440,42 @@ public class JMonkeyEngine extends Service implements Gateway, ServoController,
       // addBox("box-1");
     }
 
-    pointCloudBuffer.rewind();
-    Point3df[] points = pc.getData();
-
-    for (int i = 0; i < points.length; ++i) {
-      Point3df p = points[i];
-      // log.info("p {}", p);
-      // pointCloudBuffer.put(480 - p.y);
-      // pointCloudBuffer.put(640 - p.x);
-      pointCloudBuffer.put(p.x);
-      pointCloudBuffer.put(p.y);
-      pointCloudBuffer.put(p.z);
-      // lineVerticies[index] = new Vector3f(480 - p.y, 640 - p.x, p.z);
+    // downsampled clouds change size
+    if (pointCloudBuffer.capacity() < pc.size() * 3) {
+      pointCloudBuffer = BufferUtils.createFloatBuffer(pc.size() * 3);
     }
+    putPointCloud(pc);
 
     pointCloudMesh.setBuffer(VertexBuffer.Type.Position, 3, pointCloudBuffer);
-    pointCloudMesh.setBuffer(VertexBuffer.Type.Color, 4, pc.getColors());
+    if (pc.getColors() != null) {
+      pointCloudMesh.setBuffer(VertexBuffer.Type.Color, 4, pc.getColors());
+    }
+  }
+
+  /**
+   * copies the points into the position buffer - primitive clouds are copied
+   * directly without materializing a Point3df per point, points without depth
+   * (NaN) go to the origin
+   */
+  void putPointCloud(PointCloud pc) {
+    pointCloudBuffer.clear();
+    float[] x = pc.getX();
+    if (x != null) {
+      float[] y = pc.getY();
+      float[] z = pc.getZ();
+      for (int i = 0; i < pc.size(); ++i) {
+        if (Float.isNaN(z[i])) {
+          pointCloudBuffer.put(0).put(0).put(0);
+        } else {
+          pointCloudBuffer.put(x[i]).put(y[i]).put(z[i]);
+        }
+      }
+    } else {
+      for (Point3df p : pc.getData()) {
+        pointCloudBuffer.put(p.x).put(p.y).put(p.z);
+      }
+    }
+    pointCloudBuffer.flip();
   }
 
   // auto Register
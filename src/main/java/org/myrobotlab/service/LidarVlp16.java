@@ -1,11 +1,14 @@
 package org.myrobotlab.service;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
@@ -13,8 +16,18 @@ import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.math.geometry.PointCloud;
+import org.myrobotlab.net.PcapReader;
+import org.myrobotlab.sensor.Vlp16Decoder;
 import org.slf4j.Logger;
 
+/**
+ * Velodyne VLP-16 "puck" lidar. Data packets are received on the data port,
+ * decoded and assembled into 360 degree sweeps which are published as
+ * PointClouds.
+ *
+ * A recorded pcap file can be replayed over localhost UDP with replay(...)
+ */
 public class LidarVlp16 extends Service {
 
   private static final long serialVersionUID = 1L;
@@ -22,46 +35,265 @@ public class LidarVlp16 extends Service {
   int dataPort = 2368;
   int positionPort = 8308;
 
+  /**
+   * size of the receive buffers - large enough for any udp datagram the sensor
+   * sends
+   */
+  final static int BUFFER_SIZE = 1536;
+
   public final static Logger log = LoggerFactory.getLogger(LidarVlp16.class);
 
-  transient DatagramSocket dataSocket;
-  transient DatagramSocket positionSocket;
+  transient DatagramChannel dataChannel;
+  transient DatagramChannel positionChannel;
+
+  transient Receiver dataReceiver;
+  transient Receiver positionReceiver;
+
+  transient Vlp16Decoder decoder = new Vlp16Decoder();
+
+  /**
+   * pool of direct buffers - datagrams are read directly into native memory
+   * and decoded without copying into the heap
+   */
+  transient BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<ByteBuffer>(4);
+
+  long positionPackets = 0;
+
+  boolean isListening = false;
+
+  class Receiver extends Thread {
+    DatagramChannel channel;
+    boolean data;
+
+    public Receiver(String name, DatagramChannel channel, boolean data) {
+      super(name);
+      this.channel = channel;
+      this.data = data;
+    }
+
+    @Override
+    public void run() {
+      ByteBuffer buffer = borrowBuffer();
+      try {
+        while (isListening) {
+          buffer.clear();
+          channel.receive(buffer);
+          buffer.flip();
+          if (data) {
+            PointCloud sweep = decoder.decode(buffer);
+            if (sweep != null) {
+              invoke("publishPointCloud", sweep);
+            }
+          } else {
+            // position packets (gps/nmea) are counted but not decoded
+            ++positionPackets;
+          }
+        }
+      } catch (ClosedByInterruptException | ClosedChannelException e) {
+        log.info("{} stopping", getName());
+      } catch (Exception e) {
+        log.error("{} threw", getName(), e);
+      } finally {
+        returnBuffer(buffer);
+      }
+    }
+  }
 
   public LidarVlp16(String n, String id) {
     super(n, id);
   }
 
-  public void listen() throws SocketException, UnknownHostException {
-    dataSocket = new DatagramSocket(dataPort, InetAddress.getByName("0.0.0.0"));
-    dataSocket.setBroadcast(true);
-    positionSocket = new DatagramSocket(positionPort, InetAddress.getByName("0.0.0.0"));
-    positionSocket.setBroadcast(true);
+  ByteBuffer borrowBuffer() {
+    ByteBuffer buffer = bufferPool.poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    return buffer;
+  }
+
+  void returnBuffer(ByteBuffer buffer) {
+    buffer.clear();
+    bufferPool.offer(buffer);
+  }
+
+  public void listen() throws IOException {
+    if (isListening) {
+      log.info("already listening");
+      return;
+    }
+    try {
+      dataChannel = DatagramChannel.open();
+      dataChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      dataChannel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+      dataChannel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+      dataChannel.bind(new InetSocketAddress("0.0.0.0", dataPort));
+
+      positionChannel = DatagramChannel.open();
+      positionChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      positionChannel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+      positionChannel.bind(new InetSocketAddress("0.0.0.0", positionPort));
+    } catch (IOException e) {
+      // don't leave the channel which did open bound
+      closeChannels();
+      throw e;
+    }
+
+    decoder.reset();
+    isListening = true;
+    dataReceiver = new Receiver(String.format("%s.data", getName()), dataChannel, true);
+    dataReceiver.start();
+    positionReceiver = new Receiver(String.format("%s.position", getName()), positionChannel, false);
+    positionReceiver.start();
+    broadcastState();
+  }
+
+  public void stopListening() {
+    isListening = false;
+    closeChannels();
+    dataReceiver = null;
+    positionReceiver = null;
+    broadcastState();
+  }
+
+  void closeChannels() {
+    for (DatagramChannel channel : new DatagramChannel[] { dataChannel, positionChannel }) {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          log.error("closing channel threw", e);
+        }
+      }
+    }
+    dataChannel = null;
+    positionChannel = null;
   }
 
-  public void receiveData() throws IOException {
-    byte[] recvBuf = new byte[15000];
-    DatagramPacket receivePacket = new DatagramPacket(recvBuf, recvBuf.length);
-    dataSocket.receive(receivePacket);
+  /**
+   * Receives and decodes a single data packet on the calling thread. Use
+   * listen() for continuous streaming.
+   *
+   * @return a complete sweep or null
+   * @throws IOException
+   *           on receive error
+   */
+  public PointCloud receiveData() throws IOException {
+    ByteBuffer buffer = borrowBuffer();
+    try {
+      dataChannel.receive(buffer);
+      buffer.flip();
+      return decoder.decode(buffer);
+    } finally {
+      returnBuffer(buffer);
+    }
   }
 
   public void receivePosition() throws IOException {
-    byte[] recvBuf = new byte[15000];
-    DatagramPacket receivePacket = new DatagramPacket(recvBuf, recvBuf.length);
-    positionSocket.receive(receivePacket);
+    ByteBuffer buffer = borrowBuffer();
+    try {
+      positionChannel.receive(buffer);
+      ++positionPackets;
+    } finally {
+      returnBuffer(buffer);
+    }
+  }
+
+  /**
+   * replays a pcap recording to the data and position ports on localhost
+   *
+   * @param pcapFile
+   *          the recording
+   * @param realTime
+   *          if true the original packet timing is reproduced, otherwise
+   *          packets are sent as fast as possible
+   * @return number of packets sent
+   * @throws IOException
+   *           on read or send error
+   */
+  public long replay(String pcapFile, boolean realTime) throws IOException {
+    long count = 0;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    InetSocketAddress data = new InetSocketAddress("127.0.0.1", dataPort);
+    InetSocketAddress position = new InetSocketAddress("127.0.0.1", positionPort);
+    try (PcapReader pcap = new PcapReader(pcapFile); DatagramChannel out = DatagramChannel.open()) {
+      long firstTs = -1;
+      long startNs = System.nanoTime();
+      while (pcap.next(buffer)) {
+        int port = pcap.getDestinationPort();
+        if (port != dataPort && port != positionPort) {
+          continue;
+        }
+        if (realTime) {
+          if (firstTs < 0) {
+            firstTs = pcap.getTimestampUs();
+          }
+          long dueNs = startNs + (pcap.getTimestampUs() - firstTs) * 1000;
+          long waitNs = dueNs - System.nanoTime();
+          if (waitNs > 0) {
+            Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+          }
+        }
+        out.send(buffer, (port == dataPort) ? data : position);
+        ++count;
+      }
+    } catch (InterruptedException e) {
+      log.info("replay interrupted");
+      Thread.currentThread().interrupt();
+    }
+    log.info("replayed {} packets from {}", count, pcapFile);
+    return count;
+  }
+
+  public PointCloud publishPointCloud(PointCloud pointCloud) {
+    return pointCloud;
+  }
+
+  public long getPacketCount() {
+    return decoder.getPacketCount();
+  }
+
+  public long getBadPacketCount() {
+    return decoder.getBadPacketCount();
+  }
+
+  public long getSweepCount() {
+    return decoder.getSweepCount();
+  }
+
+  public long getPositionPacketCount() {
+    return positionPackets;
+  }
+
+  public void setDataPort(int port) {
+    dataPort = port;
+  }
+
+  public void setPositionPort(int port) {
+    positionPort = port;
+  }
+
+  public boolean isListening() {
+    return isListening;
+  }
+
+  @Override
+  public void releaseService() {
+    stopListening();
+    super.releaseService();
   }
 
   /**
    * This static method returns all the details of the class without it having
    * to be constructed. It has description, categories, dependencies, and peer
    * definitions.
-   * 
+   *
    * @return ServiceType - returns all the data
-   * 
+   *
    */
   static public ServiceType getMetaData() {
 
     ServiceType meta = new ServiceType(LidarVlp16.class);
-    meta.addDescription("used as a general template");
+    meta.addDescription("Velodyne VLP-16 lidar - decodes data packets into 360 degree point clouds");
     meta.setAvailable(true); // false if you do not want it viewable in a gui
     // add dependency if necessary
     // meta.addDependency("org.coolproject", "1.0.0");
@@ -75,8 +307,11 @@ public class LidarVlp16 extends Service {
 
       LoggingFactory.init(Level.INFO);
 
-      Runtime.start("lidar  ", "LidarVlp16");
-      Runtime.start("servo", "Servo");
+      LidarVlp16 lidar = (LidarVlp16) Runtime.start("lidar", "LidarVlp16");
+      lidar.listen();
+      if (args.length > 0) {
+        lidar.replay(args[0], true);
+      }
       Runtime.start("gui", "SwingGui");
 
     } catch (Exception e) {
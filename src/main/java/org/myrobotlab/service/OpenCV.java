@@ -45,6 +45,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -53,11 +54,9 @@ import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.swing.JFrame;
 
 import org.bytedeco.javacv.CanvasFrame;
-import org.bytedeco.javacv.FFmpegFrameRecorder;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
 import org.bytedeco.javacv.FrameGrabber.ImageMode;
-import org.bytedeco.javacv.FrameRecorder;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.bytedeco.javacv.OpenKinectFrameGrabber;
@@ -72,6 +71,7 @@ import org.myrobotlab.cv.CvData;
 import org.myrobotlab.document.Classification;
 import org.myrobotlab.document.Classifications;
 import org.myrobotlab.framework.Instantiator;
+import org.myrobotlab.framework.MRLListener;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.image.ColoredPoint;
@@ -82,8 +82,13 @@ import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.math.geometry.Point2df;
 import org.myrobotlab.math.geometry.PointCloud;
 import org.myrobotlab.net.Http;
+import org.myrobotlab.opencv.AsyncRecorder;
+import org.myrobotlab.opencv.FilterBenchmark;
+import org.myrobotlab.opencv.FilterGraph;
 import org.myrobotlab.opencv.FilterWrapper;
-import org.myrobotlab.opencv.FrameFileRecorder;
+import org.myrobotlab.opencv.FramePipeline;
+import org.myrobotlab.opencv.ImagePool;
+import org.myrobotlab.opencv.InferenceExecutor;
 import org.myrobotlab.opencv.OpenCVData;
 import org.myrobotlab.opencv.OpenCVFilter;
 import org.myrobotlab.opencv.OpenCVFilterFaceDetectDNN;
@@ -163,7 +168,13 @@ public class OpenCV extends AbstractComputerVision {
           loops++;
         }
 
+        if (pipelined) {
+          pipeline = createPipeline();
+          pipeline.start();
+        }
+
         while (capturing && !stopping) {
+          long grabStart = System.nanoTime();
           Frame newFrame = null;
 
           if (!singleFrame || (singleFrame && frameIndex < 1)) {
@@ -182,7 +193,14 @@ public class OpenCV extends AbstractComputerVision {
           frameStartTs = System.currentTimeMillis();
           ++frameIndex;
 
+          if (pipeline != null && newFrame != null && newFrame == lastFrame) {
+            // the grabber reuses its frame - the next grab must not change
+            // the one still in the pipeline
+            newFrame = newFrame.clone();
+          }
+
           data = new OpenCVData(getName(), frameStartTs, frameIndex, newFrame);
+          data.setImagePool(imagePool);
 
           if (grabber.getClass().equals(OpenKinectFrameGrabber.class)) {
             // by default this framegrabber returns video
@@ -191,10 +209,22 @@ public class OpenCV extends AbstractComputerVision {
             // here we need ot add the video
 
             IplImage video = ((OpenKinectFrameGrabber) grabber).grabVideo();
+            if (pipeline != null) {
+              video = video.clone();
+            }
             data.putKinect(toImage(newFrame), video);
           }
 
-          processVideo(data);
+          if (pipeline != null) {
+            pipeline.put(data, System.nanoTime() - grabStart);
+            // the grab stage keeps to maxFps
+            long grabTime = System.currentTimeMillis() - frameStartTs;
+            if (maxFps != null && grabTime < 1000 / maxFps) {
+              sleep((1000 / maxFps) - (int) grabTime);
+            }
+          } else {
+            processVideo(data);
+          }
 
           if (lengthInFrames > 1 && loop && frameIndex > lengthInFrames - 2) {
             grabber.setFrameNumber(0);
@@ -205,6 +235,13 @@ public class OpenCV extends AbstractComputerVision {
       } catch (Exception e) {
         log.error("getting grabber failed", e);
       }
+
+      if (pipeline != null) {
+        log.info("pipeline {}", pipeline.getStats());
+        pipeline.stop();
+        pipeline = null;
+      }
+      log.info("image pool {}", imagePool.getStats());
       // begin capturing ...
 
       videoThread = null;
@@ -678,62 +715,83 @@ public class OpenCV extends AbstractComputerVision {
     setInputFileName(null);
     singleFrame = false;
     lastFrame = null;
-    blockingData.clear();
+    clearBlockingData();
+  }
+
+  /**
+   * drops the queued frame - the queue holds a reference to it
+   */
+  private void clearBlockingData() {
+    OpenCVData stale = null;
+    while ((stale = blockingData.poll()) != null) {
+      stale.release();
+    }
   }
 
+  /**
+   * converters only wrap the image data in another header - they are reused
+   * per thread instead of created for every conversion
+   */
+  static final ThreadLocal<OpenCVFrameConverter.ToIplImage> converterToImage = ThreadLocal.withInitial(() -> new OpenCVFrameConverter.ToIplImage());
+  static final ThreadLocal<OpenCVFrameConverter.ToMat> converterToMat = ThreadLocal.withInitial(() -> new OpenCVFrameConverter.ToMat());
+
   /**
    * converting IplImages to BufferedImages
    */
   static public BufferedImage toBufferedImage(IplImage src) {
-    OpenCVFrameConverter.ToIplImage grabberConverter = new OpenCVFrameConverter.ToIplImage();
-    Java2DFrameConverter converter = new Java2DFrameConverter();
-    Frame frame = grabberConverter.convert(src);
-    return converter.getBufferedImage(frame, 1);
+    return toBufferedImage(converterToImage.get().convert(src));
   }
 
+  /**
+   * a new BufferedImage each call - a Java2DFrameConverter would return the
+   * same one, which callers keep
+   */
   public static BufferedImage toBufferedImage(Frame inputFrame) {
-    Java2DFrameConverter converter = new Java2DFrameConverter();
-    return converter.getBufferedImage(inputFrame);
+    if (inputFrame == null) {
+      return null;
+    }
+    int type = Java2DFrameConverter.getBufferedImageType(inputFrame);
+    if (type == BufferedImage.TYPE_CUSTOM) {
+      return new Java2DFrameConverter().getBufferedImage(inputFrame, 1.0);
+    }
+    BufferedImage image = new BufferedImage(inputFrame.imageWidth, inputFrame.imageHeight, type);
+    Java2DFrameConverter.copy(inputFrame, image, 1.0);
+    return image;
   }
 
   static public Frame toFrame(IplImage image) {
-    OpenCVFrameConverter.ToIplImage converterToImage = new OpenCVFrameConverter.ToIplImage();
-    return converterToImage.convert(image);
+    return converterToImage.get().convert(image);
   }
 
   static public Frame toFrame(Mat image) {
-    OpenCVFrameConverter.ToIplImage converterToImage = new OpenCVFrameConverter.ToIplImage();
-    return converterToImage.convert(image);
+    return converterToImage.get().convert(image);
   }
 
   /**
    * convert BufferedImages to IplImages
    */
   static public IplImage toImage(BufferedImage src) {
-    OpenCVFrameConverter.ToIplImage converterToImage = new OpenCVFrameConverter.ToIplImage();
+    // the Java2D converter owns the frame it converts into - a new one each
+    // call keeps the returned image valid
     Java2DFrameConverter jconverter = new Java2DFrameConverter();
-    return converterToImage.convert(jconverter.convert(src));
+    return converterToImage.get().convert(jconverter.convert(src));
   }
 
   static public IplImage toImage(Frame image) {
-    OpenCVFrameConverter.ToIplImage converterToImage = new OpenCVFrameConverter.ToIplImage();
-    return converterToImage.convertToIplImage(image);
+    return converterToImage.get().convertToIplImage(image);
   }
 
   static public IplImage toImage(Mat image) {
-    OpenCVFrameConverter.ToIplImage converterToImage = new OpenCVFrameConverter.ToIplImage();
-    OpenCVFrameConverter.ToMat converterToMat = new OpenCVFrameConverter.ToMat();
-    return converterToImage.convert(converterToMat.convert(image));
+    return converterToImage.get().convert(converterToMat.get().convert(image));
   }
 
   static public Mat toMat(Frame image) {
-    OpenCVFrameConverter.ToIplImage converterToImage = new OpenCVFrameConverter.ToIplImage();
-    return converterToImage.convertToMat(image);
+    return converterToImage.get().convertToMat(image);
   }
 
   static public Mat toMat(IplImage image) {
-    OpenCVFrameConverter.ToMat converterToMat = new OpenCVFrameConverter.ToMat();
-    return converterToMat.convert(converterToMat.convert(image));
+    OpenCVFrameConverter.ToMat converter = converterToMat.get();
+    return converter.convert(converter.convert(image));
   }
 
   transient BlockingQueue<Map<String, List<Classification>>> blockingClassification = new LinkedBlockingQueue<>();
@@ -762,6 +820,36 @@ public class OpenCV extends AbstractComputerVision {
    */
   transient Map<String, OpenCVFilter> filters = new LinkedHashMap<String, OpenCVFilter>();
 
+  /**
+   * run independent branches of the filter graph (filters with the same
+   * sourceKey) concurrently
+   */
+  boolean parallelFilters = false;
+
+  transient ForkJoinPool filterPool = null;
+
+  /**
+   * native images the filters borrow for a frame - returned when the frame is
+   * disposed
+   */
+  transient ImagePool imagePool = new ImagePool();
+
+  /**
+   * run the video processor as a pipeline of stages on their own threads
+   */
+  boolean pipelined = false;
+
+  /**
+   * pipelined - drop frames when a stage falls behind instead of blocking
+   */
+  boolean dropFrames = true;
+
+  int pipelineQueueSize = 2;
+
+  transient volatile FramePipeline pipeline = null;
+
+  transient long lastPipelineStatsTs = 0;
+
   transient CvFont font = new CvFont();
 
   String format = null;
@@ -798,7 +886,23 @@ public class OpenCV extends AbstractComputerVision {
   // on a still picture
   Integer maxFps = 32;
 
-  transient HashMap<String, FrameRecorder> outputFileStreams = new HashMap<String, FrameRecorder>();
+  /**
+   * encodes recorded frames off the video thread
+   */
+  transient volatile AsyncRecorder recorder;
+
+  int recordQueueSize = 64;
+
+  /**
+   * drop frames when the recorder falls behind - otherwise the video waits
+   */
+  boolean recordDropFrames = true;
+
+  /**
+   * recordings are split in segments this long or big - 0 for no limit
+   */
+  long recordSegmentMs = 0;
+  long recordSegmentBytes = 0;
 
   HashMap<String, Overlay> overlays = new HashMap<String, Overlay>();
 
@@ -1036,6 +1140,9 @@ public class OpenCV extends AbstractComputerVision {
     return getFaceDetect(5000);
   }
 
+  /**
+   * the caller releases the returned data when it's done with it
+   */
   @Deprecated /*use getFaces*/
   public OpenCVData getFaceDetect(int timeout) {
     OpenCVFilterFaceDetectDNN fd = new OpenCVFilterFaceDetectDNN("face");
@@ -1092,6 +1199,9 @@ public class OpenCV extends AbstractComputerVision {
     return frameIndex;
   }
 
+  /**
+   * the caller releases the returned data when it's done with it
+   */
   public OpenCVData getGoodFeatures() {
     addFilter(FILTER_GOOD_FEATURES_TO_TRACK, FILTER_GOOD_FEATURES_TO_TRACK);
     OpenCVData d = getOpenCVData();
@@ -1320,12 +1430,17 @@ public class OpenCV extends AbstractComputerVision {
 
   // FIXME - TODO track(type)
 
+  /**
+   * the next frame - the queue's reference is handed to the caller, who
+   * releases it when done so the images go back to the pool
+   */
   public OpenCVData getOpenCVData(Integer timeout) {
-    blockingData.clear();
+    clearBlockingData();
     OpenCVData newData = null;
     try {
       newData = blockingData.poll(timeout, TimeUnit.MILLISECONDS);
     } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
     return newData;
   }
@@ -1429,28 +1544,54 @@ public class OpenCV extends AbstractComputerVision {
   }
 
   private void processVideo(OpenCVData data) throws org.bytedeco.javacv.FrameGrabber.Exception, InterruptedException {
+    processFilters(data);
+    processDisplay(data);
+    publishData(data);
+
+    frameEndTs = System.currentTimeMillis();
+
+    // delay if needed to maxFps
+    if (maxFps != null && frameEndTs - frameStartTs < 1000 / maxFps) {
+      sleep((1000 / maxFps) - (int) (frameEndTs - frameStartTs));
+    }
 
+    data.dispose();
+
+  } // end processVideo
+
+  private void processFilters(OpenCVData data) throws InterruptedException {
     // process each filter
     // for (String filterName : filters.keySet()) {
-    for (OpenCVFilter filter : filters.values()) {
-      if (filter.isEnabled()) {
-        IplImage input = filter.setData(data);
-        if (input == null) {
-          log.error("could not get setData image");
-          continue;
-        }
-
-        // process the previous filter's output
-        IplImage processed = filter.process(input);
-        filter.postProcess(processed);
-        filter.processDisplay();
+    if (parallelFilters) {
+      if (filterPool == null) {
+        filterPool = new ForkJoinPool(java.lang.Runtime.getRuntime().availableProcessors());
       }
-    } // for each filter
+      new FilterGraph(filters.values()).process(filterPool, data);
+    } else {
+      for (OpenCVFilter filter : filters.values()) {
+        if (filter.isEnabled()) {
+          long start = System.nanoTime();
+          IplImage input = filter.setData(data);
+          if (input == null) {
+            log.error("could not get setData image");
+            continue;
+          }
 
+          // process the previous filter's output
+          IplImage processed = filter.processFrame(input);
+          filter.postProcess(processed);
+          filter.processDisplay();
+          data.putFilterTime(filter.name, System.nanoTime() - start);
+        }
+      } // for each filter
+    }
+  }
+
+  private void processDisplay(OpenCVData data) {
     // get the display filter to process
 
-    putText("frame: %d", frameIndex);
-    putText("time:  %d", frameStartTs);
+    putText("frame: %d", data.getFrameIndex());
+    putText("time:  %d", data.getTs());
 
     BufferedImage displayImage = data.getDisplay();
     if (displayImage != null) {
@@ -1478,7 +1619,7 @@ public class OpenCV extends AbstractComputerVision {
          * </pre>
          */
         BufferedImage b = data.getDisplay();
-        invoke("publishDisplay", new SerializableImage(b, displayFilter, frameIndex));
+        invoke("publishDisplay", new SerializableImage(b, displayFilter, data.getFrameIndex()));
         
         if (display && !isHeadless()) {
           if (canvasFrame == null) {
@@ -1502,15 +1643,30 @@ public class OpenCV extends AbstractComputerVision {
       }
     }
 
+  }
+
+  /**
+   * @return subscribers of a publishing method
+   */
+  private int getSubscriberCount(String method) {
+    List<MRLListener> subscribers = getNotifyList(method);
+    return (subscribers == null) ? 0 : subscribers.size();
+  }
+
+  private void publishData(OpenCVData data) {
     // useful but chatty debug statement - dumps opencvdata
     // log.debug("data -> {}", data);
 
     // FIXME - should have had it
 
     // FIXME - deprecate it
+    // every subscriber gets a reference of its own - they are delivered on
+    // their own threads after the frame is disposed here
+    data.retain(getSubscriberCount("publishOpenCVData"));
     invoke("publishOpenCVData", data);
 
     // future publishing (same as BoofCv !)
+    data.retain(getSubscriberCount("publishCvData"));
     invoke("publishCvData", data);
     
  
@@ -1522,23 +1678,112 @@ public class OpenCV extends AbstractComputerVision {
     // record uses the queue - this has the "issue" if
     // the consumer does not pickup-it will get stale
     if (blockingData.size() == 0) {
-      blockingData.add(data);
+      // a frame nobody picks up for a while is still valid when it is
+      blockingData.add(data.retain());
     }
 
     if (recording || recordingFrames) {
       record(data);
     }
+  }
 
-    frameEndTs = System.currentTimeMillis();
+  /**
+   * the video processor's stages on their own threads - grab, filter,
+   * display, publish
+   */
+  private FramePipeline createPipeline() {
+    FramePipeline pipeline = new FramePipeline(getName(), pipelineQueueSize, dropFrames);
+    pipeline.addStage("filter", d -> processFilters(d));
+    pipeline.addStage("display", d -> processDisplay(d));
+    pipeline.addStage("publish", d -> {
+      publishData(d);
+      d.dispose();
+      long now = System.currentTimeMillis();
+      if (now - lastPipelineStatsTs > 1000) {
+        lastPipelineStatsTs = now;
+        invoke("publishPipelineStats", getPipelineStats());
+      }
+    });
+    return pipeline;
+  }
 
-    // delay if needed to maxFps
-    if (maxFps != null && frameEndTs - frameStartTs < 1000 / maxFps) {
-      sleep((1000 / maxFps) - (int) (frameEndTs - frameStartTs));
+  public FramePipeline.Stats publishPipelineStats(FramePipeline.Stats stats) {
+    return stats;
+  }
+
+  /**
+   * @return frame rate, latency and per stage utilization of the pipelined
+   *         video processor - null when not pipelined
+   */
+  public FramePipeline.Stats getPipelineStats() {
+    FramePipeline p = pipeline;
+    return (p == null) ? null : p.getStats();
+  }
+
+  /**
+   * @return native images allocated and reused by the filters - per frame
+   *         counts are in OpenCVData.getNativeAllocations
+   */
+  public ImagePool.Stats getImagePoolStats() {
+    return imagePool.getStats();
+  }
+
+  /**
+   * @return frames submitted to, dropped by and batched by the inference
+   *         executor the DNN filters share
+   */
+  public InferenceExecutor.Stats getInferenceStats() {
+    return InferenceExecutor.getInstance().getStats();
+  }
+
+  /**
+   * runs a chain of new filters over a recording, off the video thread - the
+   * service's own filters and capture aren't touched
+   *
+   * @param path
+   *          - a directory of images, a recording's index or a video file
+   * @param frames
+   *          - frames measured, after a tenth as many warmup frames
+   * @param filterTypes
+   *          - the chain, types from POSSIBLE_FILTERS
+   * @return per filter and end-to-end timings, allocation and native memory
+   */
+  public FilterBenchmark.Result benchmarkFilters(String path, int frames, String... filterTypes) throws org.bytedeco.javacv.FrameGrabber.Exception {
+    FilterBenchmark benchmark = new FilterBenchmark(this);
+    try {
+      for (String type : filterTypes) {
+        benchmark.addFilter(type);
+      }
+      benchmark.load(path, 0);
+      return benchmark.run(Math.max(10, frames / 10), frames);
+    } finally {
+      benchmark.release();
     }
+  }
 
-    data.dispose();
+  /**
+   * grab, filter, display and publish on their own threads - consecutive frames
+   * overlap so the frame period is the slowest stage instead of their sum.
+   * Takes effect at the next capture.
+   * 
+   * @param pipelined - true to pipeline the video processor
+   */
+  public void setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+    broadcastState();
+  }
 
-  } // end processVideo
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
+  /**
+   * @param dropFrames - when pipelined, drop the oldest frame if a stage falls
+   *          behind (live sources) instead of blocking (files)
+   */
+  public void setDropFrames(boolean dropFrames) {
+    this.dropFrames = dropFrames;
+  }
 
   // when containers are published the <T>ypes are unknown to the publishing
   // function
@@ -1648,6 +1893,8 @@ public class OpenCV extends AbstractComputerVision {
    * the publishing point of all OpenCV goodies ! type conversion is held off
    * until asked for - then its cached SMART ! :)
    * 
+   * Each subscriber is handed a reference to the data and has to release() it
+   * when it's done.
    */
   public final OpenCVData publishOpenCVData(OpenCVData data) {
     return data;
@@ -1710,65 +1957,62 @@ public class OpenCV extends AbstractComputerVision {
    * Generates either a flv movie file from selected output OR a series of
    * non-lossy pngs from OpenCVData.
    * 
+   * The frame is only copied here - an AsyncRecorder encodes it on its own
+   * thread, so a slow disk doesn't slow the video down.
+   * 
    * key- input, filter, or display
    */
   public void record(OpenCVData data) {
     try {
-      Frame frame = data.getFrame();
-
-      if (!outputFileStreams.containsKey(recordingSource)) {
-
-        /**
-         * <pre>
-         * Records a single output stream into flv format movie file 
-         * for which FFmpegFrameGrabber can "probably" ingest ...
-         * 
-         *  This one freezes on windows :P
-         FrameRecorder recorder = new OpenCVFrameRecorder(filename, frame.imageWidth, frame.imageHeight);
-         recorder.setFrameRate(15);
-         recorder.setPixelFormat(1);
-         recorder.start();
-         * </pre>
-         */
-        FrameRecorder recorder = null;
-        if (!recordingFrames) {
-          recordingFilename = String.format(getDataDir() + File.separator + "%s-%d.flv", recordingSource, System.currentTimeMillis());
-          info("recording %s", recordingFilename);
-          recorder = new FFmpegFrameRecorder(recordingFilename, frame.imageWidth, frame.imageHeight, 0);
-          recorder.setFormat("flv");
-        } else {
-          recorder = new FrameFileRecorder(getDataDir());
-          // recorder.setFormat("png");
-        }
-        // recorder.setSampleRate(frameRate); for audio
-        recorder.setFrameRate(maxFps);
-        recorder.start();
-        broadcastState();
-        outputFileStreams.put(recordingSource, recorder);
-      }
-      // TODO - add input, filter & display
-      outputFileStreams.get(recordingSource).record(frame);
-
       if (closeOutputs) {
-        FrameRecorder output = (FrameRecorder) outputFileStreams.get(recordingSource);
-        outputFileStreams.remove(recordingSource);
-        output.stop();
-        output.release();
-        if (!recordingFrames) {
-          info("finished recording %s", recordingFilename);
-        } else {
-          info("finished recording frames to %s", getDataDir());
+        if (recorder != null) {
+          recorder.close();
+          info("finished recording to %s", recorder.getDir());
         }
         recording = false;
         recordingFrames = false;
         closeOutputs = false;
         broadcastState();
+        return;
       }
+
+      if (recorder == null || recorder.isClosed()) {
+        recordingFilename = String.format("%s%s%s-%d", getDataDir(), File.separator, recordingSource, System.currentTimeMillis());
+        info("recording %s", recordingFilename);
+        recorder = new AsyncRecorder(recordingFilename, recordingFrames, recordQueueSize, recordDropFrames);
+        recorder.setFrameRate((maxFps == null) ? 30 : maxFps).setSegments(recordSegmentMs, recordSegmentBytes).start();
+        broadcastState();
+      }
+      recorder.record(data.getImage(recordingSource), data.getFrameIndex(), data.getTs());
     } catch (Exception e) {
       log.error("record threw", e);
     }
   }
 
+  /**
+   * @return frames queued, dropped and encoded by the recorder and its backlog
+   *         - null if nothing was recorded
+   */
+  public AsyncRecorder.Stats getRecorderStats() {
+    AsyncRecorder r = recorder;
+    return (r == null) ? null : r.getStats();
+  }
+
+  /**
+   * @param queueSize - frames waiting for the encoder
+   * @param dropFrames - drop frames when the encoder falls behind instead of
+   *          waiting for it
+   * @param segmentMs - start a new segment after this long, 0 for no limit
+   * @param segmentBytes - start a new segment after this many bytes, 0 for no
+   *          limit
+   */
+  public void setRecording(int queueSize, boolean dropFrames, long segmentMs, long segmentBytes) {
+    recordQueueSize = queueSize;
+    recordDropFrames = dropFrames;
+    recordSegmentMs = segmentMs;
+    recordSegmentBytes = segmentBytes;
+  }
+
   /**
    * records a single frame to the filesystem from our data
    * 
@@ -1777,9 +2021,15 @@ public class OpenCV extends AbstractComputerVision {
   public String recordFrame() {
     try {
       OpenCVData d = getOpenCVData();
-      String filename = d.writeDisplay(getDataDir(), "png");
-      info("saved frame %s", filename);
-      return filename;
+      try {
+        String filename = d.writeDisplay(getDataDir(), "png");
+        info("saved frame %s", filename);
+        return filename;
+      } finally {
+        if (d != null) {
+          d.release();
+        }
+      }
     } catch (Exception e) {
       error(e);
     }
@@ -1940,6 +2190,21 @@ public class OpenCV extends AbstractComputerVision {
     masks.put(name, mask);
   }
 
+  /**
+   * filters with the same source (sourceKey) are independent - in parallel
+   * they run concurrently, each frame waits for all of them
+   * 
+   * @param parallel - true to run the filter graph's branches concurrently
+   */
+  public void setParallelFilters(boolean parallel) {
+    parallelFilters = parallel;
+    broadcastState();
+  }
+
+  public boolean isParallelFilters() {
+    return parallelFilters;
+  }
+
   public void setMaxFps(Integer fps) {
     if (fps == null || fps < 1 || fps > 1000) {
       maxFps = null;
@@ -1988,6 +2253,14 @@ public class OpenCV extends AbstractComputerVision {
   public void stopService() {
     super.stopService();
     stopCapture();
+    if (filterPool != null) {
+      filterPool.shutdown();
+      filterPool = null;
+    }
+    if (recorder != null) {
+      recorder.close();
+    }
+    imagePool.clear();
   }
 
   public void setFormat(String format) {
@@ -8,6 +8,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.alicebot.ab.AIMLMap;
 import org.alicebot.ab.AIMLSet;
@@ -24,6 +27,7 @@ import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.logging.SimpleLogPublisher;
 import org.myrobotlab.programab.BotInfo;
 import org.myrobotlab.programab.Response;
+import org.myrobotlab.programab.ResponseCache;
 import org.myrobotlab.programab.Session;
 import org.myrobotlab.service.data.Locale;
 import org.myrobotlab.service.interfaces.LocaleProvider;
@@ -59,20 +63,21 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
   Map<String, BotInfo> bots = new TreeMap<>();
 
   /**
-   * Mapping a bot to a userName and chat session
+   * Mapping a bot to a userName and chat session - sessions are started and
+   * used from many threads
    */
-  Map<String, Session> sessions = new TreeMap<>();
+  Map<String, Session> sessions = new ConcurrentSkipListMap<>();
 
   /**
    * initial bot name - this bot comes with ProgramAB this will be the result of
    * whatever is scanned in the constructor
    */
-  String currentBotName = null;
+  volatile String currentBotName = null;
 
   /**
    * default user name chatting with the bot
    */
-  String currentUserName = "human";
+  volatile String currentUserName = "human";
 
   /**
    * save predicates - default every 5 minutes
@@ -90,6 +95,18 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
    */
   boolean peerSearch = true;
 
+  /**
+   * load bots from a compiled snapshot instead of parsing their aiml - the
+   * snapshot is rewritten when any aiml, set, map or config file changes
+   */
+  boolean snapshots = false;
+
+  /**
+   * cache responses which only depend on the input, topic and the predicates
+   * they read
+   */
+  boolean responseCache = false;
+
   private Locale locale;
 
   transient SimpleLogPublisher logPublisher = null;
@@ -249,12 +266,38 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
     // update the current session if we want to change which bot is at
     // attention.
     if (updateCurrentSession) {
-      setCurrentUserName(userName);
-      setCurrentBotName(botName);
+      setCurrentSession(userName, botName);
     }
 
+    return respond(session, text);
+  }
+
+  /**
+   * Gets a response on the session's own worker - requests of a user are
+   * answered in order, different users are answered concurrently. The current
+   * user and bot are not changed.
+   * 
+   * @param userName
+   * @param botName
+   * @param text
+   * @return the response - it is also published
+   */
+  public Future<Response> getResponseAsync(String userName, String botName, String text) {
+    Session session = getSession(userName, botName);
+    if (session == null) {
+      session = startSession(null, userName, botName, MagicBooleans.defaultLocale, false);
+    }
+    if (session == null) {
+      return null;
+    }
+    final Session s = session;
+    return session.submit(() -> respond(s, text));
+  }
+
+  Response respond(Session session, String text) {
     // Get the actual bots aiml based response for this session
     Response response = session.getResponse(text);
+    String userName = session.userName;
 
     // EEK! clean up the API!
     invoke("publishRequest", text); // publisher used by uis
@@ -298,12 +341,11 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
 
   public Session getSession(String userName, String botName) {
     String sessionKey = getSessionKey(userName, botName);
-    if (sessions.containsKey(sessionKey)) {
-      return sessions.get(sessionKey);
-    } else {
+    Session session = sessions.get(sessionKey);
+    if (session == null) {
       warn("%s session does not exist", sessionKey);
-      return null;
     }
+    return session;
   }
 
   public void removePredicate(String userName, String predicateName) {
@@ -322,20 +364,27 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
    */
   public void addToSet(String setName, String setValue) {
     // add to the set for the bot.
-    Bot bot = getBot(getCurrentBotName());
-    AIMLSet updateSet = bot.setMap.get(setName);
+    BotInfo botInfo = getBotInfo(getCurrentBotName());
+    Bot bot = botInfo.getBot();
     setValue = setValue.toUpperCase().trim();
-    if (updateSet != null) {
-      updateSet.add(setValue);
-      // persist to disk.
-      updateSet.writeAIMLSet();
-    } else {
-      log.info("Unknown AIML set: {}.  A new set will be created. ", setName);
-      // TODO: should we create a new set ? or just log this warning?
-      // The AIML Set doesn't exist. Lets create a new one
-      AIMLSet newSet = new AIMLSet(setName, bot);
-      newSet.add(setValue);
-      newSet.writeAIMLSet();
+    botInfo.writeLock().lock();
+    try {
+      AIMLSet updateSet = bot.setMap.get(setName);
+      if (updateSet != null) {
+        updateSet.add(setValue);
+        // persist to disk.
+        updateSet.writeAIMLSet();
+      } else {
+        log.info("Unknown AIML set: {}.  A new set will be created. ", setName);
+        // TODO: should we create a new set ? or just log this warning?
+        // The AIML Set doesn't exist. Lets create a new one
+        AIMLSet newSet = new AIMLSet(setName, bot);
+        newSet.add(setValue);
+        newSet.writeAIMLSet();
+      }
+      botInfo.clearResponseCache();
+    } finally {
+      botInfo.writeLock().unlock();
     }
   }
 
@@ -351,19 +400,26 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
    */
   public void addToMap(String mapName, String key, String value) {
     // add an entry to the map.
-    Bot bot = getBot(getCurrentBotName());
-    AIMLMap updateMap = bot.mapMap.get(mapName);
+    BotInfo botInfo = getBotInfo(getCurrentBotName());
+    Bot bot = botInfo.getBot();
     key = key.toUpperCase().trim();
-    if (updateMap != null) {
-      updateMap.put(key, value);
-      // persist to disk!
-      updateMap.writeAIMLMap();
-    } else {
-      log.info("Unknown AIML map: {}.  A new MAP will be created. ", mapName);
-      // dynamically create new maps?!
-      AIMLMap newMap = new AIMLMap(mapName, bot);
-      newMap.put(key, value);
-      newMap.writeAIMLMap();
+    botInfo.writeLock().lock();
+    try {
+      AIMLMap updateMap = bot.mapMap.get(mapName);
+      if (updateMap != null) {
+        updateMap.put(key, value);
+        // persist to disk!
+        updateMap.writeAIMLMap();
+      } else {
+        log.info("Unknown AIML map: {}.  A new MAP will be created. ", mapName);
+        // dynamically create new maps?!
+        AIMLMap newMap = new AIMLMap(mapName, bot);
+        newMap.put(key, value);
+        newMap.writeAIMLMap();
+      }
+      botInfo.clearResponseCache();
+    } finally {
+      botInfo.writeLock().unlock();
     }
   }
 
@@ -440,6 +496,47 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
     return patterns;
   }
 
+  /**
+   * Times matching a sample input of every pattern the bot knows.
+   * 
+   * @param botName
+   *          the bot
+   * @return number of patterns, how many matched and latency percentiles in
+   *         microseconds
+   */
+  public Map<String, Object> benchmarkPatterns(String botName) {
+    Map<String, Object> stats = ResponseCache.benchmark(getBot(botName), listPatterns(botName));
+    info("%s match latency %s", botName, stats);
+    return stats;
+  }
+
+  public void setResponseCache(boolean b) {
+    responseCache = b;
+    if (!b) {
+      for (BotInfo botInfo : bots.values()) {
+        botInfo.clearResponseCache();
+      }
+    }
+  }
+
+  public boolean isResponseCache() {
+    return responseCache;
+  }
+
+  /**
+   * @param botName
+   *          the bot
+   * @return hits, misses, uncacheable inputs and hit ratio of the bot's
+   *         response cache
+   */
+  public Map<String, Object> getResponseCacheStats(String botName) {
+    BotInfo botInfo = getBotInfo(botName);
+    if (botInfo == null || botInfo.getResponseCache() == null) {
+      return null;
+    }
+    return botInfo.getResponseCache().getStats();
+  }
+
   /**
    * Return the number of milliseconds since the last response was given -1 if a
    * response has never been given.
@@ -457,7 +554,8 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
 
   @Override
   public void onText(String text) throws IOException {
-    getResponse(text);
+    // answered on the session's worker - the inbox is not held up
+    getResponseAsync(getCurrentUserName(), getCurrentBotName(), text);
   }
 
   /**
@@ -498,12 +596,32 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
   }
 
   /**
-   * Save all the predicates for all known sessions.
+   * Save all the predicates for all known sessions and wait until they are
+   * written.
    */
   public void savePredicates() throws IOException {
+    List<Future<?>> saves = savePredicatesAsync();
+    for (Future<?> save : saves) {
+      try {
+        save.get();
+      } catch (InterruptedException | ExecutionException e) {
+        throw new IOException("saving predicates failed", e);
+      }
+    }
+  }
+
+  /**
+   * Save all the predicates for all known sessions in the background - only
+   * sessions whose predicates changed are written.
+   * 
+   * @return the pending writes
+   */
+  public List<Future<?>> savePredicatesAsync() {
+    List<Future<?>> saves = new ArrayList<>();
     for (Session session : sessions.values()) {
-      session.savePredicates();
+      saves.add(session.savePredicates());
     }
+    return saves;
   }
 
   public void setEnableAutoConversation(boolean enableAutoConversation) {
@@ -567,32 +685,41 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
 
   @Deprecated /* use startSession(String userName, String botName) */
   public Session startSession(@Deprecated String path, String userName, String botName, @Deprecated java.util.Locale locale) {
+    return startSession(path, userName, botName, locale, true);
+  }
+
+  Session startSession(String path, String userName, String botName, java.util.Locale locale, boolean updateCurrentSession) {
 
     /*
      * not wanted or needed if (path != null) { addBotPath(path); }
      */
 
-    Session session = getSession(userName, botName);
+    String sessionKey = getSessionKey(userName, botName);
+    Session session;
+    // two users arriving together must not create the same session twice
+    synchronized (sessions) {
+      session = sessions.get(sessionKey);
 
-    if (session != null) {
-      log.info("session {} already exists - will use it", getSessionKey(userName, botName));
-      setCurrentSession(userName, botName);
-      return session;
-    }
+      if (session != null) {
+        log.info("session {} already exists - will use it", sessionKey);
+      } else {
+        // create a new session
+        log.info("creating new sessions");
+        BotInfo botInfo = getBotInfo(botName);
+        if (botInfo == null) {
+          error("cannot create session %s is not a valid botName", botName);
+          return null;
+        }
 
-    // create a new session
-    log.info("creating new sessions");
-    BotInfo botInfo = getBotInfo(botName);
-    if (botInfo == null) {
-      error("cannot create session %s is not a valid botName", botName);
-      return null;
+        session = new Session(this, userName, botInfo);
+        sessions.put(sessionKey, session);
+        log.info("Started session for bot botName:{} , userName:{}", botName, userName);
+      }
     }
 
-    session = new Session(this, userName, botInfo);
-    sessions.put(getSessionKey(userName, botName), session);
-
-    log.info("Started session for bot botName:{} , userName:{}", botName, userName);
-    setCurrentSession(userName, botName);
+    if (updateCurrentSession) {
+      setCurrentSession(userName, botName);
+    }
     return session;
   }
 
@@ -604,13 +731,26 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
    * @param botName
    */
   public void setCurrentSession(String userName, String botName) {
-    setCurrentUserName(userName);
-    setCurrentBotName(botName);
+    // only broadcast changes - many users may be chatting
+    if (userName != null && !userName.equals(currentUserName)) {
+      setCurrentUserName(userName);
+    }
+    if (botName != null && !botName.equals(currentBotName)) {
+      setCurrentBotName(botName);
+    }
   }
 
   public void addCategory(Category c) {
-    Bot bot = getBot(getCurrentBotName());
-    bot.brain.addCategory(c);
+    BotInfo botInfo = getBotInfo(getCurrentBotName());
+    Bot bot = botInfo.getBot();
+    botInfo.writeLock().lock();
+    try {
+      bot.brain.addCategory(c);
+      botInfo.categoryAdded(c);
+      botInfo.clearResponseCache();
+    } finally {
+      botInfo.writeLock().unlock();
+    }
   }
 
   public void addCategory(String pattern, String template, String that) {
@@ -855,6 +995,15 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
     return peerSearch;
   }
 
+  public boolean setSnapshots(boolean b) {
+    snapshots = b;
+    return snapshots;
+  }
+
+  public boolean isSnapshots() {
+    return snapshots;
+  }
+
   @Override
   public void startService() {
     super.startService();
@@ -898,7 +1047,7 @@ public class ProgramAB extends Service implements TextListener, TextPublisher, L
       }
     }
 
-    addTask("savePredicates", savePredicatesInterval, 0, "savePredicates");
+    addTask("savePredicates", savePredicatesInterval, 0, "savePredicatesAsync");
     logPublisher = new SimpleLogPublisher(this);
     logPublisher.filterClasses(new String[] { "org.alicebot.ab.Graphmaster", "org.alicebot.ab.MagicBooleans", "class org.myrobotlab.programab.MrlSraixHandler" });
     logPublisher.start();
@@ -30,9 +30,10 @@ import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.net.TcpSerialHub;
 import org.myrobotlab.serial.Port;
-import org.myrobotlab.serial.PortQueue;
 import org.myrobotlab.serial.PortStream;
+import org.myrobotlab.serial.PortUart;
 import org.myrobotlab.serial.SerialControl;
+import org.myrobotlab.serial.SpscByteRing;
 import org.myrobotlab.service.interfaces.PortConnector;
 import org.myrobotlab.service.interfaces.PortPublisher;
 import org.myrobotlab.service.interfaces.QueueSource;
@@ -550,12 +551,12 @@ public class Serial extends Service implements SerialControl, QueueSource, Seria
     return socketPort;
   }
 
-  public PortQueue createVirtualPort(String name) {
-    BlockingQueue<Integer> rx = new LinkedBlockingQueue<Integer>();
-    BlockingQueue<Integer> tx = new LinkedBlockingQueue<Integer>();
-    PortQueue portQueue = new PortQueue(name, rx, tx);
-    ports.put(name, portQueue);
-    return portQueue;
+  public PortUart createVirtualPort(String name) {
+    SpscByteRing rx = new SpscByteRing(PortUart.DEFAULT_CAPACITY);
+    SpscByteRing tx = new SpscByteRing(PortUart.DEFAULT_CAPACITY);
+    PortUart port = new PortUart(name, rx, tx);
+    ports.put(name, port);
+    return port;
   }
 
   static public Serial connectVirtualUart(String myPort) throws IOException {
@@ -568,14 +569,14 @@ public class Serial extends Service implements SerialControl, QueueSource, Seria
 
   static public Serial connectVirtualUart(Serial uart, String myPort, String uartPort) throws IOException {
 
-    BlockingQueue<Integer> left = new LinkedBlockingQueue<Integer>();
-    BlockingQueue<Integer> right = new LinkedBlockingQueue<Integer>();
+    // null modem pair - what one port writes the other reads
+    PortUart[] pair = PortUart.createPair(myPort, uartPort);
 
     // add our virtual port
-    PortQueue vPort = new PortQueue(myPort, left, right);
+    PortUart vPort = pair[0];
     Serial.ports.put(myPort, vPort);
 
-    PortQueue uPort = new PortQueue(uartPort, right, left);
+    PortUart uPort = pair[1];
     if (uart == null) {
       uart = (Serial) Runtime.start(String.format("%s.UART", myPort.replace("/", "_")), "Serial");
     }
@@ -586,6 +587,22 @@ public class Serial extends Service implements SerialControl, QueueSource, Seria
     return uart;
   }
 
+  /**
+   * Simulate a physical line on what a virtual port transmits. A baud rate of
+   * 0 and latency of 0 runs at full in memory speed, a time scale greater than
+   * 1.0 runs the simulated line faster than real time.
+   */
+  static public void setVirtualLine(String portName, int baudRate, long latencyUs, double timeScale) throws IOException {
+    Port port = ports.get(portName);
+    if (!(port instanceof PortUart)) {
+      throw new IOException(String.format("%s is not a virtual port", portName));
+    }
+    PortUart uart = (PortUart) port;
+    uart.setTimeScale(timeScale);
+    uart.setBaudRate(baudRate);
+    uart.setLatency(latencyUs);
+  }
+
   /**
    * disconnect = close + remove listeners all ports on serial network
    */
@@ -756,6 +773,24 @@ public class Serial extends Service implements SerialControl, QueueSource, Seria
    */
   @Override
   public final Integer onByte(Integer newByte) throws IOException {
+    newByte = rx(newByte);
+    tcpSerialHub.broadcast(newByte);
+    return newByte;
+  }
+
+  /**
+   * a chunk from the port's reading thread - it is broadcast to the tcp
+   * clients in one go
+   */
+  @Override
+  public final void onBytes(byte[] data, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; ++i) {
+      rx(data[i] & 0xff);
+    }
+    tcpSerialHub.broadcast(data, offset, length);
+  }
+
+  Integer rx(Integer newByte) throws IOException {
     newByte = newByte & 0xff;
     ++rxCount;
 
@@ -765,8 +800,6 @@ public class Serial extends Service implements SerialControl, QueueSource, Seria
     if (blockingRX.size() < BUFFER_SIZE) {
       blockingRX.add(newByte);
     }
-    
-    tcpSerialHub.broadcast(newByte);
 
     if (recordRx != null) {
       // potentially variety of formats can be supported here
@@ -1244,6 +1277,13 @@ public class Serial extends Service implements SerialControl, QueueSource, Seria
       tcpSerialHub.stop();     
   }
 
+  /**
+   * @return throughput and buffer statistics of every connected tcp client
+   */
+  public List<TcpSerialHub.ClientStats> getTcpClientStats() {
+    return tcpSerialHub.getClientStats();
+  }
+
   public static void main(String[] args) {
 
     LoggingFactory.init(Level.INFO);
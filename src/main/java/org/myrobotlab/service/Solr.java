@@ -10,6 +10,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -37,6 +38,7 @@ import org.bytedeco.javacv.OpenCVFrameConverter.ToIplImage;
 import org.bytedeco.opencv.opencv_core.IplImage;
 import org.myrobotlab.document.Document;
 import org.myrobotlab.document.ProcessingStatus;
+import org.myrobotlab.document.solr.AsyncIndexer;
 import org.myrobotlab.framework.Inbox;
 import org.myrobotlab.framework.Message;
 import org.myrobotlab.framework.Outbox;
@@ -92,6 +94,18 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
   public int yoloPersonTrainingCount = 0;
   public String yoloPersonLabel = null;
 
+  /**
+   * index asynchronously - adds return once the documents are queued (they
+   * wait while the queue is full), documents are batched and sent in the
+   * background with commitWithin, flushes don't hard commit
+   */
+  public boolean asyncIndexing = false;
+  public int indexBatchSize = 100;
+  public long indexBatchDelayMs = 1000;
+  public int indexMaxInFlight = 2;
+  public int commitWithinMs = 5000;
+  transient private AsyncIndexer indexer = null;
+
   public Solr(String n, String id) {
     super(n, id);
   }
@@ -150,6 +164,7 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
     }
     // create the actual solr instance with core1
     embeddedSolrServer = new EmbeddedSolrServer(cores, CORE_NAME);
+    closeIndexer();
     // TODO: verify when the embedded solr server has fully started.
   }
 
@@ -159,6 +174,10 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
    * @param doc
    */
   public void addDocument(SolrInputDocument doc) {
+    if (asyncIndexing) {
+      queue(Collections.singletonList(doc));
+      return;
+    }
     try {
       if (embeddedSolrServer != null) {
         embeddedSolrServer.add(doc);
@@ -181,6 +200,10 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
    *          a collection of solr input docs to add to solr.
    */
   public void addDocuments(Collection<SolrInputDocument> docs) {
+    if (asyncIndexing) {
+      queue(docs);
+      return;
+    }
     try {
       if (embeddedSolrServer != null) {
         embeddedSolrServer.add(docs);
@@ -202,6 +225,11 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
    */
   public void commit() {
     try {
+      // queued documents first
+      if (indexer != null && !indexer.flush(60000)) {
+        log.error("Flushing the index timed out with {} documents pending - not committing", indexer.getPending());
+        return;
+      }
       if (embeddedSolrServer != null) {
         embeddedSolrServer.commit();
       } else {
@@ -211,9 +239,90 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
       log.warn("An exception occurred when trying to commit the index.", e);
     } catch (IOException e) {
       log.warn("A network exception occurred when trying to commit the index.", e);
+    } catch (InterruptedException e) {
+      log.warn("Interrupted flushing the index.", e);
     }
   }
 
+  /**
+   * @return the asynchronous indexer for the current solr client
+   */
+  public synchronized AsyncIndexer getIndexer() {
+    if (indexer == null) {
+      indexer = new AsyncIndexer((embeddedSolrServer != null) ? embeddedSolrServer : solrServer, 10000, indexMaxInFlight);
+      indexer.setBatchSize(indexBatchSize);
+      indexer.setMaxBatchDelayMs(indexBatchDelayMs);
+      indexer.setCommitWithinMs(commitWithinMs);
+      indexer.start();
+    }
+    return indexer;
+  }
+
+  /**
+   * queues documents for the async indexer - waits while its queue is full, so
+   * a producer faster than solr is slowed down instead of losing documents
+   *
+   * @param docs
+   *          documents to index
+   * @return false if interrupted before all of them were queued
+   */
+  boolean queue(Collection<SolrInputDocument> docs) {
+    AsyncIndexer indexer = getIndexer();
+    int queued = 0;
+    try {
+      for (SolrInputDocument doc : docs) {
+        indexer.put(doc);
+        ++queued;
+      }
+      return true;
+    } catch (InterruptedException e) {
+      log.warn("Interrupted queueing documents - {} of {} were not sent to solr", docs.size() - queued, docs.size());
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  synchronized void closeIndexer() {
+    if (indexer != null) {
+      indexer.close();
+      indexer = null;
+    }
+  }
+
+  public void setAsyncIndexing(boolean asyncIndexing) {
+    this.asyncIndexing = asyncIndexing;
+    if (!asyncIndexing) {
+      closeIndexer();
+    }
+  }
+
+  /**
+   * @param batchSize
+   *          documents per update request
+   * @param batchDelayMs
+   *          maximum time a document waits for its batch to fill
+   * @param maxInFlight
+   *          maximum concurrent update requests
+   * @param commitWithinMs
+   *          solr makes documents searchable within this time
+   */
+  public void setIndexing(int batchSize, long batchDelayMs, int maxInFlight, int commitWithinMs) {
+    this.indexBatchSize = batchSize;
+    this.indexBatchDelayMs = batchDelayMs;
+    this.indexMaxInFlight = maxInFlight;
+    this.commitWithinMs = commitWithinMs;
+    // new settings on the next add
+    closeIndexer();
+  }
+
+  /**
+   * @return counts of the asynchronous indexer - null if it's not used
+   */
+  public Map<String, Object> getIndexerStats() {
+    AsyncIndexer i = indexer;
+    return (i == null) ? null : i.getStats();
+  }
+
   /**
    * Delete a single document from the index provided a specific doc id.
    * 
@@ -522,6 +631,9 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
     // this breaks the bean pattern a bit..
     if (solrServer != null) {
       solrServer = new HttpSolrClient.Builder().withBaseSolrUrl(solrUrl).build();
+      if (embeddedSolrServer == null) {
+        closeIndexer();
+      }
     }
   }
 
@@ -542,6 +654,9 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
     for (Document d : docs) {
       docsToSend.add(convertDocument(d));
     }
+    if (asyncIndexing) {
+      return queue(docsToSend) ? ProcessingStatus.OK : ProcessingStatus.DROP;
+    }
     try {
       if (embeddedSolrServer != null) {
         embeddedSolrServer.add(docsToSend);
@@ -586,7 +701,16 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
     // add messages to solr, we could revisit this.
     // or maybe issue a commit here? I hate committing the index so frequently,
     // but maybe it's ok.
-    if (commitOnFlush) {
+    if (asyncIndexing) {
+      // documents become searchable through commitWithin
+      try {
+        if (!getIndexer().flush(60000)) {
+          log.error("Flushing the index timed out with {} documents pending", getIndexer().getPending());
+        }
+      } catch (InterruptedException e) {
+        log.warn("Interrupted flushing the index.", e);
+      }
+    } else if (commitOnFlush) {
       commit();
     }
     return false;
@@ -725,8 +849,17 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
   }
 
   // when attached to an opencv instance this will return images and save them
-  // to solr if there is a label / count specified
+  // to solr if there is a label / count specified - the reference it was handed
+  // with the data is released when it's done
   public OpenCVData onOpenCVData(OpenCVData data) {
+    try {
+      return indexOpenCVData(data);
+    } finally {
+      data.release();
+    }
+  }
+
+  OpenCVData indexOpenCVData(OpenCVData data) {
     // Only record if we are training.
     if (openCvLabel == null) {
       // we're not training just return
@@ -1039,6 +1172,7 @@ public class Solr extends Service implements DocumentListener, TextListener, Mes
 
   public void shutdown() {
     //
+    closeIndexer();
     if (embeddedSolrServer != null) {
       try {
         embeddedSolrServer.close();
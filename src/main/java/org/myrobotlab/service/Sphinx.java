@@ -36,6 +36,7 @@
 
 package org.myrobotlab.service;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -52,11 +53,15 @@ import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.service.abstracts.AbstractSpeechRecognizer;
+import org.myrobotlab.service.data.AudioFrame;
 import org.myrobotlab.service.data.Locale;
 import org.myrobotlab.service.interfaces.SpeechSynthesis;
 import org.myrobotlab.service.interfaces.TextListener;
 import org.slf4j.Logger;
 
+import edu.cmu.sphinx.api.Configuration;
+import edu.cmu.sphinx.api.SpeechResult;
+import edu.cmu.sphinx.api.StreamSpeechRecognizer;
 import edu.cmu.sphinx.frontend.util.Microphone;
 import edu.cmu.sphinx.recognizer.Recognizer;
 import edu.cmu.sphinx.result.Result;
@@ -139,66 +144,7 @@ public class Sphinx extends AbstractSpeechRecognizer {
             }
             log.info("recognized: " + resultText + '\n');
             if (resultText.length() > 0 && isListening) {
-              if (lockPhrases.size() > 0 && !lockPhrases.contains(resultText) && !confirmations.containsKey(resultText)) {
-                log.info("but locked on {}", resultText);
-                continue;
-              }
-
-              // command system being used
-              if (commands != null) {
-
-                if (currentCommand != null && (confirmations == null || confirmations.containsKey(resultText))) {
-                  // i have a command and a confirmation
-                  // command sent
-                  send(currentCommand);
-                  // command finished
-                  currentCommand = null;
-                  invoke("publishText", "ok");
-                  continue;
-
-                } else if (currentCommand != null && negations.containsKey(resultText)) {
-                  // negation has happened... recognized the
-                  // wrong command
-                  // reset command
-                  currentCommand = null;
-                  // apologee
-                  invoke("publishText", "sorry");
-                  continue;
-                } else if (commands.containsKey(resultText) && (confirmations != null || negations != null)) {
-                  if (bypass != null && bypass.containsKey(resultText)) {
-                    // we have confirmation and/or negations
-                    // - but we also have a bypass
-                    send(currentCommand);
-                  } else {
-                    // setting new potential command - using
-                    // either confirmations or negations
-                    Message cmd = commands.get(resultText);
-                    currentCommand = cmd;
-                    invoke("publishRequestConfirmation", resultText);
-                    // continue in the loop, we should stop listening, and we
-                    // shouldn't publish the text becuase we just asked for
-                    // confirmation.
-                    continue;
-                  }
-                } else if (commands.containsKey(resultText)) {
-                  // no confirmations or negations are being
-                  // used - just send command
-                  Message cmd = commands.get(resultText);
-                  send(cmd);
-                } else {
-                  error(String.format("unknown use case for Sphinx commands - word is %s", resultText));
-                  // we don't know what this command was.. just continue.. we
-                  // shouldn't publish text or recognized.
-                  // we recognized it. but we don't publish text..
-                  invoke("recognized", resultText);
-                  continue;
-                }
-              }
-
-              // publishRecognized(resultText);
-              // Only publish the text if there was a known command?
-              invoke("publishText", resultText);
-              invoke("recognized", resultText);
+              processRecognized(resultText);
             }
 
           } else {
@@ -214,6 +160,72 @@ public class Sphinx extends AbstractSpeechRecognizer {
 
   }
 
+  /**
+   * handles a recognized phrase - commands, confirmations and publishing
+   */
+  void processRecognized(String resultText) {
+    if (lockPhrases.size() > 0 && !lockPhrases.contains(resultText) && !confirmations.containsKey(resultText)) {
+      log.info("but locked on {}", resultText);
+      return;
+    }
+
+    // command system being used
+    if (commands != null) {
+
+      if (currentCommand != null && (confirmations == null || confirmations.containsKey(resultText))) {
+        // i have a command and a confirmation
+        // command sent
+        send(currentCommand);
+        // command finished
+        currentCommand = null;
+        invoke("publishText", "ok");
+        return;
+
+      } else if (currentCommand != null && negations.containsKey(resultText)) {
+        // negation has happened... recognized the
+        // wrong command
+        // reset command
+        currentCommand = null;
+        // apologee
+        invoke("publishText", "sorry");
+        return;
+      } else if (commands.containsKey(resultText) && (confirmations != null || negations != null)) {
+        if (bypass != null && bypass.containsKey(resultText)) {
+          // we have confirmation and/or negations
+          // - but we also have a bypass
+          send(currentCommand);
+        } else {
+          // setting new potential command - using
+          // either confirmations or negations
+          Message cmd = commands.get(resultText);
+          currentCommand = cmd;
+          invoke("publishRequestConfirmation", resultText);
+          // we should stop listening, and we
+          // shouldn't publish the text becuase we just asked for
+          // confirmation.
+          return;
+        }
+      } else if (commands.containsKey(resultText)) {
+        // no confirmations or negations are being
+        // used - just send command
+        Message cmd = commands.get(resultText);
+        send(cmd);
+      } else {
+        error(String.format("unknown use case for Sphinx commands - word is %s", resultText));
+        // we don't know what this command was.. just continue.. we
+        // shouldn't publish text or recognized.
+        // we recognized it. but we don't publish text..
+        invoke("recognized", resultText);
+        return;
+      }
+    }
+
+    // publishRecognized(resultText);
+    // Only publish the text if there was a known command?
+    invoke("publishText", resultText);
+    invoke("recognized", resultText);
+  }
+
   private static final long serialVersionUID = 1L;
 
   public final static Logger log = LoggerFactory.getLogger(Sphinx.class.getCanonicalName());
@@ -223,6 +235,11 @@ public class Sphinx extends AbstractSpeechRecognizer {
 
   transient SpeechProcessor speechProcessor = null;
 
+  /**
+   * recognizer for utterances streamed from an AudioCapture
+   */
+  transient StreamSpeechRecognizer streamRecognizer = null;
+
   HashSet<String> lockPhrases = new HashSet<String>();
   
   HashMap<String, Message> confirmations = null;
@@ -397,11 +414,9 @@ public class Sphinx extends AbstractSpeechRecognizer {
     // a filename like i01.ear.gram (without the gram extention of course
     // because is sucks this out of the xml"
     // and re-processes it to be as fragile as possible :P
-    String grammarFileName = getName();
-    grammarFileName = grammarFileName.replaceAll("\\.", "_");
-    if (grammarFileName.contains(".")) {
-      grammarFileName = grammarFileName.substring(0, grammarFileName.indexOf("."));
-    }
+    String grammarFileName = getGrammarName();
+    // the stream recognizer is rebuilt with the new grammar
+    streamRecognizer = null;
 
     simplexml = simplexml.replaceAll("name=\"grammarName\" value=\"simple\"", "name=\"grammarName\" value=\"" + grammarFileName + "\"");
     try {
@@ -419,6 +434,52 @@ public class Sphinx extends AbstractSpeechRecognizer {
     return true;
   }
 
+  String getGrammarName() {
+    String grammarFileName = getName();
+    grammarFileName = grammarFileName.replaceAll("\\.", "_");
+    if (grammarFileName.contains(".")) {
+      grammarFileName = grammarFileName.substring(0, grammarFileName.indexOf("."));
+    }
+    return grammarFileName;
+  }
+
+  /**
+   * Recognizes an utterance segmented by a streaming AudioCapture - no
+   * microphone is opened. The capture format must be 16 kHz 16 bit mono which
+   * is the AudioCapture default. The grammar created by createGrammar is used
+   * if there is one.
+   */
+  @Override
+  public void onUtterance(AudioFrame utterance) {
+    try {
+      if (streamRecognizer == null) {
+        Configuration config = new Configuration();
+        config.setAcousticModelPath("resource:/edu/cmu/sphinx/models/en-us/en-us");
+        config.setDictionaryPath("resource:/edu/cmu/sphinx/models/en-us/cmudict-en-us.dict");
+        config.setLanguageModelPath("resource:/edu/cmu/sphinx/models/en-us/en-us.lm.bin");
+        File grammar = new File(FileIO.getCfgDir() + File.separator + getGrammarName() + ".gram");
+        if (grammar.exists()) {
+          config.setGrammarPath(grammar.getParentFile().toURI().toString());
+          config.setGrammarName(getGrammarName());
+          config.setUseGrammar(true);
+        }
+        streamRecognizer = new StreamSpeechRecognizer(config);
+      }
+      streamRecognizer.startRecognition(new ByteArrayInputStream(utterance.data));
+      SpeechResult result;
+      while ((result = streamRecognizer.getResult()) != null) {
+        String resultText = result.getHypothesis();
+        if (!StringUtils.isEmpty(resultText)) {
+          log.info("recognized utterance: {}", resultText);
+          processRecognized(resultText);
+        }
+      }
+      streamRecognizer.stopRecognition();
+    } catch (Exception e) {
+      error(e);
+    }
+  }
+
   public boolean isRecording() {
     return microphone.isRecording();
   }
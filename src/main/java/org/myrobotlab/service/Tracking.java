@@ -38,6 +38,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.myrobotlab.framework.MRLListener;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.framework.interfaces.Attachable;
@@ -48,6 +49,7 @@ import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.math.geometry.Point2df;
 import org.myrobotlab.math.geometry.Rectangle;
 import org.myrobotlab.opencv.OpenCVData;
+import org.myrobotlab.opencv.OpenCVFilter;
 import org.myrobotlab.opencv.OpenCVFilterDetector;
 import org.myrobotlab.service.interfaces.ServoControl;
 import org.slf4j.Logger;
@@ -119,6 +121,22 @@ public class Tracking extends Service {
   int faceFoundFrameCount = 0;
   
   int faceFoundFrameCountMin = 2;
+
+  /**
+   * while a face is followed by optical flow it's only re-detected every this
+   * many frames - around where the tracker has it
+   */
+  public int faceDetectEvery = 10;
+
+  /**
+   * frame rate face tracking holds - detection runs less often if it has to
+   */
+  public double targetFps = 30;
+
+  /**
+   * a face was detected and the optical flow tracker follows it
+   */
+  transient boolean faceTracked = false;
   
   boolean scan = false;
 
@@ -176,9 +194,44 @@ public class Tracking extends Service {
   }
 
   public void faceDetect() {
+    // the optical flow tracker follows a face between detections - it goes
+    // before face detect so its roi is there on the same frame
+    if (opencv.getFilter(FILTER_LK_OPTICAL_TRACK) == null) {
+      opencv.addFilter(FILTER_LK_OPTICAL_TRACK);
+    }
+    faceTracked = false;
     execFilterFunctions(FILTER_FACE_DETECT, STATE_FACE_DETECT);
   }
 
+  /**
+   * restarts optical flow on the detected face and schedules face detection
+   * to run periodically inside the tracked region
+   */
+  void trackFace(Rectangle face) {
+    opencv.invokeFilterMethod(FILTER_LK_OPTICAL_TRACK, "clearPoints");
+    opencv.invokeFilterMethod(FILTER_LK_OPTICAL_TRACK, "samplePoint", (int) (face.x + face.width / 2), (int) (face.y + face.height / 2));
+    opencv.invokeFilterMethod(FILTER_LK_OPTICAL_TRACK, "setMinRoiSize", (int) Math.max(face.width, face.height));
+    if (!faceTracked) {
+      OpenCVFilter detect = opencv.getFilter(FILTER_FACE_DETECT);
+      detect.setSchedule(faceDetectEvery, 0, targetFps);
+      detect.setRoiSource(FILTER_LK_OPTICAL_TRACK);
+      faceTracked = true;
+    }
+  }
+
+  /**
+   * face detection searches the whole frame, every frame
+   */
+  void lostFace() {
+    if (faceTracked) {
+      opencv.invokeFilterMethod(FILTER_LK_OPTICAL_TRACK, "clearPoints");
+      OpenCVFilter detect = opencv.getFilter(FILTER_FACE_DETECT);
+      detect.clearSchedule();
+      detect.setRoiSource(null);
+      faceTracked = false;
+    }
+  }
+
   public void startLKTracking() {
     execFilterFunctions(FILTER_LK_OPTICAL_TRACK, STATE_LK_TRACKING_POINT);
   }
@@ -199,6 +252,9 @@ public class Tracking extends Service {
     scan = true;
   }
 
+  /**
+   * subscribers release the data when they're done with it
+   */
   public OpenCVData foundFace(OpenCVData data) {
     return data;
   }
@@ -285,17 +341,38 @@ public class Tracking extends Service {
     setState(STATE_IDLE);
   }
 
+  /**
+   * releases the reference it was handed with the data when it's done
+   */
   public OpenCVData onOpenCVData(OpenCVData data) {
+    try {
+      return processOpenCVData(data);
+    } finally {
+      data.release();
+    }
+  }
+
+  OpenCVData processOpenCVData(OpenCVData data) {
     SerializableImage img = new SerializableImage(data.getDisplay(), data.getSelectedFilter());
     float width = img.getWidth();
     float height = img.getHeight();
     switch (state) {
 
       case STATE_FACE_DETECT:
-        // check for bounding boxes
+        // check for bounding boxes - there are none when face detect didn't
+        // run on this frame
         List<Rectangle> bb = data.getBoundingBoxArray();
 
-        if (bb != null && bb.size() > 0) {
+        if (bb == null) {
+          // between detections the optical flow tracker has the face
+          List<Point2df> points = data.getPointArray();
+          if (faceTracked && points != null && points.size() > 0) {
+            updateTrackingPoint(new Point2df(points.get(0).x / width, points.get(0).y / height));
+          }
+          break;
+        }
+
+        if (bb.size() > 0) {
 
           // found face
           // find centroid of first bounding box
@@ -309,11 +386,15 @@ public class Tracking extends Service {
           }
 
           ++faceFoundFrameCount;
+          trackFace(bb.get(0));
 
           // dead zone and state shift
           if (faceFoundFrameCount > faceFoundFrameCountMin) {
             // TODO # of frames for verification
             log.info("found face");
+            // foundFace subscribers get references of their own
+            List<MRLListener> subscribers = getNotifyList("foundFace");
+            data.retain((subscribers == null) ? 0 : subscribers.size());
             invoke("foundFace", data);
             // ensure bumpless transfer ??
             // pid.init("x");
@@ -325,6 +406,7 @@ public class Tracking extends Service {
           // lost track
           // log.info("Lost track...");
           faceFoundFrameCount = 0;
+          lostFace();
           if (scan) {
             log.info("Scan enabled...");
             TrackingServoData x = servoControls.get("x");
@@ -399,6 +481,7 @@ public class Tracking extends Service {
 
   public void stopTracking() {
     log.info("stop tracking, all filters disabled");
+    lostFace();
     setState(STATE_IDLE);
     clearTrackingPoints();
     opencv.disableAll();
@@ -16,7 +16,7 @@ import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
-import org.myrobotlab.serial.PortQueue;
+import org.myrobotlab.serial.PortUart;
 import org.myrobotlab.service.interfaces.SerialDataListener;
 import org.myrobotlab.service.interfaces.SerialDevice;
 import org.slf4j.Logger;
@@ -106,17 +106,16 @@ public class VirtualDevice extends Service implements SerialDataListener {
       uartPort = String.format("%s_uart", myPort);
     }
 
-    BlockingQueue<Integer> left = new LinkedBlockingQueue<Integer>();
-    BlockingQueue<Integer> right = new LinkedBlockingQueue<Integer>();
+    PortUart[] pair = PortUart.createPair(myPort, uartPort);
 
     // create & connect virtual uart
     Serial uart = (Serial) Runtime.start(uartPort, "Serial");
 
     // add our virtual port
-    PortQueue vPort = new PortQueue(myPort, left, right);
+    PortUart vPort = pair[0];
     Serial.ports.put(myPort, vPort);
 
-    PortQueue uPort = new PortQueue(uartPort, right, left);
+    PortUart uPort = pair[1];
     uart.connectPort(uPort, uart);
 
     // add the uart connected to my port
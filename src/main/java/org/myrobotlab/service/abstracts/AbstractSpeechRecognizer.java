@@ -8,7 +8,9 @@ import java.util.TreeSet;
 import org.myrobotlab.framework.Message;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.interfaces.Attachable;
+import org.myrobotlab.service.AudioCapture;
 import org.myrobotlab.service.Runtime;
+import org.myrobotlab.service.data.AudioFrame;
 import org.myrobotlab.service.data.Locale;
 import org.myrobotlab.service.interfaces.SpeechRecognizer;
 import org.myrobotlab.service.interfaces.SpeechSynthesis;
@@ -163,6 +165,8 @@ public abstract class AbstractSpeechRecognizer extends Service implements Speech
   public void attach(Attachable attachable) {
     if (attachable instanceof SpeechSynthesis) {
       attachSpeechSynthesis((SpeechSynthesis) attachable);
+    } else if (attachable instanceof AudioCapture) {
+      attachAudioCapture((AudioCapture) attachable);
     } else {
       error("do not know how to attach %s", attachable.getName());
     }
@@ -191,6 +195,56 @@ public abstract class AbstractSpeechRecognizer extends Service implements Speech
     attached.add(mouth.getName());
   }
 
+  /**
+   * consume the frame and utterance stream of a streaming AudioCapture instead
+   * of opening a microphone
+   * 
+   * @param capture
+   */
+  public void attachAudioCapture(AudioCapture capture) {
+    // the capture only copies frames when someone is subscribed
+    if (consumesAudioFrames()) {
+      subscribe(capture.getName(), "publishAudioFrame");
+    }
+    subscribe(capture.getName(), "publishUtterance");
+    attached.add(capture.getName());
+  }
+
+  public void detachAudioCapture(AudioCapture capture) {
+    unsubscribe(capture.getName(), "publishAudioFrame");
+    unsubscribe(capture.getName(), "publishUtterance");
+    attached.remove(capture.getName());
+  }
+
+  /**
+   * recognizers which override onAudioFrame return true - the others only get
+   * utterances
+   * 
+   * @return true to be sent every frame of an attached AudioCapture
+   */
+  protected boolean consumesAudioFrames() {
+    return false;
+  }
+
+  /**
+   * a fixed duration frame of the capture stream - recognizers which decode
+   * incrementally override this and consumesAudioFrames
+   * 
+   * @param frame
+   */
+  public void onAudioFrame(AudioFrame frame) {
+  }
+
+  /**
+   * a complete utterance segmented by voice activity detection - recognizers
+   * which decode whole utterances override this
+   * 
+   * @param utterance
+   */
+  public void onUtterance(AudioFrame utterance) {
+    log.debug("{} ignoring utterance {}", getName(), utterance);
+  }
+
   public void attachTextListener(TextListener service) {
     if (service == null) {
       log.warn("{}.attachTextListener(null)");
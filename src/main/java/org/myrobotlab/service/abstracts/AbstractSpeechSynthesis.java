@@ -1,13 +1,26 @@
 package org.myrobotlab.service.abstracts;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.myrobotlab.audio.AudioCache;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.framework.interfaces.Attachable;
@@ -199,7 +212,7 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
    */
   protected String lastUtterance;
 
-  transient HashMap<AudioData, String> utterances = new HashMap<AudioData, String>();
+  transient Map<AudioData, String> utterances = new ConcurrentHashMap<AudioData, String>();
 
   /**
    * AudioFile peer for caching and playing effects
@@ -213,6 +226,23 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
   // FIXME - implement this
   protected boolean useCache = false;
 
+  /**
+   * index and bounds of the generated audio files - eviction deletes least
+   * recently (or least frequently) used files
+   */
+  protected transient AudioCache audioCache = null;
+
+  protected long cacheMaxBytes = 512L * 1024 * 1024;
+
+  protected int cacheMaxEntries = 100000;
+
+  /**
+   * generated files older than this are regenerated - 0 keeps them forever
+   */
+  protected long cacheMaxAgeMs = 0;
+
+  protected String cachePolicy = "LRU";
+
   /**
    * voices supported by SpeechSynthesis service
    */
@@ -244,6 +274,28 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
   
   boolean blocking = false;
 
+  /**
+   * number of chunks generated ahead of the one currently playing - 0 (the
+   * default) generates and plays each chunk in sequence
+   */
+  protected int pipelineDepth = 0;
+
+  /**
+   * number of threads generating audio - most tts engines are not thread safe
+   * so the default is a single thread, generation still overlaps playback
+   */
+  protected int pipelineThreads = 1;
+
+  transient ExecutorService generator = null;
+
+  /**
+   * chunks which are not the first of their request - the gap between the end
+   * of the previous chunk and their start is published
+   */
+  transient Set<AudioData> continuations = ConcurrentHashMap.newKeySet();
+
+  transient long lastAudioEndTs = 0;
+
   // FIXME - deprecate - begin using SSML
   // specific effects and effect notation needs to be isolated to the
   // implementing service
@@ -408,6 +460,9 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
 
     // filters on only our speech
     if (utterances.containsKey(data)) {
+      if (continuations.remove(data) && lastAudioEndTs > 0) {
+        invoke("publishInterChunkGap", System.currentTimeMillis() - lastAudioEndTs);
+      }
       invoke("publishAudioStart", data);
       invoke("publishStartSpeaking", utterances.get(data));
     }
@@ -418,6 +473,7 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
 
     // filters on only our speech
     if (utterances.containsKey(data)) {
+      lastAudioEndTs = System.currentTimeMillis();
       invoke("publishAudioEnd", data);
       invoke("publishEndSpeaking", utterances.get(data));
       utterances.remove(data);
@@ -504,7 +560,11 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
     audioFile = (AudioFile) startPeer("audioFile");
     subscribe(audioFile.getName(), "publishAudioStart");
     subscribe(audioFile.getName(), "publishAudioEnd");
-    
+
+    // indexing a large cache directory can take a while
+    final AudioCache cache = getAudioCache();
+    new Thread(() -> cache.index(), String.format("%s.cache", getName())).start();
+
     if (voices.size() > 0) {
       setReady(true);
     }
@@ -514,6 +574,10 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
     super.stopService();
     unsubscribe(audioFile.getName(), "publishAudioStart");
     unsubscribe(audioFile.getName(), "publishAudioEnd");
+    if (generator != null) {
+      generator.shutdownNow();
+      generator = null;
+    }
   }
 
   AudioData play(String filename, boolean block) {
@@ -555,6 +619,7 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
     // TODO - use SSML speech synthesis markup language
     
     log.info("{} processing {}", getName(), toSpeak);
+    long requestTs = System.currentTimeMillis();
 
     // broadcast the original text to be processed/parsed
     invoke("publishSpeechRequested", toSpeak);
@@ -568,12 +633,16 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
     }
 
     List<String> spokenParts = parseEffects(toSpeak);
+    if (pipelineDepth > 0) {
+      spokenParts = splitSentences(spokenParts);
+    }
 
     toSpeak = filterText(toSpeak);
 
     // we generate a list of audio data to play to support
     // synthesizing this speech
     List<AudioData> playList = new ArrayList<AudioData>();
+    List<String> texts = new ArrayList<String>();
 
     for (String speak : spokenParts) {
 
@@ -589,14 +658,19 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
         continue;
       }
 
-      if (!mute) {
-        process(audioData, speak, blocking);
-      } else {
-    	log.info("not producing audio for {} - currently we are mute", speak);
+      if (mute) {
+        log.info("not producing audio for {} - currently we are mute", speak);
+      } else if (pipelineDepth == 0) {
+        process(audioData, speak, blocking, (playList.isEmpty()) ? requestTs : null);
       }
 
       // effect files are handled differently from generated audio
       playList.add(audioData);
+      texts.add(speak);
+    }
+
+    if (!mute && pipelineDepth > 0) {
+      processPipelined(playList, texts, blocking, requestTs);
     }
     // FIXME - in theory "speaking" means generating audio from some text
     // so starting speaking event is when the first audio is "started"
@@ -621,6 +695,163 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
     return timeMs;
   }
 
+  /**
+   * time from the speech request until the first chunk's audio was ready to
+   * play
+   * 
+   * @param timeMs
+   * @return
+   */
+  public Long publishTimeToFirstAudio(Long timeMs) {
+    return timeMs;
+  }
+
+  /**
+   * silence between the end of one chunk and the start of the next chunk of
+   * the same request
+   * 
+   * @param timeMs
+   * @return
+   */
+  public Long publishInterChunkGap(Long timeMs) {
+    return timeMs;
+  }
+
+  /**
+   * number of chunks to generate ahead of the one playing - 0 disables
+   * pipelining
+   * 
+   * @param depth
+   */
+  public void setPipelineDepth(int depth) {
+    pipelineDepth = Math.max(0, depth);
+    broadcastState();
+  }
+
+  public int getPipelineDepth() {
+    return pipelineDepth;
+  }
+
+  /**
+   * number of generator threads - only increase if the tts engine is thread
+   * safe
+   * 
+   * @param threads
+   */
+  synchronized public void setPipelineThreads(int threads) {
+    pipelineThreads = Math.max(1, threads);
+    if (generator != null) {
+      generator.shutdown();
+      generator = null;
+    }
+    broadcastState();
+  }
+
+  synchronized ExecutorService getGenerator() {
+    if (generator == null) {
+      generator = Executors.newFixedThreadPool(pipelineThreads, r -> new Thread(r, String.format("%s.generator", getName())));
+    }
+    return generator;
+  }
+
+  /**
+   * generates the audio for a chunk if it is not already available
+   * 
+   * @param audioData
+   * @param speak
+   * @return
+   * @throws Exception
+   */
+  AudioData generate(AudioData audioData, String speak) throws Exception {
+    long generateStartTs = System.currentTimeMillis();
+    AudioCache cache = getAudioCache();
+    String filename = audioData.getFileName();
+
+    if (filename != null && cache.isManaged(filename)) {
+      if (!cache.lookup(filename)) {
+        log.debug("cache miss generating audio data [{}] from [{}]", audioData, speak);
+        generateAudioData(audioData, speak);
+        cache.add(filename);
+      }
+    } else if (!audioData.isValid()) {
+      log.debug("try generating audio data [{}] from [{}]", audioData, speak);
+      generateAudioData(audioData, speak);
+    }
+
+    invoke("publishGenerationTime", System.currentTimeMillis() - generateStartTs);
+    return audioData;
+  }
+
+  /**
+   * Producer/consumer playback - up to pipelineDepth chunks are generated ahead
+   * on the generator pool while the current chunk plays. Chunks are played in
+   * order regardless of which generation finishes first.
+   */
+  void processPipelined(List<AudioData> playList, List<String> texts, boolean block, long requestTs) {
+    int size = playList.size();
+    List<Future<AudioData>> generated = new ArrayList<Future<AudioData>>(size);
+    ExecutorService pool = getGenerator();
+
+    try {
+      for (int i = 0; i < size; ++i) {
+        // keep the window of chunks being generated full
+        while (generated.size() < size && generated.size() <= i + pipelineDepth) {
+          final AudioData audioData = playList.get(generated.size());
+          final String speak = texts.get(generated.size());
+          generated.add(pool.submit(() -> generate(audioData, speak)));
+        }
+
+        AudioData audioData = playList.get(i);
+        try {
+          generated.get(i).get();
+        } catch (ExecutionException e) {
+          log.error("could not generate audio", e.getCause());
+          error("%s %s", e.getCause().getClass().getSimpleName(), e.getCause().getMessage());
+          continue;
+        }
+
+        if (!audioData.isValid()) {
+          log.error("speech service could not generate audio data [{}]", audioData);
+          continue;
+        }
+
+        if (i == 0) {
+          invoke("publishTimeToFirstAudio", System.currentTimeMillis() - requestTs);
+        } else {
+          continuations.add(audioData);
+        }
+        utterances.put(audioData, texts.get(i));
+        play(audioData, block);
+      }
+    } catch (InterruptedException e) {
+      log.info("{} speech interrupted", getName());
+      for (Future<AudioData> f : generated) {
+        f.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * splits text parts into sentences so the first sentence can be played while
+   * the rest is being generated - effects are left as is
+   */
+  List<String> splitSentences(List<String> parts) {
+    List<String> ret = new ArrayList<String>();
+    for (String part : parts) {
+      if (part.startsWith("#") && part.endsWith("#")) {
+        ret.add(part);
+        continue;
+      }
+      for (String sentence : part.split("(?<=[.!?;:])\\s+")) {
+        if (sentence.trim().length() > 0) {
+          ret.add(sentence.trim());
+        }
+      }
+    }
+    return ret;
+  }
+
   /**
    * process speaking - generate the text to be spoken or play a cache file if
    * appropriate
@@ -632,25 +863,40 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
    * @return block - to block or not
    */
   public AudioData process(AudioData audioData, String speak, boolean block) {
+    return process(audioData, speak, block, null);
+  }
+
+  /**
+   * generation is done on the generator thread, so it is never concurrent
+   * with pre-warming on a single threaded engine
+   *
+   * @param requestTs
+   *          - when the speech was requested - the time to first audio is
+   *          published if the audio is generated, null for none
+   */
+  AudioData process(AudioData audioData, String speak, boolean block, Long requestTs) {
 
     try {
 
-      long generateStartTs = System.currentTimeMillis();
       utterances.put(audioData, speak);
-
-      if (!audioData.isValid()) {
-        log.debug("try generating audio data [{}] from [{}]", audioData, speak);
-        generateAudioData(audioData, speak);
-      }
-
-      invoke("publishGenerationTime", System.currentTimeMillis() - generateStartTs);
+      getGenerator().submit(() -> generate(audioData, speak)).get();
 
       if (!audioData.isValid()) {
         log.error("speech service could not generate audio data [{}]", audioData);
         return audioData;
       }
 
+      if (requestTs != null) {
+        invoke("publishTimeToFirstAudio", System.currentTimeMillis() - requestTs);
+      }
+
       play(audioData, block);
+    } catch (ExecutionException e) {
+      log.error("could not generate audio", e.getCause());
+      error("%s %s", e.getCause().getClass().getSimpleName(), e.getCause().getMessage());
+    } catch (InterruptedException e) {
+      log.info("{} speech interrupted", getName());
+      Thread.currentThread().interrupt();
     } catch (Exception e) {
       log.error("could not generate audio", e);
       error("%s %s", e.getClass().getSimpleName(), e.getMessage());
@@ -735,8 +981,129 @@ public abstract class AbstractSpeechSynthesis extends Service implements SpeechS
   }
 
   public void purgeCache() {
-    // audioFile.deleteFiles(String.format("%s%s, args)globalFileCacheDir);
-    audioFile.deleteFiles(this.getClass().getSimpleName());
+    getAudioCache().clear();
+    info("purged %s audio cache", getName());
+  }
+
+  synchronized public AudioCache getAudioCache() {
+    if (audioCache == null) {
+      audioCache = new AudioCache(System.getProperty("user.dir") + File.separator + globalFileCacheDir + File.separator + getClass().getSimpleName());
+      audioCache.setMaxBytes(cacheMaxBytes);
+      audioCache.setMaxEntries(cacheMaxEntries);
+      audioCache.setMaxAge(cacheMaxAgeMs);
+      audioCache.setPolicy(AudioCache.Policy.valueOf(cachePolicy));
+    }
+    return audioCache;
+  }
+
+  /**
+   * hit/miss/eviction statistics of the audio cache
+   * 
+   * @return
+   */
+  public Map<String, Object> getCacheStats() {
+    return getAudioCache().getStats();
+  }
+
+  public void setCacheMaxBytes(long maxBytes) {
+    cacheMaxBytes = maxBytes;
+    getAudioCache().setMaxBytes(maxBytes);
+    broadcastState();
+  }
+
+  public void setCacheMaxEntries(int maxEntries) {
+    cacheMaxEntries = maxEntries;
+    getAudioCache().setMaxEntries(maxEntries);
+    broadcastState();
+  }
+
+  public void setCacheMaxAge(long maxAgeMs) {
+    cacheMaxAgeMs = maxAgeMs;
+    getAudioCache().setMaxAge(maxAgeMs);
+    broadcastState();
+  }
+
+  /**
+   * @param policy
+   *          LRU or LFU
+   */
+  public void setCachePolicy(String policy) {
+    cachePolicy = policy.toUpperCase();
+    getAudioCache().setPolicy(AudioCache.Policy.valueOf(cachePolicy));
+    broadcastState();
+  }
+
+  /**
+   * Synthesizes a list of known phrases (e.g. AIML templates) into the cache in
+   * the background. Phrases are generated one at a time on the generator pool
+   * - the same thread speech is generated on - so speech requests are not held
+   * up behind the whole list and never run concurrently with it.
+   * 
+   * @param phrases
+   *          phrases to generate
+   */
+  public void prewarm(List<String> phrases) {
+    final List<String> parts = new ArrayList<String>();
+    for (String phrase : phrases) {
+      String toSpeak = phrase.toLowerCase();
+      for (String substitute : substitutions.keySet()) {
+        toSpeak = toSpeak.replace(substitute, substitutions.get(substitute));
+      }
+      List<String> spokenParts = parseEffects(toSpeak);
+      if (pipelineDepth > 0) {
+        spokenParts = splitSentences(spokenParts);
+      }
+      for (String speak : spokenParts) {
+        if (speak.trim().length() > 0 && !(speak.startsWith("#") && speak.endsWith("#"))) {
+          parts.add(speak);
+        }
+      }
+    }
+
+    final ExecutorService pool = getGenerator();
+    final Iterator<String> it = parts.iterator();
+    final long start = System.currentTimeMillis();
+    log.info("{} pre-warming {} phrases", getName(), parts.size());
+    pool.submit(new Runnable() {
+      @Override
+      public void run() {
+        if (!it.hasNext()) {
+          log.info("{} pre-warmed {} phrases in {} ms - {}", getName(), parts.size(), System.currentTimeMillis() - start, getAudioCache());
+          return;
+        }
+        String speak = it.next();
+        try {
+          String filename = getLocalFileName(speak);
+          if (filename != null && !getAudioCache().lookup(filename)) {
+            generateAudioData(new AudioData(filename), speak);
+            getAudioCache().add(filename);
+          }
+        } catch (Exception e) {
+          log.error("pre-warming {} threw", speak, e);
+        }
+        try {
+          pool.submit(this);
+        } catch (RejectedExecutionException e) {
+          log.info("{} pre-warming stopped", getName());
+        }
+      }
+    });
+  }
+
+  /**
+   * pre-warm from a text file - one phrase per line
+   * 
+   * @param filename
+   * @throws IOException
+   */
+  public void prewarmFile(String filename) throws IOException {
+    List<String> phrases = new ArrayList<String>();
+    for (String line : Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8)) {
+      if (line.trim().length() > 0) {
+        phrases.add(line.trim());
+      }
+    }
+    prewarm(phrases);
   }
 
   public Voice getVoice() {
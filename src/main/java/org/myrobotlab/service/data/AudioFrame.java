@@ -0,0 +1,68 @@
+package org.myrobotlab.service.data;
+
+import java.io.Serializable;
+
+/**
+ * A block of captured 16 bit signed little endian pcm - either a fixed
+ * duration frame of the capture stream or a complete utterance segmented by
+ * voice activity detection.
+ */
+public class AudioFrame implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * capture time of the first sample
+   */
+  public long ts;
+
+  /**
+   * sequence number of the (first) frame in the capture stream
+   */
+  public long seq;
+
+  public float sampleRate;
+
+  public int channels;
+
+  /**
+   * pcm samples
+   */
+  public byte[] data;
+
+  /**
+   * rms energy in dB relative to full scale
+   */
+  public double energy;
+
+  /**
+   * zero crossings per sample
+   */
+  public double zcr;
+
+  /**
+   * true if voice activity detection classified the frame as speech
+   */
+  public boolean voiced;
+
+  public AudioFrame(long ts, long seq, float sampleRate, int channels, byte[] data) {
+    this.ts = ts;
+    this.seq = seq;
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.data = data;
+  }
+
+  public int getSamples() {
+    return data.length / (2 * channels);
+  }
+
+  public long getDurationMs() {
+    return (long) (getSamples() * 1000 / sampleRate);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("seq %d %d ms %.1f dB zcr %.2f%s", seq, getDurationMs(), energy, zcr, (voiced) ? " voiced" : "");
+  }
+
+}
@@ -0,0 +1,93 @@
+package org.myrobotlab.service.data;
+
+import java.io.Serializable;
+
+/**
+ * Primitive snapshot of a poll cycle of pins. All polled pins are present,
+ * the change mask marks the ones which changed (beyond their deadband or
+ * across their threshold) since they were last published.
+ *
+ * It is published once per cycle and only when at least one pin changed -
+ * unlike PinData[] there is no object per pin.
+ */
+public class PinArray implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * time the snapshot was taken
+   */
+  public long ts;
+
+  /**
+   * number of pins in the snapshot
+   */
+  public int size;
+
+  /**
+   * pin addresses
+   */
+  public int[] address;
+
+  /**
+   * pin names e.g. A0 D7 - references to the controller's pin definitions
+   */
+  public String[] pin;
+
+  /**
+   * pin values
+   */
+  public int[] value;
+
+  /**
+   * bit i is set if pin i changed
+   */
+  public long[] changed;
+
+  public PinArray(int size) {
+    this.ts = System.currentTimeMillis();
+    this.size = size;
+    this.address = new int[size];
+    this.pin = new String[size];
+    this.value = new int[size];
+    this.changed = new long[(size + 63) >> 6];
+  }
+
+  public boolean isChanged(int index) {
+    return (changed[index >> 6] & (1L << index)) != 0;
+  }
+
+  public void setChanged(int index) {
+    changed[index >> 6] |= (1L << index);
+  }
+
+  public int getChangedCount() {
+    int count = 0;
+    for (int i = 0; i < changed.length; ++i) {
+      count += Long.bitCount(changed[i]);
+    }
+    return count;
+  }
+
+  /**
+   * @return index of a pin address in this snapshot or -1
+   */
+  public int indexOf(int pinAddress) {
+    for (int i = 0; i < size; ++i) {
+      if (address[i] == pinAddress) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < size; ++i) {
+      if (isChanged(i)) {
+        sb.append(String.format("%s=%d ", (pin[i] != null) ? pin[i] : address[i], value[i]));
+      }
+    }
+    return sb.toString().trim();
+  }
+
+}
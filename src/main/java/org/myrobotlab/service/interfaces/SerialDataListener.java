@@ -32,6 +32,16 @@ import org.myrobotlab.framework.interfaces.NameProvider;
 public interface SerialDataListener extends NameProvider, QueueReporter, PortListener {
 
   // FIXME - Integer object because no method cache
-  // FIXME - byte[] onBytes(byte[] bytes)
   public Integer onByte(Integer b) throws IOException;
+
+  /**
+   * a chunk of received bytes - ports which read in bulk call this once per
+   * chunk. The array is reused by the port, so it must not be kept. The
+   * default hands each byte to onByte.
+   */
+  default void onBytes(byte[] data, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; ++i) {
+      onByte(data[i] & 0xFF);
+    }
+  }
 }
@@ -426,10 +426,15 @@ public class OpenCVGui extends ServiceGui implements ListSelectionListener, Vide
   public void onOpenCVData(OpenCVData data) {
     // Needed to avoid null pointer exception when
     // using RemoteAdapter
-    if (cframe != null) {
-      cframe.showImage(converter.convert(data.getImage()));
-    } else {
-      video0.displayFrame(new SerializableImage(data.getDisplay(), data.getSelectedFilter()));
+    try {
+      if (cframe != null) {
+        cframe.showImage(converter.convert(data.getImage()));
+      } else {
+        video0.displayFrame(new SerializableImage(data.getDisplay(), data.getSelectedFilter()));
+      }
+    } finally {
+      // the displayed images are copies
+      data.release();
     }
   }
 
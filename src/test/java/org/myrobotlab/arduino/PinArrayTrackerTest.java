@@ -0,0 +1,113 @@
+package org.myrobotlab.arduino;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.myrobotlab.service.data.PinArray;
+
+public class PinArrayTrackerTest {
+
+  PinArray cycle(PinArrayTracker tracker, int... values) {
+    tracker.begin();
+    for (int i = 0; i < values.length; ++i) {
+      tracker.add(14 + i, "A" + i, values[i]);
+    }
+    return tracker.end();
+  }
+
+  @Test
+  public void testChangeMask() {
+    PinArrayTracker tracker = new PinArrayTracker();
+
+    // first cycle reports everything
+    PinArray pins = cycle(tracker, 100, 200, 300);
+    assertNotNull(pins);
+    assertEquals(3, pins.size);
+    assertEquals(3, pins.getChangedCount());
+    assertEquals("A1", pins.pin[1]);
+    assertEquals(15, pins.address[1]);
+    assertEquals(1, pins.indexOf(15));
+
+    // nothing changed - nothing published
+    assertNull(cycle(tracker, 100, 200, 300));
+
+    // one pin changed - full snapshot, one bit set
+    pins = cycle(tracker, 100, 201, 300);
+    assertEquals(1, pins.getChangedCount());
+    assertFalse(pins.isChanged(0));
+    assertTrue(pins.isChanged(1));
+    assertEquals(300, pins.value[2]);
+
+    assertEquals(3, tracker.getCycleCount());
+    assertEquals(2, tracker.getPublishedCount());
+  }
+
+  @Test
+  public void testDeadband() {
+    PinArrayTracker tracker = new PinArrayTracker();
+    tracker.setDeadband(14, 10);
+    cycle(tracker, 500);
+    assertNull(cycle(tracker, 505));
+    assertNull(cycle(tracker, 510));
+    // drift accumulates against the last published value
+    PinArray pins = cycle(tracker, 511);
+    assertNotNull(pins);
+    assertEquals(511, pins.value[0]);
+    assertNull(cycle(tracker, 515));
+  }
+
+  @Test
+  public void testThreshold() {
+    PinArrayTracker tracker = new PinArrayTracker();
+    tracker.setDeadband(14, 1000);
+    tracker.setThreshold(14, 512);
+    cycle(tracker, 500);
+    assertNull(cycle(tracker, 511));
+    assertNotNull(cycle(tracker, 512));
+    assertNull(cycle(tracker, 600));
+    assertNotNull(cycle(tracker, 400));
+    tracker.clearThreshold(14);
+    assertNull(cycle(tracker, 600));
+  }
+
+  @Test
+  public void testManyPins() {
+    PinArrayTracker tracker = new PinArrayTracker();
+    int[] values = new int[70];
+    PinArray pins = cycle(tracker, values);
+    assertEquals(70, pins.getChangedCount());
+    values[69] = 1;
+    pins = cycle(tracker, values);
+    assertEquals(1, pins.getChangedCount());
+    assertTrue(pins.isChanged(69));
+    assertFalse(pins.isChanged(5));
+  }
+
+  @Test
+  public void testSharedCycle() {
+    PinArrayTracker cycle = new PinArrayTracker();
+    PinArrayTracker subscriber = new PinArrayTracker();
+    subscriber.setDeadband(14, 10);
+
+    assertNotNull(cycle(cycle, 500, 100));
+    assertEquals(2, subscriber.update(cycle).getChangedCount());
+
+    // every change is reported by the default tracker - only the one beyond
+    // the subscriber's deadband by its own
+    assertNotNull(cycle(cycle, 505, 100));
+    assertNull(subscriber.update(cycle));
+    cycle(cycle, 505, 101);
+    PinArray pins = subscriber.update(cycle);
+    assertEquals(1, pins.getChangedCount());
+    assertTrue(pins.isChanged(1));
+    cycle(cycle, 520, 101);
+    pins = subscriber.update(cycle);
+    assertTrue(pins.isChanged(0));
+    assertEquals(520, pins.value[0]);
+  }
+
+}
@@ -0,0 +1,146 @@
+package org.myrobotlab.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AudioCacheTest {
+
+  File dir;
+  AudioCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("audioCache").toFile();
+    cache = new AudioCache(dir.getPath());
+    cache.index();
+  }
+
+  @After
+  public void tearDown() {
+    cache.clear();
+    dir.delete();
+  }
+
+  String create(String name, int size) throws IOException {
+    File file = new File(dir, name);
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[size]);
+    }
+    return file.getPath();
+  }
+
+  String add(String name, int size) throws IOException {
+    String filename = create(name, size);
+    cache.add(filename);
+    return filename;
+  }
+
+  @Test
+  public void testLru() throws Exception {
+    cache.setMaxEntries(3);
+    String a = add("a.mp3", 10);
+    String b = add("b.mp3", 10);
+    String c = add("c.mp3", 10);
+    assertTrue(cache.lookup(a));
+    String d = add("d.mp3", 10);
+    // b is the least recently used
+    assertEquals(3, cache.size());
+    assertFalse(new File(b).exists());
+    assertFalse(cache.lookup(b));
+    assertTrue(cache.lookup(a));
+    assertTrue(cache.lookup(c));
+    assertTrue(cache.lookup(d));
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void testLfu() throws Exception {
+    cache.setPolicy(AudioCache.Policy.LFU);
+    cache.setMaxEntries(3);
+    String a = add("a.mp3", 10);
+    String b = add("b.mp3", 10);
+    String c = add("c.mp3", 10);
+    cache.lookup(a);
+    cache.lookup(a);
+    cache.lookup(c);
+    String d = add("d.mp3", 10);
+    // b was never used
+    assertFalse(new File(b).exists());
+    // the new entry is not the victim although it has no hits yet
+    String e = add("e.mp3", 10);
+    assertFalse(new File(d).exists());
+    assertTrue(new File(e).exists());
+    assertTrue(cache.lookup(a));
+    assertTrue(cache.lookup(c));
+    assertEquals(3, cache.size());
+    assertEquals(2, cache.getEvictions());
+  }
+
+  @Test
+  public void testMaxBytes() throws Exception {
+    cache.setMaxBytes(250);
+    String a = add("a.mp3", 100);
+    add("b.mp3", 100);
+    assertEquals(200, cache.getBytes());
+    add("c.mp3", 100);
+    assertEquals(200, cache.getBytes());
+    assertEquals(2, cache.size());
+    assertFalse(new File(a).exists());
+    // lowering the limit evicts right away
+    cache.setMaxBytes(100);
+    assertEquals(100, cache.getBytes());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testMaxAge() throws Exception {
+    String old = create("old.mp3", 10);
+    new File(old).setLastModified(System.currentTimeMillis() - 60000);
+    String recent = create("recent.mp3", 10);
+    cache.setMaxAge(30000);
+    // expired files are evicted when the directory is indexed
+    cache.index();
+    assertEquals(1, cache.size());
+    assertFalse(new File(old).exists());
+    assertTrue(cache.lookup(recent));
+
+    cache.setMaxAge(50);
+    String a = add("a.mp3", 10);
+    Thread.sleep(100);
+    assertFalse(cache.lookup(a));
+    assertFalse(new File(a).exists());
+    // the next add evicts the other expired entry
+    add("b.mp3", 10);
+    assertEquals(1, cache.size());
+    assertFalse(new File(recent).exists());
+  }
+
+  @Test
+  public void testHitsAndMisses() throws Exception {
+    String a = add("a.mp3", 10);
+    assertTrue(cache.lookup(a));
+    assertTrue(cache.lookup(a));
+    assertFalse(cache.lookup(new File(dir, "missing.mp3").getPath()));
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(2.0 / 3, cache.getHitRatio(), 0.0001);
+
+    // deleted behind the cache's back - a miss and the entry is dropped
+    new File(a).delete();
+    assertFalse(cache.lookup(a));
+    assertEquals(2, cache.getMisses());
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getBytes());
+  }
+
+}
@@ -0,0 +1,196 @@
+package org.myrobotlab.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+public class AudioMixerTest {
+
+  public final static Logger log = LoggerFactory.getLogger(AudioMixerTest.class);
+
+  static final AudioFormat STEREO = new AudioFormat(44100, 16, 2, true, false);
+
+  /**
+   * constant level 16 bit pcm
+   */
+  static AudioInputStream constant(float rate, int channels, int frames, short value) {
+    AudioFormat format = new AudioFormat(rate, 16, channels, true, false);
+    byte[] pcm = new byte[frames * channels * 2];
+    for (int i = 0; i < pcm.length; i += 2) {
+      pcm[i] = (byte) value;
+      pcm[i + 1] = (byte) (value >> 8);
+    }
+    return new AudioInputStream(new ByteArrayInputStream(pcm), format, frames);
+  }
+
+  static AudioInputStream sine(float rate, int frames, double hz) {
+    AudioFormat format = new AudioFormat(rate, 16, 1, true, false);
+    byte[] pcm = new byte[frames * 2];
+    for (int i = 0; i < frames; ++i) {
+      short s = (short) (Math.sin(2 * Math.PI * hz * i / rate) * 8000);
+      pcm[i * 2] = (byte) s;
+      pcm[i * 2 + 1] = (byte) (s >> 8);
+    }
+    return new AudioInputStream(new ByteArrayInputStream(pcm), format, frames);
+  }
+
+  static short left(AudioMixer mixer, int frame) {
+    return (short) ((mixer.out[frame * 4] & 0xFF) | (mixer.out[frame * 4 + 1] << 8));
+  }
+
+  static short right(AudioMixer mixer, int frame) {
+    return (short) ((mixer.out[frame * 4 + 2] & 0xFF) | (mixer.out[frame * 4 + 3] << 8));
+  }
+
+  /**
+   * counts closes of the stream under a track
+   */
+  static class ClosingStream extends ByteArrayInputStream {
+    int closed = 0;
+
+    ClosingStream(byte[] data) {
+      super(data);
+    }
+
+    @Override
+    public void close() {
+      ++closed;
+    }
+  }
+
+  @Test
+  public void testStreamsClosed() throws Exception {
+    AudioMixer mixer = new AudioMixer(STEREO, 256, new NullSink());
+    ClosingStream stopped = new ClosingStream(new byte[4096]);
+    ClosingStream ended = new ClosingStream(new byte[4096]);
+    MixerTrack a = mixer.play("a", new AudioInputStream(stopped, STEREO, 1024));
+    mixer.play("b", new AudioInputStream(ended, STEREO, 1024));
+    mixer.mix();
+    a.stop();
+    assertEquals(1, stopped.closed);
+    mixer.mix();
+    mixer.mix();
+    mixer.mix();
+    mixer.mix();
+    assertTrue(mixer.getTracks().isEmpty());
+    // closed once each - when stopped or at the end
+    assertEquals(1, stopped.closed);
+    assertEquals(1, ended.closed);
+  }
+
+  @Test
+  public void testMixGainBalance() throws Exception {
+    NullSink sink = new NullSink();
+    AudioMixer mixer = new AudioMixer(STEREO, 256, sink);
+    MixerTrack a = mixer.play("a", constant(44100, 1, 1024, (short) 8000));
+    MixerTrack b = mixer.play("b", constant(44100, 2, 1024, (short) 4000));
+    b.setGain(0.5);
+    b.setBalance(1.0);
+    assertEquals(2, mixer.mix());
+    // mono is copied to both sides, b is right only at half gain
+    assertEquals(8000, left(mixer, 10), 2);
+    assertEquals(10000, right(mixer, 10), 2);
+    assertEquals(256 * 4, sink.getBytes());
+
+    mixer.mix();
+    mixer.mix();
+    mixer.mix();
+    // the end of the streams is found on the next period
+    assertEquals(0, mixer.mix());
+    assertTrue(a.isFinished());
+    assertTrue(b.isFinished());
+    assertTrue(mixer.getTracks().isEmpty());
+    assertEquals(1024, a.getFrames());
+  }
+
+  @Test
+  public void testResample() throws Exception {
+    AudioMixer mixer = new AudioMixer(STEREO, 512, new NullSink());
+    // one second at 22050 lasts one second at 44100
+    MixerTrack track = mixer.play("speech", constant(22050, 1, 22050, (short) 1000));
+    int periods = 0;
+    while (!track.isFinished()) {
+      mixer.mix();
+      ++periods;
+    }
+    assertEquals(44100, track.getFrames(), 2);
+    assertEquals((44100 + 511) / 512, periods);
+  }
+
+  @Test
+  public void testDucking() throws Exception {
+    AudioMixer mixer = new AudioMixer(STEREO, 256, new NullSink());
+    mixer.setDuckGain(0.25);
+    mixer.play("music", constant(44100, 2, 44100, (short) 8000));
+    mixer.mix();
+    assertEquals(8000, left(mixer, 100), 2);
+
+    MixerTrack speech = mixer.play("speech", constant(44100, 1, 44100, (short) 0));
+    speech.setDucking(true);
+    // ramps down to the duck gain
+    for (int i = 0; i < 20; ++i) {
+      mixer.mix();
+    }
+    assertEquals(2000, left(mixer, 100), 2);
+
+    speech.stop();
+    for (int i = 0; i < 20; ++i) {
+      mixer.mix();
+    }
+    assertEquals(8000, left(mixer, 100), 2);
+  }
+
+  @Test
+  public void testFileSink() throws Exception {
+    File file = File.createTempFile("mixer", ".wav");
+    file.deleteOnExit();
+    AudioMixer mixer = new AudioMixer(STEREO, 1024, new FileSink(file.getPath()));
+    MixerTrack track = mixer.play("tone", sine(16000, 16000, 440));
+    while (!track.isFinished()) {
+      mixer.mix();
+    }
+    mixer.getSink().close();
+    AudioInputStream in = AudioSystem.getAudioInputStream(file);
+    assertEquals(44100, in.getFormat().getSampleRate(), 0);
+    assertEquals(mixer.getPeriods() * 1024, in.getFrameLength());
+    in.close();
+  }
+
+  @Test
+  public void benchmarkTracks() throws Exception {
+    int seconds = 10;
+    for (int n : new int[] { 1, 4, 8 }) {
+      AudioMixer mixer = new AudioMixer(STEREO, 1024, new NullSink());
+      MixerTrack[] tracks = new MixerTrack[n];
+      for (int i = 0; i < n; ++i) {
+        // mix of rates - speech engines often produce 16 or 22 kHz
+        float rate = (i % 2 == 0) ? 44100 : 22050;
+        tracks[i] = mixer.play("t" + i, sine(rate, (int) rate * seconds, 220 + 110 * i));
+        tracks[i].setGain(1.0 / n);
+      }
+      while (!mixer.getTracks().isEmpty()) {
+        mixer.mix();
+      }
+      long cpu = 0;
+      for (MixerTrack track : tracks) {
+        cpu += track.getCpuNanos();
+      }
+      double load = mixer.getMixNanos() / (seconds * 1e9);
+      log.info("{} tracks - {}% cpu total {}% cpu per track {} clipped", n, String.format("%.3f", load * 100), String.format("%.3f", cpu / (seconds * 1e9) / n * 100),
+          mixer.getClipped());
+      // must mix much faster than real time
+      assertTrue(load < 0.5);
+    }
+  }
+
+}
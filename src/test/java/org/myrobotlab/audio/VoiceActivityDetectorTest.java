@@ -0,0 +1,111 @@
+package org.myrobotlab.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.Test;
+
+public class VoiceActivityDetectorTest {
+
+  static final int RATE = 16000;
+  // 20 ms frames
+  static final int FRAME_BYTES = RATE / 50 * 2;
+
+  /**
+   * background noise with bursts of "speech" (a tone) at the given times
+   */
+  static byte[] signal(int ms, int[][] bursts) {
+    Random random = new Random(7);
+    int samples = RATE * ms / 1000;
+    byte[] pcm = new byte[samples * 2];
+    for (int i = 0; i < samples; ++i) {
+      double v = random.nextGaussian() * 30;
+      int t = i * 1000 / RATE;
+      for (int[] burst : bursts) {
+        if (t >= burst[0] && t < burst[1]) {
+          v += Math.sin(2 * Math.PI * 300 * i / RATE) * 6000;
+        }
+      }
+      short s = (short) v;
+      pcm[i * 2] = (byte) s;
+      pcm[i * 2 + 1] = (byte) (s >> 8);
+    }
+    return pcm;
+  }
+
+  static List<long[]> run(VoiceActivityDetector vad, byte[] pcm) {
+    List<long[]> segments = new ArrayList<long[]>();
+    for (int offset = 0; offset + FRAME_BYTES <= pcm.length; offset += FRAME_BYTES) {
+      if (vad.process(pcm, offset)) {
+        segments.add(new long[] { vad.getUtteranceStart(), vad.getUtteranceLength() / FRAME_BYTES });
+      }
+    }
+    return segments;
+  }
+
+  @Test
+  public void testSegments() {
+    VoiceActivityDetector vad = new VoiceActivityDetector(FRAME_BYTES, 10, 500);
+    byte[] pcm = signal(5000, new int[][] { { 1000, 1600 }, { 3000, 3400 } });
+    List<long[]> segments = run(vad, pcm);
+    assertEquals(2, segments.size());
+    // speech starts at 1000 ms (frame 50) and is detected on its 3rd frame -
+    // the 10 frames before detection are the pre roll
+    assertEquals(42, segments.get(0)[0]);
+    // 10 pre roll + 28 speech + 25 hangover frames
+    assertEquals(63, segments.get(0)[1]);
+    assertEquals(142, segments.get(1)[0]);
+    assertEquals(53, segments.get(1)[1]);
+    assertFalse(vad.isSpeaking());
+    assertTrue(vad.getNoiseFloor() < -50);
+  }
+
+  @Test
+  public void testClickIgnored() {
+    VoiceActivityDetector vad = new VoiceActivityDetector(FRAME_BYTES, 10, 500);
+    // 60 ms - long enough to start, too short to be speech
+    assertEquals(0, run(vad, signal(2000, new int[][] { { 1000, 1080 } })).size());
+  }
+
+  @Test
+  public void testMaxUtterance() {
+    VoiceActivityDetector vad = new VoiceActivityDetector(FRAME_BYTES, 0, 100);
+    List<long[]> segments = run(vad, signal(5000, new int[][] { { 500, 4500 } }));
+    assertTrue(segments.size() >= 2);
+    assertEquals(100, segments.get(0)[1]);
+  }
+
+  @Test
+  public void testWavFile() throws Exception {
+    byte[] pcm = signal(3000, new int[][] { { 1000, 1500 } });
+    AudioFormat format = new AudioFormat(RATE, 16, 1, true, false);
+    File file = File.createTempFile("vad", ".wav");
+    file.deleteOnExit();
+    AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, pcm.length / 2), AudioFileFormat.Type.WAVE, file);
+
+    AudioInputStream in = AudioSystem.getAudioInputStream(file);
+    byte[] read = new byte[pcm.length];
+    int fill = 0;
+    int n;
+    while (fill < read.length && (n = in.read(read, fill, read.length - fill)) > 0) {
+      fill += n;
+    }
+    in.close();
+    assertEquals(pcm.length, fill);
+    VoiceActivityDetector vad = new VoiceActivityDetector(FRAME_BYTES, 10, 500);
+    assertEquals(1, run(vad, read).size());
+  }
+
+}
@@ -0,0 +1,234 @@
+package org.myrobotlab.document.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * parallel walking and chunked csv parsing on generated corpora - logs the
+ * throughput of each against a sequential read
+ */
+public class ParallelCrawlTest extends AbstractTest {
+
+  static Path corpus;
+  static int fileCount = 0;
+
+  @BeforeClass
+  public static void generate() throws IOException {
+    corpus = Files.createTempDirectory("crawl");
+    for (int i = 0; i < 10; ++i) {
+      for (int j = 0; j < 10; ++j) {
+        Path dir = corpus.resolve("dir_" + i).resolve("sub_" + j);
+        Files.createDirectories(dir);
+        for (int k = 0; k < 20; ++k) {
+          Files.write(dir.resolve("file_" + k + ".txt"), ("file " + k).getBytes(StandardCharsets.UTF_8));
+          ++fileCount;
+        }
+      }
+    }
+  }
+
+  @AfterClass
+  public static void cleanup() throws IOException {
+    Files.walkFileTree(corpus, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  class Counter implements ParallelFileWalker.Visitor {
+    final Set<Path> files = ConcurrentHashMap.newKeySet();
+    final Set<Path> complete = ConcurrentHashMap.newKeySet();
+    final int stopAfter;
+
+    Counter(int stopAfter) {
+      this.stopAfter = stopAfter;
+    }
+
+    @Override
+    public boolean isRunning() {
+      return stopAfter < 0 || files.size() < stopAfter;
+    }
+
+    @Override
+    public void visitFile(Path file, BasicFileAttributes attrs) {
+      files.add(file);
+    }
+
+    @Override
+    public void directoryComplete(Path dir, List<Path> subdirs) {
+      complete.removeAll(subdirs);
+      complete.add(dir);
+    }
+  }
+
+  @Test
+  public void testWalk() throws IOException {
+    long start = System.nanoTime();
+    AtomicInteger sequential = new AtomicInteger();
+    Files.walkFileTree(corpus, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        sequential.incrementAndGet();
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    long sequentialNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    Counter counter = new Counter(-1);
+    assertTrue(new ParallelFileWalker(4).walk(corpus, new HashSet<Path>(), counter));
+    long parallelNanos = System.nanoTime() - start;
+
+    assertEquals(fileCount, sequential.get());
+    assertEquals(fileCount, counter.files.size());
+    // everything is covered by the root
+    assertEquals(1, counter.complete.size());
+    log.info("walked {} files sequential {} files/s parallel {} files/s", fileCount, (long) (fileCount * 1e9 / sequentialNanos), (long) (fileCount * 1e9 / parallelNanos));
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    File file = new File(corpus.toFile().getParentFile(), corpus.getFileName() + ".checkpoint");
+    Counter first = new Counter(fileCount / 2);
+    assertFalse(new ParallelFileWalker(4).walk(corpus, new HashSet<Path>(), first));
+
+    // persisted and loaded as a connector would
+    Checkpoint checkpoint = new Checkpoint(file);
+    for (Path dir : first.complete) {
+      checkpoint.put("complete." + dir, 1);
+    }
+    checkpoint.save();
+    Set<Path> complete = new HashSet<Path>();
+    for (String dir : new Checkpoint(file).keys("complete.")) {
+      complete.add(corpus.getFileSystem().getPath(dir));
+    }
+    assertEquals(first.complete, complete);
+
+    Counter second = new Counter(-1);
+    assertTrue(new ParallelFileWalker(4).walk(corpus, complete, second));
+    Set<Path> all = new HashSet<Path>(first.files);
+    all.addAll(second.files);
+    assertEquals(fileCount, all.size());
+    // only the directories which weren't complete are crawled again
+    assertTrue(second.files.size() < fileCount);
+    checkpoint.delete();
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void testCsvChunks() throws Exception {
+    File csv = File.createTempFile("corpus", ".csv");
+    int rows = 50000;
+    try (PrintWriter out = new PrintWriter(csv, "UTF-8")) {
+      out.print("id,name,text\n");
+      for (int i = 0; i < rows; ++i) {
+        // quoted newlines and quotes must not split a record, neither must an
+        // escaped quote in an unquoted field
+        String name = (i % 2 == 0) ? "name %d" : "name \\\"%d";
+        out.printf("%d," + name + ",\"line one\nline \"\"two\"\" of %d\"\n", i, i, i);
+      }
+    }
+
+    long start = System.nanoTime();
+    List<String[]> sequential = new ArrayList<String[]>();
+    CSVReader reader = new CSVReader(new FileReader(csv));
+    String[] line;
+    while ((line = reader.readNext()) != null) {
+      sequential.add(line);
+    }
+    reader.close();
+    long sequentialNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    List<CsvChunks.Chunk> chunks = CsvChunks.split(csv, 0, 0, 64 * 1024, ',', '"', '\\');
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Future<List<String[]>>> results = new ArrayList<Future<List<String[]>>>();
+    for (CsvChunks.Chunk chunk : chunks) {
+      results.add(pool.submit(() -> {
+        List<String[]> records = new ArrayList<String[]>();
+        CSVReader r = new CSVReader(new InputStreamReader(CsvChunks.open(csv, chunk), StandardCharsets.UTF_8));
+        String[] next;
+        while ((next = r.readNext()) != null) {
+          records.add(next);
+        }
+        r.close();
+        return records;
+      }));
+    }
+    List<String[]> parallel = new ArrayList<String[]>();
+    for (int i = 0; i < chunks.size(); ++i) {
+      List<String[]> records = results.get(i).get();
+      assertEquals(chunks.get(i).records, records.size());
+      parallel.addAll(records);
+    }
+    long parallelNanos = System.nanoTime() - start;
+    pool.shutdown();
+
+    assertTrue(chunks.size() > 1);
+    assertEquals(rows + 1, sequential.size());
+    assertEquals(sequential.size(), parallel.size());
+    for (int i = 0; i < sequential.size(); ++i) {
+      assertTrue(Arrays.equals(sequential.get(i), parallel.get(i)));
+    }
+    CsvChunks.Chunk last = chunks.get(chunks.size() - 1);
+    assertEquals(rows + 1, last.firstRecord + last.records);
+
+    // the data starts after the header
+    long offset = CsvChunks.recordEnd(csv, 0, ',', '"', '\\');
+    assertEquals("id,name,text\n".length(), offset);
+    // a quoted newline does not end the record
+    String first = "0,name 0,\"line one\nline \"\"two\"\" of 0\"\n";
+    assertEquals(offset + first.length(), CsvChunks.recordEnd(csv, offset, ',', '"', '\\'));
+    // neither does one after an escaped quote
+    offset += first.length();
+    String second = "1,name \\\"1,\"line one\nline \"\"two\"\" of 1\"\n";
+    assertEquals(offset + second.length(), CsvChunks.recordEnd(csv, offset, ',', '"', '\\'));
+    assertEquals("name \"1", sequential.get(2)[1]);
+    assertEquals(csv.length(), CsvChunks.recordEnd(csv, csv.length(), ',', '"', '\\'));
+
+    double mb = csv.length() / 1024.0 / 1024.0;
+    log.info("parsed {} records {} MB in {} chunks - sequential {} MB/s parallel {} MB/s", rows, String.format("%.1f", mb), chunks.size(),
+        String.format("%.1f", mb * 1e9 / sequentialNanos), String.format("%.1f", mb * 1e9 / parallelNanos));
+    csv.delete();
+  }
+
+}
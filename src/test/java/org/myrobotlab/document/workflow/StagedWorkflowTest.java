@@ -0,0 +1,125 @@
+package org.myrobotlab.document.workflow;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.myrobotlab.document.Document;
+import org.myrobotlab.document.transformer.AbstractStage;
+import org.myrobotlab.document.transformer.StageConfiguration;
+import org.myrobotlab.document.transformer.WorkflowConfiguration;
+import org.myrobotlab.test.AbstractTest;
+
+public class StagedWorkflowTest extends AbstractTest {
+
+  static final List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+
+  /**
+   * takes a random time so documents finish out of order
+   */
+  public static class SlowStage extends AbstractStage {
+    final Random random = new Random();
+
+    @Override
+    public void startStage(StageConfiguration config) {
+    }
+
+    @Override
+    public List<Document> processDocument(Document doc) {
+      try {
+        Thread.sleep(random.nextInt(3));
+      } catch (InterruptedException e) {
+      }
+      return null;
+    }
+
+    @Override
+    public void stopStage() {
+    }
+
+    @Override
+    public void flush() {
+    }
+  }
+
+  public static class RecordStage extends AbstractStage {
+    @Override
+    public void startStage(StageConfiguration config) {
+    }
+
+    @Override
+    public List<Document> processDocument(Document doc) {
+      seen.add(doc.getId());
+      return null;
+    }
+
+    @Override
+    public void stopStage() {
+    }
+
+    @Override
+    public void flush() {
+    }
+  }
+
+  StageConfiguration stage(String name, Class<?> c, int threads) {
+    StageConfiguration config = new StageConfiguration();
+    config.setStageName(name);
+    config.setStageClass(c.getName());
+    config.setNumThreads(threads);
+    return config;
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    seen.clear();
+    WorkflowConfiguration config = new WorkflowConfiguration("staged");
+    config.setName("staged");
+    config.setStaged(true);
+    config.addStage(stage("slow", SlowStage.class, 4));
+    config.addStage(stage("record", RecordStage.class, 1));
+
+    StagedWorkflow workflow = new StagedWorkflow(config);
+    workflow.initialize();
+    int count = 200;
+    for (int i = 0; i < count; ++i) {
+      workflow.processDocument(new Document("doc_" + i));
+    }
+    // flush returns only when every document has left the last stage
+    workflow.flush();
+    assertEquals(count, seen.size());
+    for (int i = 0; i < count; ++i) {
+      assertEquals("doc_" + i, seen.get(i));
+    }
+
+    List<StageStats> stats = workflow.getStageStats();
+    assertEquals(2, stats.size());
+    assertEquals(count, stats.get(0).in);
+    assertEquals(count, stats.get(1).out);
+    log.info("{}", stats);
+    workflow.stop();
+  }
+
+  @Test
+  public void testNullDocument() throws Exception {
+    seen.clear();
+    WorkflowConfiguration config = new WorkflowConfiguration("plain");
+    config.setName("plain");
+    config.setNumWorkerThreads(1);
+    config.addStage(stage("record", RecordStage.class, 1));
+
+    Workflow workflow = new Workflow(config);
+    workflow.initialize();
+    workflow.processDocument(null);
+    workflow.processDocument(new Document("doc"));
+    // a rejected document is not waited for
+    workflow.flush();
+    assertEquals(1, seen.size());
+    workflow.stop();
+  }
+
+}
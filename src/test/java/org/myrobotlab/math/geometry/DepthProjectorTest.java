@@ -0,0 +1,59 @@
+package org.myrobotlab.math.geometry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+public class DepthProjectorTest extends AbstractTest {
+
+  @Test
+  public void testProject() {
+    DepthProjector projector = new DepthProjector(4, 3, 2.0f, 2.0f, 1.5f, 1.0f);
+    // stride is wider than the image
+    short[] depth = new short[5 * 3];
+    for (int v = 0; v < 3; ++v) {
+      for (int u = 0; u < 4; ++u) {
+        depth[v * 5 + u] = 2000;
+      }
+    }
+    depth[0] = 0;
+    depth[1] = 100;
+    // unsigned
+    depth[2] = (short) 40000;
+
+    PointCloud pc = projector.project(depth, 5, 0.001f, 0.5f, 50.0f);
+    assertEquals(12, pc.size());
+    assertEquals(4, pc.getWidth());
+    assertEquals(3, pc.getHeight());
+    // no depth and too close
+    assertTrue(Float.isNaN(pc.getZ()[0]));
+    assertTrue(Float.isNaN(pc.getX()[1]));
+    assertEquals(-40.0f, pc.getZ()[2], 1e-4);
+
+    // pixel (3, 2) - right of and below the center
+    int i = 2 * 4 + 3;
+    assertEquals((3 - 1.5f) / 2.0f * 2.0f, pc.getX()[i], 1e-6);
+    assertEquals((1.0f - 2) / 2.0f * 2.0f, pc.getY()[i], 1e-6);
+    assertEquals(-2.0f, pc.getZ()[i], 1e-6);
+  }
+
+  @Test
+  public void testKinectFov() {
+    DepthProjector projector = DepthProjector.kinect(640, 480);
+    short[] depth = new short[640 * 480];
+    Arrays.fill(depth, (short) 1000);
+    PointCloud pc = projector.project(depth, 640, 0.001f, 0.4f, 8.0f);
+    // the edges of the image are at half the field of view
+    float halfWidth = (float) Math.tan(Math.toRadians(DepthProjector.KINECT_HORIZONTAL_FOV / 2));
+    float halfHeight = (float) Math.tan(Math.toRadians(DepthProjector.KINECT_VERTICAL_FOV / 2));
+    assertEquals(halfWidth, pc.getX()[240 * 640 + 639], 0.01);
+    assertEquals(-halfWidth, pc.getX()[240 * 640], 0.01);
+    assertEquals(halfHeight, pc.getY()[320], 0.01);
+    assertEquals(-halfHeight, pc.getY()[479 * 640 + 320], 0.01);
+  }
+
+}
@@ -0,0 +1,87 @@
+package org.myrobotlab.math.geometry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+public class VoxelGridTest extends AbstractTest {
+
+  @Test
+  public void testAddRemove() {
+    VoxelGrid grid = new VoxelGrid(0.1f, 16);
+    grid.add(0.01f, 0.01f, 0.01f);
+    grid.add(0.03f, 0.05f, 0.07f);
+    // floor - not truncated towards 0
+    grid.add(-0.01f, 0.01f, 0.01f);
+    grid.add(Float.NaN, 0, 0);
+    assertEquals(2, grid.size());
+    assertEquals(2, grid.getCount(0.09f, 0.09f, 0.09f));
+    assertEquals(1, grid.getCount(-0.09f, 0.0f, 0.0f));
+    assertTrue(grid.isOccupied(0.05f, 0.05f, 0.05f));
+    assertFalse(grid.isOccupied(0.15f, 0.05f, 0.05f));
+
+    grid.remove(0.05f, 0.05f, 0.05f);
+    assertEquals(1, grid.size());
+    assertFalse(grid.isOccupied(0.05f, 0.05f, 0.05f));
+    grid.add(0.05f, 0.05f, 0.05f);
+    assertEquals(1, grid.getCount(0.05f, 0.05f, 0.05f));
+
+    // grows past its initial capacity
+    for (int i = -500; i < 500; ++i) {
+      grid.add(i * 0.1f + 0.05f, -i * 0.1f + 0.05f, 0.05f);
+    }
+    assertEquals(1001, grid.size());
+    assertTrue(grid.isOccupied(-49.95f, 50.05f, 0.05f));
+    grid.clear();
+    assertEquals(0, grid.size());
+    assertFalse(grid.isOccupied(0.05f, 0.05f, 0.05f));
+  }
+
+  @Test
+  public void testDownsample() {
+    VoxelGrid grid = new VoxelGrid(1.0f);
+    grid.add(new PointCloud(new float[] { 0.2f, 0.4f, 5.5f, Float.NaN }, new float[] { 1.2f, 1.6f, -2.5f, Float.NaN }, new float[] { -3.5f, -3.5f, 0.5f, Float.NaN }, 4));
+    PointCloud pc = grid.downsample();
+    assertEquals(2, pc.size());
+    for (int i = 0; i < pc.size(); ++i) {
+      if (pc.getX()[i] < 1) {
+        assertEquals(0.3f, pc.getX()[i], 1e-6);
+        assertEquals(1.4f, pc.getY()[i], 1e-6);
+        assertEquals(-3.5f, pc.getZ()[i], 1e-6);
+      } else {
+        assertEquals(5.5f, pc.getX()[i], 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void testCluster() {
+    VoxelGrid grid = new VoxelGrid(10);
+    Random random = new Random(1);
+    // two boxes 200 apart and a few stray points
+    for (int i = 0; i < 2000; ++i) {
+      grid.add(random.nextFloat() * 100, random.nextFloat() * 100, random.nextFloat() * 50);
+      grid.add(300 + random.nextFloat() * 50, random.nextFloat() * 50, random.nextFloat() * 50);
+    }
+    // two voxels - too small to be an object
+    grid.add(-500, -500, -500);
+    grid.add(-505, -500, -500);
+    List<int[]> clusters = grid.cluster(40, 5);
+    assertEquals(2, clusters.size());
+    assertEquals(grid.size() - 2, clusters.get(0).length + clusters.get(1).length);
+    for (int[] cluster : clusters) {
+      boolean near = grid.getCentroidX(cluster[0]) < 150;
+      for (int slot : cluster) {
+        assertEquals(near, grid.getCentroidX(slot) < 150);
+        assertEquals(near, grid.getVoxelX(slot) < 15);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,89 @@
+package org.myrobotlab.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class PcapReaderTest {
+
+  /**
+   * writes a little endian, micro second pcap file of ethernet/ipv4/udp
+   * records - a null payload writes an arp record which should be skipped
+   */
+  public static void writePcap(File file, int[] ports, byte[][] payloads) throws IOException {
+    file.getParentFile().mkdirs();
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      ByteBuffer global = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+      global.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(65535).putInt(1);
+      out.write(global.array());
+      for (int i = 0; i < payloads.length; ++i) {
+        byte[] payload = payloads[i];
+        int length = (payload == null) ? 42 : 14 + 20 + 8 + payload.length;
+        ByteBuffer record = ByteBuffer.allocate(16 + length);
+        record.order(ByteOrder.LITTLE_ENDIAN);
+        // 1 ms apart
+        record.putInt(1000).putInt(i * 1000).putInt(length).putInt(length);
+        record.order(ByteOrder.BIG_ENDIAN);
+        // ethernet
+        record.put(new byte[12]);
+        record.putShort((short) ((payload == null) ? 0x0806 : 0x0800));
+        if (payload != null) {
+          // ipv4 - udp
+          record.put((byte) 0x45).put(new byte[8]).put((byte) 17).put(new byte[10]);
+          record.putShort((short) 5000).putShort((short) ports[i]).putShort((short) (8 + payload.length)).putShort((short) 0);
+          record.put(payload);
+        }
+        out.write(record.array());
+      }
+    }
+  }
+
+  @Test
+  public void testRead() throws Exception {
+    File file = new File("target/PcapReaderTest/test.pcap");
+    writePcap(file, new int[] { 2368, 0, 8308 }, new byte[][] { { 1, 2, 3 }, null, { 4, 5 } });
+
+    ByteBuffer buffer = ByteBuffer.allocate(1536);
+    try (PcapReader pcap = new PcapReader(file.getPath())) {
+      assertTrue(pcap.next(buffer));
+      assertEquals(2368, pcap.getDestinationPort());
+      assertEquals(1000L * 1000000, pcap.getTimestampUs());
+      assertEquals(3, buffer.remaining());
+      assertEquals(3, buffer.get(2));
+
+      // the arp record is skipped
+      assertTrue(pcap.next(buffer));
+      assertEquals(8308, pcap.getDestinationPort());
+      assertEquals(1000L * 1000000 + 2000, pcap.getTimestampUs());
+      assertEquals(2, buffer.remaining());
+      assertEquals(4, buffer.get(0));
+
+      assertFalse(pcap.next(buffer));
+    }
+  }
+
+  @Test
+  public void testNotPcap() throws Exception {
+    File file = new File("target/PcapReaderTest/not.pcap");
+    file.getParentFile().mkdirs();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[24]);
+    }
+    try (PcapReader pcap = new PcapReader(file.getPath())) {
+      fail("not a pcap file");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("not a pcap file"));
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+package org.myrobotlab.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+public class TcpSerialHubTest {
+
+  public final static Logger log = LoggerFactory.getLogger(TcpSerialHubTest.class);
+
+  static void waitFor(TcpSerialHub hub, int clients) throws InterruptedException {
+    for (int i = 0; i < 100 && hub.getClientStats().size() < clients; ++i) {
+      Thread.sleep(20);
+    }
+  }
+
+  /**
+   * more clients than the old fixed pool of 2 threads could serve all receive
+   * every RX byte in order
+   */
+  @Test
+  public void testBroadcastManyClients() throws Exception {
+    TcpSerialHub hub = new TcpSerialHub();
+    hub.start(32399);
+    List<Socket> sockets = new ArrayList<>();
+    try {
+      int clientCount = 6;
+      for (int i = 0; i < clientCount; ++i) {
+        sockets.add(new Socket("127.0.0.1", hub.getPort()));
+      }
+      waitFor(hub, clientCount);
+      assertEquals(clientCount, hub.getClientStats().size());
+
+      int total = 20000;
+      byte[] chunk = new byte[100];
+      for (int i = 0; i < total; i += chunk.length) {
+        for (int j = 0; j < chunk.length; ++j) {
+          chunk[j] = (byte) (i + j);
+        }
+        if (i % 200 == 0) {
+          hub.broadcast(chunk, 0, chunk.length);
+        } else {
+          // byte at a time like Serial.onByte
+          for (int j = 0; j < chunk.length; ++j) {
+            hub.broadcast(chunk[j] & 0xFF);
+          }
+        }
+        Thread.sleep(1);
+      }
+
+      for (Socket socket : sockets) {
+        socket.setSoTimeout(5000);
+        InputStream in = socket.getInputStream();
+        for (int i = 0; i < total; ++i) {
+          assertEquals((i & 0xFF), in.read());
+        }
+      }
+
+      for (TcpSerialHub.ClientStats stats : hub.getClientStats()) {
+        log.info("{}", stats);
+        assertEquals(total, stats.rxBytes);
+        assertEquals(0, stats.droppedBytes);
+      }
+    } finally {
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+      hub.stop();
+    }
+  }
+
+  /**
+   * collects what the clients send instead of writing it to a serial port
+   */
+  static class TxHub extends TcpSerialHub {
+    final ByteArrayOutputStream tx = new ByteArrayOutputStream();
+
+    @Override
+    void tx(byte[] bytes, int length) {
+      synchronized (tx) {
+        tx.write(bytes, 0, length);
+      }
+    }
+
+    String getTx() {
+      synchronized (tx) {
+        return new String(tx.toByteArray());
+      }
+    }
+  }
+
+  static void waitForTx(TxHub hub, String expected) throws InterruptedException {
+    for (int i = 0; i < 100 && !hub.getTx().equals(expected); ++i) {
+      Thread.sleep(20);
+    }
+  }
+
+  /**
+   * when the tx owner disconnects the other clients are read again
+   */
+  @Test
+  public void testTxOwnerDisconnects() throws Exception {
+    TxHub hub = new TxHub();
+    // only the disconnect gives up ownership
+    hub.txIdleMs = 60000;
+    hub.start(32397);
+    Socket a = new Socket("127.0.0.1", hub.getPort());
+    Socket b = new Socket("127.0.0.1", hub.getPort());
+    try {
+      waitFor(hub, 2);
+      a.getOutputStream().write("aaa".getBytes());
+      a.getOutputStream().flush();
+      waitForTx(hub, "aaa");
+      assertEquals("aaa", hub.getTx());
+
+      // not b's turn - tcp holds its bytes
+      b.getOutputStream().write("bbb".getBytes());
+      b.getOutputStream().flush();
+      Thread.sleep(200);
+      assertEquals("aaa", hub.getTx());
+
+      a.close();
+      waitForTx(hub, "aaabbb");
+      assertEquals("aaabbb", hub.getTx());
+
+      b.getOutputStream().write("ccc".getBytes());
+      b.getOutputStream().flush();
+      waitForTx(hub, "aaabbbccc");
+      assertEquals("aaabbbccc", hub.getTx());
+    } finally {
+      a.close();
+      b.close();
+      hub.stop();
+    }
+  }
+
+  /**
+   * a client which never reads loses data but does not stall the others
+   */
+  @Test
+  public void testSlowClient() throws Exception {
+    TcpSerialHub hub = new TcpSerialHub();
+    hub.setClientBufferSize(1024);
+    hub.start(32398);
+    Socket slow = new Socket("127.0.0.1", hub.getPort());
+    slow.setReceiveBufferSize(1024);
+    Socket fast = new Socket("127.0.0.1", hub.getPort());
+    try {
+      waitFor(hub, 2);
+      int total = 4 * 1024 * 1024;
+      byte[] chunk = new byte[4096];
+      InputStream in = fast.getInputStream();
+      fast.setSoTimeout(5000);
+      byte[] buffer = new byte[8192];
+      int read = 0;
+      for (int i = 0; i < total; i += chunk.length) {
+        hub.broadcast(chunk, 0, chunk.length);
+        while (in.available() > 0) {
+          read += in.read(buffer);
+        }
+      }
+      long dropped = 0;
+      for (TcpSerialHub.ClientStats stats : hub.getClientStats()) {
+        dropped += stats.droppedBytes;
+      }
+      assertTrue(read > 0);
+      assertTrue(dropped > 0);
+    } finally {
+      slow.close();
+      fast.close();
+      hub.stop();
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+package org.myrobotlab.opencv;
+
+import static org.bytedeco.opencv.helper.opencv_imgcodecs.cvLoadImage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bytedeco.opencv.opencv_core.IplImage;
+import org.junit.Test;
+import org.myrobotlab.io.FileIO;
+import org.myrobotlab.test.AbstractTest;
+
+public class AsyncRecorderTest extends AbstractTest {
+
+  @Test
+  public void testRecordAndReplay() throws Exception {
+    String dir = "target" + File.separator + "AsyncRecorderTest";
+    FileIO.rmDir(new File(dir), null);
+
+    IplImage image = cvLoadImage("src/test/resources/OpenCV/rachel.jpg");
+    // every frame is wanted - the capture thread waits for the encoder
+    AsyncRecorder recorder = new AsyncRecorder(dir, true, 2, false);
+    // 10 frames 100 ms apart - a segment every 500 ms
+    recorder.setSegments(500, 0).start();
+    for (int i = 0; i < 10; ++i) {
+      assertTrue(recorder.record(image, i, 1000 + i * 100));
+    }
+    recorder.close();
+    assertTrue(recorder.awaitClosed(10000));
+
+    AsyncRecorder.Stats stats = recorder.getStats();
+    log.info("stats {}", stats);
+    assertEquals(10, stats.recorded);
+    assertEquals(0, stats.dropped);
+    assertEquals(2, stats.segments);
+    assertEquals(0, stats.backlog);
+
+    List<String> index = new ArrayList<>();
+    for (String line : Files.readAllLines(new File(dir, AsyncRecorder.INDEX_FILE).toPath())) {
+      if (!line.startsWith("#")) {
+        index.add(line);
+      }
+    }
+    assertEquals(10, index.size());
+    assertEquals("7 1700 1 2 segment-001/00000002.png", index.get(7));
+
+    // replayed in recorded order - seekable by frame
+    ImageFileFrameGrabber grabber = new ImageFileFrameGrabber(dir);
+    assertEquals(10, grabber.getLengthInFrames());
+    grabber.setFrameNumber(7);
+    grabber.grab();
+    assertEquals(7, grabber.getFrameNumber());
+    assertEquals(1700000, grabber.getTimestamp());
+    grabber.release();
+  }
+
+}
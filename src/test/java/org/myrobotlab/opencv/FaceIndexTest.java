@@ -0,0 +1,246 @@
+package org.myrobotlab.opencv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+public class FaceIndexTest extends AbstractTest {
+
+  static final int SIZE = 64;
+
+  /**
+   * a face of a synthetic person - the person's pixels, shifted a little, with
+   * a random brightness and noise
+   */
+  static byte[] syntheticFace(Random random, byte[] person, int size) {
+    byte[] face = new byte[size * size];
+    int dx = random.nextInt(3) - 1;
+    int dy = random.nextInt(3) - 1;
+    int brightness = random.nextInt(41) - 20;
+    for (int y = 0; y < size; ++y) {
+      for (int x = 0; x < size; ++x) {
+        int sx = Math.min(size - 1, Math.max(0, x + dx));
+        int sy = Math.min(size - 1, Math.max(0, y + dy));
+        int v = (person[sy * size + sx] & 0xff) + brightness + (int) (random.nextGaussian() * 6);
+        face[y * size + x] = (byte) Math.min(255, Math.max(0, v));
+      }
+    }
+    return face;
+  }
+
+  /**
+   * a synthetic person - smooth random blobs
+   */
+  static byte[] syntheticPerson(Random random, int size) {
+    double[] v = new double[size * size];
+    for (int b = 0; b < 12; ++b) {
+      double cx = random.nextDouble() * size;
+      double cy = random.nextDouble() * size;
+      double r = size * (0.05 + random.nextDouble() * 0.2);
+      double a = random.nextDouble() * 160 - 80;
+      for (int y = 0; y < size; ++y) {
+        for (int x = 0; x < size; ++x) {
+          double d = ((x - cx) * (x - cx) + (y - cy) * (y - cy)) / (r * r);
+          v[y * size + x] += a * Math.exp(-d);
+        }
+      }
+    }
+    byte[] person = new byte[size * size];
+    for (int i = 0; i < v.length; ++i) {
+      person[i] = (byte) Math.min(255, Math.max(0, (int) (128 + v[i])));
+    }
+    return person;
+  }
+
+  /**
+   * times enrolling, saving, loading and searching a synthetic set of faces
+   *
+   * @param people
+   *          - names enrolled
+   * @param faces
+   *          - faces enrolled per name
+   * @param queries
+   *          - faces searched
+   * @param candidates
+   *          - most faces a search compares - 0 for exact searches
+   * @param file
+   *          - where to save the index
+   * @return timings, accuracy, agreement with comparing every face and how
+   *         many faces a search compared
+   */
+  static Map<String, Object> benchmark(int people, int faces, int queries, int candidates, File file) throws IOException {
+    int size = 64;
+    Random random = new Random(1234);
+    byte[][] persons = new byte[people][];
+    byte[][][] enrolled = new byte[people][faces][];
+    for (int p = 0; p < people; ++p) {
+      persons[p] = syntheticPerson(random, size);
+      for (int f = 0; f < faces; ++f) {
+        enrolled[p][f] = syntheticFace(random, persons[p], size);
+      }
+    }
+
+    FaceIndex index = new FaceIndex();
+    long start = System.nanoTime();
+    for (int p = 0; p < people; ++p) {
+      for (int f = 0; f < faces; ++f) {
+        index.add(String.format("person-%d", p), String.format("person-%d/%d.png", p, f), index.features(enrolled[p][f], size, size));
+      }
+    }
+    long trainNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    index.save(file);
+    long saveNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    index = FaceIndex.load(file);
+    long loadNanos = System.nanoTime() - start;
+    index.setCandidates(candidates);
+
+    long[] nanos = new long[queries];
+    int correct = 0;
+    int agree = 0;
+    for (int i = 0; i < queries; ++i) {
+      int p = random.nextInt(people);
+      float[] vector = index.features(syntheticFace(random, persons[p], size), size, size);
+      long s = System.nanoTime();
+      FaceIndex.Match match = index.nearest(vector);
+      nanos[i] = System.nanoTime() - s;
+      if (match.name.equals(String.format("person-%d", p))) {
+        ++correct;
+      }
+      if (match.source.equals(index.nearestLinear(vector).source)) {
+        ++agree;
+      }
+    }
+    // the linear searches aren't part of it
+    long compared = index.compared - (long) queries * index.size;
+    Arrays.sort(nanos);
+    long total = 0;
+    for (long n : nanos) {
+      total += n;
+    }
+
+    Map<String, Object> stats = new LinkedHashMap<String, Object>();
+    stats.put("faces", index.size());
+    stats.put("names", people);
+    stats.put("candidates", candidates);
+    stats.put("trainMs", trainNanos / 1000000.0);
+    stats.put("saveMs", saveNanos / 1000000.0);
+    stats.put("loadMs", loadNanos / 1000000.0);
+    stats.put("fileBytes", file.length());
+    if (queries > 0) {
+      stats.put("accuracy", correct / (double) queries);
+      stats.put("agreement", agree / (double) queries);
+      stats.put("avgUs", total / 1000.0 / queries);
+      stats.put("p50Us", nanos[queries / 2] / 1000.0);
+      stats.put("p99Us", nanos[Math.min(queries - 1, (int) (queries * 0.99))] / 1000.0);
+      stats.put("maxUs", nanos[queries - 1] / 1000.0);
+      stats.put("comparedPerSearch", compared / (double) queries);
+    }
+    return stats;
+  }
+
+  @Test
+  public void testFeatures() {
+    int uniform = 0;
+    for (int code = 0; code < 256; ++code) {
+      if (FaceIndex.UNIFORM[code] < FaceIndex.BINS - 1) {
+        ++uniform;
+      }
+    }
+    assertEquals(58, uniform);
+
+    Random random = new Random(1);
+    float[] vector = FaceIndex.features(syntheticPerson(random, SIZE), SIZE, SIZE, 4);
+    assertEquals(16 * FaceIndex.BINS, vector.length);
+    double norm = 0;
+    for (float v : vector) {
+      norm += v * v;
+    }
+    assertEquals(1.0, norm, 0.0001);
+  }
+
+  @Test
+  public void testNearest() {
+    Random random = new Random(2);
+    FaceIndex index = new FaceIndex();
+    byte[][] persons = new byte[30][];
+    for (int p = 0; p < persons.length; ++p) {
+      persons[p] = syntheticPerson(random, SIZE);
+      for (int f = 0; f < 4; ++f) {
+        index.add("p" + p, null, index.features(syntheticFace(random, persons[p], SIZE), SIZE, SIZE));
+      }
+    }
+    assertEquals(120, index.size());
+    assertEquals(30, index.getNames().size());
+
+    for (int i = 0; i < 100; ++i) {
+      int p = random.nextInt(persons.length);
+      float[] vector = index.features(syntheticFace(random, persons[p], SIZE), SIZE, SIZE);
+      FaceIndex.Match match = index.nearest(vector);
+      // the bounds only skip faces which can't be closer
+      FaceIndex.Match linear = index.nearestLinear(vector);
+      assertEquals(linear.name, match.name);
+      assertEquals(linear.distance, match.distance, 1e-9);
+    }
+    log.info("stats {}", index.getStats());
+    assertTrue((Double) index.getStats().get("comparedPerSearch") < 120);
+  }
+
+  @Test
+  public void testSaveAppendLoad() throws Exception {
+    File file = new File("target/FaceIndexTest/faceIndex.bin");
+    file.getParentFile().mkdirs();
+    file.delete();
+
+    Random random = new Random(3);
+    FaceIndex index = new FaceIndex();
+    byte[] neo = syntheticPerson(random, SIZE);
+    byte[] trinity = syntheticPerson(random, SIZE);
+    index.add(file, "neo", "neo/1.png", index.features(syntheticFace(random, neo, SIZE), SIZE, SIZE));
+    index.add(file, "neo", "neo/2.png", index.features(syntheticFace(random, neo, SIZE), SIZE, SIZE));
+    // appended, not rewritten
+    long length = file.length();
+    index.add(file, "trinity", "trinity/1.png", index.features(syntheticFace(random, trinity, SIZE), SIZE, SIZE));
+    assertTrue(file.length() > length);
+
+    FaceIndex loaded = FaceIndex.load(file);
+    assertEquals(3, loaded.size());
+    assertTrue(loaded.contains("neo/2.png"));
+    assertTrue(loaded.contains("trinity/1.png"));
+    float[] vector = index.features(syntheticFace(random, trinity, SIZE), SIZE, SIZE);
+    assertEquals("trinity", loaded.nearest(vector).name);
+    assertEquals(index.nearest(vector).distance, loaded.nearest(vector).distance, 1e-6);
+
+    loaded.save(file);
+    assertEquals(3, FaceIndex.load(file).size());
+  }
+
+  @Test
+  public void benchmarkSyntheticFaces() throws Exception {
+    File file = new File("target/FaceIndexTest/benchmark.bin");
+    file.getParentFile().mkdirs();
+    Map<String, Object> stats = benchmark(200, 5, 500, 0, file);
+    log.info("synthetic faces {}", stats);
+    assertEquals(1000, stats.get("faces"));
+    assertTrue((Double) stats.get("accuracy") > 0.9);
+    assertEquals(1.0, (Double) stats.get("agreement"), 0);
+
+    // a shortlist of the closest projections
+    stats = benchmark(200, 5, 500, 32, file);
+    log.info("synthetic faces {}", stats);
+    assertTrue((Double) stats.get("comparedPerSearch") <= 33);
+    assertTrue((Double) stats.get("accuracy") > 0.9);
+  }
+
+}
@@ -0,0 +1,39 @@
+package org.myrobotlab.opencv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+public class FilterBenchmarkTest extends AbstractTest {
+
+  @Test
+  public void benchmarkChain() throws Exception {
+    FilterBenchmark benchmark = new FilterBenchmark(null);
+    benchmark.addFilter("Gray").addFilter("Canny").addFilter("PyramidDown");
+    assertEquals(1, benchmark.load("src/test/resources/OpenCV/multipleFaces.jpg", 0));
+
+    // the one frame is replayed
+    FilterBenchmark.Result result = benchmark.run(5, 50);
+    log.info("benchmark\n{}", result);
+    assertEquals(50, result.frames);
+    assertEquals(3, result.filters.size());
+    assertEquals("canny", result.filters.get(1).name);
+    assertEquals("Canny", result.filters.get(1).type);
+    double filterNs = 0;
+    for (FilterBenchmark.FilterStats stats : result.filters) {
+      assertTrue(stats.p50Ns > 0);
+      assertTrue(stats.p99Ns >= stats.p50Ns);
+      assertTrue(stats.maxNs >= stats.p99Ns);
+      filterNs += stats.avgNs;
+    }
+    // the frame includes its filters
+    assertTrue(result.avgFrameNs >= filterNs);
+    assertTrue(result.fps > 0);
+    // after the warmup the filters' images come from the pool
+    assertTrue(result.pool.reused > 0);
+    benchmark.release();
+  }
+
+}
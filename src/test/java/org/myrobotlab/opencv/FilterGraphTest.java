@@ -0,0 +1,77 @@
+package org.myrobotlab.opencv;
+
+import static org.bytedeco.opencv.helper.opencv_imgcodecs.cvLoadImage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bytedeco.opencv.opencv_core.IplImage;
+import org.junit.Test;
+import org.myrobotlab.service.OpenCV;
+import org.myrobotlab.test.AbstractTest;
+
+public class FilterGraphTest extends AbstractTest {
+
+  List<OpenCVFilter> branches() {
+    List<OpenCVFilter> filters = new ArrayList<>();
+    OpenCVFilter gray = new OpenCVFilterGray("gray");
+    gray.sourceKey = OpenCV.INPUT_KEY;
+    OpenCVFilter canny = new OpenCVFilterCanny("canny");
+    canny.sourceKey = OpenCV.INPUT_KEY;
+    OpenCVFilter hsv = new OpenCVFilterHsv("hsv");
+    hsv.sourceKey = OpenCV.INPUT_KEY;
+    // no source - processes hsv's output
+    OpenCVFilter pyramidDown = new OpenCVFilterPyramidDown("pyramidDown");
+    filters.add(gray);
+    filters.add(canny);
+    filters.add(hsv);
+    filters.add(pyramidDown);
+    return filters;
+  }
+
+  @Test
+  public void testGraph() {
+    FilterGraph graph = new FilterGraph(branches());
+    log.info("graph\n{}", graph);
+    assertEquals(3, graph.roots.size());
+    assertEquals(4, graph.nodes.size());
+    assertEquals("hsv", graph.nodes.get(3).source);
+    assertEquals(1, graph.roots.get(2).children.size());
+
+    // a disabled filter passes its source through
+    List<OpenCVFilter> filters = branches();
+    filters.get(2).disable();
+    graph = new FilterGraph(filters);
+    assertEquals(3, graph.nodes.size());
+    assertEquals(OpenCV.INPUT_KEY, graph.nodes.get(2).source);
+  }
+
+  @Test
+  public void testProcess() throws Exception {
+    IplImage image = cvLoadImage("src/test/resources/OpenCV/rachel.jpg");
+    List<OpenCVFilter> filters = branches();
+    FilterGraph graph = new FilterGraph(filters);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    for (int i = 0; i < 10; ++i) {
+      OpenCVData data = new OpenCVData("cv", 0, i, OpenCV.toFrame(image));
+      graph.process(pool, data);
+      for (OpenCVFilter filter : filters) {
+        assertNotNull(data.getImage(filter.name));
+        assertTrue(data.getFilterTimes().containsKey(filter.name));
+      }
+      // the pipeline's output is its last filter's
+      assertEquals(data.getImage("pyramidDown"), data.getOutputImage());
+      assertEquals(image.width() / 2, data.getOutputImage().width());
+      // the branches each processed the input, not each other's output
+      assertEquals(1, data.getImage("gray").nChannels());
+      assertEquals(3, data.getImage("hsv").nChannels());
+      log.info("frame {} filter times {}", i, data.getFilterTimes());
+    }
+    pool.shutdown();
+  }
+
+}
@@ -0,0 +1,52 @@
+package org.myrobotlab.opencv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+public class FilterScheduleTest extends AbstractTest {
+
+  @Test
+  public void testEvery() {
+    FilterSchedule schedule = new FilterSchedule(3, 0, 0);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 10; ++i) {
+      boolean due = schedule.isDue(i);
+      if (due) {
+        schedule.processed(1000000);
+      }
+      sb.append(due ? "x" : ".");
+    }
+    assertEquals("x..x..x..x", sb.toString());
+    assertEquals(4, schedule.runs);
+    assertEquals(6, schedule.skipped);
+
+    // capture restarted
+    assertTrue(schedule.isDue(0));
+  }
+
+  @Test
+  public void testBudget() {
+    // 20 ms a run with 5 ms a frame - every 4th frame
+    FilterSchedule schedule = new FilterSchedule(1, 5, 0);
+    assertTrue(schedule.isDue(0));
+    schedule.processed(20000000);
+    assertFalse(schedule.isDue(1));
+    assertEquals(4, schedule.interval);
+    assertFalse(schedule.isDue(3));
+    assertTrue(schedule.isDue(4));
+
+    // never more than maxInterval
+    schedule.maxInterval = 2;
+    schedule.processed(20000000);
+    assertTrue(schedule.isDue(6));
+    assertEquals(2, schedule.interval);
+
+    schedule.reset();
+    assertTrue(schedule.isDue(7));
+  }
+
+}
@@ -0,0 +1,109 @@
+package org.myrobotlab.opencv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+public class FramePipelineTest extends AbstractTest {
+
+  static void sleep(int ms) throws InterruptedException {
+    Thread.sleep(ms);
+  }
+
+  OpenCVData frame(int i) {
+    OpenCVData data = new OpenCVData();
+    data.setFrameIndex(i);
+    data.setTimestamp(System.currentTimeMillis());
+    return data;
+  }
+
+  @Test
+  public void testOverlap() throws Exception {
+    List<Integer> published = Collections.synchronizedList(new ArrayList<Integer>());
+    FramePipeline pipeline = new FramePipeline("test", 2, false);
+    pipeline.addStage("filter", d -> sleep(10));
+    pipeline.addStage("display", d -> sleep(10));
+    pipeline.addStage("publish", d -> {
+      sleep(10);
+      published.add(d.getFrameIndex());
+    });
+    pipeline.start();
+
+    int frames = 30;
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < frames; ++i) {
+      pipeline.put(frame(i), 0);
+    }
+    while (published.size() < frames && System.currentTimeMillis() - start < 5000) {
+      sleep(5);
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    FramePipeline.Stats stats = pipeline.getStats();
+    pipeline.stop();
+    log.info("{} frames in {} ms\n{}", frames, elapsed, stats);
+
+    // blocking - every frame in order
+    assertEquals(frames, published.size());
+    for (int i = 0; i < frames; ++i) {
+      assertEquals(i, (int) published.get(i));
+    }
+    // stages overlap - serially it would take 30 x 30 ms
+    assertTrue(elapsed < frames * 30);
+    assertEquals(4, stats.stages.size());
+    assertEquals(0, stats.dropped);
+    assertTrue(stats.maxFps > 50 && stats.maxFps < 110);
+  }
+
+  @Test
+  public void testDrop() throws Exception {
+    List<Integer> published = Collections.synchronizedList(new ArrayList<Integer>());
+    FramePipeline pipeline = new FramePipeline("test", 1, true);
+    pipeline.addStage("filter", d -> sleep(20));
+    pipeline.addStage("publish", d -> published.add(d.getFrameIndex()));
+    pipeline.start();
+    for (int i = 0; i < 50; ++i) {
+      pipeline.put(frame(i), 0);
+      sleep(2);
+    }
+    sleep(100);
+    FramePipeline.Stats stats = pipeline.getStats();
+    pipeline.stop();
+    log.info("{}", stats);
+    // a live source keeps up by dropping the oldest frames
+    assertTrue(stats.dropped > 0);
+    assertEquals(50, published.size() + stats.dropped);
+    // the latest frame made it
+    assertEquals(49, (int) published.get(published.size() - 1));
+  }
+
+  /**
+   * stopping disposes the frame a stage is working on and every frame still
+   * queued
+   */
+  @Test
+  public void testStopDisposes() throws Exception {
+    FramePipeline pipeline = new FramePipeline("test", 2, false);
+    pipeline.addStage("filter", d -> sleep(10000));
+    pipeline.addStage("publish", d -> d.dispose());
+    pipeline.start();
+    List<OpenCVData> frames = new ArrayList<>();
+    for (int i = 0; i < 3; ++i) {
+      frames.add(frame(i));
+      pipeline.put(frames.get(i), 0);
+    }
+    // the third put only returned once the filter took the first, the other
+    // two are queued
+    assertEquals(2, pipeline.getStats().stages.get(1).queued);
+    pipeline.stop();
+    for (OpenCVData data : frames) {
+      assertEquals(0, data.getRefCount());
+    }
+  }
+
+}
@@ -0,0 +1,124 @@
+package org.myrobotlab.opencv;
+
+import static org.bytedeco.opencv.global.opencv_core.IPL_DEPTH_8U;
+import static org.bytedeco.opencv.global.opencv_core.cvAvg;
+import static org.bytedeco.opencv.global.opencv_core.cvZero;
+import static org.bytedeco.opencv.helper.opencv_imgcodecs.cvLoadImage;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bytedeco.opencv.opencv_core.IplImage;
+import org.junit.Test;
+import org.myrobotlab.service.OpenCV;
+import org.myrobotlab.test.AbstractTest;
+
+public class ImagePoolTest extends AbstractTest {
+
+  @Test
+  public void testRetire() {
+    ImagePool pool = new ImagePool(8);
+    IplImage a = pool.borrow(64, 48, IPL_DEPTH_8U, 3);
+    pool.retire(Arrays.asList(a));
+    // a different key is not served a
+    assertNotSame(a, pool.borrow(64, 48, IPL_DEPTH_8U, 1));
+    assertSame(a, pool.borrow(64, 48, IPL_DEPTH_8U, 3));
+    ImagePool.Stats stats = pool.getStats();
+    assertEquals(2, stats.allocated);
+    assertEquals(1, stats.reused);
+    pool.clear();
+  }
+
+  @Test
+  public void testFrames() throws Exception {
+    IplImage image = cvLoadImage("src/test/resources/OpenCV/rachel.jpg");
+    List<OpenCVFilter> filters = new ArrayList<>();
+    filters.add(new OpenCVFilterGray("gray"));
+    filters.add(new OpenCVFilterPyramidDown("pyramidDown"));
+    filters.add(new OpenCVFilterPyramidUp("pyramidUp"));
+    ImagePool pool = new ImagePool();
+    for (int i = 0; i < 10; ++i) {
+      OpenCVData data = new OpenCVData("cv", 0, i, OpenCV.toFrame(image));
+      data.setImagePool(pool);
+      for (OpenCVFilter filter : filters) {
+        filter.postProcess(filter.process(filter.setData(data)));
+      }
+      log.info("frame {} native allocations {} pooled {}", i, data.getNativeAllocations(), data.getPooledImages());
+      if (i == 0) {
+        assertEquals(3, data.getNativeAllocations());
+      } else {
+        // steady state - every image comes from the pool
+        assertEquals(0, data.getNativeAllocations());
+        assertEquals(3, data.getPooledImages());
+      }
+      data.dispose();
+    }
+    log.info("pool {}", pool.getStats());
+    pool.clear();
+  }
+
+  /**
+   * a filter holding an image past its frame keeps a copy - the pooled output
+   * is overwritten by the next frame, the copy isn't
+   */
+  @Test
+  public void testHeldAcrossFrames() throws Exception {
+    IplImage image = cvLoadImage("src/test/resources/OpenCV/rachel.jpg");
+    IplImage black = IplImage.create(image.width(), image.height(), image.depth(), image.nChannels());
+    cvZero(black);
+    OpenCVFilter gray = new OpenCVFilterGray("gray");
+    ImagePool pool = new ImagePool();
+
+    OpenCVData first = new OpenCVData("cv", 0, 0, OpenCV.toFrame(image));
+    first.setImagePool(pool);
+    IplImage pooled = gray.process(gray.setData(first));
+    gray.postProcess(pooled);
+    IplImage held = gray.copy(pooled);
+    double average = cvAvg(held).get(0);
+    assertTrue(average > 0);
+    first.dispose();
+
+    OpenCVData second = new OpenCVData("cv", 0, 1, OpenCV.toFrame(black));
+    second.setImagePool(pool);
+    IplImage reused = gray.process(gray.setData(second));
+    gray.postProcess(reused);
+    // the second frame writes into the first frame's buffer
+    assertEquals(pooled.address(), reused.address());
+    assertEquals(0, cvAvg(reused).get(0), 0);
+    assertEquals(average, cvAvg(held).get(0), 0);
+    second.dispose();
+    pool.clear();
+  }
+
+  @Test
+  public void testRetained() throws Exception {
+    IplImage image = cvLoadImage("src/test/resources/OpenCV/rachel.jpg");
+    OpenCVFilter gray = new OpenCVFilterGray("gray");
+    ImagePool pool = new ImagePool();
+    OpenCVData first = new OpenCVData("cv", 0, 0, OpenCV.toFrame(image));
+    first.setImagePool(pool);
+    gray.postProcess(gray.process(gray.setData(first)));
+    // a subscriber still reading the first frame
+    first.retain();
+    first.dispose();
+    OpenCVData second = new OpenCVData("cv", 0, 1, OpenCV.toFrame(image));
+    second.setImagePool(pool);
+    gray.postProcess(gray.process(gray.setData(second)));
+    assertEquals(1, second.getNativeAllocations());
+    second.dispose();
+    first.release();
+    assertEquals(0, first.getRefCount());
+    OpenCVData third = new OpenCVData("cv", 0, 2, OpenCV.toFrame(image));
+    third.setImagePool(pool);
+    gray.postProcess(gray.process(gray.setData(third)));
+    assertEquals(0, third.getNativeAllocations());
+    third.dispose();
+    pool.clear();
+  }
+
+}
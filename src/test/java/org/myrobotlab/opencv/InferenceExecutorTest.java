@@ -0,0 +1,120 @@
+package org.myrobotlab.opencv;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+public class InferenceExecutorTest extends AbstractTest {
+
+  /**
+   * "classifies" a frame as its source and index - the first batch waits for
+   * the test to let it go
+   */
+  static class TestModel implements InferenceModel<String> {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    volatile boolean closed = false;
+
+    @Override
+    public String getKey() {
+      return "test";
+    }
+
+    @Override
+    public int getMaxBatch() {
+      return 4;
+    }
+
+    @Override
+    public Mat prepare(Mat image) {
+      return image.clone();
+    }
+
+    @Override
+    public List<String> infer(List<InferenceExecutor.Request> batch) throws Exception {
+      if (batchSizes.isEmpty()) {
+        blocked.countDown();
+        release.await();
+      }
+      batchSizes.add(batch.size());
+      List<String> ret = new ArrayList<>();
+      for (InferenceExecutor.Request request : batch) {
+        ret.add(String.format("%s-%d", request.source, request.frameIndex));
+      }
+      return ret;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void testLatestFrameWinsAndBatches() throws Exception {
+    InferenceExecutor executor = new InferenceExecutor(2);
+    TestModel model = (TestModel) executor.<String> getModel("test", () -> new TestModel());
+    // a second filter shares the model
+    assertTrue(model == executor.<String> getModel("test", () -> new TestModel()));
+
+    List<InferenceExecutor.Result<String>> results = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(3);
+    Mat image = new Mat(4, 4, CV_8UC1);
+
+    executor.submit(model, "cam1.yolo", 0, image, 0.5, r -> {
+      results.add(r);
+      done.countDown();
+    });
+    assertTrue(model.blocked.await(5, TimeUnit.SECONDS));
+
+    // while the network is busy cam1 moves on - only its last frame is kept,
+    // cam2's frame goes into the same batch
+    for (int i = 1; i <= 5; ++i) {
+      executor.submit(model, "cam1.yolo", i, image, 0.5, r -> {
+        results.add(r);
+        done.countDown();
+      });
+    }
+    executor.submit(model, "cam2.yolo", 7, image, 0.5, r -> {
+      results.add(r);
+      done.countDown();
+    });
+    model.release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    assertEquals(3, results.size());
+    for (InferenceExecutor.Result<String> result : results) {
+      // results are correlated to the frame they came from
+      assertEquals(String.format("%s-%d", result.source, result.frameIndex), result.result);
+    }
+    assertEquals(0, results.get(0).frameIndex);
+    assertEquals(5, results.get(1).frameIndex);
+    assertEquals(7, results.get(2).frameIndex);
+    assertEquals(2, results.get(1).batchSize);
+
+    InferenceExecutor.Stats stats = executor.getStats();
+    log.info("stats {}", stats);
+    assertEquals(7, stats.submitted);
+    assertEquals(4, stats.dropped);
+    assertEquals(2, stats.batches);
+
+    // closed when the last filter releases it
+    executor.release(model);
+    assertTrue(!model.closed);
+    executor.release(model);
+    assertTrue(model.closed);
+    executor.shutdown();
+  }
+
+}
@@ -0,0 +1,83 @@
+package org.myrobotlab.opencv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+public class OpenCVDataTest extends AbstractTest {
+
+  @Test
+  public void testKeys() {
+    String key = OpenCVData.key("cv", "canny", OpenCVData.IPL_IMAGE);
+    assertEquals("cv.canny.IplImage", key);
+    // built once
+    assertSame(key, OpenCVData.key("cv", "canny", OpenCVData.IPL_IMAGE));
+    assertEquals("cv.canny", OpenCVData.key("cv", "canny", null));
+
+    OpenCVData data = new OpenCVData();
+    data.setName("cv");
+    data.setSelectedFilter("canny");
+    assertEquals("cv.canny", data.getKeyPrefix(null));
+    assertEquals("cv.output", data.getKeyPrefix("output"));
+  }
+
+  @Test
+  public void testRefCount() {
+    OpenCVData data = new OpenCVData();
+    assertEquals(1, data.getRefCount());
+    data.retain();
+    data.dispose();
+    // still retained
+    assertEquals(1, data.getRefCount());
+    data.release();
+    assertEquals(0, data.getRefCount());
+    // released data stays released
+    data.release();
+    data.retain();
+    assertEquals(0, data.getRefCount());
+  }
+
+  @Test
+  public void testSubscribers() {
+    OpenCVData data = new OpenCVData();
+    // two subscribers
+    data.retain(2);
+    data.dispose();
+    data.release();
+    assertEquals(1, data.getRefCount());
+    data.release();
+    assertEquals(0, data.getRefCount());
+  }
+
+  @Test
+  public void testInvalidate() {
+    OpenCVData data = new OpenCVData();
+    data.setName("cv");
+    BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_3BYTE_BGR);
+    data.put("gray", OpenCVData.BUFFERED_IMAGE, image);
+    data.put("gray", OpenCVData.JPG, new byte[0]);
+    data.put("gray", OpenCVData.MAT, new Object());
+    data.putDisplay(image);
+    // a filter replaces the image
+    data.put("gray", OpenCVData.IPL_IMAGE, new Object());
+    data.put(OpenCVData.OUTPUT, OpenCVData.IPL_IMAGE, new Object());
+    assertFalse(data.sources.containsKey(data.key("gray", OpenCVData.BUFFERED_IMAGE)));
+    assertFalse(data.sources.containsKey(data.key("gray", OpenCVData.JPG)));
+    assertFalse(data.sources.containsKey(data.key("gray", OpenCVData.MAT)));
+    // what was drawn on the display is kept
+    assertSame(image, data.sources.get(data.key(OpenCVData.OUTPUT, OpenCVData.BUFFERED_IMAGE)));
+
+    // a display which is only a conversion is dropped
+    data.converted.add(data.key(OpenCVData.OUTPUT, OpenCVData.BUFFERED_IMAGE));
+    data.put(OpenCVData.OUTPUT, OpenCVData.IPL_IMAGE, new Object());
+    assertFalse(data.sources.containsKey(data.key(OpenCVData.OUTPUT, OpenCVData.BUFFERED_IMAGE)));
+    assertTrue(data.sources.containsKey(data.key(OpenCVData.OUTPUT, OpenCVData.IPL_IMAGE)));
+  }
+
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertEquals;
 
 import org.bytedeco.opencv.opencv_core.IplImage;
 import org.junit.Before;
+import org.myrobotlab.framework.Service;
 
 /** 
  * @author GroG
@@ -33,7 +34,13 @@ public class OpenCVFilterFaceDetectDNNTest  extends AbstractOpenCVFilterTest {
   @Override
   public void verify(OpenCVFilter filter, IplImage input, IplImage output) {
     // Make sure we found 5 faces.
-    int numFound = ((OpenCVFilterFaceDetectDNN)filter).bb.size();
+    OpenCVFilterFaceDetectDNN fd = (OpenCVFilterFaceDetectDNN) filter;
+    // detection is asynchronous - wait for the frame's result
+    long start = System.currentTimeMillis();
+    while (fd.lastFrameIndex < 0 && System.currentTimeMillis() - start < 10000) {
+      Service.sleep(10);
+    }
+    int numFound = fd.bb.size();
     assertEquals(5, numFound);
     
     // waitOnAnyKey();
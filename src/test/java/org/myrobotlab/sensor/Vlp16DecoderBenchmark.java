@@ -0,0 +1,46 @@
+package org.myrobotlab.sensor;
+
+import java.nio.ByteBuffer;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Decoder throughput - not part of the unit tests, run it with main
+ */
+public class Vlp16DecoderBenchmark {
+
+  public final static Logger log = LoggerFactory.getLogger(Vlp16DecoderBenchmark.class);
+
+  public static double benchmark(int count) {
+    Vlp16Decoder decoder = new Vlp16Decoder();
+    ByteBuffer bb = ByteBuffer.allocateDirect(Vlp16Decoder.PACKET_SIZE);
+    int packetsPerRotation = 36000 / (20 * 12);
+    ByteBuffer[] rotation = new ByteBuffer[packetsPerRotation];
+    for (int i = 0; i < packetsPerRotation; ++i) {
+      rotation[i] = ByteBuffer.allocateDirect(Vlp16Decoder.PACKET_SIZE);
+      Vlp16DecoderTest.makePacket(bb, i * 20 * 12, 20, 5000, Vlp16Decoder.RETURN_MODE_STRONGEST);
+      rotation[i].put(bb);
+      rotation[i].flip();
+    }
+
+    // warm up
+    for (int i = 0; i < count / 10; ++i) {
+      decoder.decode(rotation[i % packetsPerRotation]);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < count; ++i) {
+      decoder.decode(rotation[i % packetsPerRotation]);
+    }
+    long delta = System.nanoTime() - start;
+    double pps = count / (delta / 1e9);
+    // the sensor produces ~754 packets/s in single return mode
+    log.info("decoded {} packets in {} ms - {} packets/s", count, delta / 1000000, (long) pps);
+    return pps;
+  }
+
+  public static void main(String[] args) {
+    benchmark((args.length > 0) ? Integer.parseInt(args[0]) : 200000);
+  }
+
+}
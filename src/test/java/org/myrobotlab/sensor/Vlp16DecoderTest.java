@@ -0,0 +1,131 @@
+package org.myrobotlab.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.math.geometry.PointCloud;
+import org.slf4j.Logger;
+
+public class Vlp16DecoderTest {
+
+  public final static Logger log = LoggerFactory.getLogger(Vlp16DecoderTest.class);
+
+  /**
+   * builds a synthetic data packet - every channel reports the same range
+   */
+  public static ByteBuffer makePacket(ByteBuffer bb, int startAzimuth, int azimuthStep, int rawRange, int returnMode) {
+    bb.clear();
+    bb.order(ByteOrder.LITTLE_ENDIAN);
+    int azimuth = startAzimuth;
+    for (int block = 0; block < Vlp16Decoder.BLOCKS_PER_PACKET; ++block) {
+      if (returnMode == Vlp16Decoder.RETURN_MODE_DUAL && block % 2 == 1) {
+        // second block of the pair has the same azimuth
+        azimuth = (azimuth - azimuthStep + 36000) % 36000;
+      }
+      bb.put((byte) 0xFF);
+      bb.put((byte) 0xEE);
+      bb.putShort((short) azimuth);
+      for (int channel = 0; channel < 32; ++channel) {
+        bb.putShort((short) rawRange);
+        bb.put((byte) 100);
+      }
+      azimuth = (azimuth + azimuthStep) % 36000;
+    }
+    bb.putInt(0); // timestamp
+    bb.put((byte) returnMode);
+    bb.put((byte) 0x22);
+    bb.flip();
+    return bb;
+  }
+
+  @Test
+  public void testSinglePacket() {
+    Vlp16Decoder decoder = new Vlp16Decoder();
+    ByteBuffer bb = ByteBuffer.allocateDirect(Vlp16Decoder.PACKET_SIZE);
+    // 10 meters
+    assertNull(decoder.decode(makePacket(bb, 0, 20, 5000, Vlp16Decoder.RETURN_MODE_STRONGEST)));
+    assertEquals(12 * 32, decoder.getPendingPoints());
+    assertEquals(0, bb.position());
+
+    PointCloud pc = decoder.sweep();
+    assertEquals(12 * 32, pc.size());
+    // first point is laser 0 (-15 degrees) at azimuth 0
+    assertEquals(0.0f, pc.getX()[0], 0.001f);
+    assertEquals(10.0f * Math.cos(Math.toRadians(-15)), pc.getY()[0], 0.001f);
+    assertEquals(10.0f * Math.sin(Math.toRadians(-15)), pc.getZ()[0], 0.001f);
+    assertEquals(100.0f, pc.getIntensity()[0], 0.0f);
+    // all points are 10 meters away
+    for (int i = 0; i < pc.size(); ++i) {
+      float x = pc.getX()[i], y = pc.getY()[i], z = pc.getZ()[i];
+      assertEquals(10.0, Math.sqrt(x * x + y * y + z * z), 0.001);
+    }
+  }
+
+  @Test
+  public void testSweep() {
+    Vlp16Decoder decoder = new Vlp16Decoder();
+    ByteBuffer bb = ByteBuffer.allocate(Vlp16Decoder.PACKET_SIZE);
+    int sweeps = 0;
+    int azimuth = 0;
+    // 2 full rotations at 0.2 degree resolution
+    for (int i = 0; i < 2 * 36000 / (20 * 12); ++i) {
+      PointCloud pc = decoder.decode(makePacket(bb, azimuth, 20, 5000, Vlp16Decoder.RETURN_MODE_STRONGEST));
+      if (pc != null) {
+        ++sweeps;
+        assertEquals(36000 / 20 * 32, pc.size());
+      }
+      azimuth = (azimuth + 20 * 12) % 36000;
+    }
+    assertEquals(1, sweeps);
+  }
+
+  @Test
+  public void testDualReturn() {
+    Vlp16Decoder decoder = new Vlp16Decoder();
+    ByteBuffer bb = ByteBuffer.allocate(Vlp16Decoder.PACKET_SIZE);
+    decoder.decode(makePacket(bb, 100, 40, 5000, Vlp16Decoder.RETURN_MODE_DUAL));
+    assertEquals(Vlp16Decoder.RETURN_MODE_DUAL, decoder.getReturnMode());
+    // identical second returns are dropped
+    assertEquals(6 * 32, decoder.getPendingPoints());
+  }
+
+  @Test
+  public void testBadPacket() {
+    Vlp16Decoder decoder = new Vlp16Decoder();
+    ByteBuffer bb = ByteBuffer.allocate(Vlp16Decoder.PACKET_SIZE);
+    makePacket(bb, 0, 20, 5000, Vlp16Decoder.RETURN_MODE_STRONGEST);
+    bb.put(0, (byte) 0);
+    assertNull(decoder.decode(bb));
+    assertEquals(1, decoder.getBadPacketCount());
+    bb.limit(100);
+    assertNull(decoder.decode(bb));
+    assertEquals(2, decoder.getBadPacketCount());
+  }
+
+  @Test
+  public void testLocalhostUdp() throws Exception {
+    Vlp16Decoder decoder = new Vlp16Decoder();
+    try (DatagramChannel rx = DatagramChannel.open(); DatagramChannel tx = DatagramChannel.open()) {
+      rx.bind(new InetSocketAddress("127.0.0.1", 0));
+      ByteBuffer out = ByteBuffer.allocateDirect(Vlp16Decoder.PACKET_SIZE);
+      ByteBuffer in = ByteBuffer.allocateDirect(1536);
+      tx.send(makePacket(out, 0, 20, 5000, Vlp16Decoder.RETURN_MODE_STRONGEST), rx.getLocalAddress());
+      rx.receive(in);
+      in.flip();
+      decoder.decode(in);
+      assertEquals(1, decoder.getPacketCount());
+      PointCloud pc = decoder.sweep();
+      assertNotNull(pc);
+      assertEquals(12 * 32, pc.size());
+    }
+  }
+
+}
@@ -0,0 +1,203 @@
+package org.myrobotlab.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+public class FrameDecoderTest {
+
+  public final static Logger log = LoggerFactory.getLogger(FrameDecoderTest.class);
+
+  /**
+   * 1 Mbaud 8N1 is 10 bits per byte
+   */
+  final static int BYTES_PER_SECOND_1MBAUD = 100000;
+
+  static class Collector implements FrameListener {
+    List<byte[]> frames = new ArrayList<>();
+
+    @Override
+    public void onFrame(byte[] buffer, int offset, int length) {
+      frames.add(Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+  }
+
+  static class Counter implements FrameListener {
+    long frames = 0;
+    long bytes = 0;
+
+    @Override
+    public void onFrame(byte[] buffer, int offset, int length) {
+      ++frames;
+      bytes += length;
+    }
+  }
+
+  @Test
+  public void testDelimiter() {
+    Collector c = new Collector();
+    DelimiterFrameDecoder decoder = new DelimiterFrameDecoder('\n', 128, false, c);
+    decoder.write("$GPGGA,1\n$GPRMC".getBytes());
+    assertEquals(1, c.frames.size());
+    assertArrayEquals("$GPGGA,1".getBytes(), c.frames.get(0));
+    for (byte b : ",2\n".getBytes()) {
+      decoder.write(b);
+    }
+    assertEquals(2, c.frames.size());
+    assertArrayEquals("$GPRMC,2".getBytes(), c.frames.get(1));
+
+    // too long - discarded up to the next delimiter
+    byte[] big = new byte[300];
+    Arrays.fill(big, (byte) 'x');
+    decoder.write(big);
+    decoder.write("x\nok\n".getBytes());
+    assertEquals(1, decoder.getErrorCount());
+    assertEquals(3, c.frames.size());
+    assertArrayEquals("ok".getBytes(), c.frames.get(c.frames.size() - 1));
+  }
+
+  @Test
+  public void testWrapAround() {
+    Collector c = new Collector();
+    DelimiterFrameDecoder decoder = new DelimiterFrameDecoder('\n', 16, true, c);
+    // ring is 32 bytes - frames will eventually straddle the end
+    for (int i = 0; i < 100; ++i) {
+      decoder.write(String.format("line %d\n", i).getBytes());
+    }
+    assertEquals(100, c.frames.size());
+    for (int i = 0; i < 100; ++i) {
+      assertArrayEquals(String.format("line %d\n", i).getBytes(), c.frames.get(i));
+    }
+  }
+
+  @Test
+  public void testLengthPrefixed() {
+    Collector c = new Collector();
+    // 2 byte little endian length after a 1 byte type, whole frame emitted
+    LengthPrefixedFrameDecoder decoder = new LengthPrefixedFrameDecoder(64, 1, 2, false, 0, 0);
+    decoder.setListener(c);
+    decoder.write(new byte[] { 7, 3, 0, 1, 2, 3, 8, 1, 0 });
+    assertEquals(1, c.frames.size());
+    assertArrayEquals(new byte[] { 7, 3, 0, 1, 2, 3 }, c.frames.get(0));
+    decoder.write(new byte[] { 9 });
+    assertArrayEquals(new byte[] { 8, 1, 0, 9 }, c.frames.get(1));
+
+    // default - single byte length stripped
+    c = new Collector();
+    decoder = new LengthPrefixedFrameDecoder(64);
+    decoder.setListener(c);
+    decoder.write(new byte[] { 2, 5, 6, 0, 1, 4 });
+    assertEquals(3, c.frames.size());
+    assertArrayEquals(new byte[] { 5, 6 }, c.frames.get(0));
+    assertArrayEquals(new byte[] {}, c.frames.get(1));
+    assertArrayEquals(new byte[] { 4 }, c.frames.get(2));
+  }
+
+  @Test
+  public void testMagicSize() {
+    Collector c = new Collector();
+    MagicSizeFrameDecoder decoder = new MagicSizeFrameDecoder(170, 64, c);
+    // garbage, a valid frame, a bad size, a valid frame
+    decoder.write(new byte[] { 1, 2, (byte) 170, 3, 10, 20, 30, (byte) 170, (byte) 200, (byte) 170, 1 });
+    assertEquals(1, c.frames.size());
+    assertArrayEquals(new byte[] { 10, 20, 30 }, c.frames.get(0));
+    decoder.write(99);
+    assertEquals(2, c.frames.size());
+    assertArrayEquals(new byte[] { 99 }, c.frames.get(1));
+    assertTrue(decoder.getErrorCount() >= 3);
+  }
+
+  @Test
+  public void testSlip() {
+    Collector c = new Collector();
+    SlipFrameDecoder decoder = new SlipFrameDecoder(64, c);
+    byte[] payload = new byte[] { 1, (byte) 0xC0, 2, (byte) 0xDB, 3 };
+    byte[] encoded = SlipFrameDecoder.encode(payload, 0, payload.length);
+    for (int i = 0; i < 20; ++i) {
+      decoder.write(encoded);
+    }
+    assertEquals(20, c.frames.size());
+    for (byte[] frame : c.frames) {
+      assertArrayEquals(payload, frame);
+    }
+  }
+
+  static byte[] syntheticStream(FrameDecoder decoder, int frames, Random random) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < frames; ++i) {
+      int len = 4 + random.nextInt(28);
+      byte[] payload = new byte[len];
+      random.nextBytes(payload);
+      if (decoder instanceof DelimiterFrameDecoder) {
+        for (int j = 0; j < len; ++j) {
+          payload[j] = (byte) ('A' + (payload[j] & 0x0F));
+        }
+        out.write(payload, 0, len);
+        out.write('\n');
+      } else if (decoder instanceof MagicSizeFrameDecoder) {
+        out.write(170);
+        out.write(len);
+        out.write(payload, 0, len);
+      } else if (decoder instanceof LengthPrefixedFrameDecoder) {
+        out.write(len);
+        out.write(payload, 0, len);
+      } else {
+        byte[] slip = SlipFrameDecoder.encode(payload, 0, len);
+        out.write(slip, 0, slip.length);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * feeds one second worth of 1 Mbaud traffic to each decoder - in serial port
+   * sized chunks and byte at a time - every frame must be decoded both ways.
+   * The real time factor is only logged, timing depends on the machine
+   */
+  @Test
+  public void benchmark1Mbaud() {
+    Random random = new Random(1);
+    FrameDecoder[] decoders = new FrameDecoder[] { new DelimiterFrameDecoder('\n', 256, false), new LengthPrefixedFrameDecoder(256), new MagicSizeFrameDecoder(170, 64),
+        new SlipFrameDecoder(256) };
+    for (FrameDecoder decoder : decoders) {
+      Counter counter = new Counter();
+      decoder.setListener(counter);
+      byte[] stream = syntheticStream(decoder, BYTES_PER_SECOND_1MBAUD / 20, random);
+      int frames = BYTES_PER_SECOND_1MBAUD / 20;
+
+      // warm up
+      for (int i = 0; i < 5; ++i) {
+        decoder.write(stream);
+      }
+      counter.frames = 0;
+
+      long start = System.nanoTime();
+      for (int i = 0; i < stream.length; i += 64) {
+        decoder.write(stream, i, Math.min(64, stream.length - i));
+      }
+      long chunked = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < stream.length; ++i) {
+        decoder.write(stream[i]);
+      }
+      long single = System.nanoTime() - start;
+
+      assertEquals(frames * 2, counter.frames);
+      double seconds = stream.length / (double) BYTES_PER_SECOND_1MBAUD;
+      log.info("{} {} bytes ({} s at 1 Mbaud) chunked {} ms ({}x real time) byte at a time {} ms ({}x real time)", decoder.getClass().getSimpleName(), stream.length,
+          String.format("%.2f", seconds), chunked / 1000000, (long) (seconds * 1e9 / chunked), single / 1000000, (long) (seconds * 1e9 / single));
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+package org.myrobotlab.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.myrobotlab.framework.QueueStats;
+import org.myrobotlab.service.interfaces.SerialDataListener;
+
+public class PortUartTest {
+
+  static void waitForReader(Port port, boolean running) throws InterruptedException {
+    for (int i = 0; i < 100 && (port.readingThread != null) != running; ++i) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testReconnect() throws Exception {
+    PortUart[] pair = PortUart.createPair("a", "b");
+    PortUart a = pair[0];
+    PortUart b = pair[1];
+
+    a.listen(new HashMap<>());
+    waitForReader(a, true);
+    a.close();
+    assertFalse(a.isListening());
+    assertNull(a.readingThread);
+
+    // the peer's side of the cable is still connected
+    a.write(new byte[] { 1, 2, 3 });
+    byte[] data = new byte[8];
+    assertEquals(3, b.read(data));
+    assertEquals(3, data[2]);
+
+    // and the closed port can listen again
+    a.listen(new HashMap<>());
+    waitForReader(a, true);
+    assertTrue(a.readingThread.isAlive());
+    a.close();
+  }
+
+  @Test
+  public void testBulkRead() throws Exception {
+    PortUart[] pair = PortUart.createPair("a", "b");
+    PortUart a = pair[0];
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+    int[] calls = new int[2];
+    Map<String, SerialDataListener> listeners = new HashMap<>();
+    listeners.put("test", new SerialDataListener() {
+      @Override
+      public Integer onByte(Integer b) {
+        ++calls[0];
+        return b;
+      }
+
+      @Override
+      public void onBytes(byte[] data, int offset, int length) {
+        ++calls[1];
+        synchronized (received) {
+          received.write(data, offset, length);
+        }
+      }
+
+      @Override
+      public String getName() {
+        return "test";
+      }
+
+      @Override
+      public void onConnect(String portName) {
+      }
+
+      @Override
+      public void onDisconnect(String portName) {
+      }
+
+      @Override
+      public QueueStats publishStats(QueueStats stats) {
+        return stats;
+      }
+
+      @Override
+      public void updateStats(QueueStats stats) {
+      }
+    });
+
+    byte[] data = new byte[300];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) i;
+    }
+    // written before listening - the reader gets it in one chunk
+    pair[1].write(data);
+    a.listen(listeners);
+    for (int i = 0; i < 100 && received.size() < data.length; ++i) {
+      Thread.sleep(10);
+    }
+    a.close();
+    synchronized (received) {
+      assertEquals(data.length, received.size());
+      assertEquals((byte) 299, received.toByteArray()[299]);
+    }
+    assertEquals(0, calls[0]);
+    assertEquals(1, calls[1]);
+  }
+
+  /**
+   * nobody reads the tx ring (like Serial.createVirtualPort) - writing more
+   * than it holds returns and counts what was dropped
+   */
+  @Test(timeout = 10000)
+  public void testPeerNotReading() throws Exception {
+    PortUart port = new PortUart("a", new SpscByteRing(64), new SpscByteRing(64));
+    port.setWriteTimeout(100);
+    long start = System.nanoTime();
+    port.write(new byte[200]);
+    long ms = (System.nanoTime() - start) / 1000000;
+    assertTrue(String.format("%d ms", ms), ms >= 90);
+    assertEquals(136, port.getTxErrors());
+    // a full ring drops the next write as well
+    port.write(new int[] { 1, 2, 3 });
+    assertEquals(139, port.getTxErrors());
+  }
+
+  @Test
+  public void testReaderEndsOnItsOwn() throws Exception {
+    PortUart[] pair = PortUart.createPair("a", "b");
+    PortUart a = pair[0];
+    a.listen(new HashMap<>());
+    waitForReader(a, true);
+    // a closed ring ends the reader without close()
+    a.in.close();
+    waitForReader(a, false);
+    assertNull(a.readingThread);
+  }
+
+}
@@ -0,0 +1,171 @@
+package org.myrobotlab.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+public class SpscByteRingTest {
+
+  public final static Logger log = LoggerFactory.getLogger(SpscByteRingTest.class);
+
+  @Test
+  public void testBulk() throws Exception {
+    SpscByteRing ring = new SpscByteRing(16);
+    assertEquals(16, ring.capacity());
+    byte[] data = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 };
+    assertEquals(12, ring.offer(data, 0, data.length));
+    // only 4 fit
+    assertEquals(4, ring.offer(data, 0, data.length));
+    assertEquals(0, ring.offer(data, 0, 1));
+
+    byte[] read = new byte[10];
+    assertEquals(10, ring.poll(read, 0, read.length));
+    assertEquals(1, read[0]);
+    assertEquals(10, read[9]);
+    // wraps around
+    assertEquals(8, ring.offer(data, 0, 8));
+    assertEquals(14, ring.available());
+    assertEquals(11, ring.read());
+    ring.close();
+    byte[] rest = new byte[32];
+    assertEquals(13, ring.read(rest));
+    assertEquals(-1, ring.read(rest));
+  }
+
+  /**
+   * a producer and consumer thread move data through a small ring - every byte
+   * must arrive in order
+   */
+  @Test
+  public void testThreaded() throws Exception {
+    final SpscByteRing ring = new SpscByteRing(256);
+    final int total = 10000000;
+    Thread producer = new Thread("producer") {
+      @Override
+      public void run() {
+        try {
+          byte[] chunk = new byte[100];
+          int count = 0;
+          while (count < total) {
+            int n = Math.min(chunk.length, total - count);
+            for (int i = 0; i < n; ++i) {
+              chunk[i] = (byte) (count + i);
+            }
+            ring.write(chunk, 0, n);
+            count += n;
+          }
+          ring.close();
+        } catch (InterruptedException e) {
+        }
+      }
+    };
+    long start = System.nanoTime();
+    producer.start();
+    byte[] buffer = new byte[333];
+    int count = 0;
+    int n;
+    while ((n = ring.read(buffer)) > 0) {
+      for (int i = 0; i < n; ++i) {
+        assertEquals((byte) (count + i), buffer[i]);
+      }
+      count += n;
+    }
+    long delta = System.nanoTime() - start;
+    assertEquals(total, count);
+    log.info("spsc ring {} bytes in {} ms - {} MB/s", total, delta / 1000000, (long) (total / (delta / 1e9) / 1e6));
+  }
+
+  @Test
+  public void testBaudRate() throws Exception {
+    SpscByteRing ring = new SpscByteRing(4096);
+    // 115200 baud is 11520 bytes/s - 1152 bytes take 100 ms
+    ring.setBaudRate(115200);
+    byte[] data = new byte[1152];
+    byte[] read = new byte[1152];
+    long start = System.nanoTime();
+    ring.write(data);
+    int count = 0;
+    while (count < data.length) {
+      count += ring.read(read, count, read.length - count);
+    }
+    long ms = (System.nanoTime() - start) / 1000000;
+    assertTrue(String.format("%d ms", ms), ms >= 95 && ms < 1000);
+
+    // 10 times faster than real time
+    ring.setTimeScale(10);
+    start = System.nanoTime();
+    ring.write(data);
+    count = 0;
+    while (count < data.length) {
+      count += ring.read(read, count, read.length - count);
+    }
+    ms = (System.nanoTime() - start) / 1000000;
+    assertTrue(String.format("%d ms", ms), ms >= 9 && ms < 95);
+  }
+
+  @Test
+  public void testLatency() throws Exception {
+    SpscByteRing ring = new SpscByteRing(64);
+    ring.setLatency(50000);
+    long start = System.nanoTime();
+    ring.write(7);
+    assertEquals(0, ring.poll(new byte[1], 0, 1));
+    assertEquals(7, ring.read());
+    long ms = (System.nanoTime() - start) / 1000000;
+    assertTrue(String.format("%d ms", ms), ms >= 49);
+  }
+
+  /**
+   * compares against the LinkedBlockingQueue&lt;Integer&gt; PortQueue uses
+   */
+  @Test
+  public void benchmarkVersusBlockingQueue() throws Exception {
+    final int total = 2000000;
+    final BlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+    Thread producer = new Thread("producer") {
+      @Override
+      public void run() {
+        for (int i = 0; i < total; ++i) {
+          queue.add(i & 0xFF);
+        }
+      }
+    };
+    long start = System.nanoTime();
+    producer.start();
+    for (int i = 0; i < total; ++i) {
+      queue.take();
+    }
+    long queueNs = System.nanoTime() - start;
+
+    final SpscByteRing ring = new SpscByteRing(64 * 1024);
+    producer = new Thread("producer") {
+      @Override
+      public void run() {
+        try {
+          byte[] chunk = new byte[64];
+          for (int i = 0; i < total; i += chunk.length) {
+            ring.write(chunk, 0, Math.min(chunk.length, total - i));
+          }
+        } catch (InterruptedException e) {
+        }
+      }
+    };
+    start = System.nanoTime();
+    producer.start();
+    byte[] buffer = new byte[1024];
+    int count = 0;
+    while (count < total) {
+      count += ring.read(buffer);
+    }
+    long ringNs = System.nanoTime() - start;
+    log.info("{} bytes LinkedBlockingQueue<Integer> {} ms SpscByteRing {} ms", total, queueNs / 1000000, ringNs / 1000000);
+    assertEquals(total, count);
+  }
+
+}
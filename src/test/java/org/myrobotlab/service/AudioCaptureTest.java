@@ -0,0 +1,76 @@
+package org.myrobotlab.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.Test;
+import org.myrobotlab.test.AbstractTest;
+
+public class AudioCaptureTest extends AbstractTest {
+
+  static final int RATE = 16000;
+
+  /**
+   * background noise with bursts of "speech" (a tone) at the given times
+   */
+  static byte[] signal(int ms, int[][] bursts) {
+    Random random = new Random(7);
+    int samples = RATE * ms / 1000;
+    byte[] pcm = new byte[samples * 2];
+    for (int i = 0; i < samples; ++i) {
+      double v = random.nextGaussian() * 30;
+      int t = i * 1000 / RATE;
+      for (int[] burst : bursts) {
+        if (t >= burst[0] && t < burst[1]) {
+          v += Math.sin(2 * Math.PI * 300 * i / RATE) * 6000;
+        }
+      }
+      short s = (short) v;
+      pcm[i * 2] = (byte) s;
+      pcm[i * 2 + 1] = (byte) (s >> 8);
+    }
+    return pcm;
+  }
+
+  /**
+   * a file much longer than the ring, read at full speed, produces the same
+   * utterances every time - nothing is dropped
+   */
+  @Test
+  public void testStreamFile() throws Exception {
+    byte[] pcm = signal(12000, new int[][] { { 1000, 1600 }, { 5000, 5400 }, { 9000, 9800 } });
+    AudioFormat format = new AudioFormat(RATE, 16, 1, true, false);
+    File file = File.createTempFile("capture", ".wav");
+    file.deleteOnExit();
+    AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), format, pcm.length / 2), AudioFileFormat.Type.WAVE, file);
+
+    AudioCapture capture = (AudioCapture) Runtime.start("captureTest", "AudioCapture");
+    TestCatcher catcher = (TestCatcher) Runtime.start("captureCatcher", "TestCatcher");
+    catcher.subscribe(capture.getName(), "publishUtterance");
+    try {
+      for (int run = 0; run < 2; ++run) {
+        catcher.clear();
+        capture.streamFile(file.getAbsolutePath(), false);
+        capture.waitForStream();
+        catcher.waitForMsgs(3, 5000);
+        // nothing more arrives
+        Service.sleep(200);
+        assertEquals(3, catcher.getMsgCount());
+        assertEquals(0, capture.getOverruns());
+      }
+    } finally {
+      catcher.unsubscribe(capture.getName(), "publishUtterance");
+      Runtime.release(capture.getName());
+      Runtime.release(catcher.getName());
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+package org.myrobotlab.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.junit.Test;
+import org.myrobotlab.net.PcapReaderTest;
+import org.myrobotlab.sensor.Vlp16Decoder;
+import org.myrobotlab.sensor.Vlp16DecoderTest;
+import org.myrobotlab.test.AbstractTest;
+
+public class LidarVlp16Test extends AbstractTest {
+
+  static int freePort() throws Exception {
+    try (DatagramChannel channel = DatagramChannel.open()) {
+      channel.bind(new InetSocketAddress("127.0.0.1", 0));
+      return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+    int dataPort = freePort();
+    int positionPort = freePort();
+
+    // a rotation and a bit - one complete sweep
+    int packets = 36000 / (20 * 12) + 1;
+    int[] ports = new int[packets + 2];
+    byte[][] payloads = new byte[packets + 2][];
+    ByteBuffer bb = ByteBuffer.allocate(Vlp16Decoder.PACKET_SIZE);
+    for (int i = 0; i < packets; ++i) {
+      Vlp16DecoderTest.makePacket(bb, (i * 20 * 12) % 36000, 20, 5000, Vlp16Decoder.RETURN_MODE_STRONGEST);
+      payloads[i] = new byte[bb.remaining()];
+      bb.get(payloads[i]);
+      ports[i] = dataPort;
+    }
+    for (int i = packets; i < packets + 2; ++i) {
+      payloads[i] = new byte[] { 1, 2, 3 };
+      ports[i] = positionPort;
+    }
+    File file = new File("target/LidarVlp16Test/replay.pcap");
+    PcapReaderTest.writePcap(file, ports, payloads);
+
+    LidarVlp16 lidar = (LidarVlp16) Runtime.start("lidar", "LidarVlp16");
+    try {
+      lidar.setDataPort(dataPort);
+      lidar.setPositionPort(positionPort);
+      lidar.listen();
+      assertEquals(packets + 2, lidar.replay(file.getPath(), false));
+      for (int i = 0; i < 100 && (lidar.getPacketCount() < packets || lidar.getPositionPacketCount() < 2); ++i) {
+        Thread.sleep(20);
+      }
+      assertEquals(packets, lidar.getPacketCount());
+      assertEquals(2, lidar.getPositionPacketCount());
+      assertEquals(0, lidar.getBadPacketCount());
+      assertEquals(1, lidar.getSweepCount());
+    } finally {
+      lidar.releaseService();
+    }
+  }
+
+  @Test
+  public void testListenPortInUse() throws Exception {
+    LidarVlp16 lidar = (LidarVlp16) Runtime.start("lidar2", "LidarVlp16");
+    try (DatagramChannel taken = DatagramChannel.open()) {
+      // the position port can't be bound - the data channel must not be left
+      // open
+      taken.bind(new InetSocketAddress("0.0.0.0", 0));
+      int dataPort = freePort();
+      lidar.setDataPort(dataPort);
+      lidar.setPositionPort(((InetSocketAddress) taken.getLocalAddress()).getPort());
+      try {
+        lidar.listen();
+        fail("position port is in use");
+      } catch (IOException e) {
+        log.info("listen threw {}", e.getMessage());
+      }
+      assertFalse(lidar.isListening());
+      try (DatagramChannel data = DatagramChannel.open()) {
+        data.bind(new InetSocketAddress("0.0.0.0", dataPort));
+      }
+    } finally {
+      lidar.releaseService();
+    }
+  }
+
+}
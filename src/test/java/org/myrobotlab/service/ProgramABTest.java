@@ -5,15 +5,26 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.alicebot.ab.Bot;
+import org.alicebot.ab.Chat;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.io.FileIO;
 import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.programab.BotInfo;
+import org.myrobotlab.programab.BotSnapshot;
 import org.myrobotlab.programab.Response;
 import org.myrobotlab.service.data.Locale;
 import org.slf4j.Logger;
@@ -164,6 +175,141 @@ public class ProgramABTest extends AbstractServiceTest {
     assertEquals("BBB", resp.msg);
   }
 
+  /**
+   * N simulated users chat at the same time - each must only ever see its own
+   * predicates and its own requests must be answered in order. One more user
+   * teaches the bot while they chat.
+   */
+  @Test
+  public void concurrentSessionsTest() throws Exception {
+    ProgramAB lloyd = (ProgramAB) Runtime.start("concurrent", "ProgramAB");
+    lloyd.setPath(path);
+    lloyd.startService();
+    lloyd.startSession(path, username, botname);
+    String[] names = new String[] { "Kevin", "Grog", "Mats", "Ilya", "Anna", "Lena", "Hugo", "Otto" };
+    int rounds = 10;
+    String currentUser = lloyd.getCurrentUserName();
+    ExecutorService users = Executors.newFixedThreadPool(names.length + 1);
+    List<Future<Integer>> results = new ArrayList<>();
+    long start = System.currentTimeMillis();
+    Future<Integer> learned = users.submit(() -> {
+      int correct = 0;
+      for (int i = 0; i < rounds; ++i) {
+        lloyd.getResponseAsync("load-teacher", botname, "LEARN KEY" + i + " IS VALUE" + i);
+        Response resp = lloyd.getResponseAsync("load-teacher", botname, "WHAT IS KEY" + i).get();
+        if (("VALUE" + i).equals(resp.msg)) {
+          ++correct;
+        }
+      }
+      return correct;
+    });
+    for (String name : names) {
+      final String user = "load-" + name;
+      results.add(users.submit(() -> {
+        int correct = 0;
+        for (int i = 0; i < rounds; ++i) {
+          // queued back to back - the second must see the first's predicate
+          lloyd.getResponseAsync(user, botname, "My name is " + name);
+          Response resp = lloyd.getResponseAsync(user, botname, "What is my name?").get();
+          if (name.equals(resp.msg)) {
+            ++correct;
+          }
+          // the synchronous path shares the same session
+          resp = lloyd.getResponse(user, botname, "What is my name?", false);
+          if (name.equals(resp.msg)) {
+            ++correct;
+          }
+        }
+        return correct;
+      }));
+    }
+    for (Future<Integer> result : results) {
+      assertEquals(rounds * 2, result.get().intValue());
+    }
+    assertEquals(rounds, learned.get().intValue());
+    users.shutdown();
+    assertTrue(users.awaitTermination(10, TimeUnit.SECONDS));
+    long ms = System.currentTimeMillis() - start;
+    log.info("{} users {} requests in {} ms", names.length, names.length * rounds * 3, ms);
+    // the current session is not changed by other users
+    assertEquals(currentUser, lloyd.getCurrentUserName());
+    lloyd.releaseService();
+  }
+
+  /**
+   * cold aiml parse against loading the compiled snapshot
+   */
+  public void snapshotTest() throws Exception {
+    File botDir = new File(FileIO.gluePaths(path, "bots/" + botname));
+    // categories the bot learned with learnf
+    String learnf = "<aiml><category><pattern>SNAPSHOT LEARNF</pattern><template>learned</template></category></aiml>";
+    Files.write(new File(botDir, "aiml/learnf.aiml").toPath(), learnf.getBytes(StandardCharsets.UTF_8));
+    testService.setSnapshots(true);
+
+    long start = System.currentTimeMillis();
+    Bot parsed = new BotInfo(testService, botDir).getBot();
+    long parseMs = System.currentTimeMillis() - start;
+
+    // the first load writes the snapshot in the background
+    BotSnapshot snapshot = new BotSnapshot(botDir);
+    String hash = snapshot.hash();
+    for (int i = 0; i < 100 && !snapshot.isValid(hash); ++i) {
+      Thread.sleep(100);
+    }
+    assertTrue(snapshot.isValid(hash));
+
+    start = System.currentTimeMillis();
+    Bot loaded = new BotInfo(testService, botDir).getBot();
+    long loadMs = System.currentTimeMillis() - start;
+    log.info("cold parse {} ms snapshot load {} ms", parseMs, loadMs);
+
+    assertEquals(parsed.brain.getCategories().size(), loaded.brain.getCategories().size());
+    // graph membership is restored
+    assertTrue(loaded.learnfGraph.getCategories().size() > 0);
+    assertEquals(parsed.learnfGraph.getCategories().size(), loaded.learnfGraph.getCategories().size());
+    assertEquals(parsed.deletedGraph.getCategories().size(), loaded.deletedGraph.getCategories().size());
+    assertEquals(parsed.unfinishedGraph.getCategories().size(), loaded.unfinishedGraph.getCategories().size());
+    // and the bot writes back to its own directory
+    assertEquals(new File(botDir, "aiml").getAbsolutePath(), new File(loaded.aiml_path).getAbsolutePath());
+    // sets come from the snapshot too
+    Chat chat = new Chat(loaded);
+    assertEquals("An Animal.", chat.multisentenceRespond("SETTEST CAT"));
+    testService.setSnapshots(false);
+  }
+
+  public void responseCacheTest() throws Exception {
+    testService.setResponseCache(true);
+    testService.getResponse("cacheA", botname, "My name is Anna", false);
+    testService.getResponse("cacheB", botname, "My name is Otto", false);
+
+    // the key includes the predicates the template reads
+    assertEquals("Anna", testService.getResponse("cacheA", botname, "What is my name?", false).msg);
+    assertEquals("Otto", testService.getResponse("cacheB", botname, "What is my name?", false).msg);
+    assertEquals("Anna", testService.getResponse("cacheA", botname, "What is my name?", false).msg);
+
+    // shared between sessions - and through a literal srai
+    assertEquals("Hello user!", testService.getResponse("cacheA", botname, "HI", false).msg);
+    assertEquals("Hello user!", testService.getResponse("cacheB", botname, "HI", false).msg);
+    assertEquals("Hello user!", testService.getResponse("cacheB", botname, "GREETINGS", false).msg);
+
+    Map<String, Object> stats = testService.getResponseCacheStats(botname);
+    log.info("response cache {}", stats);
+    assertTrue((Long) stats.get("hits") >= 2);
+    assertTrue((Long) stats.get("uncacheable") >= 2);
+
+    testService.setPredicate("cacheA", botname, "name", "Hugo");
+    assertEquals("Hugo", testService.getResponse("cacheA", botname, "What is my name?", false).msg);
+
+    // set changes drop everything
+    testService.addToSet("animal", "cachecat");
+    assertEquals(0, testService.getResponseCacheStats(botname).get("entries"));
+    testService.setResponseCache(false);
+
+    Map<String, Object> bench = testService.benchmarkPatterns(botname);
+    assertEquals(testService.listPatterns(botname).size(), bench.get("patterns"));
+    assertTrue((Integer) bench.get("matched") > 0);
+  }
+
   @Test
   public void testMultiSession() throws IOException {
     ProgramAB lloyd = (ProgramAB)Runtime.start("lloyd", "ProgramAB");
@@ -268,6 +414,8 @@ public class ProgramABTest extends AbstractServiceTest {
     // pannousTest();
     addCategoryTest();
     sraixOOBTest();
+    snapshotTest();
+    responseCacheTest();
     // sraixTest();  sraix doesnt appear to work - wikipedia interface is borked on pannous bots
   }
 
@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Map;
 
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -18,10 +19,15 @@ import org.myrobotlab.document.Document;
 import org.myrobotlab.framework.Message;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.repo.Repo;
+import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.programab.Response;
+import org.slf4j.Logger;
 
 // @Ignore
 public class SolrTest extends AbstractServiceTest {
+
+  public final static Logger log = LoggerFactory.getLogger(SolrTest.class);
+
   //@Test
   public void testImageStoreFetch() throws SolrServerException, IOException {
     Solr solr = (Solr) Runtime.createAndStart("solr", "Solr");
@@ -128,6 +134,34 @@ public class SolrTest extends AbstractServiceTest {
     resp = solr.search(query);
     Assert.assertEquals(1, resp.getResults().getNumFound());
     
+    asyncIndexingTest(solr);
+  }
+
+  private void asyncIndexingTest(Solr solr) throws Exception {
+    solr.deleteEmbeddedIndex();
+    solr.setIndexing(50, 200, 2, 1000);
+    solr.setAsyncIndexing(true);
+    int count = 1000;
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < count; ++i) {
+      solr.addDocument(makeTestDoc("async_" + i));
+    }
+    long addMs = System.currentTimeMillis() - start;
+    // flush sends the partial batch, commitWithin makes them searchable
+    solr.onFlush();
+    Map<String, Object> stats = solr.getIndexerStats();
+    log.info("queued {} docs in {} ms - {}", count, addMs, stats);
+    Assert.assertEquals((long) count, stats.get("sent"));
+    Assert.assertEquals(0L, stats.get("failed"));
+    Assert.assertTrue((Long) stats.get("batches") >= count / 50);
+
+    long found = 0;
+    for (int i = 0; i < 50 && found < count; ++i) {
+      Thread.sleep(100);
+      found = solr.search("id:async_*").getResults().getNumFound();
+    }
+    Assert.assertEquals(count, found);
+    solr.setAsyncIndexing(false);
   }
 
 
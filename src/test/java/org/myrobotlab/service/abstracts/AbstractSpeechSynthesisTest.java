@@ -0,0 +1,69 @@
+package org.myrobotlab.service.abstracts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.service.Runtime;
+import org.myrobotlab.service.TestCatcher;
+import org.myrobotlab.test.AbstractTest;
+
+public class AbstractSpeechSynthesisTest extends AbstractTest {
+
+  /**
+   * later chunks are generated while the earlier ones play, they are still
+   * played in order and the time to first audio and gaps are published
+   */
+  @Test
+  public void testPipeline() throws Exception {
+    MockSpeechSynthesis speech = (MockSpeechSynthesis) Runtime.start("mockSpeech", MockSpeechSynthesis.class.getCanonicalName());
+    TestCatcher catcher = (TestCatcher) Runtime.start("speechCatcher", "TestCatcher");
+    try {
+      speech.getAudioCache().clear();
+      speech.setPipelineDepth(2);
+      catcher.subscribe(speech.getName(), "publishTimeToFirstAudio");
+      catcher.subscribe(speech.getName(), "publishInterChunkGap");
+
+      speech.speakBlocking("one. two. three.");
+
+      List<String> events = new ArrayList<String>(speech.events);
+      List<String> played = new ArrayList<String>();
+      for (String event : events) {
+        if (event.startsWith("play start ")) {
+          played.add(event.substring("play start ".length()));
+        }
+      }
+      assertEquals("[one., two., three.]", played.toString());
+      // the second chunk was generated while the first one was playing
+      assertTrue(events.toString(), events.indexOf("generate start two.") < events.indexOf("play end one."));
+      assertTrue(events.toString(), events.indexOf("generate end three.") < events.indexOf("play end two."));
+
+      catcher.waitForMsgs(3, 5000);
+      Long timeToFirstAudio = null;
+      List<Long> gaps = new ArrayList<Long>();
+      for (Message msg : catcher.msgs) {
+        if (msg.method.equals("onTimeToFirstAudio")) {
+          timeToFirstAudio = (Long) msg.data[0];
+        } else if (msg.method.equals("onInterChunkGap")) {
+          gaps.add((Long) msg.data[0]);
+        }
+      }
+      // only the first chunk's generation is waited for
+      assertTrue(String.format("time to first audio %d", timeToFirstAudio), timeToFirstAudio >= speech.generateMs);
+      assertEquals(2, gaps.size());
+      for (Long gap : gaps) {
+        // the next chunk was ready when the previous one ended
+        assertTrue(String.format("gap %d", gap), gap >= 0 && gap < speech.generateMs);
+      }
+    } finally {
+      speech.getAudioCache().clear();
+      Runtime.release(speech.getName());
+      Runtime.release(catcher.getName());
+    }
+  }
+
+}
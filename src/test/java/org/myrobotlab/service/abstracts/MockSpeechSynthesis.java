@@ -0,0 +1,62 @@
+package org.myrobotlab.service.abstracts;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.myrobotlab.framework.Service;
+import org.myrobotlab.framework.ServiceType;
+import org.myrobotlab.service.data.AudioData;
+
+/**
+ * A speech synthesis stub - generating takes generateMs and playing takes
+ * playMs, no sound is made. Every generation and playback start and end is
+ * recorded in order in events.
+ */
+public class MockSpeechSynthesis extends AbstractSpeechSynthesis {
+
+  private static final long serialVersionUID = 1L;
+
+  public long generateMs = 200;
+  public long playMs = 300;
+
+  public final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+  public MockSpeechSynthesis(String n, String id) {
+    super(n, id);
+  }
+
+  @Override
+  public AudioData generateAudioData(AudioData audioData, String toSpeak) throws Exception {
+    events.add("generate start " + toSpeak);
+    Service.sleep(generateMs);
+    Files.write(Paths.get(audioData.getFileName()), toSpeak.getBytes());
+    events.add("generate end " + toSpeak);
+    return audioData;
+  }
+
+  @Override
+  AudioData play(AudioData data, boolean block) {
+    String text = utterances.get(data);
+    events.add("play start " + text);
+    onAudioStart(data);
+    Service.sleep(playMs);
+    onAudioEnd(data);
+    events.add("play end " + text);
+    return data;
+  }
+
+  @Override
+  protected void loadVoices() {
+    addVoice("Mock", "female", "en", "mock");
+  }
+
+  static public ServiceType getMetaData() {
+    ServiceType meta = AbstractSpeechSynthesis.getMetaData(MockSpeechSynthesis.class.getCanonicalName());
+    meta.addDescription("speech synthesis stub for testing");
+    return meta;
+  }
+
+}